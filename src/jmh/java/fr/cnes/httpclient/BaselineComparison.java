@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the results of a benchmark run with a baseline and reports the regressions.
+ *
+ * Both files are written by JMH in CSV format (-rf csv). The primary score of each benchmark
+ * and its allocation per operation (gc.alloc.rate.norm) are compared, the other secondary
+ * results depend too much on the machine load. A result is a regression when it is worse than
+ * the baseline by more than the threshold and by more than the sum of the two score errors, so
+ * that a noisy run does not fail the build. The benchmarks missing from the run are ignored,
+ * so that a subset can be compared with a full baseline.
+ * <p>
+ * Usage : BaselineComparison baseline.csv results.csv [threshold in %] [report file]. The
+ * process exits with 1 when a regression is found. Without baseline, the comparison is skipped
+ * : the results of a run on the reference machine are copied to the baseline file to record
+ * it.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class BaselineComparison {
+
+    /**
+     * Default threshold in % of the baseline {@value #DEFAULT_THRESHOLD}.
+     */
+    public static final double DEFAULT_THRESHOLD = 10.0;
+
+    /**
+     * Suffix of the allocation per operation given by the gc profiler.
+     */
+    private static final String ALLOCATION_SUFFIX = ":\u00b7gc.alloc.rate.norm";
+
+    /**
+     * Separator of the secondary results in the benchmark names.
+     */
+    private static final String SECONDARY_SEPARATOR = ":\u00b7";
+
+    /**
+     * Mode of the throughput benchmarks, for which a higher score is better.
+     */
+    private static final String THROUGHPUT = "thrpt";
+
+    /**
+     * Smallest change in bytes per operation reported for the allocations, which is the size of
+     * the smallest object on a 64-bit JVM.
+     */
+    private static final double MIN_ALLOCATION_CHANGE = 16.0;
+
+    /**
+     * Prefix of the parameter columns.
+     */
+    private static final String PARAM_PREFIX = "Param: ";
+
+    /**
+     * Utility class.
+     */
+    private BaselineComparison() {
+    }
+
+    /**
+     * Compares the results with the baseline.
+     *
+     * @param args baseline file, results file, threshold in % and report file
+     * @throws IOException When a file cannot be read or the report cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison baseline.csv results.csv "
+                    + "[threshold in %] [report file]");
+            System.exit(2);
+        }
+        final Path baselineFile = Paths.get(args[0]);
+        final Path resultsFile = Paths.get(args[1]);
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2])
+                : DEFAULT_THRESHOLD;
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline " + baselineFile + ", the comparison is skipped. "
+                    + "Copy " + resultsFile + " to " + baselineFile + " to record it.");
+            return;
+        }
+        final List<String> report = new ArrayList<>();
+        final int regressionCount = compare(read(baselineFile), read(resultsFile), threshold,
+                report);
+        report.add(regressionCount + " regression(s) above " + threshold + "% of " + baselineFile);
+        for (final String line : report) {
+            System.out.println(line);
+        }
+        if (args.length > 3) {
+            Files.write(Paths.get(args[3]), report, StandardCharsets.UTF_8);
+        }
+        if (regressionCount > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares the results with the baseline and adds a line per result to the report.
+     *
+     * @param baseline results of the baseline by key
+     * @param results results of the run by key
+     * @param threshold threshold in % of the baseline
+     * @param report lines of the report
+     * @return the number of regressions
+     */
+    static int compare(final Map<String, Result> baseline, final Map<String, Result> results,
+            final double threshold, final List<String> report) {
+        int width = "Benchmark".length();
+        for (final String key : results.keySet()) {
+            width = Math.max(width, key.length());
+        }
+        final String column = "%-" + width + "s";
+        report.add(String.format(Locale.ROOT, column + " %14s %14s %9s  %s", "Benchmark",
+                "Baseline", "Current", "Change", "Status"));
+        int regressionCount = 0;
+        for (final Map.Entry<String, Result> entry : results.entrySet()) {
+            final Result current = entry.getValue();
+            final Result reference = baseline.get(entry.getKey());
+            if (reference == null) {
+                report.add(String.format(Locale.ROOT, column + " %14s %14.3f %9s  %s",
+                        entry.getKey(), "-", current.score, "-", "NEW"));
+                continue;
+            }
+            // positive when the result is worse than the baseline
+            final double worsening = current.isHigherBetter() ? reference.score - current.score
+                    : current.score - reference.score;
+            final double margin = Math.max(threshold / 100.0 * Math.abs(reference.score),
+                    reference.error + current.error);
+            final double minChange = current.isAllocation() ? MIN_ALLOCATION_CHANGE : 0.0;
+            final String status;
+            if (worsening > margin && worsening > minChange) {
+                status = "REGRESSION";
+                regressionCount++;
+            } else if (-worsening > margin && -worsening > minChange) {
+                status = "IMPROVEMENT";
+            } else {
+                status = "OK";
+            }
+            final double change = reference.score == 0 ? 0
+                    : (current.score - reference.score) / Math.abs(reference.score) * 100.0;
+            report.add(String.format(Locale.ROOT, column + " %14.3f %14.3f %+8.1f%%  %s",
+                    entry.getKey(), reference.score, current.score, change, status));
+        }
+        return regressionCount;
+    }
+
+    /**
+     * Reads the primary results and the allocations per operation of a CSV file of JMH.
+     *
+     * @param file CSV file
+     * @return the results by key : benchmark, parameters and unit
+     * @throws IOException When the file cannot be read
+     */
+    static Map<String, Result> read(final Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        final Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        final List<String> header = split(lines.get(0));
+        final int name = header.indexOf("Benchmark");
+        final int mode = header.indexOf("Mode");
+        final int score = header.indexOf("Score");
+        final int error = header.indexOf("Score Error (99.9%)");
+        final int unit = header.indexOf("Unit");
+        for (final String line : lines.subList(1, lines.size())) {
+            final List<String> columns = split(line);
+            final String benchmark = columns.get(name);
+            if (benchmark.contains(SECONDARY_SEPARATOR) && !benchmark.endsWith(ALLOCATION_SUFFIX)) {
+                continue;
+            }
+            final List<String> params = new ArrayList<>();
+            for (int i = 0; i < header.size() && i < columns.size(); i++) {
+                if (header.get(i).startsWith(PARAM_PREFIX) && !columns.get(i).isEmpty()) {
+                    params.add(header.get(i).substring(PARAM_PREFIX.length()) + "="
+                            + columns.get(i));
+                }
+            }
+            final String key = benchmark + (params.isEmpty() ? "" : " ("
+                    + String.join(", ", params) + ")") + " " + columns.get(unit);
+            results.put(key, new Result(columns.get(mode), columns.get(unit),
+                    parse(columns.get(score)), parse(columns.get(error))));
+        }
+        return results;
+    }
+
+    /**
+     * Splits a CSV line, the quotes around the values are removed.
+     *
+     * @param line CSV line
+     * @return the values
+     */
+    private static List<String> split(final String line) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                if (isQuoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append(c);
+                    i++;
+                } else {
+                    isQuoted = !isQuoted;
+                }
+            } else if (c == ',' && !isQuoted) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Parses a score, NaN (no error given for a single iteration) is read as 0.
+     *
+     * @param value value
+     * @return the score
+     */
+    private static double parse(final String value) {
+        final double number = Double.parseDouble(value);
+        return Double.isNaN(number) ? 0 : number;
+    }
+
+    /**
+     * Result of a benchmark.
+     */
+    static final class Result {
+
+        /**
+         * Benchmark mode.
+         */
+        private final String mode;
+
+        /**
+         * Unit of the score.
+         */
+        private final String unit;
+
+        /**
+         * Score.
+         */
+        private final double score;
+
+        /**
+         * Error of the score.
+         */
+        private final double error;
+
+        /**
+         * Creates a result.
+         *
+         * @param mode benchmark mode
+         * @param unit unit of the score
+         * @param score score
+         * @param error error of the score
+         */
+        Result(final String mode, final String unit, final double score, final double error) {
+            this.mode = mode;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+        }
+
+        /**
+         * Returns true when the result is an allocation per operation.
+         *
+         * @return true when the unit is B/op otherwise false
+         */
+        boolean isAllocation() {
+            return "B/op".equals(this.unit);
+        }
+
+        /**
+         * Returns true when a higher score is better, which is the case of the throughput.
+         *
+         * @return true when a higher score is better otherwise false
+         */
+        boolean isHigherBetter() {
+            return THROUGHPUT.equals(this.mode) && !isAllocation();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the logging of the request path when the TRACE and DEBUG levels are disabled.
+ *
+ * The concatenated message is allocated even if nothing is logged. The array of parameters of
+ * an unguarded traceEntry is only removed by the JIT when the call is inlined, which is not the
+ * case in the large methods of the request path. The guarded calls must give 0 for
+ * gc.alloc.rate.norm of the gc profiler.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+
+    /**
+     * Logger of the request path, disabled by the test configuration.
+     */
+    private static final Logger LOG = LogManager.getLogger(ProxyRoutePlanner.class.getName());
+
+    /**
+     * Target host.
+     */
+    private HttpHost host;
+
+    /**
+     * Request.
+     */
+    private HttpRequest request;
+
+    /**
+     * Context.
+     */
+    private HttpClientContext context;
+
+    /**
+     * Route planner.
+     */
+    private ProxyRoutePlanner planner;
+
+    /**
+     * Creates the request and the route planner.
+     */
+    @Setup
+    public void setUp() {
+        this.host = new HttpHost("www.example.org", 8080, "http");
+        this.request = new BasicHttpRequest("GET", "/");
+        this.context = HttpClientContext.create();
+        this.planner = new ProxyRoutePlanner(new HttpHost("proxy.example.org", 3128),
+                Collections.singletonList("localhost"));
+    }
+
+    /**
+     * Calls traceEntry with parameters without checking the level.
+     */
+    @Benchmark
+    public void unguardedTraceEntry() {
+        LOG.traceEntry("host: {}\nrequest: {}\ncontext: {}", this.host, this.request,
+                this.context);
+    }
+
+    /**
+     * Calls traceEntry with parameters when the level is enabled.
+     */
+    @Benchmark
+    public void guardedTraceEntry() {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("host: {}\nrequest: {}\ncontext: {}", this.host, this.request,
+                    this.context);
+        }
+    }
+
+    /**
+     * Calls debug with a concatenated message.
+     */
+    @Benchmark
+    public void concatenatedDebug() {
+        LOG.debug(this.host.getHostName() + " uses the proxy");
+    }
+
+    /**
+     * Calls debug with a parameterized message.
+     */
+    @Benchmark
+    public void parameterizedDebug() {
+        LOG.debug("{} uses the proxy", this.host.getHostName());
+    }
+
+    /**
+     * Determines the route of a request, the only allocations are the ones of the route.
+     *
+     * @param blackhole blackhole
+     * @throws HttpException When the route cannot be determined
+     */
+    @Benchmark
+    public void determineRoute(final Blackhole blackhole) throws HttpException {
+        final HttpRoute route = this.planner.determineRoute(this.host, this.request,
+                this.context);
+        blackhole.consume(route);
+    }
+
+}
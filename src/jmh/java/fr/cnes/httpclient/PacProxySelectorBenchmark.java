@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.net.Proxy;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Proxy decisions per second of the PAC selector, with and without the cache of the decisions.
+ *
+ * The PAC script is modelled on an enterprise PAC file : plain host names, internal domains,
+ * private networks, per-site proxies and a default list of two proxies. The IP ranges are only
+ * checked for IP literals so that the benchmark does not depend on the DNS.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacProxySelectorBenchmark {
+
+    /**
+     * PAC script.
+     */
+    private static final String PAC = "function FindProxyForURL(url, host) {\n"
+            + "    host = host.toLowerCase();\n"
+            + "    if (isPlainHostName(host) || host == \"127.0.0.1\") return \"DIRECT\";\n"
+            + "    if (localHostOrDomainIs(host, \"localhost.localdomain\")) return \"DIRECT\";\n"
+            + "    var internal = [\".cnes.fr\", \".intranet.example.org\", \".corp.example.org\",\n"
+            + "        \".lab.example.org\", \".dev.example.org\", \".test.example.org\"];\n"
+            + "    for (var i = 0; i < internal.length; i++) {\n"
+            + "        if (dnsDomainIs(host, internal[i])) return \"DIRECT\";\n"
+            + "    }\n"
+            + "    if (/^\\d+\\.\\d+\\.\\d+\\.\\d+$/.test(host)) {\n"
+            + "        if (isInNet(host, \"10.0.0.0\", \"255.0.0.0\")\n"
+            + "                || isInNet(host, \"172.16.0.0\", \"255.240.0.0\")\n"
+            + "                || isInNet(host, \"192.168.0.0\", \"255.255.0.0\")) {\n"
+            + "            return \"DIRECT\";\n"
+            + "        }\n"
+            + "        return \"PROXY proxy1.example.org:3128; PROXY proxy2.example.org:3128\";\n"
+            + "    }\n"
+            + "    if (shExpMatch(host, \"*.windowsupdate.com\")\n"
+            + "            || shExpMatch(host, \"*.update.microsoft.com\")) {\n"
+            + "        return \"PROXY update-proxy.example.org:8080; DIRECT\";\n"
+            + "    }\n"
+            + "    if (shExpMatch(host, \"*.esa.int\") || shExpMatch(host, \"*.nasa.gov\")\n"
+            + "            || shExpMatch(host, \"*.eumetsat.int\")) {\n"
+            + "        return \"PROXY science-proxy.example.org:3128\";\n"
+            + "    }\n"
+            + "    if (shExpMatch(url, \"ftp:*\")) return \"PROXY ftp-proxy.example.org:2121\";\n"
+            + "    if (dnsDomainIs(host, \".github.com\") || dnsDomainIs(host, \".maven.org\")\n"
+            + "            || dnsDomainIs(host, \".npmjs.org\") || dnsDomainIs(host, \".pypi.org\")) {\n"
+            + "        return \"PROXY dev-proxy.example.org:3128; PROXY proxy1.example.org:3128\";\n"
+            + "    }\n"
+            + "    if (shExpMatch(host, \"*.partner?.example.com\")) {\n"
+            + "        return \"PROXY partner-proxy.example.org:3128\";\n"
+            + "    }\n"
+            + "    if (dnsDomainLevels(host) > 5) return \"PROXY proxy2.example.org:3128\";\n"
+            + "    return \"PROXY proxy1.example.org:3128; PROXY proxy2.example.org:3128\";\n"
+            + "}";
+
+    /**
+     * Targets of the requests.
+     */
+    private static final String[] TARGETS = {
+        "http://intranet/", "https://wiki.intranet.example.org/", "http://10.1.2.3:8080/",
+        "https://8.8.8.8/", "http://download.windowsupdate.com/", "https://earth.esa.int/",
+        "ftp://ftp.example.com/", "https://repo1.maven.org/", "https://api.partner1.example.com/",
+        "https://www.example.com/", "https://www.cnes.fr/", "http://a.b.c.d.example.com/"
+    };
+
+    /**
+     * Maximum number of cached decisions, 0 to evaluate the script for each request.
+     */
+    @Param({"0", "1024"})
+    private int cacheSize;
+
+    /**
+     * PAC selector.
+     */
+    private PacProxySelector selector;
+
+    /**
+     * Targets of the requests.
+     */
+    private URI[] uris;
+
+    /**
+     * Index of the next target.
+     */
+    private int index;
+
+    /**
+     * Compiles the PAC script.
+     */
+    @Setup
+    public void setUp() {
+        this.selector = new PacProxySelector(PAC, this.cacheSize,
+                PacProxySelector.DEFAULT_CACHE_TTL_MS, PacProxySelector.DEFAULT_RETRY_MS);
+        this.uris = new URI[TARGETS.length];
+        for (int i = 0; i < TARGETS.length; i++) {
+            this.uris[i] = URI.create(TARGETS[i]);
+        }
+    }
+
+    /**
+     * Selects the proxies of the next target.
+     *
+     * @return the proxies
+     */
+    @Benchmark
+    public List<Proxy> select() {
+        this.index = (this.index + 1) % this.uris.length;
+        return this.selector.select(this.uris[this.index]);
+    }
+
+}
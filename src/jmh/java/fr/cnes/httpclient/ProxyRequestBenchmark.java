@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxyConfiguration;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link HttpClient#execute} through an in-process proxy, without authentication or
+ * with the Basic authentication.
+ *
+ * The proxy answers the requests itself instead of forwarding them, so that only the client
+ * side, the loopback round-trips and the 407 challenges are measured. Without a shared context,
+ * the authentication state is lost after each request and the proxy challenges every request.
+ * The number of challenges is printed at the end of each trial.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyRequestBenchmark {
+
+    /**
+     * User of the proxy.
+     */
+    private static final String USERNAME = "bench";
+
+    /**
+     * Password of the user.
+     */
+    private static final String PASSWORD = "secret";
+
+    /**
+     * Body of the responses.
+     */
+    private static final byte[] BODY = "OK".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * True when the proxy requires the Basic authentication, false otherwise.
+     */
+    @Param({"false", "true"})
+    public boolean authenticated;
+
+    /**
+     * True when the requests share their context, false to execute each request with a new
+     * context.
+     */
+    @Param({"false", "true"})
+    public boolean sharedContext;
+
+    /**
+     * In-process proxy.
+     */
+    private HttpServer proxy;
+
+    /**
+     * Client sending the requests through the proxy.
+     */
+    private HttpClient client;
+
+    /**
+     * Request.
+     */
+    private HttpGet request;
+
+    /**
+     * Context shared by the requests.
+     */
+    private HttpContext context;
+
+    /**
+     * Expected value of the Proxy-Authorization header.
+     */
+    private String credentials;
+
+    /**
+     * Number of 407 responses.
+     */
+    private final AtomicLong challengeCount = new AtomicLong();
+
+    /**
+     * Starts the proxy and creates the client.
+     *
+     * @throws IOException When the proxy cannot be started
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.credentials = "Basic " + Base64.encodeBase64String((USERNAME + ":" + PASSWORD)
+                .getBytes(StandardCharsets.US_ASCII));
+        // Sends the responses without waiting for the delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.proxy = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                0), 0);
+        this.proxy.createContext("/", this::handle);
+        this.proxy.start();
+        final Map<String, String> config = new HashMap<>();
+        config.put(ProxyConfiguration.HTTP_PROXY.getKey(), "127.0.0.1:"
+                + this.proxy.getAddress().getPort());
+        config.put(ProxyConfiguration.NO_PROXY.getKey(), "");
+        config.put(ProxyConfiguration.USERNAME.getKey(), this.authenticated ? USERNAME : "");
+        config.put(ProxyConfiguration.PASSWORD.getKey(), this.authenticated ? PASSWORD : "");
+        this.client = HttpClientFactory.create(Type.PROXY_BASIC, false, config);
+        this.request = new HttpGet("http://www.example.org/");
+        this.context = HttpClientContext.create();
+    }
+
+    /**
+     * Closes the client, stops the proxy and prints the number of challenges.
+     *
+     * @throws IOException When the client cannot be closed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.proxy.stop(0);
+        System.out.println("Proxy challenges: " + this.challengeCount.get());
+    }
+
+    /**
+     * Answers a request : 407 when the credentials are required and missing, 200 otherwise.
+     *
+     * @param exchange exchange
+     * @throws IOException When the response cannot be sent
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        final int status;
+        if (this.authenticated && !this.credentials.equals(
+                exchange.getRequestHeaders().getFirst(AUTH.PROXY_AUTH_RESP))) {
+            this.challengeCount.incrementAndGet();
+            exchange.getResponseHeaders().add(AUTH.PROXY_AUTH, "Basic realm=\"benchmark\"");
+            status = HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED;
+        } else {
+            status = HttpStatus.SC_OK;
+        }
+        // The server closes the connection after a response without body
+        exchange.sendResponseHeaders(status, BODY.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(BODY);
+        }
+    }
+
+    /**
+     * Sends a request through the proxy and consumes the response.
+     *
+     * @return the response
+     * @throws IOException in case of a problem or the connection was aborted
+     */
+    @Benchmark
+    public HttpResponse execute() throws IOException {
+        final HttpResponse response = this.client.execute(this.request,
+                this.sharedContext ? this.context : HttpClientContext.create());
+        EntityUtils.consume(response.getEntity());
+        return response;
+    }
+
+}
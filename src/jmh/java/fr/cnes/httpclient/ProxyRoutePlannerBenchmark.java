@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.message.BasicHttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routes per second of the route planner of {@link AbstractProxyHttpClient}, with one proxy or
+ * a pool of proxies, with and without the cache of the routes.
+ *
+ * The no_proxy list is modelled on an enterprise configuration : hosts, domains, IP ranges and
+ * patterns. The targets mix excluded hosts and hosts reached through the proxy, over HTTP and
+ * HTTPS.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyRoutePlannerBenchmark {
+
+    /**
+     * Hosts for which the proxy is not needed.
+     */
+    private static final List<String> NO_PROXY = Arrays.asList("localhost", "127.0.0.1",
+            "intranet", ".cnes.fr", ".intranet.example.org", "*.corp.example.org",
+            "10.0.0.0/8", "172.16.0.0/12", "192.168.*", "fd00::/8", "build-*.example.org");
+
+    /**
+     * Targets of the requests.
+     */
+    private static final String[] TARGETS = {
+        "http://intranet:8080", "https://wiki.intranet.example.org", "http://10.1.2.3:8080",
+        "https://8.8.8.8", "https://www.example.com", "https://www.cnes.fr",
+        "http://build-42.example.org", "https://repo1.maven.org", "http://www.esa.int",
+        "https://api.partner1.example.com", "https://git.corp.example.org", "http://example.net"
+    };
+
+    /**
+     * Number of proxies, a proxy is selected for each request when there are several.
+     */
+    @Param({"1", "3"})
+    public int proxyCount;
+
+    /**
+     * Maximum number of cached routes, 0 to determine the route of each request.
+     */
+    @Param({"0", "1024"})
+    public int cacheSize;
+
+    /**
+     * Pool of proxies.
+     */
+    private ProxyPool pool;
+
+    /**
+     * Route planner.
+     */
+    private ProxyRoutePlanner planner;
+
+    /**
+     * Targets of the requests.
+     */
+    private HttpHost[] hosts;
+
+    /**
+     * Request.
+     */
+    private HttpRequest request;
+
+    /**
+     * Context.
+     */
+    private HttpClientContext context;
+
+    /**
+     * Index of the next target.
+     */
+    private int index;
+
+    /**
+     * Creates the route planner.
+     */
+    @Setup
+    public void setUp() {
+        final List<HttpHost> proxies = new ArrayList<>();
+        for (int i = 1; i <= this.proxyCount; i++) {
+            proxies.add(new HttpHost("proxy" + i + ".example.org", 3128));
+        }
+        this.pool = new ProxyPool(proxies, ProxyPool.DEFAULT_MAX_FAILURES,
+                ProxyPool.DEFAULT_EJECTION_MS, 0);
+        this.planner = new ProxyRoutePlanner(this.pool, NO_PROXY, this.cacheSize);
+        this.hosts = new HttpHost[TARGETS.length];
+        for (int i = 0; i < TARGETS.length; i++) {
+            this.hosts[i] = HttpHost.create(TARGETS[i]);
+        }
+        this.request = new BasicHttpRequest("GET", "/");
+        this.context = HttpClientContext.create();
+    }
+
+    /**
+     * Stops the pool of proxies.
+     */
+    @TearDown
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    /**
+     * Determines the route of the next target.
+     *
+     * @return the route
+     * @throws HttpException When the route cannot be determined
+     */
+    @Benchmark
+    public HttpRoute determineRoute() throws HttpException {
+        this.index = (this.index + 1) % this.hosts.length;
+        return this.planner.determineRoute(this.hosts[this.index], this.request, this.context);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a client created for a single request to an in-process HTTPS server, with the SSL
+ * context shared by the clients or created for each client.
+ *
+ * With a shared context, only the first connection does a full TLS handshake, the next ones
+ * resume the cached session. The handshake counts are printed at the end of each trial.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+
+    /**
+     * Password of the test keystore.
+     */
+    private static final String PASSWORD = "changeit";
+
+    /**
+     * True when the clients share the SSL context, false to create a context for each client.
+     */
+    @Param({"true", "false"})
+    private boolean shared;
+
+    /**
+     * In-process HTTPS server.
+     */
+    private HttpsServer server;
+
+    /**
+     * Options of the clients.
+     */
+    private Map<String, String> config;
+
+    /**
+     * Request closing the connection.
+     */
+    private HttpGet request;
+
+    /**
+     * Number of full handshakes.
+     */
+    private long fullHandshakeCount;
+
+    /**
+     * Number of resumed handshakes.
+     */
+    private long resumedHandshakeCount;
+
+    /**
+     * Starts the HTTPS server.
+     *
+     * @throws IOException When the server cannot be started
+     * @throws GeneralSecurityException When the keystore cannot be loaded
+     */
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        final KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream input = TlsHandshakeBenchmark.class.getResourceAsStream(
+                "/tls-server.p12")) {
+            ks.load(input, PASSWORD.toCharArray());
+        }
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, PASSWORD.toCharArray());
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        // Sends the small TLS records of the server without waiting for the delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                0), 0);
+        this.server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        this.server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        this.server.start();
+        this.config = new HashMap<>();
+        this.config.put(HttpClient.TRUSTSTORE_TYPE, "PKCS12");
+        this.config.put(HttpClient.TRUSTSTORE_PATH,
+                TlsHandshakeBenchmark.class.getResource("/tls-server.p12").getPath());
+        this.config.put(HttpClient.TRUSTSTORE_PWD, PASSWORD);
+        this.request = new HttpGet("https://localhost:" + this.server.getAddress().getPort()
+                + "/");
+        this.request.setHeader("Connection", "close");
+    }
+
+    /**
+     * Stops the HTTPS server and prints the handshake counts.
+     */
+    @TearDown
+    public void tearDown() {
+        this.server.stop(0);
+        SSLContextCache.getInstance().invalidate();
+        System.out.println("Full handshakes: " + this.fullHandshakeCount
+                + ", resumed handshakes: " + this.resumedHandshakeCount);
+    }
+
+    /**
+     * Creates a client and sends one request.
+     *
+     * @return the response
+     * @throws IOException in case of a problem or the connection was aborted
+     */
+    @Benchmark
+    public HttpResponse clientPerRequest() throws IOException {
+        if (!this.shared) {
+            SSLContextCache.getInstance().invalidate();
+        }
+        try (HttpClient client = new HttpClient(false, this.config)) {
+            final HttpResponse response = client.execute(this.request);
+            EntityUtils.consumeQuietly(response.getEntity());
+            this.fullHandshakeCount += client.getTlsSessionMetrics().getFullHandshakeCount();
+            this.resumedHandshakeCount += client.getTlsSessionMetrics()
+                    .getResumedHandshakeCount();
+            return response;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the creation of the security context of a handshake, as it was done for each token
+ * and as it is done by the GSS client that {@link SPNegoScheme} creates for each connection.
+ *
+ * The GSS client is created for each operation, so that a target rebuilt per client would be
+ * measured. The KDC is not contacted : only the part of the handshake done before
+ * initSecContext is measured.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GSSTargetBenchmark {
+
+    /**
+     * Service principal name.
+     */
+    @Param("HTTP@localhost")
+    public String spn;
+
+    /**
+     * Configuration of the GSS clients.
+     */
+    private Map<String, String> config;
+
+    /**
+     * Configures a fake realm.
+     */
+    @Setup
+    public void setUp() {
+        System.setProperty("java.security.krb5.realm", "EXAMPLE.ORG");
+        System.setProperty("java.security.krb5.kdc", "localhost");
+        this.config = Collections.singletonMap(
+                ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey(), this.spn);
+    }
+
+    /**
+     * Creates the context as it was done for each token : mechanism, manager, name and
+     * canonicalization.
+     *
+     * @param blackhole blackhole
+     * @throws GSSException When the context cannot be created
+     */
+    @Benchmark
+    public void perToken(final Blackhole blackhole) throws GSSException {
+        final Oid oid = new Oid(GSSTarget.SPNEGO_OID);
+        final GSSManager manager = GSSManager.getInstance();
+        final GSSName serverName = manager.createName(this.spn, GSSName.NT_HOSTBASED_SERVICE);
+        final GSSContext context = manager.createContext(serverName.canonicalize(oid), oid, null,
+                GSSContext.DEFAULT_LIFETIME);
+        blackhole.consume(context);
+        context.dispose();
+    }
+
+    /**
+     * Creates the GSS client of a new scheme and the context from its target.
+     *
+     * @param blackhole blackhole
+     * @throws GSSException When the context cannot be created
+     */
+    @Benchmark
+    public void perScheme(final Blackhole blackhole) throws GSSException {
+        final AbstractGSSClient gssClient = GSSClientFactory.create(Type.PROXY_SPNEGO_API,
+                this.config);
+        final GSSContext context = gssClient.getTarget().createContext();
+        blackhole.consume(context);
+        context.dispose();
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import java.util.concurrent.TimeUnit;
+import org.ietf.jgss.GSSException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link AbstractGSSClient#generateGSSToken()} once the client is logged in and holds
+ * the service ticket : creation of the security context, encryption of the authenticator and
+ * SPNEGO encoding of the initial token.
+ *
+ * The tickets are issued by {@link InProcessKDC}, so that neither the login nor the TGS exchange
+ * is measured. Their duration is given by the KDC_LOGIN and INIT_SEC_CONTEXT_WITH_TGS timers of
+ * {@link fr.cnes.metrics.Metrics}.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GSSTokenBenchmark {
+
+    /**
+     * Lifetime in ms of the issued tickets, longer than a run.
+     */
+    private static final long LIFETIME_MS = 3_600_000L;
+
+    /**
+     * Service principal name.
+     */
+    @Param("HTTP@localhost")
+    public String spn;
+
+    /**
+     * GSS client logged in.
+     */
+    private AbstractGSSClient gssClient;
+
+    /**
+     * Logs the client in the in-process KDC.
+     *
+     * @throws GSSException When the client cannot be logged in
+     */
+    @Setup
+    public void setUp() throws GSSException {
+        this.gssClient = GSSClientFactory.create(Type.PROXY_SPNEGO_API,
+                new InProcessKDC().login("bench", this.spn, LIFETIME_MS));
+    }
+
+    /**
+     * Logs the client out.
+     */
+    @TearDown
+    public void tearDown() {
+        KerberosSubjectCache.getInstance().clear();
+        ServiceTicketCache.getInstance().clear();
+    }
+
+    /**
+     * Generates an initial token.
+     *
+     * @return the token
+     * @throws GSSException When the token cannot be generated
+     */
+    @Benchmark
+    public byte[] generateGSSToken() throws GSSException {
+        return this.gssClient.generateGSSToken();
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.ietf.jgss.GSSException;
+
+/**
+ * KDC running in the benchmark process, which issues the TGT and the service ticket of a client
+ * without any network exchange.
+ *
+ * The tickets are DER encoded as the ones of a real KDC but their encrypted part is random :
+ * the client never decrypts a ticket, it only encrypts its authenticator with the session key,
+ * so that the whole client side of the SPNEGO handshake is measured. The proxy cannot verify
+ * the tokens built with these tickets.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class InProcessKDC {
+
+    /**
+     * Realm of the principals.
+     */
+    public static final String REALM = "EXAMPLE.ORG";
+
+    /**
+     * Type of the session keys : aes128-cts-hmac-sha1-96.
+     */
+    private static final int AES128_CTS_HMAC_SHA1_96 = 17;
+
+    /**
+     * Size of the session keys in bytes.
+     */
+    private static final int KEY_SIZE = 16;
+
+    /**
+     * Kerberos version of the tickets.
+     */
+    private static final int TICKET_VERSION = 5;
+
+    /**
+     * Principal name type of the services (NT-SRV-INST).
+     */
+    private static final int NT_SRV_INST = 2;
+
+    /**
+     * Index of the INITIAL flag of the TGT.
+     */
+    private static final int INITIAL_FLAG = 9;
+
+    /**
+     * Number of ticket flags.
+     */
+    private static final int FLAG_COUNT = 32;
+
+    /**
+     * Random generator of the session keys and of the encrypted parts.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Configures the realm of the JVM so that the service names are resolved without krb5.conf.
+     * The KDC address is never contacted as long as the subjects hold their service tickets.
+     */
+    public InProcessKDC() {
+        System.setProperty("java.security.krb5.realm", REALM);
+        System.setProperty("java.security.krb5.kdc", "localhost");
+    }
+
+    /**
+     * Logs the client in : the subject issued for the client and the service is put in the
+     * cache of the subjects, so that the GSS clients created from the returned configuration
+     * use it instead of contacting a KDC.
+     *
+     * @param client client name without realm
+     * @param spn service principal name such as HTTP@localhost
+     * @param lifetimeMs lifetime of the tickets in ms
+     * @return the configuration of the GSS clients of type {@link Type#PROXY_SPNEGO_API}
+     * @throws GSSException When the subject cannot be cached
+     */
+    public Map<String, String> login(final String client, final String spn,
+            final long lifetimeMs) throws GSSException {
+        final Map<String, String> config = new HashMap<>();
+        config.put(ProxySPNegoAPIConfiguration.PRINCIPAL.getKey(), client + "@" + REALM);
+        config.put(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey(), spn);
+        final String service = new KerberosPrincipal(spn.replace('@', '/'),
+                KerberosPrincipal.KRB_NT_SRV_HST).getName();
+        final String serviceName = service.substring(0, service.indexOf('@'));
+        final AbstractGSSClient gssClient = GSSClientFactory.create(Type.PROXY_SPNEGO_API,
+                config);
+        KerberosSubjectCache.getInstance().getSubject(gssClient.getSubjectKey(),
+                () -> issue(client, serviceName, lifetimeMs));
+        return config;
+    }
+
+    /**
+     * Issues the TGT of the client and the ticket of the service, as a login followed by a TGS
+     * exchange would do.
+     *
+     * @param client client name without realm
+     * @param service service principal name such as HTTP/localhost, without realm
+     * @param lifetimeMs lifetime of the tickets in ms
+     * @return the subject holding the client principal and the two tickets
+     */
+    public Subject issue(final String client, final String service, final long lifetimeMs) {
+        final KerberosPrincipal clientPrincipal = new KerberosPrincipal(client + "@" + REALM);
+        final Subject subject = new Subject();
+        subject.getPrincipals().add(clientPrincipal);
+        final boolean[] tgtFlags = new boolean[FLAG_COUNT];
+        tgtFlags[INITIAL_FLAG] = true;
+        subject.getPrivateCredentials().add(newTicket(clientPrincipal,
+                "krbtgt/" + REALM, tgtFlags, lifetimeMs));
+        subject.getPrivateCredentials().add(newTicket(clientPrincipal, service,
+                new boolean[FLAG_COUNT], lifetimeMs));
+        return subject;
+    }
+
+    /**
+     * Creates a ticket with a new session key.
+     *
+     * @param client client principal
+     * @param service service name without realm
+     * @param flags ticket flags
+     * @param lifetimeMs lifetime of the ticket in ms
+     * @return the ticket
+     */
+    private KerberosTicket newTicket(final KerberosPrincipal client, final String service,
+            final boolean[] flags, final long lifetimeMs) {
+        final byte[] sessionKey = new byte[KEY_SIZE];
+        this.random.nextBytes(sessionKey);
+        final Date now = new Date();
+        return new KerberosTicket(encodeTicket(service), client,
+                new KerberosPrincipal(service + "@" + REALM), sessionKey,
+                AES128_CTS_HMAC_SHA1_96, flags, now, now,
+                new Date(now.getTime() + lifetimeMs), null, null);
+    }
+
+    /**
+     * Encodes the ticket of a service (RFC 4120, section 5.3) with a random encrypted part.
+     *
+     * @param service service name without realm
+     * @return the DER encoding of the ticket
+     */
+    private byte[] encodeTicket(final String service) {
+        final String[] components = service.split("/");
+        final byte[][] names = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            names[i] = der(0x1B, components[i].getBytes(StandardCharsets.US_ASCII));
+        }
+        final byte[] cipher = new byte[128];
+        this.random.nextBytes(cipher);
+        final byte[] principalName = der(0x30,
+                der(0xA0, integer(NT_SRV_INST)),
+                der(0xA1, der(0x30, names)));
+        final byte[] encryptedData = der(0x30,
+                der(0xA0, integer(AES128_CTS_HMAC_SHA1_96)),
+                der(0xA1, integer(1)),
+                der(0xA2, der(0x04, cipher)));
+        return der(0x61, der(0x30,
+                der(0xA0, integer(TICKET_VERSION)),
+                der(0xA1, der(0x1B, REALM.getBytes(StandardCharsets.US_ASCII))),
+                der(0xA2, principalName),
+                der(0xA3, encryptedData)));
+    }
+
+    /**
+     * Encodes a small positive integer.
+     *
+     * @param value value lower than 128
+     * @return the DER encoding of the integer
+     */
+    private static byte[] integer(final int value) {
+        return der(0x02, new byte[]{(byte) value});
+    }
+
+    /**
+     * Encodes a DER element from its tag and the concatenation of its contents.
+     *
+     * @param tag tag of the element
+     * @param contents encoded contents
+     * @return the DER encoding of the element
+     */
+    private static byte[] der(final int tag, final byte[]... contents) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (final byte[] content : contents) {
+            body.write(content, 0, content.length);
+        }
+        final int length = body.size();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length + 4);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        final byte[] encodedBody = body.toByteArray();
+        out.write(encodedBody, 0, encodedBody.length);
+        return out.toByteArray();
+    }
+
+}
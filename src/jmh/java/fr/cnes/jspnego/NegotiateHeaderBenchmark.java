@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.auth.AUTH;
+import org.apache.http.message.BasicHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the creation of the Negotiate header, with and without intermediate copies of the
+ * token.
+ *
+ * The bytes allocated per header are given by gc.alloc.rate.norm of the gc profiler.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NegotiateHeaderBenchmark {
+
+    /**
+     * Size of the token in bytes.
+     */
+    @Param({"1500", "6000"})
+    public int tokenSize;
+
+    /**
+     * Token.
+     */
+    private byte[] token;
+
+    /**
+     * Creates a random token.
+     */
+    @Setup
+    public void setUp() {
+        this.token = new byte[this.tokenSize];
+        new Random(42).nextBytes(this.token);
+    }
+
+    /**
+     * Creates the header as it was done : encoded bytes, string and concatenation.
+     *
+     * @return the header
+     */
+    @Benchmark
+    public Header concatenated() {
+        final String tokenStr = new String(new Base64().encode(this.token),
+                Charset.defaultCharset());
+        return new BasicHeader(AUTH.PROXY_AUTH_RESP, "Negotiate " + tokenStr);
+    }
+
+    /**
+     * Creates the header encoded directly into its buffer.
+     *
+     * @return the header
+     */
+    @Benchmark
+    public Header buffered() {
+        return SPNegoScheme.createHeader(this.token);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.KerberosCredentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.ietf.jgss.GSSException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the answer to a proxy challenge : a new {@link SPNegoScheme} processes the Negotiate
+ * challenge and builds the Proxy-Authorization header, with the initial token generated on
+ * demand or taken from a {@link SPNegoTokenPool}.
+ *
+ * The client is logged in {@link InProcessKDC}. The pool is refilled by its background thread
+ * while the benchmark runs, its hits and starvations are printed at the end of each trial.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPNegoSchemeBenchmark {
+
+    /**
+     * Lifetime in ms of the issued tickets, longer than a run.
+     */
+    private static final long LIFETIME_MS = 3_600_000L;
+
+    /**
+     * Size of the token pool.
+     */
+    private static final int POOL_SIZE = 256;
+
+    /**
+     * True when the initial tokens are taken from a pool, false to generate them on demand.
+     */
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    /**
+     * Configuration of the GSS clients.
+     */
+    private Map<String, String> config;
+
+    /**
+     * Pool of initial tokens or {@code null}.
+     */
+    private SPNegoTokenPool tokenPool;
+
+    /**
+     * Challenge of the proxy.
+     */
+    private Header challenge;
+
+    /**
+     * Request sent to the proxy.
+     */
+    private HttpRequest request;
+
+    /**
+     * Credentials of the request, not used by the scheme.
+     */
+    private Credentials credentials;
+
+    /**
+     * Context of the request.
+     */
+    private HttpClientContext context;
+
+    /**
+     * Logs the client in the in-process KDC and creates the token pool.
+     *
+     * @throws GSSException When the client cannot be logged in
+     */
+    @Setup
+    public void setUp() throws GSSException {
+        this.config = new InProcessKDC().login("bench", "HTTP@localhost", LIFETIME_MS);
+        if (this.pooled) {
+            this.tokenPool = new SPNegoTokenPool(GSSClientFactory.create(Type.PROXY_SPNEGO_API,
+                    this.config), POOL_SIZE, POOL_SIZE / 2, SPNegoTokenPool.DEFAULT_MAX_AGE_MS);
+        }
+        this.challenge = new BasicHeader(AUTH.PROXY_AUTH, "Negotiate");
+        this.request = new BasicHttpRequest("CONNECT", "www.example.org:443");
+        this.credentials = new KerberosCredentials(null);
+        this.context = HttpClientContext.create();
+    }
+
+    /**
+     * Closes the token pool, prints its counters and logs the client out.
+     */
+    @TearDown
+    public void tearDown() {
+        if (this.tokenPool != null) {
+            this.tokenPool.close();
+            System.out.println("Pool hits: " + this.tokenPool.getHitCount() + ", starvations: "
+                    + this.tokenPool.getStarvationCount());
+        }
+        KerberosSubjectCache.getInstance().clear();
+        ServiceTicketCache.getInstance().clear();
+    }
+
+    /**
+     * Answers the challenge of the proxy.
+     *
+     * @return the Proxy-Authorization header
+     * @throws MalformedChallengeException When the challenge is not valid
+     * @throws AuthenticationException When the token cannot be generated
+     */
+    @Benchmark
+    public Header authenticate() throws MalformedChallengeException, AuthenticationException {
+        final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API, this.tokenPool,
+                this.config);
+        scheme.processChallenge(this.challenge);
+        final Header header = scheme.authenticate(this.credentials, this.request, this.context);
+        scheme.release();
+        return header;
+    }
+
+}
@@ -21,15 +21,15 @@
 package fr.cnes.httpclient;
 
 import fr.cnes.httpclient.HttpClientFactory.Type;
+import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
-import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthScope;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.ResponseHandler;
@@ -38,10 +38,9 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Registry;
 import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 import org.apache.logging.log4j.LogManager;
@@ -50,6 +49,11 @@ import org.apache.logging.log4j.Logger;
 /**
  * Interface that handles a HTTP client through a proxy.
  *
+ * The proxy parameter can be a list of proxies separated by commas. The requests are then
+ * distributed among the proxies of a {@link ProxyPool}, and a request which cannot connect to its
+ * proxy is sent again through another one. When a PAC file is configured, the proxy of each
+ * request is selected by the {@link PacProxySelector}.
+ *
  * @author Jean-Christophe Malapert
  */
 public abstract class AbstractProxyHttpClient extends HttpClient {
@@ -59,11 +63,48 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
      */
     private static final Logger LOG = LogManager.getLogger(AbstractProxyHttpClient.class.getName());
 
+    /**
+     * Maximum number of routes cached by the route planner
+     * ({@value fr.cnes.httpclient.ProxyRoutePlanner#DEFAULT_CACHE_SIZE} by default, 0 to disable
+     * the cache).
+     */
+    public static final String ROUTE_CACHE_SIZE = "routeCacheSize";
+
+    /**
+     * Number of consecutive failures ejecting a proxy of the pool
+     * ({@value fr.cnes.httpclient.ProxyPool#DEFAULT_MAX_FAILURES} by default).
+     */
+    public static final String PROXY_MAX_FAILURES = "proxyMaxFailures";
+
+    /**
+     * Ejection time in ms of a proxy of the pool
+     * ({@value fr.cnes.httpclient.ProxyPool#DEFAULT_EJECTION_MS} by default).
+     */
+    public static final String PROXY_EJECTION_MS = "proxyEjectionMs";
+
+    /**
+     * Interval in ms between two health checks of the proxies of the pool (0 by default, no
+     * health check).
+     */
+    public static final String PROXY_HEALTH_CHECK_MS = "proxyHealthCheckMs";
+
+    /**
+     * Path of the PAC file selecting the proxy of each request (none by default). The proxies
+     * given by the script use the credentials of the first proxy of the proxy parameter.
+     */
+    public static final String PROXY_PAC = "proxyPac";
+
     /**
      * requestConfig that contains the proxy configuration.
      */
     private RequestConfig requestConfig;
 
+    /**
+     * Route planner. Set while the builder is created by the super constructor, so it must not
+     * be initialized here.
+     */
+    private ProxyRoutePlanner routePlanner;
+
     /**
      * Creates an AbstractProxyHttpClient based on secured SSL, the type of proxy and its configuration.
      *
@@ -95,12 +136,32 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
     protected final HttpClientBuilder createBuilder(final HttpClientBuilder builder,
             final HttpHost proxy,
             final List<String> excludedHosts) {
+        return createBuilder(builder, new ProxyPool(proxy), excludedHosts);
+    }
+
+    /**
+     * Creates a proxy builder based on a previous builder, a pool of proxies and the excluded
+     * hosts. The credentials are given to each proxy of the pool.
+     *
+     * @param builder builder
+     * @param pool proxies
+     * @param excludedHosts hosts for which the proxy is not needed
+     * @return builder including proxy
+     */
+    protected final HttpClientBuilder createBuilder(final HttpClientBuilder builder,
+            final ProxyPool pool,
+            final List<String> excludedHosts) {
         LOG.traceEntry("builder: {}\n"
-                + "proxy: {}\n"
-                + "excludedHosts: {}", builder, proxy, excludedHosts);
-        final CredentialsProvider crp = createCredsProvider(proxy);
+                + "pool: {}\n"
+                + "excludedHosts: {}", builder, pool, excludedHosts);
+        builder.setRoutePlanner(configureRouterPlanner(pool, excludedHosts));
+        CredentialsProvider crp = pool.size() == 1
+                ? createCredsProvider(pool.getPrimary())
+                : createCredsProvider(pool);
+        if (crp != null && this.routePlanner.getProxySelector() != null) {
+            crp = new ProxyCredentialsProvider(crp, this.routePlanner);
+        }
         final Registry<AuthSchemeProvider> regAuth = registerAuthSchemeProvider();
-        builder.setRoutePlanner(configureRouterPlanner(proxy, excludedHosts));
 
         if (crp != null) {
             LOG.debug("Adds credentials to builder");
@@ -112,11 +173,77 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
             builder.setDefaultAuthSchemeRegistry(regAuth);
         }
 
-        this.setProxyConfiguration(proxy);
+        // The proxy is selected by the route planner for each request
+        this.setProxyConfiguration(this.routePlanner.isSelecting() ? null : pool.getPrimary());
 
         return LOG.traceExit(builder);
     }
 
+    /**
+     * Creates the credentials of each proxy of the pool.
+     *
+     * @param pool proxies
+     * @return the credentials or {@code null}
+     */
+    private CredentialsProvider createCredsProvider(final ProxyPool pool) {
+        final CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        for (final ProxyPool.Member member : pool.getMembers()) {
+            final CredentialsProvider proxyCredsProvider = createCredsProvider(member.getProxy());
+            if (proxyCredsProvider == null) {
+                return null;
+            }
+            final AuthScope scope = new AuthScope(member.getProxy());
+            credsProvider.setCredentials(scope, proxyCredsProvider.getCredentials(scope));
+        }
+        return credsProvider;
+    }
+
+    /**
+     * Creates the pool of the proxies.
+     *
+     * @param proxies proxies as hostname:port separated by commas
+     * @param config options for HTTP client
+     * @return the pool
+     * @throws IllegalArgumentException When the pool configuration is not valid
+     */
+    static ProxyPool createProxyPool(final String proxies, final Map<String, String> config) {
+        LOG.traceEntry("proxies: {}", proxies);
+        final List<HttpHost> list = ProxyPool.parse(proxies);
+        if (list.size() == 1) {
+            return LOG.traceExit(new ProxyPool(list.get(0)));
+        }
+        final int maxFailures = Integer.parseInt(config.getOrDefault(PROXY_MAX_FAILURES,
+                String.valueOf(ProxyPool.DEFAULT_MAX_FAILURES)));
+        final long ejectionMs = Long.parseLong(config.getOrDefault(PROXY_EJECTION_MS,
+                String.valueOf(ProxyPool.DEFAULT_EJECTION_MS)));
+        final long healthCheckMs = Long.parseLong(config.getOrDefault(PROXY_HEALTH_CHECK_MS,
+                "0"));
+        LOG.debug("Proxy pool : {}, maxFailures={}, ejectionMs={}, healthCheckMs={}", list,
+                maxFailures, ejectionMs, healthCheckMs);
+        return LOG.traceExit(new ProxyPool(list, maxFailures, ejectionMs, healthCheckMs));
+    }
+
+    /**
+     * Creates the selector of the proxies from the PAC file of the configuration.
+     *
+     * @param config options for HTTP client
+     * @return the selector or {@code null} when no PAC file is configured
+     * @throws IllegalArgumentException When the PAC file cannot be read or is not valid
+     */
+    static PacProxySelector createProxySelector(final Map<String, String> config) {
+        final String pac = config.get(PROXY_PAC);
+        if (pac == null || pac.isEmpty()) {
+            return null;
+        }
+        LOG.debug("Proxies selected by the PAC file {}", pac);
+        try {
+            return new PacProxySelector(new File(pac));
+        } catch (IOException ex) {
+            throw LOG.throwing(new IllegalArgumentException("Cannot read the PAC file " + pac,
+                    ex));
+        }
+    }
+
     /**
      * Builds the proxy.
      *
@@ -161,50 +288,35 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
      */
     protected final HttpRoutePlanner configureRouterPlanner(final HttpHost proxy,
             final List<String> excludedHosts) {
-        LOG.traceEntry("proxy: {}\n"
-                + "excludedHosts: {}", proxy, excludedHosts);
-        final HttpRoutePlanner routePlanner = new DefaultProxyRoutePlanner(proxy) {
-
-            /**
-             * {@inheritDoc }
-             */
-            @Override
-            public HttpRoute determineRoute(final HttpHost host, final HttpRequest request,
-                    final HttpContext context) throws HttpException {
-                LOG.traceEntry("host: {}\nrequest: {}\ncontext: {}", host, request, context);
-                final HttpClientContext clientContext = HttpClientContext.adapt(context);
-                final RequestConfig config = clientContext.getRequestConfig();
-                final InetAddress local = config.getLocalAddress();
-
-                // Use configured proxy is there is one.
-                HttpHost lproxy = proxy;
-                // If context defined another valid proxy use it
-                if ((config.getProxy() != null) && (config.getProxy().getHostName() != null)) {
-                    lproxy = config.getProxy();
-                }
+        return configureRouterPlanner(new ProxyPool(proxy), excludedHosts);
+    }
 
-                final HttpHost target;
-                if (host.getPort() > 0
-                        && (host.getSchemeName().equalsIgnoreCase("http")
-                        && host.getPort() == 80
-                        || host.getSchemeName().equalsIgnoreCase("https")
-                        && host.getPort() == 443)) {
-                    target = new HttpHost(host.getHostName(), -1, host.getSchemeName());
-                } else {
-                    target = host;
-                }
-                final boolean secure = target.getSchemeName().equalsIgnoreCase("https");
-                if (excludedHosts.contains(host.getHostName())) {
-                    LOG.debug(host.getHostName()+" is excluded from proxy");
-                    return LOG.traceExit(new HttpRoute(target, local, secure));
-                } else {
-                    LOG.debug(host.getHostName()+" uses the proxy");
-                    return LOG.traceExit(new HttpRoute(target, local, lproxy, secure));
-                }
-            }
-        };
+    /**
+     * Configures route through a pool of proxies.
+     *
+     * @param pool proxies
+     * @param excludedHosts hosts for which the proxy is not needed
+     * @return HTTP router planner
+     */
+    protected final HttpRoutePlanner configureRouterPlanner(final ProxyPool pool,
+            final List<String> excludedHosts) {
+        LOG.traceEntry("pool: {}\n"
+                + "excludedHosts: {}", pool, excludedHosts);
+        this.routePlanner = new ProxyRoutePlanner(pool, createProxySelector(getConfig()),
+                excludedHosts, Integer.parseInt(
+                getConfig().getOrDefault(ROUTE_CACHE_SIZE,
+                        String.valueOf(ProxyRoutePlanner.DEFAULT_CACHE_SIZE))));
+        return LOG.traceExit(this.routePlanner);
+    }
 
-        return LOG.traceExit(routePlanner);
+    /**
+     * Returns the route planner, which gives the metrics of the route cache.
+     *
+     * @return the route planner
+     */
+    public ProxyRoutePlanner getRoutePlanner() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.routePlanner);
     }
 
     /**
@@ -256,16 +368,16 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
     public HttpResponse execute(final HttpUriRequest request, final HttpContext context) throws
             IOException,
             ClientProtocolException {
-        LOG.traceEntry("request : {}\n"
-                + "context: {}",
-                request, context);
-        LOG.info("Executing request to {}  via {}:{}", request.getRequestLine(), this.
-                getProxyConfiguration().getHostName(),
-                this.getProxyConfiguration().getPort());
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("request : {}\n"
+                    + "context: {}",
+                    request, context);
+        }
+        logRequest(request);
         if (requestConfig != null) {
             context.setAttribute(HttpClientContext.REQUEST_CONFIG, requestConfig);
         }
-        return this.getHttpClient().execute(request, context);
+        return execute(context, () -> this.getHttpClient().execute(request, context));
     }
 
     /**
@@ -284,15 +396,16 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
     public HttpResponse execute(final HttpHost target, final HttpRequest request,
             final HttpContext context) throws
             IOException, ClientProtocolException {
-        LOG.traceEntry("target : {}\n"
-                + "request: {}\n"
-                + "context: {}",
-                target, request, context);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("target : {}\n"
+                    + "request: {}\n"
+                    + "context: {}",
+                    target, request, context);
+        }
         context.setAttribute(HttpClientContext.REQUEST_CONFIG, requestConfig);
-        LOG.info("Executing request to {}  via {}:{}", target, this.getProxyConfiguration().
-                getHostName(),
-                this.getProxyConfiguration().getPort());
-        return LOG.traceExit(this.getHttpClient().execute(target, request, context));
+        logRequest(target);
+        return LOG.traceExit(execute(context,
+                () -> this.getHttpClient().execute(target, request, context)));
     }
 
     /**
@@ -313,15 +426,16 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
             final ResponseHandler<? extends T> responseHandler, final HttpContext context) throws
             IOException,
             ClientProtocolException {
-        LOG.traceEntry("request : {}\n"
-                + "responseHandler: {}\n"
-                + "context: {}",
-                request, responseHandler, context);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("request : {}\n"
+                    + "responseHandler: {}\n"
+                    + "context: {}",
+                    request, responseHandler, context);
+        }
         context.setAttribute(HttpClientContext.REQUEST_CONFIG, requestConfig);
-        LOG.info("Executing request to {}  via {}:{}", request.getRequestLine(), this.
-                getProxyConfiguration().getHostName(),
-                this.getProxyConfiguration().getPort());
-        return LOG.traceExit(this.getHttpClient().execute(request, responseHandler, context));
+        logRequest(request);
+        return LOG.traceExit(execute(context,
+                () -> this.getHttpClient().execute(request, responseHandler, context)));
     }
 
     /**
@@ -342,16 +456,62 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
             final ResponseHandler<? extends T> responseHandler, final HttpContext context) throws
             IOException,
             ClientProtocolException {
-        LOG.traceEntry("target : {}\n"
-                + "responseHandler: {}\n"
-                + "context: {}",
-                target, responseHandler, context);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("target : {}\n"
+                    + "responseHandler: {}\n"
+                    + "context: {}",
+                    target, responseHandler, context);
+        }
         context.setAttribute(HttpClientContext.REQUEST_CONFIG, requestConfig);
-        LOG.info("Executing request to {}  via {}:{}", target, this.getProxyConfiguration().
-                getHostName(),
-                this.getProxyConfiguration().getPort());
-        return LOG.
-                traceExit(this.getHttpClient().execute(target, request, responseHandler, context));
+        logRequest(target);
+        return LOG.traceExit(execute(context,
+                () -> this.getHttpClient().execute(target, request, responseHandler, context)));
+    }
+
+    /**
+     * Executes the request and reports its outcome to the route planner. When the selected proxy
+     * cannot be connected, the request has not been sent and it is sent again through another
+     * proxy, once per proxy at most.
+     *
+     * @param <T> result of the execution
+     * @param context the context used for the execution
+     * @param execution the execution of the request
+     * @return the result of the execution
+     * @throws IOException in case of a problem or the connection was aborted
+     */
+    private <T> T execute(final HttpContext context, final Execution<T> execution)
+            throws IOException {
+        if (!this.routePlanner.isSelecting()) {
+            return execution.execute();
+        }
+        while (true) {
+            final long start = System.nanoTime();
+            try {
+                final T result = execution.execute();
+                this.routePlanner.succeeded(context, System.nanoTime() - start);
+                return result;
+            } catch (IOException | RuntimeException ex) {
+                if (!this.routePlanner.failed(context, ex)) {
+                    throw ex;
+                }
+                LOG.warn("Cannot connect to the proxy, sends the request through another one : {}",
+                        ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Logs the request sent through the proxy. Nothing is computed when the debug level is
+     * disabled.
+     *
+     * @param target request or target host
+     */
+    private void logRequest(final Object target) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Executing request to {} via {}", target,
+                    this.requestConfig.getProxy() == null
+                    ? this.routePlanner.getProxyPool() : this.requestConfig.getProxy());
+        }
     }
 
     /**
@@ -365,7 +525,25 @@ public abstract class AbstractProxyHttpClient extends HttpClient {
         } catch (IOException ex) {
             LOG.error(ex);
         }
+        this.routePlanner.getProxyPool().close();
         LOG.traceExit();
     }
 
+    /**
+     * Execution of a request by the HTTP client.
+     *
+     * @param <T> result of the execution
+     */
+    @FunctionalInterface
+    private interface Execution<T> {
+
+        /**
+         * Executes the request.
+         *
+         * @return the result of the execution
+         * @throws IOException in case of a problem or the connection was aborted
+         */
+        T execute() throws IOException;
+    }
+
 }
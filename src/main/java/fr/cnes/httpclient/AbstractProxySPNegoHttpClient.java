@@ -21,9 +21,15 @@
 package fr.cnes.httpclient;
 
 import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
 import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig;
 import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration;
+import fr.cnes.jspnego.AbstractGSSClient;
+import fr.cnes.jspnego.GSSClientFactory;
+import fr.cnes.jspnego.SPNegoRequestExecutor;
 import fr.cnes.jspnego.SPNegoScheme;
+import fr.cnes.jspnego.SPNegoTokenPool;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -39,10 +45,12 @@ import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultUserTokenHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.HttpContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSException;
 
 /**
  * SPNego interface
@@ -51,12 +59,65 @@ import org.apache.logging.log4j.Logger;
  */
 public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWithoutAuth {
 
+    /**
+     * Sends the SPNego token with the first request of each connection to the proxy without
+     * waiting for the 407 challenge (true or false, false by default).
+     */
+    public static final String SPNEGO_PREEMPTIVE = "spnegoPreemptive";
+
+    /**
+     * Number of initial SPNego tokens generated in advance (0 by default, no pool).
+     */
+    public static final String SPNEGO_TOKEN_POOL_SIZE = "spnegoTokenPoolSize";
+
+    /**
+     * The token pool is refilled when its depth goes below this value (half of the pool size by
+     * default).
+     */
+    public static final String SPNEGO_TOKEN_POOL_LOW_WATERMARK = "spnegoTokenPoolLowWatermark";
+
+    /**
+     * Maximum age in ms of a pooled token
+     * ({@value fr.cnes.jspnego.SPNegoTokenPool#DEFAULT_MAX_AGE_MS} by default).
+     */
+    public static final String SPNEGO_TOKEN_POOL_MAX_AGE_MS = "spnegoTokenPoolMaxAgeMs";
+
+    /**
+     * Number of idle connections authenticated by the proxy kept per route until their ticket
+     * expires (not set by default). When it is set, the authenticated connections are leased
+     * first and {@value #CONNECTION_TIME_TO_LIVE_MS} is replaced by the ticket lifetime.
+     */
+    public static final String SPNEGO_WARM_CONNECTIONS_PER_ROUTE = "spnegoWarmConnectionsPerRoute";
+
+    /**
+     * Idle time in ms after which the connections beyond the warm ones are closed
+     * ({@value #DEFAULT_SPNEGO_MAX_IDLE_MS} by default).
+     */
+    public static final String SPNEGO_MAX_IDLE_MS = "spnegoMaxIdleMs";
+
+    /**
+     * Default idle time in ms after which the connections beyond the warm ones are closed.
+     */
+    public static final long DEFAULT_SPNEGO_MAX_IDLE_MS = 30_000L;
+
     /**
      * Get actual class name to be printed on.
      */
     private static final Logger LOG = LogManager.getLogger(AbstractProxySPNegoHttpClient.class.
             getName());
 
+    /**
+     * Pool of initial tokens or {@code null}. Set while the builder is created by the super
+     * constructor, so it must not be initialized here.
+     */
+    private SPNegoTokenPool tokenPool;
+
+    /**
+     * Connection manager keeping the authenticated connections warm or {@code null}. Set while
+     * the builder is created by the super constructor, so it must not be initialized here.
+     */
+    private AuthAwareConnectionManager connectionManager;
+
     /**
      * Creates an AbstractProxySPNegoHttpClient.
      * The {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration} or 
@@ -78,7 +139,8 @@ public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWitho
      * Creates an AbstractProxySPNegoHttpClient based on options for HTTP client.
      * The {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration} or 
      * The {@link fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration} must be configured 
-     * according to the proxy type before using this constructor.
+     * according to the proxy type before using this constructor. The keys of the configuration
+     * enum which are in config override its values.
      
      * @param isDisabledSSL True when SSL certificates are disabled otherwise False
      * @param type Type of SPNego
@@ -89,10 +151,10 @@ public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWitho
         this(
                 isDisabledSSL, 
                 new HashMap() {{
-                    putAll(config);
                     putAll(type.equals(Type.PROXY_SPNEGO_API) 
                             ? ProxySPNegoAPIConfiguration.getConfig() 
                             : ProxySPNegoJAASConfiguration.getConfig());
+                    putAll(config);
                 }},
                 type
         );        
@@ -141,7 +203,8 @@ public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWitho
                      */
                     @Override
                     public AuthScheme create(final HttpContext context) {
-                        return new SPNegoScheme(getType());
+                        return new SPNegoScheme(getType(), tokenPool,
+                                GSSClientFactory.forProxy(getType(), getConfig(), context));
                     }
                 }).build());
     }
@@ -163,18 +226,20 @@ public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWitho
         final String noProxyStr;
         switch (this.getType()) {
             case PROXY_SPNEGO_API:
-                isValid = ProxySPNegoAPIConfiguration.isValid(error);
-                proxyStr = ProxySPNegoAPIConfiguration.HTTP_PROXY.getValue();
-                noProxyStr = ProxySPNegoAPIConfiguration.NO_PROXY.getValue();
-                LOG.debug("set proxy from SPNEGO_API : "+proxyStr);
-                LOG.debug("set noproxy from SPNEGO_API : "+noProxyStr);
+                final ProxySPNegoAPIConfig apiConfig = ProxySPNegoAPIConfig.from(getConfig());
+                isValid = apiConfig.isValid(error);
+                proxyStr = apiConfig.getValue(ProxySPNegoAPIConfiguration.HTTP_PROXY);
+                noProxyStr = apiConfig.getValue(ProxySPNegoAPIConfiguration.NO_PROXY);
+                LOG.debug("set proxy from SPNEGO_API : {}", proxyStr);
+                LOG.debug("set noproxy from SPNEGO_API : {}", noProxyStr);
                 break;
             case PROXY_SPNEGO_JAAS:
-                isValid = ProxySPNegoJAASConfiguration.isValid(error);
-                proxyStr = ProxySPNegoJAASConfiguration.HTTP_PROXY.getValue();
-                noProxyStr = ProxySPNegoJAASConfiguration.NO_PROXY.getValue();
-                LOG.debug("set proxy from SPNEGO_JAAS : "+proxyStr);
-                LOG.debug("set noproxy from SPNEGO_JAAS : "+noProxyStr);                
+                final ProxySPNegoJAASConfig jaasConfig = ProxySPNegoJAASConfig.from(getConfig());
+                isValid = jaasConfig.isValid(error);
+                proxyStr = jaasConfig.getValue(ProxySPNegoJAASConfiguration.HTTP_PROXY);
+                noProxyStr = jaasConfig.getValue(ProxySPNegoJAASConfiguration.NO_PROXY);
+                LOG.debug("set proxy from SPNEGO_JAAS : {}", proxyStr);
+                LOG.debug("set noproxy from SPNEGO_JAAS : {}", noProxyStr);                
                 break;
             default:
                 throw LOG.throwing(new IllegalArgumentException(this.getType().name() + " is not supported"));
@@ -183,10 +248,164 @@ public abstract class AbstractProxySPNegoHttpClient extends ProxyHttpClientWitho
             LOG.error("Error validation : {}", error);
             throw LOG.throwing(new IllegalArgumentException(error.toString()));
         }
-        final HttpHost proxy = stringToProxy(proxyStr);
+        GSSClientFactory.checkKrb5File(getType(), getConfig());
+        final ProxyPool pool = createProxyPool(proxyStr, getConfig());
         final List<String> excludedHosts = new ArrayList<>();
         Collections.addAll(excludedHosts, noProxyStr.split("\\s*,\\s*"));
-        return LOG.traceExit(this.createBuilder(builder, proxy, excludedHosts));
+        this.tokenPool = createTokenPool(getType(), getConfig());
+        if (Boolean.parseBoolean(getConfig().get(SPNEGO_PREEMPTIVE))) {
+            LOG.debug("SPNego preemptive authentication is enabled");
+            builder.setRequestExecutor(new SPNegoRequestExecutor(this.getType(), this.tokenPool,
+                    getConfig()));
+        } else {
+            builder.setRequestExecutor(new SPNegoRequestExecutor());
+        }
+        if (this.connectionManager != null) {
+            configureWarmConnections(builder, getConfig());
+        }
+        return LOG.traceExit(this.createBuilder(builder, pool, excludedHosts));
+    }
+
+    /**
+     * Creates the connection manager keeping the authenticated connections warm when
+     * {@value #SPNEGO_WARM_CONNECTIONS_PER_ROUTE} is set. In this case, the connections have no
+     * time to live: they are closed when the ticket of their security context expires.
+     *
+     * @param config options for HTTP client
+     * @return the connection manager
+     * @throws IllegalArgumentException When the number of warm connections is negative
+     */
+    @Override
+    protected ConfigurableConnectionManager createConnectionManager(
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        if (!config.containsKey(SPNEGO_WARM_CONNECTIONS_PER_ROUTE)) {
+            return LOG.traceExit(super.createConnectionManager(config));
+        }
+        this.connectionManager = new AuthAwareConnectionManager(getSocketFactoryRegistry(),
+                Integer.parseInt(config.get(SPNEGO_WARM_CONNECTIONS_PER_ROUTE)));
+        return LOG.traceExit(this.connectionManager);
+    }
+
+    /**
+     * Leases the connections authenticated by the proxy first and keeps them warm until their
+     * ticket expires. The other idle connections are closed after {@value #SPNEGO_MAX_IDLE_MS}
+     * by the background thread of the pool, started here when
+     * {@value #CONNECTION_EVICTOR_INTERVAL_MS} is not set.
+     *
+     * @param builder builder
+     * @param config options for HTTP client
+     */
+    private void configureWarmConnections(final HttpClientBuilder builder,
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        final long maxIdleMs = config.containsKey(SPNEGO_MAX_IDLE_MS)
+                ? Long.parseLong(config.get(SPNEGO_MAX_IDLE_MS))
+                : DEFAULT_SPNEGO_MAX_IDLE_MS;
+        LOG.debug("SPNego warm connections : {} per route, maxIdleMs={}",
+                this.connectionManager.getMinWarmPerRoute(), maxIdleMs);
+        builder.setUserTokenHandler(this.connectionManager.createUserTokenHandler(
+                DefaultUserTokenHandler.INSTANCE));
+        if (!this.connectionManager.isEvicting()) {
+            this.connectionManager.startEvictor(maxIdleMs, maxIdleMs, false);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Logs in and obtains the service ticket of the proxy before the warm-up requests. There is
+     * no service ticket phase when the SPN depends on the proxy.
+     *
+     * @param report report of the warm-up
+     */
+    @Override
+    protected void warmUpAuthentication(final WarmUpReport report) {
+        LOG.traceEntry();
+        try {
+            final AbstractGSSClient gssClient = GSSClientFactory.create(getType(), getConfig());
+            long start = System.nanoTime();
+            gssClient.loadSubject();
+            report.addPhase(WarmUpReport.LOGIN, start);
+            if (GSSClientFactory.isProxySPN(getType(), getConfig())) {
+                LOG.debug("The SPN depends on the proxy, the service ticket is obtained with the "
+                        + "first connection");
+            } else {
+                start = System.nanoTime();
+                gssClient.generateGSSToken();
+                report.addPhase(WarmUpReport.SERVICE_TICKET, start);
+            }
+        } catch (GSSException | RuntimeException ex) {
+            LOG.warn("Cannot authenticate during the warm-up : {}", ex.getMessage());
+            report.addFailure(String.valueOf(ex));
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Creates the pool of initial tokens when {@value #SPNEGO_TOKEN_POOL_SIZE} is set. The pooled
+     * tokens are generated for a single SPN, so that there is no pool when the SPN depends on the
+     * proxy.
+     *
+     * @param type type of SPNego
+     * @param config options for HTTP client
+     * @return the pool or {@code null} when no pool is configured
+     */
+    static SPNegoTokenPool createTokenPool(final Type type, final Map<String, String> config) {
+        LOG.traceEntry();
+        final int size = config.containsKey(SPNEGO_TOKEN_POOL_SIZE)
+                ? Integer.parseInt(config.get(SPNEGO_TOKEN_POOL_SIZE))
+                : 0;
+        if (size <= 0) {
+            return LOG.traceExit((SPNegoTokenPool) null);
+        }
+        if (GSSClientFactory.isProxySPN(type, config)) {
+            LOG.warn("The SPN depends on the proxy, the SPNego token pool is disabled");
+            return LOG.traceExit((SPNegoTokenPool) null);
+        }
+        final int lowWatermark = config.containsKey(SPNEGO_TOKEN_POOL_LOW_WATERMARK)
+                ? Integer.parseInt(config.get(SPNEGO_TOKEN_POOL_LOW_WATERMARK))
+                : size / 2;
+        final long maxAgeMs = config.containsKey(SPNEGO_TOKEN_POOL_MAX_AGE_MS)
+                ? Long.parseLong(config.get(SPNEGO_TOKEN_POOL_MAX_AGE_MS))
+                : SPNegoTokenPool.DEFAULT_MAX_AGE_MS;
+        LOG.debug("SPNego token pool : size={}, lowWatermark={}, maxAgeMs={}", size,
+                lowWatermark, maxAgeMs);
+        return LOG.traceExit(new SPNegoTokenPool(GSSClientFactory.create(type, config), size,
+                lowWatermark, maxAgeMs));
+    }
+
+    /**
+     * Returns the pool of initial tokens.
+     *
+     * @return the pool or {@code null} when no pool is configured
+     */
+    public SPNegoTokenPool getTokenPool() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.tokenPool);
+    }
+
+    /**
+     * Returns the connection manager keeping the authenticated connections warm.
+     *
+     * @return the connection manager or {@code null} when
+     * {@value #SPNEGO_WARM_CONNECTIONS_PER_ROUTE} is not set
+     */
+    public AuthAwareConnectionManager getAuthAwareConnectionManager() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.connectionManager);
+    }
+
+    /**
+     * Closes the HTTP client and stops the token pool.
+     */
+    @Override
+    public void close() {
+        LOG.traceEntry();
+        if (this.tokenPool != null) {
+            this.tokenPool.close();
+        }
+        super.close();
+        LOG.traceExit();
     }
 
 }
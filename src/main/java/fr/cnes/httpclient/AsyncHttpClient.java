@@ -0,0 +1,915 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxyConfig;
+import fr.cnes.httpclient.configuration.ProxyConfiguration;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration;
+import fr.cnes.jspnego.GSSClientFactory;
+import fr.cnes.jspnego.SPNegoResponseInterceptor;
+import fr.cnes.jspnego.SPNegoScheme;
+import fr.cnes.jspnego.SPNegoTokenPool;
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.net.ssl.SSLContext;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthOption;
+import org.apache.http.auth.AuthProtocolState;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.AuthState;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.KerberosCredentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthenticationStrategy;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.ProxyAuthenticationStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Asynchronous HTTP client, with or without a proxy.
+ *
+ * The requests are sent by the I/O reactor of HttpAsyncClient, so that an in-flight request does
+ * not hold a thread. The results are returned as {@link CompletableFuture}.
+ * <p>
+ * The proxy is configured as for {@link HttpClient} and the hosts of <b>no_proxy</b> are routed
+ * by the same {@link ProxyRoutePlanner}. For a proxy authenticated by SPNego, the initial token
+ * can require a request to the KDC. The request is first sent without token, so that a request
+ * sent on a connection already authenticated by the proxy does not generate any token. When the
+ * proxy challenges the request, the challenge is returned to the client instead of being
+ * processed by the I/O reactor threads: the token is generated by a pool of worker threads, or
+ * taken from the {@link SPNegoTokenPool} when it is configured, and the request is sent again
+ * with the prepared token.
+ * </p>
+ * <p>
+ * When several proxies are configured, they are selected in a {@link ProxyPool} as for the
+ * blocking client. When the SPN depends on the proxy, the initial token is generated when the
+ * proxy challenges the request.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class AsyncHttpClient implements Closeable {
+
+    /**
+     * Number of threads generating the SPNego tokens {@value #SPNEGO_THREADS}. By default, the
+     * number of processors.
+     */
+    public static final String SPNEGO_THREADS = "spnegoThreads";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(AsyncHttpClient.class.getName());
+
+    /**
+     * Attribute of the context set while the challenge of the proxy is returned to the client, so
+     * that the token is prepared on a worker thread.
+     */
+    private static final String DEFERRED_CHALLENGE = "fr.cnes.httpclient.deferred-spnego-challenge";
+
+    /**
+     * Asynchronous HTTP client.
+     */
+    private final CloseableHttpAsyncClient httpAsyncClient;
+
+    /**
+     * Proxy type.
+     */
+    private final Type type;
+
+    /**
+     * Options for HTTP client including the proxy parameters.
+     */
+    private final Map<String, String> config;
+
+    /**
+     * Route planner or {@code null} without proxy.
+     */
+    private final ProxyRoutePlanner routePlanner;
+
+    /**
+     * Pool of initial tokens or {@code null}.
+     */
+    private final SPNegoTokenPool tokenPool;
+
+    /**
+     * Threads generating the SPNego tokens or {@code null} when the proxy is not authenticated by
+     * SPNego.
+     */
+    private final ExecutorService gssExecutor;
+
+    /**
+     * Full and resumed TLS handshakes.
+     */
+    private final TlsSessionMetrics tlsSessionMetrics = new TlsSessionMetrics();
+
+    /**
+     * Connection manager.
+     */
+    private final ConfigurableNConnectionManager connectionPool;
+
+    /**
+     * Creates an asynchronous HTTP client without proxy.
+     */
+    public AsyncHttpClient() {
+        this(false, new HashMap<>());
+    }
+
+    /**
+     * Creates an asynchronous HTTP client without proxy.
+     *
+     * @param isDisabledSSL True when SSL certificates are disabled otherwise False
+     * @param config options for HTTP client
+     */
+    public AsyncHttpClient(final boolean isDisabledSSL, final Map<String, String> config) {
+        this(Type.NO_PROXY, isDisabledSSL, config);
+    }
+
+    /**
+     * Creates an asynchronous HTTP client according to a proxy type. The proxy parameters which
+     * are not in config are taken from the configuration enum related to the type.
+     *
+     * @param type proxy type
+     * @param isDisabledSSL True when SSL certificates are disabled otherwise False
+     * @param config options for HTTP client that might contain the proxy parameters
+     * @throws IllegalArgumentException When the proxy configuration is not valid
+     */
+    public AsyncHttpClient(final Type type, final boolean isDisabledSSL,
+            final Map<String, String> config) {
+        LOG.traceEntry("type: {}\nisDisabledSSL: {}\nconfig: {}", type, isDisabledSSL, config);
+        this.type = type;
+        this.config = Collections.unmodifiableMap(withDefaults(type, config));
+
+        final HttpAsyncClientBuilder builder = HttpAsyncClients.custom();
+        final SSLContext sslContext = HttpClient.createSSLContext(isDisabledSSL, this.config);
+        final SchemeIOSessionStrategy sslStrategy;
+        if (isDisabledSSL) {
+            LOG.warn("SSL Certificate checking is disabled. The connection is insecured.");
+            sslStrategy = new TlsSessionStrategy(sslContext, NoopHostnameVerifier.INSTANCE,
+                    this.tlsSessionMetrics);
+        } else if (sslContext != null) {
+            sslStrategy = new TlsSessionStrategy(sslContext,
+                    SSLIOSessionStrategy.getDefaultHostnameVerifier(), this.tlsSessionMetrics);
+        } else {
+            sslStrategy = SSLIOSessionStrategy.getDefaultStrategy();
+        }
+        // The builder ignores its SSL strategy and its pool sizes when a manager is given
+        this.connectionPool = createConnectionManager(sslStrategy);
+        configureConnectionNumber(this.connectionPool, this.config);
+        builder.setConnectionManager(this.connectionPool);
+
+        final StringBuilder error = new StringBuilder();
+        final boolean isValid;
+        final String proxyStr;
+        final String noProxyStr;
+        switch (type) {
+            case NO_PROXY:
+                isValid = true;
+                proxyStr = null;
+                noProxyStr = null;
+                break;
+            case PROXY_BASIC:
+                final ProxyConfig proxyConfig = ProxyConfig.from(this.config);
+                isValid = proxyConfig.isValid(error);
+                proxyStr = proxyConfig.getValue(ProxyConfiguration.HTTP_PROXY);
+                noProxyStr = proxyConfig.getValue(ProxyConfiguration.NO_PROXY);
+                break;
+            case PROXY_SPNEGO_API:
+                final ProxySPNegoAPIConfig apiConfig = ProxySPNegoAPIConfig.from(this.config);
+                isValid = apiConfig.isValid(error);
+                proxyStr = apiConfig.getValue(ProxySPNegoAPIConfiguration.HTTP_PROXY);
+                noProxyStr = apiConfig.getValue(ProxySPNegoAPIConfiguration.NO_PROXY);
+                break;
+            case PROXY_SPNEGO_JAAS:
+                final ProxySPNegoJAASConfig jaasConfig = ProxySPNegoJAASConfig.from(this.config);
+                isValid = jaasConfig.isValid(error);
+                proxyStr = jaasConfig.getValue(ProxySPNegoJAASConfiguration.HTTP_PROXY);
+                noProxyStr = jaasConfig.getValue(ProxySPNegoJAASConfiguration.NO_PROXY);
+                break;
+            default:
+                throw LOG.throwing(new IllegalArgumentException("Unknown httpclient type"));
+        }
+        if (!isValid) {
+            LOG.error("Error validation : {}", error);
+            throw LOG.throwing(new IllegalArgumentException(error.toString()));
+        }
+
+        if (proxyStr == null) {
+            this.routePlanner = null;
+            this.tokenPool = null;
+            this.gssExecutor = null;
+        } else {
+            final ProxyPool pool = AbstractProxyHttpClient.createProxyPool(proxyStr, this.config);
+            final List<String> excludedHosts = new ArrayList<>();
+            Collections.addAll(excludedHosts, noProxyStr.split("\\s*,\\s*"));
+            this.routePlanner = new ProxyRoutePlanner(pool,
+                    AbstractProxyHttpClient.createProxySelector(this.config), excludedHosts,
+                    Integer.parseInt(
+                    this.config.getOrDefault(AbstractProxyHttpClient.ROUTE_CACHE_SIZE,
+                            String.valueOf(ProxyRoutePlanner.DEFAULT_CACHE_SIZE))));
+            builder.setRoutePlanner(this.routePlanner);
+            if (type == Type.PROXY_BASIC) {
+                this.tokenPool = null;
+                this.gssExecutor = null;
+                configureBasicAuth(builder, pool);
+            } else {
+                GSSClientFactory.checkKrb5File(type, this.config);
+                this.tokenPool = AbstractProxySPNegoHttpClient.createTokenPool(type, this.config);
+                // The proxy is not known when the token is prepared
+                this.gssExecutor = GSSClientFactory.isProxySPN(type, this.config) ? null
+                        : createGSSExecutor(Integer.parseInt(this.config.getOrDefault(
+                                SPNEGO_THREADS,
+                                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+                configureSPNego(builder, pool);
+            }
+        }
+
+        this.httpAsyncClient = builder.build();
+        this.httpAsyncClient.start();
+        LOG.traceExit();
+    }
+
+    /**
+     * Creates the connection manager with its I/O reactor.
+     *
+     * @param sslStrategy I/O session strategy of the https scheme
+     * @return the connection manager
+     * @throws IllegalStateException When the I/O reactor cannot be created
+     */
+    private static ConfigurableNConnectionManager createConnectionManager(
+            final SchemeIOSessionStrategy sslStrategy) {
+        final ConnectingIOReactor ioreactor;
+        try {
+            ioreactor = new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT);
+        } catch (IOReactorException ex) {
+            throw LOG.throwing(new IllegalStateException("Cannot create the I/O reactor", ex));
+        }
+        return new ConfigurableNConnectionManager(ioreactor,
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                        .register("http", NoopIOSessionStrategy.INSTANCE)
+                        .register("https", sslStrategy)
+                        .build());
+    }
+
+    /**
+     * Sets the maximum number of connections: total, per route, and per route by host pattern
+     * with the keys {@value HttpClient#CONNECTION_MAX_PER_ROUTE}.&lt;pattern&gt;. Each key is
+     * applied independently of the others.
+     *
+     * @param manager connection manager
+     * @param config options for HTTP client
+     * @throws IllegalArgumentException When a limit of a host pattern is not positive or when
+     * its pattern is not valid
+     */
+    private static void configureConnectionNumber(final ConfigurableNConnectionManager manager,
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        if (config.containsKey(HttpClient.CONNECTION_MAX_TOTAL)) {
+            LOG.debug("set max total: {}", config.get(HttpClient.CONNECTION_MAX_TOTAL));
+            manager.setMaxTotal(Integer.parseInt(config.get(HttpClient.CONNECTION_MAX_TOTAL)));
+        }
+        if (config.containsKey(HttpClient.CONNECTION_MAX_PER_ROUTE)) {
+            LOG.debug("set default max per route: {}",
+                    config.get(HttpClient.CONNECTION_MAX_PER_ROUTE));
+            manager.setDefaultMaxPerRoute(Integer.parseInt(config.get(
+                    HttpClient.CONNECTION_MAX_PER_ROUTE)));
+        }
+        final String prefix = HttpClient.CONNECTION_MAX_PER_ROUTE + ".";
+        for (final Map.Entry<String, String> entry : config.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                LOG.debug("set max per route of {}: {}", entry.getKey(), entry.getValue());
+                manager.setMaxPerRoute(entry.getKey().substring(prefix.length()),
+                        Integer.parseInt(entry.getValue()));
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Adds the proxy parameters of the configuration enum related to the type.
+     *
+     * @param type proxy type
+     * @param config options for HTTP client, which override the configuration enum
+     * @return the options for HTTP client including the proxy parameters
+     */
+    private static Map<String, String> withDefaults(final Type type,
+            final Map<String, String> config) {
+        final Map<String, String> merged = new HashMap<>();
+        switch (type) {
+            case PROXY_BASIC:
+                merged.putAll(ProxyConfiguration.getConfig());
+                break;
+            case PROXY_SPNEGO_API:
+                merged.putAll(ProxySPNegoAPIConfiguration.getConfig());
+                break;
+            case PROXY_SPNEGO_JAAS:
+                merged.putAll(ProxySPNegoJAASConfiguration.getConfig());
+                break;
+            default:
+                break;
+        }
+        merged.putAll(config);
+        return merged;
+    }
+
+    /**
+     * Creates the threads generating the SPNego tokens.
+     *
+     * @param nbThreads number of threads
+     * @return the executor
+     */
+    private static ExecutorService createGSSExecutor(final int nbThreads) {
+        final AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(nbThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "jspnego-async-gss-"
+                    + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Configures the basic authentication with the proxy when a username is set.
+     *
+     * @param builder builder
+     * @param pool proxies
+     */
+    private void configureBasicAuth(final HttpAsyncClientBuilder builder, final ProxyPool pool) {
+        final ProxyConfig proxyConfig = ProxyConfig.from(this.config);
+        final String username = proxyConfig.getValue(ProxyConfiguration.USERNAME);
+        if (username.isEmpty()) {
+            LOG.debug("Uses proxy without authentication");
+            return;
+        }
+        LOG.debug("Authentication with username={} pwd=**** on {}", username, pool);
+        final CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        for (final ProxyPool.Member member : pool.getMembers()) {
+            credsProvider.setCredentials(new AuthScope(member.getProxy()),
+                    new UsernamePasswordCredentials(username,
+                            proxyConfig.getValue(ProxyConfiguration.PASSWORD)));
+        }
+        builder.setDefaultCredentialsProvider(withSelectedProxies(credsProvider));
+    }
+
+    /**
+     * Gives the credentials of the primary proxy to the proxies returned by the PAC file.
+     *
+     * @param credsProvider credentials of the proxies of the pool
+     * @return the credentials provider
+     */
+    private CredentialsProvider withSelectedProxies(final CredentialsProvider credsProvider) {
+        return this.routePlanner.getProxySelector() == null ? credsProvider
+                : new ProxyCredentialsProvider(credsProvider, this.routePlanner);
+    }
+
+    /**
+     * Configures the SPNego authentication with the proxy. The scheme prepared for the request is
+     * set in the proxy authentication state of the context before the request is sent again.
+     *
+     * @param builder builder
+     * @param pool proxies
+     */
+    private void configureSPNego(final HttpAsyncClientBuilder builder, final ProxyPool pool) {
+        final CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        for (final ProxyPool.Member member : pool.getMembers()) {
+            credsProvider.setCredentials(new AuthScope(member.getProxy().getHostName(),
+                    member.getProxy().getPort()), new KerberosCredentials(null));
+        }
+        builder.setDefaultCredentialsProvider(withSelectedProxies(credsProvider));
+        builder.setDefaultAuthSchemeRegistry(RegistryBuilder.
+                <AuthSchemeProvider>create()
+                .register(AuthSchemes.SPNEGO, new AuthSchemeProvider() {
+                    /**
+                     * Creates the scheme of a challenge which has not been deferred.
+                     *
+                     * @param context context
+                     * @return the authentication scheme
+                     */
+                    @Override
+                    public AuthScheme create(final HttpContext context) {
+                        return new SPNegoScheme(type, tokenPool,
+                                GSSClientFactory.forProxy(type, config, context));
+                    }
+                }).build());
+        if (this.gssExecutor != null) {
+            builder.setProxyAuthenticationStrategy(new DeferredChallengeStrategy(
+                    ProxyAuthenticationStrategy.INSTANCE));
+        }
+        builder.addInterceptorLast((HttpRequestInterceptor) (request, context) ->
+                context.setAttribute(SPNegoResponseInterceptor.REQUEST_START, System.nanoTime()));
+        builder.addInterceptorLast(new SPNegoResponseInterceptor());
+    }
+
+    /**
+     * Executes a request asynchronously.
+     *
+     * @param request the request to execute
+     * @return the response
+     */
+    public CompletableFuture<HttpResponse> execute(final HttpUriRequest request) {
+        return this.execute(request, HttpClientContext.create());
+    }
+
+    /**
+     * Executes a request asynchronously using the given context.
+     *
+     * @param request the request to execute
+     * @param context the context to use for the execution
+     * @return the response
+     */
+    public CompletableFuture<HttpResponse> execute(final HttpUriRequest request,
+            final HttpContext context) {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("request: {}\ncontext: {}", request, context);
+        }
+        return LOG.traceExit(submit(URIUtils.extractHost(request.getURI()), request, context,
+                callback -> this.httpAsyncClient.execute(request, context, callback)));
+    }
+
+    /**
+     * Executes a request to the target asynchronously.
+     *
+     * @param target the target host for the request
+     * @param request the request to execute
+     * @return the response
+     */
+    public CompletableFuture<HttpResponse> execute(final HttpHost target,
+            final HttpRequest request) {
+        return this.execute(target, request, HttpClientContext.create());
+    }
+
+    /**
+     * Executes a request to the target asynchronously using the given context.
+     *
+     * @param target the target host for the request
+     * @param request the request to execute
+     * @param context the context to use for the execution
+     * @return the response
+     */
+    public CompletableFuture<HttpResponse> execute(final HttpHost target,
+            final HttpRequest request, final HttpContext context) {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("target: {}\nrequest: {}\ncontext: {}", target, request, context);
+        }
+        return LOG.traceExit(submit(target, request, context,
+                callback -> this.httpAsyncClient.execute(target, request, context, callback)));
+    }
+
+    /**
+     * Sends the request and, when the target is reached through a proxy authenticated by SPNego,
+     * prepares the SPNego token on a worker thread once the proxy challenges the request. The
+     * request is then sent again once with the prepared token. A request sent on a connection
+     * which has already been authenticated by the proxy is not challenged, so that no token is
+     * generated. A request whose entity cannot be sent twice is prepared before being sent.
+     *
+     * @param target the target host for the request
+     * @param request the request to execute
+     * @param context the context to use for the execution
+     * @param sender sends the request with a callback
+     * @return the response
+     */
+    private CompletableFuture<HttpResponse> submit(final HttpHost target,
+            final HttpRequest request, final HttpContext context,
+            final Function<FutureCallback<HttpResponse>, Future<HttpResponse>> sender) {
+        if (this.gssExecutor == null || target == null || this.routePlanner.isExcluded(target)) {
+            return send(context, sender);
+        }
+        if (!isRepeatable(request)) {
+            return prepareAndSend(request, null, context, sender);
+        }
+        context.setAttribute(DEFERRED_CHALLENGE, Boolean.TRUE);
+        return send(context, sender).thenCompose(response -> {
+            final Header challenge = getNegotiateChallenge(response);
+            if (context.removeAttribute(DEFERRED_CHALLENGE) == null || challenge == null) {
+                return CompletableFuture.completedFuture(response);
+            }
+            LOG.debug("Proxy challenge received, prepares the SPNego token");
+            EntityUtils.consumeQuietly(response.getEntity());
+            return prepareAndSend(request, challenge, context, sender);
+        });
+    }
+
+    /**
+     * Returns the Negotiate challenge of a response of the proxy.
+     *
+     * @param response response
+     * @return the Proxy-Authenticate header of the Negotiate scheme or {@code null} when the
+     * proxy has not challenged the request with this scheme
+     */
+    private static Header getNegotiateChallenge(final HttpResponse response) {
+        if (response.getStatusLine().getStatusCode()
+                != HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+            return null;
+        }
+        for (final Header header : response.getHeaders(AUTH.PROXY_AUTH)) {
+            final String value = header.getValue().trim();
+            if (value.regionMatches(true, 0, AuthSchemes.SPNEGO, 0,
+                    AuthSchemes.SPNEGO.length())) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prepares the SPNego token on a worker thread and then sends the request.
+     *
+     * @param request the request to execute
+     * @param challenge the challenge of the proxy or {@code null} when the request is sent
+     * before being challenged
+     * @param context the context to use for the execution
+     * @param sender sends the request with a callback
+     * @return the response
+     */
+    private CompletableFuture<HttpResponse> prepareAndSend(final HttpRequest request,
+            final Header challenge, final HttpContext context,
+            final Function<FutureCallback<HttpResponse>, Future<HttpResponse>> sender) {
+        return CompletableFuture.supplyAsync(() -> prepareScheme(request, challenge, context),
+                this.gssExecutor)
+                .thenCompose(scheme -> send(context, sender).whenComplete((response, ex) -> {
+                    if (ex != null && scheme != null) {
+                        scheme.release();
+                    }
+                }));
+    }
+
+    /**
+     * Returns true when the request can be sent twice.
+     *
+     * @param request the request to execute
+     * @return true when the request has no entity or a repeatable entity otherwise false
+     */
+    private static boolean isRepeatable(final HttpRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return true;
+        }
+        final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        return entity == null || entity.isRepeatable();
+    }
+
+    /**
+     * Sends the request and reports its outcome to the route planner.
+     *
+     * @param context the context to use for the execution
+     * @param sender sends the request with a callback
+     * @return the response
+     */
+    private CompletableFuture<HttpResponse> send(final HttpContext context,
+            final Function<FutureCallback<HttpResponse>, Future<HttpResponse>> sender) {
+        if (this.routePlanner == null || !this.routePlanner.isSelecting()) {
+            return sendOnce(context, sender);
+        }
+        final long start = System.nanoTime();
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        sendOnce(context, sender).whenComplete((response, ex) -> {
+            if (ex == null) {
+                this.routePlanner.succeeded(context, System.nanoTime() - start);
+                result.complete(response);
+            } else if (this.routePlanner.failed(context, ex)) {
+                LOG.warn("Cannot connect to the proxy, sends the request through another one : {}",
+                        ex.getMessage());
+                send(context, sender).whenComplete((retried, retryEx) ->
+                        complete(result, retried, retryEx));
+            } else {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Completes the future with the response or the exception.
+     *
+     * @param result future to complete
+     * @param response response or {@code null}
+     * @param ex exception or {@code null}
+     */
+    private static void complete(final CompletableFuture<HttpResponse> result,
+            final HttpResponse response, final Throwable ex) {
+        if (ex == null) {
+            result.complete(response);
+        } else {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Sends the request and completes the returned future with the callback, which records the
+     * duration of the request.
+     *
+     * @param context the context to use for the execution
+     * @param sender sends the request with a callback
+     * @return the response
+     */
+    private static CompletableFuture<HttpResponse> sendOnce(final HttpContext context,
+            final Function<FutureCallback<HttpResponse>, Future<HttpResponse>> sender) {
+        final long start = System.nanoTime();
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        final Future<HttpResponse> future = sender.apply(new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                recordRequest(context, start);
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                recordRequest(context, start);
+                result.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                recordRequest(context, start);
+                result.cancel(false);
+            }
+        });
+        result.whenComplete((response, ex) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Records the duration of a request, including the authentication rounds.
+     *
+     * @param context the context of the execution
+     * @param start start time given by {@link System#nanoTime()}
+     */
+    private static void recordRequest(final HttpContext context, final long start) {
+        Metrics.record(MetricsRecorder.Timer.REQUEST,
+                Metrics.routeOf(HttpClientContext.adapt(context).getTargetHost()), start);
+    }
+
+    /**
+     * Generates the initial SPNego token and sets the scheme in the proxy authentication state
+     * of the context, as challenged by the proxy. The client then adds the Proxy-Authorization
+     * header of the prepared token to the request sent to the proxy, the CONNECT request for a
+     * tunnelled route, without generating any token on the I/O reactor threads.
+     * <p>
+     * When the token cannot be generated before the challenge, it is generated when the proxy
+     * challenges the request. When it cannot be generated after the challenge, the proxy
+     * authentication fails and the challenge is returned to the client.
+     * </p>
+     *
+     * @param request the request to execute
+     * @param challenge the challenge of the proxy or {@code null} when the request is sent
+     * before being challenged
+     * @param context the context to use for the execution
+     * @return the prepared scheme or {@code null} when the token cannot be generated
+     */
+    private SPNegoScheme prepareScheme(final HttpRequest request, final Header challenge,
+            final HttpContext context) {
+        LOG.traceEntry();
+        final HttpClientContext clientContext = HttpClientContext.adapt(context);
+        AuthState authState = clientContext.getProxyAuthState();
+        if (authState == null) {
+            authState = new AuthState();
+            clientContext.setAttribute(HttpClientContext.PROXY_AUTH_STATE, authState);
+        }
+        final SPNegoScheme scheme = new SPNegoScheme(this.type, this.tokenPool, this.config);
+        try {
+            scheme.prepare();
+            scheme.processChallenge(challenge == null
+                    ? new BasicHeader(AUTH.PROXY_AUTH, AuthSchemes.SPNEGO)
+                    : challenge);
+            scheme.authenticate(new KerberosCredentials(null), request, context);
+            authState.update(scheme, new KerberosCredentials(null));
+            authState.setState(AuthProtocolState.CHALLENGED);
+            LOG.debug("Proxy-Authorization header prepared");
+            return LOG.traceExit(scheme);
+        } catch (AuthenticationException | MalformedChallengeException ex) {
+            scheme.release();
+            if (challenge != null) {
+                authState.setState(AuthProtocolState.FAILURE);
+            }
+            LOG.warn("Cannot prepare the SPNego token : {}", ex.getMessage());
+            return LOG.traceExit((SPNegoScheme) null);
+        }
+    }
+
+    /**
+     * Strategy returning the challenge of the proxy to the client when the request is sent
+     * without prepared token, so that the token is not generated by the I/O reactor threads.
+     */
+    private static final class DeferredChallengeStrategy implements AuthenticationStrategy {
+
+        /**
+         * Strategy processing the challenges.
+         */
+        private final AuthenticationStrategy strategy;
+
+        /**
+         * Creates the strategy.
+         *
+         * @param strategy strategy processing the challenges
+         */
+        DeferredChallengeStrategy(final AuthenticationStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * The challenge is not processed while {@value #DEFERRED_CHALLENGE} is set in the
+         * context.
+         */
+        @Override
+        public boolean isAuthenticationRequested(final HttpHost authhost,
+                final HttpResponse response, final HttpContext context) {
+            return this.strategy.isAuthenticationRequested(authhost, response, context)
+                    && context.getAttribute(DEFERRED_CHALLENGE) == null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<String, Header> getChallenges(final HttpHost authhost,
+                final HttpResponse response, final HttpContext context)
+                throws MalformedChallengeException {
+            return this.strategy.getChallenges(authhost, response, context);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Queue<AuthOption> select(final Map<String, Header> challenges,
+                final HttpHost authhost, final HttpResponse response, final HttpContext context)
+                throws MalformedChallengeException {
+            return this.strategy.select(challenges, authhost, response, context);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void authSucceeded(final HttpHost authhost, final AuthScheme authScheme,
+                final HttpContext context) {
+            this.strategy.authSucceeded(authhost, authScheme, context);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void authFailed(final HttpHost authhost, final AuthScheme authScheme,
+                final HttpContext context) {
+            this.strategy.authFailed(authhost, authScheme, context);
+        }
+    }
+
+    /**
+     * Returns the proxy type.
+     *
+     * @return the proxy type
+     */
+    public Type getType() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.type);
+    }
+
+    /**
+     * Returns the options for HTTP client including the proxy parameters.
+     *
+     * @return the options as an unmodifiable map
+     */
+    public Map<String, String> getConfig() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.config);
+    }
+
+    /**
+     * Returns the route planner, which gives the metrics of the route cache.
+     *
+     * @return the route planner or {@code null} without proxy
+     */
+    public ProxyRoutePlanner getRoutePlanner() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.routePlanner);
+    }
+
+    /**
+     * Returns the pool of initial tokens.
+     *
+     * @return the pool or {@code null} when no pool is configured
+     */
+    public SPNegoTokenPool getTokenPool() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.tokenPool);
+    }
+
+    /**
+     * Returns the number of full and resumed TLS handshakes of the client.
+     *
+     * @return the TLS handshake metrics
+     */
+    public TlsSessionMetrics getTlsSessionMetrics() {
+        return this.tlsSessionMetrics;
+    }
+
+    /**
+     * Returns the connection manager.
+     *
+     * @return the connection manager
+     */
+    public ConfigurableNConnectionManager getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     * Closes the client, the pool of initial tokens and the threads generating the tokens.
+     */
+    @Override
+    public void close() {
+        LOG.traceEntry();
+        try {
+            this.httpAsyncClient.close();
+        } catch (IOException ex) {
+            LOG.error(ex);
+        }
+        if (this.tokenPool != null) {
+            this.tokenPool.close();
+        }
+        if (this.gssExecutor != null) {
+            this.gssExecutor.shutdownNow();
+        }
+        if (this.routePlanner != null) {
+            this.routePlanner.getProxyPool().close();
+        }
+        LOG.traceExit();
+    }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.jspnego.SPNegoScheme;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.auth.AuthProtocolState;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthState;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.pool.PoolEntry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Connection manager keeping the connections authenticated by the proxy warm.
+ *
+ * SPNego is connection-based: a connection on which the Negotiate handshake is completed does
+ * not need to be authenticated again while the Kerberos ticket is valid. The manager tracks these
+ * connections and gives them first when a connection to a proxy route is leased.
+ * <p>
+ * The idle authenticated connections are not evicted after a fixed time to live but when the
+ * ticket of their security context expires. The most recently used ones are kept until then, up
+ * to the minimum of warm connections per route, and the others are closed as the idle
+ * connections which are not authenticated.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class AuthAwareConnectionManager extends ConfigurableConnectionManager {
+
+    /**
+     * State of the pooled connections authenticated by the proxy.
+     */
+    public static final String AUTHENTICATED_STATE = "fr.cnes.httpclient.proxy-authenticated";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(AuthAwareConnectionManager.class.
+            getName());
+
+    /**
+     * Number of idle authenticated connections kept per route.
+     */
+    private final int minWarmPerRoute;
+
+    /**
+     * Expiration time in ms of the ticket by identifier of the authenticated connections.
+     */
+    private final ConcurrentMap<String, Long> authenticated = new ConcurrentHashMap<>();
+
+    /**
+     * Number of authenticated connections leased.
+     */
+    private final AtomicLong warmLeaseCount = new AtomicLong();
+
+    /**
+     * Number of connections leased without authentication.
+     */
+    private final AtomicLong coldLeaseCount = new AtomicLong();
+
+    /**
+     * Creates the connection manager. The connections have no time to live.
+     *
+     * @param registry socket factories by scheme
+     * @param minWarmPerRoute number of idle authenticated connections kept per route
+     * @throws IllegalArgumentException When minWarmPerRoute is negative
+     */
+    public AuthAwareConnectionManager(final Registry<ConnectionSocketFactory> registry,
+            final int minWarmPerRoute) {
+        super(registry, -1);
+        LOG.traceEntry("minWarmPerRoute: {}", minWarmPerRoute);
+        if (minWarmPerRoute < 0) {
+            throw LOG.throwing(new IllegalArgumentException("minWarmPerRoute must not be "
+                    + "negative"));
+        }
+        this.minWarmPerRoute = minWarmPerRoute;
+        LOG.traceExit();
+    }
+
+    /**
+     * Creates the user token handler marking the connections authenticated by the proxy.
+     *
+     * @param fallback handler giving the token of the other connections
+     * @return the user token handler
+     */
+    public UserTokenHandler createUserTokenHandler(final UserTokenHandler fallback) {
+        return context -> {
+            final HttpClientContext clientContext = HttpClientContext.adapt(context);
+            final ManagedHttpClientConnection conn = clientContext.getConnection(
+                    ManagedHttpClientConnection.class);
+            final String connId = getId(conn);
+            if (connId != null && this.authenticated.containsKey(connId)) {
+                return AUTHENTICATED_STATE;
+            }
+            final RouteInfo route = clientContext.getHttpRoute();
+            final AuthState authState = clientContext.getProxyAuthState();
+            if (connId != null && route != null && route.getProxyHost() != null
+                    && authState != null && authState.getState() == AuthProtocolState.SUCCESS
+                    && authState.getAuthScheme() != null
+                    && authState.getAuthScheme().isConnectionBased()) {
+                final AuthScheme scheme = authState.getAuthScheme();
+                markAuthenticated(connId, scheme instanceof SPNegoScheme
+                        ? ((SPNegoScheme) scheme).getExpiresAt()
+                        : Long.MAX_VALUE);
+                return AUTHENTICATED_STATE;
+            }
+            return fallback.getUserToken(context);
+        };
+    }
+
+    /**
+     * Marks a connection as authenticated by the proxy.
+     *
+     * @param connId identifier of the connection
+     * @param expiresAt expiration time in ms of the ticket
+     */
+    void markAuthenticated(final String connId, final long expiresAt) {
+        LOG.debug("Connection {} authenticated until {}", connId, expiresAt);
+        this.authenticated.put(connId, expiresAt);
+    }
+
+    /**
+     * Requests a connection. The connections to a proxy are requested with the authenticated
+     * state, so that the pool gives an authenticated connection when one is available and falls
+     * back to a connection without state.
+     *
+     * @param route route of the connection
+     * @param state expected state of the connection
+     * @return the connection request
+     */
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+        final Object expected = state == null && route.getProxyHost() != null
+                ? AUTHENTICATED_STATE
+                : state;
+        final ConnectionRequest request = super.requestConnection(route, expected);
+        return new ConnectionRequest() {
+            /**
+             * Gets the connection and counts the lease.
+             *
+             * @param timeout timeout
+             * @param tunit unit of the timeout
+             * @return the connection
+             * @throws InterruptedException when interrupted
+             * @throws ExecutionException when the request fails
+             * @throws ConnectionPoolTimeoutException when the timeout expires
+             */
+            @Override
+            public HttpClientConnection get(final long timeout, final TimeUnit tunit)
+                    throws InterruptedException, ExecutionException,
+                    ConnectionPoolTimeoutException {
+                final HttpClientConnection conn = request.get(timeout, tunit);
+                final String connId = getId(conn);
+                if (connId != null && authenticated.containsKey(connId)) {
+                    warmLeaseCount.incrementAndGet();
+                } else {
+                    coldLeaseCount.incrementAndGet();
+                }
+                return conn;
+            }
+
+            /**
+             * Cancels the request.
+             *
+             * @return true when the request is cancelled
+             */
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    /**
+     * Releases a connection. An authenticated connection is kept alive at most until its ticket
+     * expires and is closed when the ticket has expired.
+     *
+     * @param managedConn connection
+     * @param state state of the connection
+     * @param keepalive keep-alive duration, not positive for no limit
+     * @param tunit unit of the keep-alive duration
+     */
+    @Override
+    public void releaseConnection(final HttpClientConnection managedConn, final Object state,
+            final long keepalive, final TimeUnit tunit) {
+        final String connId = getId(managedConn);
+        final Long expiresAt = connId == null ? null : this.authenticated.get(connId);
+        long keepaliveMs = keepalive > 0 ? tunit.toMillis(keepalive) : -1;
+        if (expiresAt != null && managedConn.isOpen()) {
+            final long remaining = expiresAt - System.currentTimeMillis();
+            if (remaining <= 0) {
+                LOG.debug("Ticket of the connection {} has expired", connId);
+                closeQuietly(managedConn);
+            } else if (keepaliveMs <= 0 || keepaliveMs > remaining) {
+                keepaliveMs = remaining;
+            }
+        }
+        if (connId != null && !managedConn.isOpen()) {
+            this.authenticated.remove(connId);
+        }
+        super.releaseConnection(managedConn, state, keepaliveMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the idle connections. The most recently used authenticated connections are kept up
+     * to the minimum of warm connections per route, unless their ticket has expired.
+     *
+     * @param idletime idle time
+     * @param tunit unit of the idle time
+     */
+    @Override
+    public void closeIdleConnections(final long idletime, final TimeUnit tunit) {
+        LOG.traceEntry("idletime: {}", idletime);
+        final long now = System.currentTimeMillis();
+        final long deadline = now - Math.max(0, tunit.toMillis(idletime));
+        final Map<HttpRoute, Integer> warmCount = new HashMap<>();
+        final List<PoolEntry<HttpRoute, ManagedHttpClientConnection>> idle = new ArrayList<>();
+        final Set<PoolEntry<HttpRoute, ManagedHttpClientConnection>> toClose = new HashSet<>();
+        enumAvailable(entry -> {
+            final Long expiresAt = this.authenticated.get(entry.getConnection().getId());
+            if (expiresAt == null) {
+                if (entry.getUpdated() <= deadline) {
+                    toClose.add(entry);
+                }
+            } else if (expiresAt <= now) {
+                toClose.add(entry);
+            } else if (entry.getUpdated() > deadline) {
+                warmCount.merge(entry.getRoute(), 1, Integer::sum);
+            } else {
+                idle.add(entry);
+            }
+        });
+        idle.sort(Comparator.comparingLong(
+                (PoolEntry<HttpRoute, ManagedHttpClientConnection> entry) -> entry.getUpdated())
+                .reversed());
+        for (final PoolEntry<HttpRoute, ManagedHttpClientConnection> entry : idle) {
+            final int count = warmCount.getOrDefault(entry.getRoute(), 0);
+            if (count < this.minWarmPerRoute) {
+                warmCount.put(entry.getRoute(), count + 1);
+            } else {
+                toClose.add(entry);
+            }
+        }
+        if (!toClose.isEmpty()) {
+            LOG.debug("Closing {} idle connections", toClose.size());
+            enumAvailable(entry -> {
+                if (toClose.contains(entry)) {
+                    entry.close();
+                }
+            });
+        }
+        pruneAuthenticated();
+        LOG.traceExit();
+    }
+
+    /**
+     * Closes the expired connections and forgets the closed ones.
+     */
+    @Override
+    public void closeExpiredConnections() {
+        super.closeExpiredConnections();
+        pruneAuthenticated();
+    }
+
+    /**
+     * Forgets the authenticated connections which are no longer in the pool.
+     */
+    private void pruneAuthenticated() {
+        final Set<String> live = new HashSet<>();
+        enumAvailable(entry -> live.add(entry.getConnection().getId()));
+        enumLeased(entry -> live.add(entry.getConnection().getId()));
+        this.authenticated.keySet().retainAll(live);
+    }
+
+    /**
+     * Returns the identifier of a connection.
+     *
+     * @param conn connection
+     * @return the identifier or {@code null} when the connection is detached from the pool
+     */
+    private static String getId(final HttpClientConnection conn) {
+        if (!(conn instanceof ManagedHttpClientConnection)) {
+            return null;
+        }
+        try {
+            return ((ManagedHttpClientConnection) conn).getId();
+        } catch (IllegalStateException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes a connection, the errors are logged.
+     *
+     * @param conn connection
+     */
+    private static void closeQuietly(final HttpClientConnection conn) {
+        try {
+            conn.close();
+        } catch (IOException ex) {
+            LOG.debug("Cannot close the connection : {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of idle authenticated connections kept per route.
+     *
+     * @return the minimum of warm connections per route
+     */
+    public int getMinWarmPerRoute() {
+        return this.minWarmPerRoute;
+    }
+
+    /**
+     * Returns the number of authenticated connections in the pool.
+     *
+     * @return the number of authenticated connections
+     */
+    public int getAuthenticatedCount() {
+        return this.authenticated.size();
+    }
+
+    /**
+     * Returns the number of authenticated connections leased.
+     *
+     * @return the number of warm leases
+     */
+    public long getWarmLeaseCount() {
+        return this.warmLeaseCount.get();
+    }
+
+    /**
+     * Returns the number of connections leased without authentication.
+     *
+     * @return the number of cold leases
+     */
+    public long getColdLeaseCount() {
+        return this.coldLeaseCount.get();
+    }
+
+}
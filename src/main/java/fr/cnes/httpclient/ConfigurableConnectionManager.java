@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolEntry;
+import org.apache.http.pool.PoolStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Connection manager whose limits can be set by host pattern and changed at runtime.
+ *
+ * The limit of a route is given by the most specific pattern matching its target host, that is
+ * the longest one, and by the default limit per route otherwise. The patterns have the syntax of
+ * the no_proxy entries: host names, *.domain, IP ranges or wildcards. The limits apply to the
+ * routes created later as well as to the routes already in the pool.
+ * <p>
+ * A background thread can close the expired and idle connections, and the connections closed
+ * by the peer which would otherwise make the next request fail.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class ConfigurableConnectionManager extends PoolingHttpClientConnectionManager {
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(ConfigurableConnectionManager.class.
+            getName());
+
+    /**
+     * Limits by host pattern.
+     */
+    private final RouteLimits routeLimits = new RouteLimits();
+
+    /**
+     * Number of connections closed by the evictor because they were expired or idle.
+     */
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * Number of connections closed by the evictor because they were closed by the peer.
+     */
+    private final AtomicLong staleCount = new AtomicLong();
+
+    /**
+     * Background thread closing the connections or {@code null} when it is not started.
+     */
+    private ScheduledExecutorService evictor;
+
+    /**
+     * Creates the connection manager.
+     *
+     * @param registry socket factories by scheme
+     * @param timeToLiveMs time to live in ms of the connections, not positive for no limit
+     */
+    public ConfigurableConnectionManager(final Registry<ConnectionSocketFactory> registry,
+            final long timeToLiveMs) {
+        super(registry, null, null, null, timeToLiveMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Requests a connection after the limit of its route has been applied. The wait for the
+     * connection is recorded in the metrics.
+     *
+     * @param route route of the connection
+     * @param state expected state of the connection
+     * @return the connection request
+     */
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+        this.routeLimits.apply(route, this::setMaxPerRoute);
+        final ConnectionRequest request = super.requestConnection(route, state);
+        if (!Metrics.isEnabled()) {
+            return request;
+        }
+        return new ConnectionRequest() {
+            /**
+             * Gets the connection and records the wait.
+             *
+             * @param timeout timeout
+             * @param tunit unit of the timeout
+             * @return the connection
+             * @throws InterruptedException when interrupted
+             * @throws ExecutionException when the request fails
+             * @throws ConnectionPoolTimeoutException when the timeout expires
+             */
+            @Override
+            public HttpClientConnection get(final long timeout, final TimeUnit tunit)
+                    throws InterruptedException, ExecutionException,
+                    ConnectionPoolTimeoutException {
+                final long start = System.nanoTime();
+                try {
+                    return request.get(timeout, tunit);
+                } finally {
+                    Metrics.record(MetricsRecorder.Timer.CONNECTION_LEASE,
+                            Metrics.routeOf(route.getTargetHost()), start);
+                }
+            }
+
+            /**
+             * Cancels the request.
+             *
+             * @return true when the request is cancelled
+             */
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    /**
+     * Sets the maximum number of connections of the routes whose target host matches a pattern.
+     * Setting a pattern again replaces its limit.
+     *
+     * @param hostPattern host pattern
+     * @param max maximum number of connections per route
+     * @throws IllegalArgumentException When max is not positive or when the pattern is not valid
+     */
+    public void setMaxPerRoute(final String hostPattern, final int max) {
+        this.routeLimits.set(hostPattern, max, getRoutes(), this::setMaxPerRoute);
+    }
+
+    /**
+     * Changes the size of the pool. The leased connections beyond the new limits are closed when
+     * they are released.
+     *
+     * @param maxTotal maximum number of connections
+     * @param defaultMaxPerRoute maximum number of connections of the routes without a pattern
+     * @throws IllegalArgumentException When a limit is not positive
+     */
+    public void resize(final int maxTotal, final int defaultMaxPerRoute) {
+        LOG.traceEntry("maxTotal: {}\ndefaultMaxPerRoute: {}", maxTotal, defaultMaxPerRoute);
+        if (maxTotal <= 0 || defaultMaxPerRoute <= 0) {
+            throw LOG.throwing(new IllegalArgumentException("The size of the pool must be "
+                    + "positive: maxTotal=" + maxTotal + ", defaultMaxPerRoute="
+                    + defaultMaxPerRoute));
+        }
+        setMaxTotal(maxTotal);
+        setDefaultMaxPerRoute(defaultMaxPerRoute);
+        LOG.traceExit();
+    }
+
+    /**
+     * Starts the background thread closing the connections.
+     *
+     * @param intervalMs time in ms between two runs
+     * @param maxIdleMs idle time in ms after which a connection is closed
+     * @param isCheckingStale true to close the connections closed by the peer
+     * @throws IllegalArgumentException When intervalMs is not positive
+     * @throws IllegalStateException When the evictor is already started
+     */
+    public synchronized void startEvictor(final long intervalMs, final long maxIdleMs,
+            final boolean isCheckingStale) {
+        LOG.traceEntry("intervalMs: {}\nmaxIdleMs: {}\nisCheckingStale: {}", intervalMs,
+                maxIdleMs, isCheckingStale);
+        if (intervalMs <= 0) {
+            throw LOG.throwing(new IllegalArgumentException("The interval of the evictor must "
+                    + "be positive"));
+        }
+        if (this.evictor != null) {
+            throw LOG.throwing(new IllegalStateException("The evictor is already started"));
+        }
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jspnego-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor.scheduleWithFixedDelay(() -> evictConnections(maxIdleMs, isCheckingStale),
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        LOG.traceExit();
+    }
+
+    /**
+     * Checks whether the evictor is started.
+     *
+     * @return true when the background thread closing the connections is started
+     */
+    public synchronized boolean isEvicting() {
+        return this.evictor != null;
+    }
+
+    /**
+     * Closes the expired connections, the connections idle for longer than maxIdleMs and,
+     * when isCheckingStale is true, the available connections closed by the peer.
+     *
+     * @param maxIdleMs idle time in ms after which a connection is closed
+     * @param isCheckingStale true to close the connections closed by the peer
+     */
+    public void evictConnections(final long maxIdleMs, final boolean isCheckingStale) {
+        LOG.traceEntry("maxIdleMs: {}\nisCheckingStale: {}", maxIdleMs, isCheckingStale);
+        try {
+            final List<PoolEntry<HttpRoute, ManagedHttpClientConnection>> available =
+                    new ArrayList<>();
+            enumAvailable(available::add);
+            closeExpiredConnections();
+            closeIdleConnections(maxIdleMs, TimeUnit.MILLISECONDS);
+            int evicted = 0;
+            for (final PoolEntry<HttpRoute, ManagedHttpClientConnection> entry : available) {
+                if (entry.isClosed()) {
+                    evicted++;
+                }
+            }
+            this.evictedCount.addAndGet(evicted);
+            if (isCheckingStale) {
+                closeStaleConnections();
+            }
+        } catch (RuntimeException ex) {
+            LOG.warn("Cannot evict the connections : {}", ex.getMessage());
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Closes the available connections closed by the peer. The connections are checked under the
+     * lock of the pool, so that a connection cannot be leased while its socket is read by the
+     * check.
+     */
+    private void closeStaleConnections() {
+        enumAvailable(entry -> {
+            if (!entry.isClosed() && isStale(entry.getConnection())) {
+                LOG.debug("Connection {} closed by the peer", entry.getConnection());
+                entry.close();
+                this.staleCount.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Checks whether a connection has been closed by the peer. A connection which has never been
+     * used is not stale.
+     *
+     * @param conn connection
+     * @return true when the connection is closed by the peer otherwise false
+     */
+    private static boolean isStale(final ManagedHttpClientConnection conn) {
+        try {
+            return conn.isStale();
+        } catch (IllegalStateException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the evictor and closes the connections.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (this.evictor != null) {
+                this.evictor.shutdownNow();
+            }
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Returns the number of connections closed by the evictor because they were expired or idle.
+     *
+     * @return the number of evicted connections
+     */
+    public long getEvictedCount() {
+        return this.evictedCount.get();
+    }
+
+    /**
+     * Returns the number of connections closed by the evictor because they were closed by the
+     * peer.
+     *
+     * @return the number of stale connections
+     */
+    public long getStaleCount() {
+        return this.staleCount.get();
+    }
+
+    /**
+     * Returns the limits by host pattern, the most specific pattern first.
+     *
+     * @return the maximum number of connections per route by host pattern
+     */
+    public Map<String, Integer> getRouteLimits() {
+        return this.routeLimits.toMap();
+    }
+
+    /**
+     * Returns the leased, available and pending connections of each route in the pool.
+     *
+     * @return the statistics by route
+     */
+    public Map<HttpRoute, PoolStats> getRouteStats() {
+        final Map<HttpRoute, PoolStats> stats = new LinkedHashMap<>();
+        for (final HttpRoute route : getRoutes()) {
+            stats.put(route, getStats(route));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Returns the number of routes whose limit is remembered.
+     *
+     * @return the number of routes
+     */
+    int getLimitedRouteCount() {
+        return this.routeLimits.getLimitedRouteCount();
+    }
+
+}
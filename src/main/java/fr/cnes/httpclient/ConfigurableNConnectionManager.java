@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+
+/**
+ * Connection manager of the asynchronous client, which sets the maximum number of connections
+ * per route by host pattern.
+ *
+ * The limit of a route is given by the most specific pattern matching its target host, that is
+ * the longest one, and by the default limit per route otherwise. The patterns have the syntax of
+ * the no_proxy entries, as for {@link ConfigurableConnectionManager}.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class ConfigurableNConnectionManager extends PoolingNHttpClientConnectionManager {
+
+    /**
+     * Limits by host pattern.
+     */
+    private final RouteLimits routeLimits = new RouteLimits();
+
+    /**
+     * Creates a connection manager.
+     *
+     * @param ioreactor I/O reactor
+     * @param registry I/O session strategies by scheme
+     */
+    public ConfigurableNConnectionManager(final ConnectingIOReactor ioreactor,
+            final Registry<SchemeIOSessionStrategy> registry) {
+        super(ioreactor, registry);
+    }
+
+    /**
+     * Applies the limit of the route, from the host patterns, before leasing a connection.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<NHttpClientConnection> requestConnection(final HttpRoute route,
+            final Object state, final long connectTimeout, final long leaseTimeout,
+            final TimeUnit tunit, final FutureCallback<NHttpClientConnection> callback) {
+        this.routeLimits.apply(route, this::setMaxPerRoute);
+        return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                callback);
+    }
+
+    /**
+     * Sets the maximum number of connections of the routes whose target host matches a pattern.
+     * Setting a pattern again replaces its limit.
+     *
+     * @param hostPattern host pattern
+     * @param max maximum number of connections per route
+     * @throws IllegalArgumentException When max is not positive or when the pattern is not valid
+     */
+    public void setMaxPerRoute(final String hostPattern, final int max) {
+        this.routeLimits.set(hostPattern, max, getRoutes(), this::setMaxPerRoute);
+    }
+
+    /**
+     * Returns the limits by host pattern, the most specific pattern first.
+     *
+     * @return the maximum number of connections per route by host pattern
+     */
+    public Map<String, Integer> getRouteLimits() {
+        return this.routeLimits.toMap();
+    }
+
+}
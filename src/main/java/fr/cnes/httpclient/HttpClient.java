@@ -22,24 +22,25 @@ package fr.cnes.httpclient;
 
 import fr.cnes.httpclient.HttpClientFactory.Type;
 import java.io.Closeable;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
@@ -50,16 +51,24 @@ import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.ServiceUnavailableRetryStrategy;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.client.LaxRedirectStrategy;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -71,7 +80,9 @@ import org.apache.logging.log4j.Logger;
 public class HttpClient implements org.apache.http.client.HttpClient, Closeable {
 
     /**
-     * Maximum total of connections per route.
+     * Maximum total of connections per route. The routes whose target host matches a pattern
+     * have their own limit, given by the key {@value #CONNECTION_MAX_PER_ROUTE}.&lt;pattern&gt;,
+     * for instance connectionMaxPerRoute.*.example.org.
      */
     public static final String CONNECTION_MAX_PER_ROUTE = "connectionMaxPerRoute";
     /**
@@ -82,6 +93,31 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
      * maximum time to live for persistent connections.
      */
     public static final String CONNECTION_TIME_TO_LIVE_MS = "connectionTimeToLiveMs";
+    /**
+     * Time in ms between two runs of the background thread closing the expired and idle
+     * connections (not set by default, no background thread).
+     */
+    public static final String CONNECTION_EVICTOR_INTERVAL_MS = "connectionEvictorIntervalMs";
+    /**
+     * Idle time in ms after which the background thread closes a connection
+     * ({@value #DEFAULT_CONNECTION_MAX_IDLE_MS} by default).
+     */
+    public static final String CONNECTION_MAX_IDLE_MS = "connectionMaxIdleMs";
+    /**
+     * Default idle time in ms after which the background thread closes a connection.
+     */
+    public static final long DEFAULT_CONNECTION_MAX_IDLE_MS = 30_000L;
+    /**
+     * The background thread also closes the available connections closed by the peer (true or
+     * false, false by default).
+     */
+    public static final String CONNECTION_STALE_CHECK = "connectionStaleCheck";
+    /**
+     * Inactivity time in ms after which a connection is checked before being leased, 0 to
+     * disable the check (2000 by default).
+     */
+    public static final String CONNECTION_VALIDATE_AFTER_INACTIVITY_MS =
+            "connectionValidateAfterInactivityMs";
     /**
      * number of retries before the request fails.
      */
@@ -127,9 +163,43 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
      */    
     public static final String TRUSTSTORE_PWD = "truststorePassword";    
     /**
-     * Key manager algorithm.
+     * Maximum number of TLS sessions cached by the SSL context, 0 for no limit (default of the
+     * JVM otherwise).
+     */
+    public static final String TLS_SESSION_CACHE_SIZE = "tlsSessionCacheSize";
+    /**
+     * Timeout in s of the TLS sessions cached by the SSL context, 0 for no limit (default of the
+     * JVM otherwise).
+     */
+    public static final String TLS_SESSION_TIMEOUT = "tlsSessionTimeout";
+    /**
+     * Comma-separated URLs requested when the client is created by {@link HttpClientFactory},
+     * so that the pooled connections to their routes are opened and authenticated before the
+     * traffic arrives (not set by default).
+     */
+    public static final String WARM_UP_URLS = "warmUpUrls";
+    /**
+     * Number of connections opened by route during the warm-up (1 by default).
      */
-    private static final String KEY_MANAGER_ALGO = "SunX509";
+    public static final String WARM_UP_CONNECTIONS = "warmUpConnections";
+    /**
+     * Maximum number of threads sending the warm-up requests, and so of connections opened by
+     * the warm-up ({@value #DEFAULT_WARM_UP_THREADS} by default).
+     */
+    public static final String WARM_UP_THREADS = "warmUpThreads";
+    /**
+     * Default maximum number of threads sending the warm-up requests.
+     */
+    public static final int DEFAULT_WARM_UP_THREADS = 16;
+    /**
+     * Time in ms given to the warm-up requests ({@value #DEFAULT_WARM_UP_TIMEOUT_MS} by default).
+     * The requests which have not completed are reported as failures.
+     */
+    public static final String WARM_UP_TIMEOUT_MS = "warmUpTimeoutMs";
+    /**
+     * Default time in ms given to the warm-up requests.
+     */
+    public static final long DEFAULT_WARM_UP_TIMEOUT_MS = 30_000L;
 
     /**
      * Disable SSL certificate checking.
@@ -192,6 +262,28 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
      */
     private final HttpClientFactory.Type type;    
 
+    /**
+     * Options for HTTP client.
+     */
+    private final Map<String, String> config;
+
+    /**
+     * Full and resumed TLS handshakes.
+     */
+    private final TlsSessionMetrics tlsSessionMetrics = new TlsSessionMetrics();
+
+    /**
+     * Pool of the connections. Set while the builder is created by the constructor, so it must
+     * not be initialized here.
+     */
+    private ConfigurableConnectionManager connectionPool;
+
+    /**
+     * Socket factory of the TLS connections. Set while the builder is created by the
+     * constructor, so it must not be initialized here.
+     */
+    private LayeredConnectionSocketFactory sslSocketFactory;
+
     /**
      * Creates a HTTP client without proxy that does not ignore the SSL certificates.
      */
@@ -231,6 +323,7 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
      */    
     protected HttpClient(final boolean isDisabledSSL, final Map<String, String> config, final Type type) {
         this.type = type;
+        this.config = Collections.unmodifiableMap(new HashMap<>(config));
         this.httpClient = createBuilder(isDisabledSSL, config).build();
     }
 
@@ -245,15 +338,20 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
             final Map<String, String> config) {
         LOG.traceEntry("isDisabledSSL: {}\nconfig: {}", isDisabledSSL, config);
         
-        final HttpClientBuilder builder = HttpClients.custom();
+        final HttpClientBuilder builder = new MetricsHttpClientBuilder();
         if (isDisabledSSL) {
             LOG.warn("SSL Certificate checking is disabled. The connection is insecured.");
-            builder.setSSLContext(disableSSLCertificateChecking())
-                    .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+            this.sslSocketFactory = new TlsSessionSocketFactory(
+                    disableSSLCertificateChecking(config), NoopHostnameVerifier.INSTANCE,
+                    this.tlsSessionMetrics);
         } else {         
             final SSLContext sslCtx = createJKSContext(config);            
-            builder.setSSLContext(sslCtx);            
+            this.sslSocketFactory = sslCtx == null ? SSLConnectionSocketFactory.getSocketFactory()
+                    : new TlsSessionSocketFactory(sslCtx,
+                            SSLConnectionSocketFactory.getDefaultHostnameVerifier(),
+                            this.tlsSessionMetrics);
         }
+        builder.setSSLSocketFactory(this.sslSocketFactory);
 
         return LOG.traceExit(createBuilderExtension(builder, config));
     }
@@ -269,18 +367,13 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
             final Map<String, String> config) {
         LOG.traceEntry("builder: {}\nconfig: {}", builder, config);
         
+        LOG.debug("configure connectionManager");
+        this.connectionPool = createConnectionManager(config);
+        configureConnectionNumber(this.connectionPool, config);
+        configureEviction(this.connectionPool, config);
+        builder.setConnectionManager(this.connectionPool);
         HttpClientBuilder extBuilder = createBuilderProxy(builder);
         extBuilder = createRedirect(extBuilder);
-        if (config.containsKey(CONNECTION_MAX_PER_ROUTE) && config.containsKey(CONNECTION_MAX_TOTAL)) {
-            LOG.debug("configure connectionManager");
-            extBuilder = createConnectionNumber(extBuilder, Integer.parseInt(config.get(
-                    CONNECTION_MAX_PER_ROUTE)), Integer.parseInt(config.get(CONNECTION_MAX_TOTAL)));
-        }
-        if (config.containsKey(CONNECTION_TIME_TO_LIVE_MS)) {
-            LOG.debug("configure timeout");
-            extBuilder = createConnectionTimeout(extBuilder, Long.parseLong(config.get(
-                    CONNECTION_TIME_TO_LIVE_MS)));
-        }
         if (config.containsKey(MAX_REDIRECTION)) {
             LOG.debug("configure max number of redirection");
             extBuilder = createRedirectsNumber(builder, Integer.parseInt(config.get(MAX_REDIRECTION)));
@@ -308,34 +401,80 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
     }
 
     /**
-     * Creates a builder that configures the max connection per route and the max connection total.
+     * Creates the connection manager. The builder ignores its own connection settings when a
+     * manager is given, so the time to live {@value #CONNECTION_TIME_TO_LIVE_MS} is applied here.
      *
-     * @param builder builder
-     * @param connPerRoute connection per route
-     * @param total total connection
-     * @return builder
+     * @param config options for HTTP client
+     * @return the connection manager
      */
-    private HttpClientBuilder createConnectionNumber(final HttpClientBuilder builder,
-            final int connPerRoute, final int total) {
-        LOG.traceEntry("builder: {}\nconnPerRoute: {}\ntotal: {}", builder, connPerRoute, total);
-        LOG.debug("set default max per route: {}", connPerRoute);
-        builder.setMaxConnPerRoute(connPerRoute);
-        LOG.debug("set max total: {}", total);        
-        builder.setMaxConnTotal(total);
-        return LOG.traceExit(builder);
+    protected ConfigurableConnectionManager createConnectionManager(
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        final long timeToLiveMs = config.containsKey(CONNECTION_TIME_TO_LIVE_MS)
+                ? Long.parseLong(config.get(CONNECTION_TIME_TO_LIVE_MS))
+                : -1;
+        LOG.debug("set time to live: {}", timeToLiveMs);
+        return LOG.traceExit(new ConfigurableConnectionManager(getSocketFactoryRegistry(),
+                timeToLiveMs));
     }
 
     /**
-     * Creates timeout connection.
+     * Configures the max connection total, the default max connection per route and the max
+     * connection of the routes matching a host pattern.
      *
-     * @param builder builder
-     * @param timeMs time in ms
-     * @return builder
+     * @param manager connection manager
+     * @param config options for HTTP client
+     */
+    private static void configureConnectionNumber(final ConfigurableConnectionManager manager,
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        if (config.containsKey(CONNECTION_MAX_TOTAL)) {
+            LOG.debug("set max total: {}", config.get(CONNECTION_MAX_TOTAL));
+            manager.setMaxTotal(Integer.parseInt(config.get(CONNECTION_MAX_TOTAL)));
+        }
+        if (config.containsKey(CONNECTION_MAX_PER_ROUTE)) {
+            LOG.debug("set default max per route: {}", config.get(CONNECTION_MAX_PER_ROUTE));
+            manager.setDefaultMaxPerRoute(Integer.parseInt(config.get(CONNECTION_MAX_PER_ROUTE)));
+        }
+        final String prefix = CONNECTION_MAX_PER_ROUTE + ".";
+        for (final Map.Entry<String, String> entry : config.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                LOG.debug("set max per route of {}: {}", entry.getKey(), entry.getValue());
+                manager.setMaxPerRoute(entry.getKey().substring(prefix.length()),
+                        Integer.parseInt(entry.getValue()));
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Configures the validation of the inactive connections and starts the background thread
+     * closing the connections when {@value #CONNECTION_EVICTOR_INTERVAL_MS} is set.
+     *
+     * @param manager connection manager
+     * @param config options for HTTP client
      */
-    private HttpClientBuilder createConnectionTimeout(final HttpClientBuilder builder,
-            final long timeMs) {
-        LOG.traceEntry("builder: {}\ntimeMs: {}", builder, timeMs);
-        return LOG.traceExit(builder.setConnectionTimeToLive(timeMs, TimeUnit.MILLISECONDS));
+    private static void configureEviction(final ConfigurableConnectionManager manager,
+            final Map<String, String> config) {
+        LOG.traceEntry();
+        if (config.containsKey(CONNECTION_VALIDATE_AFTER_INACTIVITY_MS)) {
+            LOG.debug("set validate after inactivity: {}",
+                    config.get(CONNECTION_VALIDATE_AFTER_INACTIVITY_MS));
+            manager.setValidateAfterInactivity(Integer.parseInt(config.get(
+                    CONNECTION_VALIDATE_AFTER_INACTIVITY_MS)));
+        }
+        if (config.containsKey(CONNECTION_EVICTOR_INTERVAL_MS)) {
+            final long maxIdleMs = config.containsKey(CONNECTION_MAX_IDLE_MS)
+                    ? Long.parseLong(config.get(CONNECTION_MAX_IDLE_MS))
+                    : DEFAULT_CONNECTION_MAX_IDLE_MS;
+            final boolean isCheckingStale = Boolean.parseBoolean(config.get(
+                    CONNECTION_STALE_CHECK));
+            LOG.debug("start evictor: interval={}, maxIdleMs={}, staleCheck={}",
+                    config.get(CONNECTION_EVICTOR_INTERVAL_MS), maxIdleMs, isCheckingStale);
+            manager.startEvictor(Long.parseLong(config.get(CONNECTION_EVICTOR_INTERVAL_MS)),
+                    maxIdleMs, isCheckingStale);
+        }
+        LOG.traceExit();
     }
 
     /**
@@ -410,123 +549,204 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
     }    
 
     /**
-     * Disables the SSL certificate checking.
+     * Creates the SSL context of a client.
      *
+     * @param isDisabledSSL True when SSL certificates are disabled otherwise False
+     * @param config options that might contain TLS parameters (keystore, trustore and session
+     * cache)
+     * @return SSL context or {@code null}
+     */
+    static SSLContext createSSLContext(final boolean isDisabledSSL,
+            final Map<String, String> config) {
+        return isDisabledSSL ? disableSSLCertificateChecking(config) : createJKSContext(config);
+    }
+
+    /**
+     * Disables the SSL certificate checking. The context is shared by the clients which disable
+     * the SSL certificate checking.
+     *
+     * @param config options that might contain the session cache parameters
      * @return the SSL context
-     * @throws RuntimeException When a NoSuchAlgorithmException or KeyManagementException happens
+     * @throws RuntimeException When TLS is not available
      */
-    private SSLContext disableSSLCertificateChecking() {
+    private static SSLContext disableSSLCertificateChecking(final Map<String, String> config) {
         LOG.traceEntry();
-        try {
-            final SSLContext sslCtx = SSLContext.getInstance("TLS");
-            sslCtx.init(null, new TrustManager[]{TRUST_MANAGER}, null);
-            return LOG.traceExit(sslCtx);
-        } catch (NoSuchAlgorithmException | KeyManagementException ex) {
-            throw LOG.throwing(new RuntimeException(ex));
-        }        
+        final SSLContext sslCtx = SSLContextCache.getInstance().get(true, config);
+        if (sslCtx == null) {
+            throw LOG.throwing(new RuntimeException("TLS is not available"));
+        }
+        return LOG.traceExit(sslCtx);
     }
     
     /**
-     * Configures key store.
-     * @param config options that might contain keystore parameters
-     * @return Key manager or {@code null}
+     * Creates SSL context. The context is shared by the clients using the same stores.
+     * @param config options that might contain TLS parameters (keystore and trustore)
+     * @return SSL context or {@code null}
      */
-    private KeyManagerFactory configureKeyStore(final Map<String, String> config) {
+    private static SSLContext createJKSContext(final Map<String, String> config) {
         LOG.traceEntry("config: {}", config);
-        
-        final String keyStoreType = config.getOrDefault(KEYSTORE_TYPE, System.getProperty("javax.net.ssl.keyStoreType"));
-        final String keyStorePath = config.getOrDefault(KEYSTORE_PATH, System.getProperty("javax.net.ssl.keyStore"));
-        final String keyStorePwd = config.getOrDefault(KEYSTORE_PWD, System.getProperty("javax.net.ssl.keyStorePassword"));
-        KeyManagerFactory kmf;
-        if(keyStoreType != null && keyStorePath != null && keyStorePwd != null) {
-            LOG.debug("keyStoreType: {}",keyStoreType);
-            LOG.debug("keyStorePath: {}",keyStorePath);
-            LOG.debug("keyStorePwd: ******");            
-            try {                
-                final KeyStore ks = KeyStore.getInstance(keyStoreType);
-                final char[] keyPassphrase = keyStorePwd.toCharArray();                
-                ks.load(new FileInputStream(keyStorePath), keyPassphrase);
-                kmf = KeyManagerFactory.getInstance(KEY_MANAGER_ALGO);
-                kmf.init(ks, keyPassphrase);
-            } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException | IOException | CertificateException ex) {
-                LOG.catching(ex);
-                kmf = null;
-            }            
-        } else {
-            kmf = null;
+        return LOG.traceExit(SSLContextCache.getInstance().get(config));
+    }
+
+    /**
+     * Warms up the client with the options {@value #WARM_UP_URLS} and
+     * {@value #WARM_UP_CONNECTIONS} of its configuration.
+     *
+     * @return the durations of the phases of the warm-up
+     */
+    public WarmUpReport warmUp() {
+        final List<String> urls = new ArrayList<>();
+        for (final String url : this.config.getOrDefault(WARM_UP_URLS, "").split("\\s*,\\s*")) {
+            if (!url.isEmpty()) {
+                urls.add(url);
+            }
         }
-        
-        return LOG.traceExit(kmf);
+        return warmUp(urls, Integer.parseInt(this.config.getOrDefault(WARM_UP_CONNECTIONS, "1")));
     }
-    
+
     /**
-     * Configures trust store.
-     * @param config options that might contain truststore parameters
-     * @return Trust manager or {@code null}
-     */    
-    private TrustManagerFactory configureTrustStore(final Map<String, String> config) {
-        LOG.traceEntry("config: {}", config);
-        
-        final String trustStoreType = config.getOrDefault(TRUSTSTORE_TYPE, System.getProperty("javax.net.ssl.trustStoreType"));
-        final String trustStorePath = config.getOrDefault(TRUSTSTORE_PATH, System.getProperty("javax.net.ssl.trustStore"));
-        final String trustStorePwd = config.getOrDefault(TRUSTSTORE_PWD, System.getProperty("javax.net.ssl.trustStorePassword"));      
-        TrustManagerFactory tmf;
-        if(trustStoreType != null && trustStorePath != null && trustStorePwd != null) {
-            LOG.debug("trustStoreType: {}",trustStoreType);
-            LOG.debug("trustStorePath: {}",trustStorePath);
-            LOG.debug("trustStorePwd: ******");
-            try {
-                final KeyStore tks = KeyStore.getInstance(trustStoreType);
-                final char[] trustPassphrase = trustStorePwd.toCharArray();                
-                tks.load(new FileInputStream(trustStorePath), trustPassphrase);
-                tmf = TrustManagerFactory.getInstance(KEY_MANAGER_ALGO);
-                tmf.init(tks);
-            } catch (KeyStoreException | IOException | NoSuchAlgorithmException | CertificateException ex) {
-                LOG.catching(ex);
-                tmf = null;
-            }         
-        } else {
-            tmf = null;
+     * Warms up the client before the traffic arrives. The client first authenticates itself when
+     * the proxy requires it, then sends connectionsPerRoute HEAD requests to each URL. The
+     * requests are released at the same time, so that each one leases its own connection and
+     * leaves it authenticated in the pool. The connections beyond the pool limit per route are
+     * not opened.
+     * <p>
+     * The requests are sent by at most {@value #WARM_UP_THREADS} threads, the connections beyond
+     * this number are not opened. The requests which have not completed within
+     * {@value #WARM_UP_TIMEOUT_MS} are cancelled.
+     * </p>
+     * <p>
+     * The warm-up does not fail: the errors and the timeouts are logged and reported.
+     * </p>
+     *
+     * @param urls URLs whose routes are warmed up
+     * @param connectionsPerRoute number of connections opened by route
+     * @return the durations of the phases of the warm-up
+     */
+    public WarmUpReport warmUp(final List<String> urls, final int connectionsPerRoute) {
+        LOG.traceEntry("urls: {}\nconnectionsPerRoute: {}", urls, connectionsPerRoute);
+        final WarmUpReport report = new WarmUpReport();
+        warmUpAuthentication(report);
+        final int maxThreads = Integer.parseInt(this.config.getOrDefault(WARM_UP_THREADS,
+                String.valueOf(DEFAULT_WARM_UP_THREADS)));
+        final int count = Math.min(urls.size() * Math.max(0, connectionsPerRoute),
+                Math.max(0, maxThreads));
+        if (count < urls.size() * connectionsPerRoute) {
+            LOG.warn("Warm-up limited to {} connections by {}", count, WARM_UP_THREADS);
         }
-        
-        return LOG.traceExit(tmf);
-    }    
-    
+        if (count > 0) {
+            final long start = System.nanoTime();
+            final long deadline = start + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(
+                    this.config.getOrDefault(WARM_UP_TIMEOUT_MS,
+                            String.valueOf(DEFAULT_WARM_UP_TIMEOUT_MS))));
+            final CountDownLatch ready = new CountDownLatch(count);
+            final AtomicInteger succeeded = new AtomicInteger();
+            final ExecutorService executor = Executors.newFixedThreadPool(count, runnable -> {
+                final Thread thread = new Thread(runnable, "jspnego-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final Map<Future<?>, String> futures = new LinkedHashMap<>();
+            // The routes are taken in turn, so that each one is warmed up when the count is capped
+            for (int i = 0; futures.size() < count; i++) {
+                final String url = urls.get(i % urls.size());
+                futures.put(executor.submit(() -> {
+                    warmUpConnection(url, ready, succeeded, report);
+                }), url);
+            }
+            executor.shutdown();
+            for (final Map.Entry<Future<?>, String> future : futures.entrySet()) {
+                try {
+                    future.getKey().get(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    report.addFailure("Warm-up interrupted");
+                    break;
+                } catch (ExecutionException ex) {
+                    report.addFailure(String.valueOf(ex.getCause()));
+                } catch (TimeoutException ex) {
+                    LOG.warn("Warm-up request to {} timed out", future.getValue());
+                    report.addFailure(future.getValue() + " : timed out");
+                }
+            }
+            executor.shutdownNow();
+            report.setConnectionCount(succeeded.get());
+            report.addPhase(WarmUpReport.CONNECTIONS, start);
+        }
+        LOG.info("Warm-up of the HTTP client : {}", report);
+        return LOG.traceExit(report);
+    }
+
     /**
-     * Creates SSL context.
-     * @param config options that might contain TLS parameters (keystore and trustore)
-     * @return SSL context or {@code null}
+     * Authenticates the client before the warm-up requests. The phases are recorded in the
+     * report. In this case, there is no authentication.
+     *
+     * @param report report of the warm-up
      */
-    private SSLContext createJKSContext(final Map<String, String> config) {
-        LOG.traceEntry("config: {}", config);
-        
-        SSLContext sslCtx;
+    protected void warmUpAuthentication(final WarmUpReport report) {
+        LOG.traceEntry();
+        LOG.traceExit();
+    }
+
+    /**
+     * Waits for the other warm-up requests and sends a warm-up request.
+     *
+     * @param url URL
+     * @param ready counts the requests which are not yet ready to be sent
+     * @param succeeded counts the requests which succeeded
+     * @param report report of the warm-up
+     */
+    private void warmUpConnection(final String url, final CountDownLatch ready,
+            final AtomicInteger succeeded, final WarmUpReport report) {
+        ready.countDown();
         try {
-            sslCtx = SSLContext.getInstance("TLS");
-           
-            final KeyManagerFactory kmf = configureKeyStore(config);
-            final TrustManagerFactory tmf = configureTrustStore(config);
-            final KeyManager[] keys;
-            if(kmf == null) {
-                keys = null;
+            ready.await();
+            final HttpResponse response = execute(new HttpHead(url), HttpClientContext.create());
+            EntityUtils.consumeQuietly(response.getEntity());
+            if (response.getStatusLine().getStatusCode()
+                    == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+                report.addFailure(url + " : proxy authentication failed");
             } else {
-                keys = kmf.getKeyManagers();
+                succeeded.incrementAndGet();
             }
-            
-            final TrustManager[] trusts;
-            if(tmf == null) {
-                trusts = null;
-            } else {
-                trusts = tmf.getTrustManagers();
-            }            
-            sslCtx.init(keys, trusts, new SecureRandom());            
-            LOG.info("Creating a SSL configuration with JKS");
-        } catch (NoSuchAlgorithmException | KeyManagementException ex) {
-            LOG.catching(ex);
-            sslCtx = null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Warm-up request to {} failed : {}", url, ex.getMessage());
+            report.addFailure(url + " : " + ex);
         }
-      
-        return LOG.traceExit(sslCtx);
+    }
+
+    /**
+     * Returns the socket factories of the client, for a connection manager created by a
+     * subclass.
+     *
+     * @return the socket factories by scheme
+     */
+    protected final Registry<ConnectionSocketFactory> getSocketFactoryRegistry() {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", this.sslSocketFactory)
+                .build();
+    }
+
+    /**
+     * Returns the number of full and resumed TLS handshakes of the client.
+     *
+     * @return the TLS handshake metrics
+     */
+    public TlsSessionMetrics getTlsSessionMetrics() {
+        return this.tlsSessionMetrics;
+    }
+
+    /**
+     * Returns the pool of the connections, to read its statistics or to resize it at runtime.
+     *
+     * @return the connection manager
+     */
+    public ConfigurableConnectionManager getConnectionPool() {
+        return this.connectionPool;
     }
 
     /**
@@ -548,6 +768,15 @@ public class HttpClient implements org.apache.http.client.HttpClient, Closeable
         return LOG.traceExit(this.type);
     }
 
+    /**
+     * Returns the options for HTTP client.
+     * @return the options as an unmodifiable map
+     */
+    public Map<String, String> getConfig() {
+        LOG.traceEntry();
+        return LOG.traceExit(this.config);
+    }
+
     /**
      * {@inheritDoc}
      */
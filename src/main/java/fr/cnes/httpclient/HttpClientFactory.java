@@ -20,9 +20,10 @@
  */
 package fr.cnes.httpclient;
 
+import fr.cnes.httpclient.configuration.ProxyConfig;
 import fr.cnes.httpclient.configuration.ProxyConfiguration;
-import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
-import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -76,7 +77,8 @@ public class HttpClientFactory {
 
     /**
      * Creates a HTTP client according to a proxy type, a parameter to disable the SSL certificate
-     * checking and options for HTTP client.
+     * checking and options for HTTP client. The client is warmed up when
+     * {@value fr.cnes.httpclient.HttpClient#WARM_UP_URLS} is set.
      *
      * @param type proxy type
      * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
@@ -98,7 +100,8 @@ public class HttpClientFactory {
                 break;
             case PROXY_BASIC:
                 LOG.debug("Uses PROXY_BASIC");
-                if(ProxyConfiguration.getConfig().get("username").isEmpty()) {
+                if(config.getOrDefault(ProxyConfiguration.USERNAME.getKey(),
+                        ProxyConfiguration.USERNAME.getValue()).isEmpty()) {
                     LOG.debug("Uses proxy without authentication");
                     httpclient = new ProxyHttpClientWithoutAuth(isDisabledSSL, config);                    
                 } else {
@@ -113,7 +116,150 @@ public class HttpClientFactory {
             default:
                 throw LOG.throwing(new IllegalArgumentException("Unknown httpclient type"));
         }
+        if (config.containsKey(HttpClient.WARM_UP_URLS)) {
+            LOG.debug("Warms up the HTTP client");
+            httpclient.warmUp();
+        }
         return LOG.traceExit(httpclient);
     }
 
+    /**
+     * Creates a HTTP client through a proxy with/without a basic authentication. The proxy
+     * configuration belongs to the client, so that several clients with different proxies can be
+     * used at the same time.
+     *
+     * @param proxyConfig proxy configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the HttpClient
+     */
+    public static HttpClient create(final ProxyConfig proxyConfig, final boolean isDisabledSSL,
+            final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(create(Type.PROXY_BASIC, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Creates a HTTP client through a proxy authenticated by SPNego and configured by the API. The
+     * SPNego configuration belongs to the client and to its GSS clients, so that several clients
+     * with different principals or proxies can be used at the same time.
+     *
+     * @param proxyConfig SPNego configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the HttpClient
+     */
+    public static HttpClient create(final ProxySPNegoAPIConfig proxyConfig,
+            final boolean isDisabledSSL, final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(create(Type.PROXY_SPNEGO_API, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Creates a HTTP client through a proxy authenticated by SPNego and configured by a JAAS
+     * configuration file. The SPNego configuration belongs to the client and to its GSS clients,
+     * so that several clients with different JAAS files or proxies can be used at the same time.
+     *
+     * @param proxyConfig SPNego configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the HttpClient
+     */
+    public static HttpClient create(final ProxySPNegoJAASConfig proxyConfig,
+            final boolean isDisabledSSL, final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(create(Type.PROXY_SPNEGO_JAAS, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Creates an asynchronous HTTP client according to a given proxy type.
+     *
+     * @param type proxy type
+     * @return the asynchronous HTTP client
+     * @throws IllegalArgumentException When the proxy configuration is not valid
+     */
+    public static AsyncHttpClient createAsync(final Type type) {
+        return HttpClientFactory.createAsync(type, false, new HashMap<>());
+    }
+
+    /**
+     * Creates an asynchronous HTTP client according to a proxy type, a parameter to disable the
+     * SSL certificate checking and options for HTTP client.
+     *
+     * @param type proxy type
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the asynchronous HTTP client
+     * @throws IllegalArgumentException When the proxy configuration is not valid
+     */
+    public static AsyncHttpClient createAsync(final Type type, final boolean isDisabledSSL,
+            final Map<String, String> config) {
+        LOG.traceEntry("type: {}\nisDisabledSSL: {}\nconfig: {}", type, isDisabledSSL, config);
+        return LOG.traceExit(new AsyncHttpClient(type, isDisabledSSL, config));
+    }
+
+    /**
+     * Creates an asynchronous HTTP client through a proxy with/without a basic authentication.
+     *
+     * @param proxyConfig proxy configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the asynchronous HTTP client
+     */
+    public static AsyncHttpClient createAsync(final ProxyConfig proxyConfig,
+            final boolean isDisabledSSL, final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(createAsync(Type.PROXY_BASIC, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Creates an asynchronous HTTP client through a proxy authenticated by SPNego and configured
+     * by the API.
+     *
+     * @param proxyConfig SPNego configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the asynchronous HTTP client
+     */
+    public static AsyncHttpClient createAsync(final ProxySPNegoAPIConfig proxyConfig,
+            final boolean isDisabledSSL, final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(createAsync(Type.PROXY_SPNEGO_API, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Creates an asynchronous HTTP client through a proxy authenticated by SPNego and configured
+     * by a JAAS configuration file.
+     *
+     * @param proxyConfig SPNego configuration
+     * @param isDisabledSSL True when the SSL certificate checking is disabled otherwise False
+     * @param config options for HTTP Client
+     * @return the asynchronous HTTP client
+     */
+    public static AsyncHttpClient createAsync(final ProxySPNegoJAASConfig proxyConfig,
+            final boolean isDisabledSSL, final Map<String, String> config) {
+        LOG.traceEntry("proxyConfig: {}", proxyConfig);
+        return LOG.traceExit(createAsync(Type.PROXY_SPNEGO_JAAS, isDisabledSSL,
+                merge(config, proxyConfig.getConfig())));
+    }
+
+    /**
+     * Merges the options for HTTP client with the proxy configuration.
+     *
+     * @param config options for HTTP client
+     * @param proxyConfig proxy configuration, which overrides the options
+     * @return the merged options
+     */
+    private static Map<String, String> merge(final Map<String, String> config,
+            final Map<String, String> proxyConfig) {
+        final Map<String, String> merged = new HashMap<>(config);
+        merged.putAll(proxyConfig);
+        return merged;
+    }
+
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Builder of HTTP clients recording the duration of the requests in the metrics.
+ *
+ * The duration covers the authentication rounds with the proxy and the server but not the
+ * retries and the redirects, each of them being recorded as a request.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+final class MetricsHttpClientBuilder extends HttpClientBuilder {
+
+    /**
+     * Creates the builder.
+     */
+    MetricsHttpClientBuilder() {
+        super();
+    }
+
+    /**
+     * Records the duration of the requests.
+     *
+     * @param protocolExec protocol execution chain
+     * @return the chain recording the duration of the requests
+     */
+    @Override
+    protected ClientExecChain decorateProtocolExec(final ClientExecChain protocolExec) {
+        return (route, request, context, execAware) -> {
+            final long start = System.nanoTime();
+            try {
+                return protocolExec.execute(route, request, context, execAware);
+            } finally {
+                Metrics.record(MetricsRecorder.Timer.REQUEST,
+                        Metrics.routeOf(route.getTargetHost()), start);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.http.conn.util.InetAddressUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compiled list of the hosts for which the proxy is not needed (no_proxy).
+ *
+ * The list is compiled once, so that the cost of a match depends on the number of labels of the
+ * host and not on the number of entries. An entry can be :
+ * <ul>
+ * <li><code>www.example.org</code> : this host only, stored in a hash set. An IP address is
+ * stored in the prefix tree of the IP ranges</li>
+ * <li><code>.example.org</code> : example.org and all its subdomains, stored in a trie of the
+ * reversed labels</li>
+ * <li><code>*.example.org</code> : the subdomains of example.org only, stored in the same
+ * trie</li>
+ * <li><code>10.0.0.0/8</code> or <code>fd00::/8</code> : an IP range, stored in a binary prefix
+ * tree. An IPv4 prefix such as <code>192.168.*</code> is converted to a range</li>
+ * <li><code>*</code> : all the hosts</li>
+ * <li>any other pattern with <code>*</code> : a glob, checked after the other entries</li>
+ * </ul>
+ * The host names are not case sensitive and no DNS resolution is done.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class NoProxyMatcher {
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(NoProxyMatcher.class.getName());
+
+    /**
+     * IPv4 prefix with a wildcard, as 192.168.*
+     */
+    private static final Pattern IPV4_WILDCARD = Pattern.compile("(\\d{1,3}\\.){1,3}\\*");
+
+    /**
+     * True when all the hosts are excluded.
+     */
+    private final boolean isMatchingAll;
+
+    /**
+     * Exact host names and IP addresses.
+     */
+    private final Set<String> hosts;
+
+    /**
+     * Reversed labels of the domains.
+     */
+    private final DomainNode domains;
+
+    /**
+     * IPv4 ranges.
+     */
+    private final IpNode ipv4Ranges;
+
+    /**
+     * IPv6 ranges.
+     */
+    private final IpNode ipv6Ranges;
+
+    /**
+     * Other patterns.
+     */
+    private final List<Pattern> globs;
+
+    /**
+     * Compiles the entries.
+     *
+     * @param entries hosts, domains, IP ranges or patterns. The blank entries are ignored
+     * @throws IllegalArgumentException When an IP range is not valid
+     */
+    private NoProxyMatcher(final Collection<String> entries) {
+        boolean matchAll = false;
+        final Set<String> exactHosts = new HashSet<>();
+        final List<Pattern> patterns = new ArrayList<>();
+        this.domains = new DomainNode();
+        this.ipv4Ranges = new IpNode();
+        this.ipv6Ranges = new IpNode();
+        for (final String rawEntry : entries) {
+            final String entry = rawEntry == null ? "" : rawEntry.trim().toLowerCase(Locale.ROOT);
+            if (entry.isEmpty()) {
+                continue;
+            } else if ("*".equals(entry)) {
+                matchAll = true;
+            } else if (entry.indexOf('/') >= 0) {
+                addRange(entry);
+            } else if (IPV4_WILDCARD.matcher(entry).matches()) {
+                final String[] octets = entry.substring(0, entry.length() - 2).split("\\.");
+                final StringBuilder network = new StringBuilder();
+                for (int i = 0; i < 4; i++) {
+                    network.append(i == 0 ? "" : ".").append(i < octets.length ? octets[i] : "0");
+                }
+                addRange(network.append('/').append(octets.length * 8).toString());
+            } else if (entry.startsWith("*.") && entry.indexOf('*', 1) < 0) {
+                this.domains.add(entry.substring(2), false);
+            } else if (entry.startsWith(".") && entry.indexOf('*') < 0) {
+                this.domains.add(entry.substring(1), true);
+            } else if (entry.indexOf('*') >= 0) {
+                patterns.add(toPattern(entry));
+            } else if (toAddress(entry) != null) {
+                final byte[] address = toAddress(entry);
+                (address.length == 4 ? this.ipv4Ranges : this.ipv6Ranges).add(address,
+                        address.length * 8);
+            } else {
+                exactHosts.add(entry);
+            }
+        }
+        this.isMatchingAll = matchAll;
+        this.hosts = Collections.unmodifiableSet(exactHosts);
+        this.globs = Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * Compiles the entries of no_proxy.
+     *
+     * @param entries hosts, domains, IP ranges or patterns. The blank entries are ignored
+     * @return the matcher
+     * @throws IllegalArgumentException When an IP range is not valid
+     */
+    public static NoProxyMatcher compile(final Collection<String> entries) {
+        LOG.traceEntry();
+        return LOG.traceExit(new NoProxyMatcher(entries));
+    }
+
+    /**
+     * Compiles a comma separated list of no_proxy entries.
+     *
+     * @param noProxy comma separated list of hosts, domains, IP ranges or patterns
+     * @return the matcher
+     * @throws IllegalArgumentException When an IP range is not valid
+     */
+    public static NoProxyMatcher compile(final String noProxy) {
+        LOG.traceEntry();
+        final List<String> entries = new ArrayList<>();
+        Collections.addAll(entries, noProxy.split(","));
+        return LOG.traceExit(new NoProxyMatcher(entries));
+    }
+
+    /**
+     * Returns true when the proxy is not needed for the host.
+     *
+     * @param hostName host name or IP address
+     * @return true when the host matches an entry otherwise false
+     */
+    public boolean matches(final String hostName) {
+        if (this.isMatchingAll) {
+            return true;
+        }
+        final String host = hostName.toLowerCase(Locale.ROOT);
+        if (this.hosts.contains(host)) {
+            return true;
+        }
+        final byte[] address = toAddress(host);
+        if (address != null) {
+            if ((address.length == 4 ? this.ipv4Ranges : this.ipv6Ranges).matches(address)) {
+                return true;
+            }
+        } else if (this.domains.matches(host)) {
+            return true;
+        }
+        for (final Pattern glob : this.globs) {
+            if (glob.matcher(host).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds an IP range.
+     *
+     * @param cidr network address and prefix length
+     * @throws IllegalArgumentException When the range is not valid
+     */
+    private void addRange(final String cidr) {
+        final int slash = cidr.indexOf('/');
+        final byte[] network = toAddress(cidr.substring(0, slash));
+        final int prefix;
+        try {
+            prefix = Integer.parseInt(cidr.substring(slash + 1));
+        } catch (NumberFormatException ex) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid no_proxy range: " + cidr,
+                    ex));
+        }
+        if (network == null || prefix < 0 || prefix > network.length * 8) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid no_proxy range: " + cidr));
+        }
+        (network.length == 4 ? this.ipv4Ranges : this.ipv6Ranges).add(network, prefix);
+    }
+
+    /**
+     * Converts an IP literal to its bytes without DNS resolution.
+     *
+     * @param host host
+     * @return the address or {@code null} when the host is not an IP literal
+     */
+    private static byte[] toAddress(final String host) {
+        final String literal = host.startsWith("[") && host.endsWith("]")
+                ? host.substring(1, host.length() - 1)
+                : host;
+        if (!InetAddressUtils.isIPv4Address(literal) && !InetAddressUtils.isIPv6Address(literal)) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(literal).getAddress();
+        } catch (UnknownHostException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a glob to a regular expression.
+     *
+     * @param glob pattern where * matches any sequence of characters
+     * @return the regular expression
+     */
+    private static Pattern toPattern(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int star;
+        while ((star = glob.indexOf('*', start)) >= 0) {
+            if (star > start) {
+                regex.append(Pattern.quote(glob.substring(start, star)));
+            }
+            regex.append(".*");
+            start = star + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Node of the trie of the reversed domain labels.
+     */
+    private static final class DomainNode {
+
+        /**
+         * Next labels, from right to left.
+         */
+        private final Map<String, DomainNode> children = new HashMap<>();
+
+        /**
+         * True when the domain itself is excluded.
+         */
+        private boolean isDomain;
+
+        /**
+         * True when the subdomains are excluded.
+         */
+        private boolean isSubdomains;
+
+        /**
+         * Adds a domain.
+         *
+         * @param domain domain
+         * @param withDomain true when the domain itself is excluded, otherwise only its
+         * subdomains are excluded
+         */
+        private void add(final String domain, final boolean withDomain) {
+            DomainNode node = this;
+            int end = domain.length();
+            while (end > 0) {
+                final int dot = domain.lastIndexOf('.', end - 1);
+                node = node.children.computeIfAbsent(domain.substring(dot + 1, end),
+                        label -> new DomainNode());
+                end = dot;
+            }
+            node.isSubdomains = true;
+            node.isDomain |= withDomain;
+        }
+
+        /**
+         * Returns true when the host is an excluded domain or one of its subdomains.
+         *
+         * @param host host name
+         * @return true when the host is excluded otherwise false
+         */
+        private boolean matches(final String host) {
+            DomainNode node = this;
+            int end = host.length();
+            while (end > 0) {
+                final int dot = host.lastIndexOf('.', end - 1);
+                node = node.children.get(host.substring(dot + 1, end));
+                if (node == null) {
+                    return false;
+                }
+                end = dot;
+                if (end > 0 && node.isSubdomains) {
+                    return true;
+                }
+            }
+            return node.isDomain;
+        }
+    }
+
+    /**
+     * Node of the binary prefix tree of the IP ranges.
+     */
+    private static final class IpNode {
+
+        /**
+         * Next nodes for the bits 0 and 1.
+         */
+        private final IpNode[] children = new IpNode[2];
+
+        /**
+         * True when a range ends at this node.
+         */
+        private boolean isRange;
+
+        /**
+         * Adds a range.
+         *
+         * @param network network address
+         * @param prefix number of bits of the network
+         */
+        private void add(final byte[] network, final int prefix) {
+            IpNode node = this;
+            for (int i = 0; i < prefix && !node.isRange; i++) {
+                final int bit = bit(network, i);
+                if (node.children[bit] == null) {
+                    node.children[bit] = new IpNode();
+                }
+                node = node.children[bit];
+            }
+            node.isRange = true;
+        }
+
+        /**
+         * Returns true when the address is in a range.
+         *
+         * @param address address
+         * @return true when the address is in a range otherwise false
+         */
+        private boolean matches(final byte[] address) {
+            IpNode node = this;
+            for (int i = 0; node != null; i++) {
+                if (node.isRange) {
+                    return true;
+                }
+                if (i == address.length * 8) {
+                    return false;
+                }
+                node = node.children[bit(address, i)];
+            }
+            return false;
+        }
+
+        /**
+         * Returns a bit of an address.
+         *
+         * @param address address
+         * @param index index of the bit, from the most significant one
+         * @return the bit
+         */
+        private static int bit(final byte[] address, final int index) {
+            return (address[index >> 3] >> (7 - (index & 7))) & 1;
+        }
+    }
+
+}
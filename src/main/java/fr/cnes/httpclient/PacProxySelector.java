@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Proxy selector evaluating a PAC (Proxy Auto-Configuration) script.
+ *
+ * The script and the PAC functions (isPlainHostName, dnsDomainIs, isInNet, shExpMatch...) are
+ * evaluated once by the JavaScript engine of the JVM. FindProxyForURL is then called once per
+ * scheme, host and port : its result is cached for {@value #DEFAULT_CACHE_TTL_MS} ms by default,
+ * so that the script is not evaluated for each request. The URL given to FindProxyForURL is
+ * therefore reduced to scheme://host:port/, as browsers do for the HTTPS URLs.
+ * <p>
+ * The proxies are returned in the order of the script. A proxy reported by
+ * {@link #connectFailed(URI, SocketAddress, IOException)} is moved to the end of the lists during
+ * {@value #DEFAULT_RETRY_MS} ms by default, so that the next proxy of the list is used.
+ * </p>
+ * <p>
+ * Nashorn is no longer part of the JDK since Java 15 : org.openjdk.nashorn:nashorn-core must then
+ * be added to the classpath.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class PacProxySelector extends ProxySelector {
+
+    /**
+     * Default maximum number of cached decisions {@value #DEFAULT_CACHE_SIZE}.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /**
+     * Default time to live in ms of a cached decision {@value #DEFAULT_CACHE_TTL_MS}.
+     */
+    public static final long DEFAULT_CACHE_TTL_MS = 300_000L;
+
+    /**
+     * Default time in ms during which a proxy which cannot be connected is used last
+     * {@value #DEFAULT_RETRY_MS}.
+     */
+    public static final long DEFAULT_RETRY_MS = 30_000L;
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(PacProxySelector.class.getName());
+
+    /**
+     * Resource defining the PAC functions.
+     */
+    private static final String PAC_FUNCTIONS = "pac-functions.js";
+
+    /**
+     * Function of the PAC script.
+     */
+    private static final String FIND_PROXY_FOR_URL = "FindProxyForURL";
+
+    /**
+     * Decision of the hosts for which the proxy is not needed.
+     */
+    private static final List<Proxy> DIRECT = Collections.singletonList(Proxy.NO_PROXY);
+
+    /**
+     * Engine holding the compiled script. Its functions are not called concurrently.
+     */
+    private final Invocable engine;
+
+    /**
+     * Maximum number of cached decisions, 0 when the cache is disabled.
+     */
+    private final int cacheSize;
+
+    /**
+     * Time to live in ms of a cached decision.
+     */
+    private final long cacheTtlMs;
+
+    /**
+     * Time in ms during which a proxy which cannot be connected is used last.
+     */
+    private final long retryMs;
+
+    /**
+     * Cached decisions by scheme://host:port.
+     */
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    /**
+     * Proxies which cannot be connected, by host:port, with the time in ms until which they are
+     * used last.
+     */
+    private final ConcurrentMap<String, Long> failures = new ConcurrentHashMap<>();
+
+    /**
+     * Number of decisions found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of evaluations of the script.
+     */
+    private final AtomicLong evaluationCount = new AtomicLong();
+
+    /**
+     * Creates a selector from a PAC file.
+     *
+     * @param pacFile PAC file
+     * @throws IOException When the file cannot be read
+     * @throws IllegalArgumentException When the script is not valid
+     * @throws IllegalStateException When no JavaScript engine is available
+     */
+    public PacProxySelector(final File pacFile) throws IOException {
+        this(new String(Files.readAllBytes(pacFile.toPath()), StandardCharsets.UTF_8),
+                DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_MS, DEFAULT_RETRY_MS);
+    }
+
+    /**
+     * Creates a selector from a PAC script.
+     *
+     * @param script PAC script
+     * @param cacheSize maximum number of cached decisions, 0 to disable the cache
+     * @param cacheTtlMs time to live in ms of a cached decision
+     * @param retryMs time in ms during which a proxy which cannot be connected is used last
+     * @throws IllegalArgumentException When the script is not valid, when cacheSize or cacheTtlMs
+     * or retryMs is negative
+     * @throws IllegalStateException When no JavaScript engine is available
+     */
+    public PacProxySelector(final String script, final int cacheSize, final long cacheTtlMs,
+            final long retryMs) {
+        super();
+        LOG.traceEntry("cacheSize: {}\ncacheTtlMs: {}\nretryMs: {}", cacheSize, cacheTtlMs,
+                retryMs);
+        if (cacheSize < 0 || cacheTtlMs < 0 || retryMs < 0) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid PAC configuration: "
+                    + "cacheSize=" + cacheSize + ", cacheTtlMs=" + cacheTtlMs + ", retryMs="
+                    + retryMs));
+        }
+        final ScriptEngine scriptEngine = new ScriptEngineManager().getEngineByName("javascript");
+        if (scriptEngine == null) {
+            throw LOG.throwing(new IllegalStateException("No JavaScript engine to evaluate the "
+                    + "PAC script, add org.openjdk.nashorn:nashorn-core to the classpath"));
+        }
+        try (InputStream functions = PacProxySelector.class.getResourceAsStream(PAC_FUNCTIONS);
+                Reader reader = new InputStreamReader(functions, StandardCharsets.UTF_8)) {
+            scriptEngine.eval(reader);
+            scriptEngine.eval(script);
+        } catch (IOException | ScriptException ex) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid PAC script: "
+                    + ex.getMessage(), ex));
+        }
+        if (scriptEngine.get(FIND_PROXY_FOR_URL) == null) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid PAC script: "
+                    + FIND_PROXY_FOR_URL + " is not defined"));
+        }
+        this.engine = (Invocable) scriptEngine;
+        this.cacheSize = cacheSize;
+        this.cacheTtlMs = cacheTtlMs;
+        this.retryMs = retryMs;
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns the proxies of the URI given by the PAC script. The proxies which cannot be
+     * connected are at the end of the list.
+     *
+     * @param uri URI to connect to
+     * @return the proxies, {@link Proxy#NO_PROXY} for a direct connection
+     * @throws IllegalArgumentException When uri is {@code null}
+     */
+    @Override
+    public List<Proxy> select(final URI uri) {
+        if (uri == null) {
+            throw LOG.throwing(new IllegalArgumentException("URI may not be null"));
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return DIRECT;
+        }
+        final long now = System.currentTimeMillis();
+        final String key = uri.getScheme() + "://" + host + ":" + uri.getPort();
+        Decision decision = this.decisions.get(key);
+        if (decision != null && decision.expiresAt >= now) {
+            this.hitCount.incrementAndGet();
+        } else {
+            decision = new Decision(evaluate(key + "/", host), now + this.cacheTtlMs);
+            if (this.cacheSize > 0) {
+                if (this.decisions.size() >= this.cacheSize) {
+                    evictOne();
+                }
+                this.decisions.put(key, decision);
+            }
+        }
+        return this.failures.isEmpty() ? decision.proxies : reorder(decision.proxies, now);
+    }
+
+    /**
+     * Calls FindProxyForURL.
+     *
+     * @param url URL
+     * @param host host of the URL
+     * @return the proxies, a direct connection when the script fails
+     */
+    private List<Proxy> evaluate(final String url, final String host) {
+        this.evaluationCount.incrementAndGet();
+        final Object result;
+        try {
+            synchronized (this.engine) {
+                result = this.engine.invokeFunction(FIND_PROXY_FOR_URL, url, host);
+            }
+        } catch (ScriptException | NoSuchMethodException | RuntimeException ex) {
+            LOG.warn("{} failed for {}, uses a direct connection : {}", FIND_PROXY_FOR_URL, url,
+                    ex.getMessage());
+            return DIRECT;
+        }
+        final List<Proxy> proxies = parse(result == null ? "" : result.toString());
+        LOG.debug("{} of {} : {}", FIND_PROXY_FOR_URL, url, proxies);
+        return proxies;
+    }
+
+    /**
+     * Parses the result of FindProxyForURL, such as "PROXY proxy1:3128; PROXY proxy2:3128;
+     * DIRECT". The unknown and malformed entries are ignored. The HTTPS entries are ignored as
+     * well : the proxy must be reached with TLS while the route planner connects to the proxies
+     * in plain HTTP.
+     *
+     * @param result result of FindProxyForURL
+     * @return the proxies, a direct connection when the result is empty
+     */
+    static List<Proxy> parse(final String result) {
+        final List<Proxy> proxies = new ArrayList<>();
+        for (final String entry : result.split(";")) {
+            final String[] fragments = entry.trim().split("\\s+");
+            final String type = fragments[0].toUpperCase(Locale.ENGLISH);
+            if ("DIRECT".equals(type)) {
+                proxies.add(Proxy.NO_PROXY);
+            } else if (fragments.length == 2) {
+                try {
+                    parseProxy(type, fragments[1], entry, proxies);
+                } catch (IllegalArgumentException ex) {
+                    LOG.debug("Ignores the malformed PAC entry {} : {}", entry, ex.getMessage());
+                }
+            } else if (!type.isEmpty()) {
+                LOG.debug("Ignores the PAC entry {}", entry);
+            }
+        }
+        return proxies.isEmpty() ? DIRECT : Collections.unmodifiableList(proxies);
+    }
+
+    /**
+     * Adds the proxy of a PAC entry.
+     *
+     * @param type type of the entry in upper case
+     * @param value hostname:port
+     * @param entry PAC entry
+     * @param proxies proxies of the result
+     * @throws IllegalArgumentException When the port is not valid
+     */
+    private static void parseProxy(final String type, final String value, final String entry,
+            final List<Proxy> proxies) {
+        switch (type) {
+            case "PROXY":
+            case "HTTP":
+                proxies.add(toProxy(Proxy.Type.HTTP, value, 80));
+                break;
+            case "SOCKS":
+            case "SOCKS4":
+            case "SOCKS5":
+                proxies.add(toProxy(Proxy.Type.SOCKS, value, 1080));
+                break;
+            case "HTTPS":
+                LOG.debug("Ignores the PAC entry {}, TLS to the proxy is not supported", entry);
+                break;
+            default:
+                LOG.debug("Ignores the PAC entry {}", entry);
+                break;
+        }
+    }
+
+    /**
+     * Converts hostname:port to a proxy.
+     *
+     * @param type type of proxy
+     * @param value hostname:port
+     * @param defaultPort port when it is not given
+     * @return the proxy
+     * @throws IllegalArgumentException When the port is not valid
+     */
+    private static Proxy toProxy(final Proxy.Type type, final String value,
+            final int defaultPort) {
+        final int index = value.lastIndexOf(':');
+        return index < 0
+                ? new Proxy(type, InetSocketAddress.createUnresolved(value, defaultPort))
+                : new Proxy(type, InetSocketAddress.createUnresolved(value.substring(0, index),
+                        Integer.parseInt(value.substring(index + 1))));
+    }
+
+    /**
+     * Moves the proxies which cannot be connected to the end of the list.
+     *
+     * @param proxies proxies
+     * @param now current time in ms
+     * @return the proxies
+     */
+    private List<Proxy> reorder(final List<Proxy> proxies, final long now) {
+        final List<Proxy> available = new ArrayList<>(proxies.size());
+        final List<Proxy> failed = new ArrayList<>();
+        for (final Proxy proxy : proxies) {
+            final Long until = proxy.address() == null ? null
+                    : this.failures.get(toKey(proxy.address()));
+            if (until == null) {
+                available.add(proxy);
+            } else if (until < now) {
+                this.failures.remove(toKey(proxy.address()), until);
+                available.add(proxy);
+            } else {
+                failed.add(proxy);
+            }
+        }
+        available.addAll(failed);
+        return available;
+    }
+
+    /**
+     * Removes one cached decision to keep the cache bounded.
+     */
+    private void evictOne() {
+        final Iterator<String> keys = this.decisions.keySet().iterator();
+        if (keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Returns the key of a proxy address.
+     *
+     * @param address proxy address
+     * @return host:port
+     */
+    private static String toKey(final SocketAddress address) {
+        final InetSocketAddress inet = (InetSocketAddress) address;
+        return inet.getHostString().toLowerCase(Locale.ENGLISH) + ":" + inet.getPort();
+    }
+
+    /**
+     * Moves the proxy to the end of the lists during the retry time.
+     *
+     * @param uri URI that the proxy failed to serve
+     * @param address address of the proxy
+     * @param ex I/O exception thrown when the connection failed
+     * @throws IllegalArgumentException When an argument is {@code null}
+     */
+    @Override
+    public void connectFailed(final URI uri, final SocketAddress address,
+            final IOException ex) {
+        if (uri == null || address == null || ex == null) {
+            throw LOG.throwing(new IllegalArgumentException("Arguments may not be null"));
+        }
+        LOG.warn("Proxy {} cannot be connected for {}, it is used last during {} ms : {}",
+                address, uri, this.retryMs, ex.getMessage());
+        this.failures.put(toKey(address), System.currentTimeMillis() + this.retryMs);
+    }
+
+    /**
+     * Removes all the cached decisions. To be called when the PAC script gives other results,
+     * for example when it depends on the local address.
+     */
+    public void invalidate() {
+        LOG.traceEntry();
+        this.decisions.clear();
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns the number of cached decisions.
+     *
+     * @return the number of cached decisions
+     */
+    public int size() {
+        return this.decisions.size();
+    }
+
+    /**
+     * Returns the number of decisions found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of evaluations of FindProxyForURL.
+     *
+     * @return the number of evaluations
+     */
+    public long getEvaluationCount() {
+        return this.evaluationCount.get();
+    }
+
+    /**
+     * Decision of the PAC script.
+     */
+    private static final class Decision {
+
+        /**
+         * Proxies in the order of the script.
+         */
+        private final List<Proxy> proxies;
+
+        /**
+         * Time in ms after which the decision must be evaluated again.
+         */
+        private final long expiresAt;
+
+        /**
+         * Creates a decision.
+         *
+         * @param proxies proxies in the order of the script
+         * @param expiresAt time in ms after which the decision must be evaluated again
+         */
+        private Decision(final List<Proxy> proxies, final long expiresAt) {
+            this.proxies = proxies;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
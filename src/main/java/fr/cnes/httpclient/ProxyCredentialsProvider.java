@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+
+/**
+ * Credentials provider giving the credentials of the primary proxy to the proxies returned by
+ * the proxy selector of the route planner, which are not known when the client is built.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+final class ProxyCredentialsProvider implements CredentialsProvider {
+
+    /**
+     * Credentials of the proxies of the pool.
+     */
+    private final CredentialsProvider delegate;
+
+    /**
+     * Route planner knowing the selected proxies.
+     */
+    private final ProxyRoutePlanner routePlanner;
+
+    /**
+     * Creates the credentials provider.
+     *
+     * @param delegate credentials of the proxies of the pool
+     * @param routePlanner route planner knowing the selected proxies
+     */
+    ProxyCredentialsProvider(final CredentialsProvider delegate,
+            final ProxyRoutePlanner routePlanner) {
+        this.delegate = delegate;
+        this.routePlanner = routePlanner;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCredentials(final AuthScope authscope, final Credentials credentials) {
+        this.delegate.setCredentials(authscope, credentials);
+    }
+
+    /**
+     * Returns the credentials of the scope, or the credentials of the primary proxy when the
+     * scope is a selected proxy.
+     *
+     * @param authscope authentication scope
+     * @return the credentials or {@code null}
+     */
+    @Override
+    public Credentials getCredentials(final AuthScope authscope) {
+        final Credentials credentials = this.delegate.getCredentials(authscope);
+        if (credentials != null || authscope.getHost() == null
+                || !this.routePlanner.isProxy(new HttpHost(authscope.getHost(),
+                        authscope.getPort()))) {
+            return credentials;
+        }
+        return this.delegate.getCredentials(new AuthScope(
+                this.routePlanner.getProxyPool().getPrimary()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        this.delegate.clear();
+    }
+
+}
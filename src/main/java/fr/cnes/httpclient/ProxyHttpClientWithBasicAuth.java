@@ -20,6 +20,7 @@
  */
 package fr.cnes.httpclient;
 
+import fr.cnes.httpclient.configuration.ProxyConfig;
 import fr.cnes.httpclient.configuration.ProxyConfiguration;
 import java.util.HashMap;
 import java.util.Map;
@@ -49,6 +50,7 @@ public class ProxyHttpClientWithBasicAuth extends ProxyHttpClientWithoutAuth {
     /**
      * Creates a HTTP client using a proxy with a basic authentication.
      * The {@link fr.cnes.httpclient.configuration.ProxyConfiguration} must be configured before using this constructor.
+     * The keys of ProxyConfiguration which are in config override its values.
      */
     public ProxyHttpClientWithBasicAuth() {
         this(false, new HashMap());
@@ -65,8 +67,8 @@ public class ProxyHttpClientWithBasicAuth extends ProxyHttpClientWithoutAuth {
         super(
                 isDisabledSSL, 
                 new HashMap() {{
-                    putAll(config); 
                     putAll(ProxyConfiguration.getConfig());
+                    putAll(config); 
                 }}
         );
     }
@@ -82,7 +84,8 @@ public class ProxyHttpClientWithBasicAuth extends ProxyHttpClientWithoutAuth {
     protected CredentialsProvider createCredsProvider(final HttpHost proxy) {
         LOG.traceEntry("proxy: {}", proxy);
         final StringBuilder error = new StringBuilder();
-        final boolean isValid = ProxyConfiguration.isValid(error);
+        final ProxyConfig proxyConfig = ProxyConfig.from(getConfig());
+        final boolean isValid = proxyConfig.isValid(error);
         if (!isValid) {
             LOG.error("Error validation : {}", error);
             throw LOG.throwing(new IllegalArgumentException(error.toString()));
@@ -90,13 +93,13 @@ public class ProxyHttpClientWithBasicAuth extends ProxyHttpClientWithoutAuth {
         final CredentialsProvider credsProvider = new BasicCredentialsProvider();
         LOG.debug(
                 "Authentication with username={} pwd=**** on {}", 
-                ProxyConfiguration.USERNAME.getValue(),proxy
+                proxyConfig.getValue(ProxyConfiguration.USERNAME),proxy
         );
         credsProvider.setCredentials(
                 new AuthScope(proxy),
                 new UsernamePasswordCredentials(
-                        ProxyConfiguration.USERNAME.getValue(),
-                        ProxyConfiguration.PASSWORD.getValue()
+                        proxyConfig.getValue(ProxyConfiguration.USERNAME),
+                        proxyConfig.getValue(ProxyConfiguration.PASSWORD)
                 )
         );
         return LOG.traceExit(credsProvider);
@@ -21,6 +21,7 @@
 package fr.cnes.httpclient;
 
 import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxyConfig;
 import fr.cnes.httpclient.configuration.ProxyConfiguration;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -69,6 +70,7 @@ public class ProxyHttpClientWithoutAuth extends AbstractProxyHttpClient {
     /**
      * Creates a HTTP client using a proxy with no authentication and options for HTTP client.
      * The {@link fr.cnes.httpclient.configuration.ProxyConfiguration} must be configured before using this constructor.
+     * The keys of ProxyConfiguration which are in config override its values.
      * @param isDisabledSSL True when the SSL certificate check is disabled otherwise False.
      * @param config options for HTTP client
      */
@@ -76,8 +78,8 @@ public class ProxyHttpClientWithoutAuth extends AbstractProxyHttpClient {
         this(
                 isDisabledSSL, 
                 new HashMap(){{
-                    putAll(config);
                     putAll(ProxyConfiguration.getConfig());
+                    putAll(config);
                 }},
                 Type.PROXY_BASIC
         );
@@ -128,15 +130,18 @@ public class ProxyHttpClientWithoutAuth extends AbstractProxyHttpClient {
     protected HttpClientBuilder createBuilderProxy(final HttpClientBuilder builder) {
         LOG.traceEntry("builder : {}", builder);
         final StringBuilder error = new StringBuilder();
-        final boolean isValid = ProxyConfiguration.isValid(error);
+        final ProxyConfig proxyConfig = ProxyConfig.from(getConfig());
+        final boolean isValid = proxyConfig.isValid(error);
         if (!isValid) {
             LOG.error("Error validation : {}", error);
             throw LOG.throwing(new IllegalArgumentException(error.toString()));
         }
-        final HttpHost proxy = stringToProxy(ProxyConfiguration.HTTP_PROXY.getValue());
+        final ProxyPool pool = createProxyPool(proxyConfig.getValue(
+                ProxyConfiguration.HTTP_PROXY), getConfig());
         final List<String> excludedHosts = new ArrayList<>();
-        Collections.addAll(excludedHosts, ProxyConfiguration.NO_PROXY.getValue().split("\\s*,\\s*"));
-        return LOG.traceExit(this.createBuilder(builder, proxy, excludedHosts));
+        Collections.addAll(excludedHosts, proxyConfig.getValue(ProxyConfiguration.NO_PROXY).split(
+                "\\s*,\\s*"));
+        return LOG.traceExit(this.createBuilder(builder, pool, excludedHosts));
     }
 
 }
@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pool of upstream proxies sharing the same configuration.
+ *
+ * Each request is sent through the available proxy with the lowest cost, which is the average
+ * latency of its responses (exponentially weighted moving average) multiplied by the number of
+ * its outstanding requests plus one. A slow or loaded proxy is therefore less selected.
+ * <p>
+ * A proxy is ejected from the pool when it cannot be connected or after a number of consecutive
+ * failures. It is re-admitted when its ejection time expires, on probation : the next failure
+ * ejects it again for twice the time. When a health check interval is set, a background thread
+ * also connects to each proxy periodically to eject or re-admit it. When all the proxies are
+ * ejected, the one which will be re-admitted first is used.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class ProxyPool implements Closeable {
+
+    /**
+     * Default number of consecutive failures ejecting a proxy {@value #DEFAULT_MAX_FAILURES}.
+     */
+    public static final int DEFAULT_MAX_FAILURES = 3;
+
+    /**
+     * Default ejection time in ms of a proxy {@value #DEFAULT_EJECTION_MS}.
+     */
+    public static final long DEFAULT_EJECTION_MS = 30_000L;
+
+    /**
+     * Attribute of the context holding the proxy selected for the request.
+     */
+    public static final String SELECTED_PROXY = "fr.cnes.httpclient.selected-proxy";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(ProxyPool.class.getName());
+
+    /**
+     * Weight of the last response in the average latency.
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    /**
+     * Maximum factor applied to the ejection time of a proxy ejected several times.
+     */
+    private static final int MAX_EJECTION_FACTOR = 16;
+
+    /**
+     * Timeout in ms of the connection opened by the health check.
+     */
+    private static final int HEALTH_CHECK_TIMEOUT_MS = 2_000;
+
+    /**
+     * Proxies in the configuration order.
+     */
+    private final List<Member> members;
+
+    /**
+     * Number of consecutive failures ejecting a proxy.
+     */
+    private final int maxFailures;
+
+    /**
+     * Ejection time in ms of a proxy.
+     */
+    private final long ejectionMs;
+
+    /**
+     * First proxy examined by the next selection, so that the proxies of same cost are used in
+     * turn.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Background thread checking the proxies or {@code null}.
+     */
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * Creates a pool of one proxy. The proxy is used even when it is ejected.
+     *
+     * @param proxy proxy
+     */
+    public ProxyPool(final HttpHost proxy) {
+        this(Collections.singletonList(proxy), DEFAULT_MAX_FAILURES, DEFAULT_EJECTION_MS, 0);
+    }
+
+    /**
+     * Creates a pool of proxies.
+     *
+     * @param proxies proxies
+     * @param maxFailures number of consecutive failures ejecting a proxy
+     * @param ejectionMs ejection time in ms of a proxy
+     * @param healthCheckMs interval in ms between two health checks, 0 to disable them
+     * @throws IllegalArgumentException When proxies is empty, when maxFailures or ejectionMs is
+     * not positive or when healthCheckMs is negative
+     */
+    public ProxyPool(final List<HttpHost> proxies, final int maxFailures, final long ejectionMs,
+            final long healthCheckMs) {
+        LOG.traceEntry("proxies: {}\nmaxFailures: {}\nejectionMs: {}\nhealthCheckMs: {}",
+                proxies, maxFailures, ejectionMs, healthCheckMs);
+        if (proxies.isEmpty() || maxFailures <= 0 || ejectionMs <= 0 || healthCheckMs < 0) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid proxy pool configuration: "
+                    + "proxies=" + proxies + ", maxFailures=" + maxFailures + ", ejectionMs="
+                    + ejectionMs + ", healthCheckMs=" + healthCheckMs));
+        }
+        final List<Member> list = new ArrayList<>(proxies.size());
+        for (final HttpHost proxy : proxies) {
+            list.add(new Member(proxy));
+        }
+        this.members = Collections.unmodifiableList(list);
+        this.maxFailures = maxFailures;
+        this.ejectionMs = ejectionMs;
+        if (healthCheckMs > 0 && list.size() > 1) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "jspnego-proxy-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckMs,
+                    healthCheckMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.healthChecker = null;
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Parses a list of proxies separated by commas.
+     *
+     * @param value proxies as hostname:port separated by commas
+     * @return the proxies
+     */
+    public static List<HttpHost> parse(final String value) {
+        final List<HttpHost> proxies = new ArrayList<>();
+        for (final String proxy : value.trim().split("\\s*,\\s*")) {
+            if (proxy.isEmpty()) {
+                continue;
+            }
+            final String[] proxyFragments = proxy.split(":");
+            proxies.add((proxyFragments.length == 2)
+                    ? new HttpHost(proxyFragments[0], Integer.parseInt(proxyFragments[1]))
+                    : new HttpHost(proxyFragments[0]));
+        }
+        return proxies;
+    }
+
+    /**
+     * Returns true when the exception shows that the proxy could not be connected, in which case
+     * the request has not been sent and can be sent through another proxy.
+     *
+     * @param ex exception
+     * @return true when the connection to the proxy failed otherwise false
+     */
+    public static boolean isConnectFailure(final Throwable ex) {
+        return ex instanceof HttpHostConnectException || ex instanceof ConnectTimeoutException
+                || ex instanceof UnknownHostException;
+    }
+
+    /**
+     * Returns the proxies in the configuration order.
+     *
+     * @return the proxies
+     */
+    public List<Member> getMembers() {
+        return this.members;
+    }
+
+    /**
+     * Returns the number of proxies.
+     *
+     * @return the number of proxies
+     */
+    public int size() {
+        return this.members.size();
+    }
+
+    /**
+     * Returns the first proxy of the configuration.
+     *
+     * @return the first proxy
+     */
+    public HttpHost getPrimary() {
+        return this.members.get(0).proxy;
+    }
+
+    /**
+     * Returns the number of proxies which are not ejected.
+     *
+     * @return the number of available proxies
+     */
+    public int getAvailableCount() {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        for (final Member member : this.members) {
+            if (member.isAvailable(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Selects the proxy of the next request and counts the request as outstanding. The caller
+     * must report the outcome of the request with {@link Member#succeeded(long)} or
+     * {@link Member#failed(Throwable)}.
+     *
+     * @return the selected proxy
+     */
+    public Member select() {
+        final long now = System.currentTimeMillis();
+        final int size = this.members.size();
+        final int start = Math.floorMod(this.next.getAndIncrement(), size);
+        Member selected = null;
+        double lowestCost = Double.MAX_VALUE;
+        Member fallback = null;
+        for (int i = 0; i < size; i++) {
+            final Member member = this.members.get((start + i) % size);
+            if (member.isAvailable(now)) {
+                final double cost = member.getCost();
+                if (cost < lowestCost) {
+                    lowestCost = cost;
+                    selected = member;
+                }
+            } else if (fallback == null || member.ejectedUntil < fallback.ejectedUntil) {
+                fallback = member;
+            }
+        }
+        if (selected == null) {
+            LOG.warn("All the proxies are ejected, uses {}", fallback.proxy);
+            selected = fallback;
+        }
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    /**
+     * Connects to each proxy to eject or re-admit it.
+     */
+    private void checkHealth() {
+        LOG.traceEntry();
+        for (final Member member : this.members) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(member.proxy.getHostName(),
+                        member.proxy.getPort()), HEALTH_CHECK_TIMEOUT_MS);
+                member.readmit();
+            } catch (IOException | RuntimeException ex) {
+                LOG.debug("Health check of {} failed : {}", member.proxy, ex.getMessage());
+                member.eject();
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Stops the health checks.
+     */
+    @Override
+    public void close() {
+        LOG.traceEntry();
+        if (this.healthChecker != null) {
+            this.healthChecker.shutdownNow();
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.members.toString();
+    }
+
+    /**
+     * Proxy of the pool with its statistics.
+     */
+    public final class Member {
+
+        /**
+         * Proxy.
+         */
+        private final HttpHost proxy;
+
+        /**
+         * Number of requests in progress.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /**
+         * Average latency in ns of the responses.
+         */
+        private volatile double latencyNs;
+
+        /**
+         * The proxy is ejected until this time in ms.
+         */
+        private volatile long ejectedUntil;
+
+        /**
+         * Number of consecutive failures.
+         */
+        private int failures;
+
+        /**
+         * Number of consecutive ejections, which multiplies the ejection time.
+         */
+        private int ejections;
+
+        /**
+         * Number of times the proxy was ejected.
+         */
+        private long ejectionCount;
+
+        /**
+         * Creates a member.
+         *
+         * @param proxy proxy
+         */
+        private Member(final HttpHost proxy) {
+            this.proxy = proxy;
+        }
+
+        /**
+         * Returns true when the proxy is not ejected.
+         *
+         * @param now current time in ms
+         * @return true when the proxy can be selected
+         */
+        private boolean isAvailable(final long now) {
+            return this.ejectedUntil <= now;
+        }
+
+        /**
+         * Returns the cost of a new request through the proxy.
+         *
+         * @return the cost
+         */
+        private double getCost() {
+            return (this.latencyNs + 1) * (this.outstanding.get() + 1);
+        }
+
+        /**
+         * Reports the response of a request sent through the proxy.
+         *
+         * @param latencyNs time in ns to get the response
+         */
+        public void succeeded(final long latencyNs) {
+            this.outstanding.decrementAndGet();
+            synchronized (this) {
+                this.latencyNs = this.latencyNs == 0 ? latencyNs
+                        : this.latencyNs + LATENCY_WEIGHT * (latencyNs - this.latencyNs);
+                this.failures = 0;
+                this.ejections = 0;
+            }
+        }
+
+        /**
+         * Reports the failure of a request sent through the proxy. The proxy is ejected when it
+         * cannot be connected, after {@link ProxyPool#DEFAULT_MAX_FAILURES} consecutive failures
+         * by default or at the first failure after its re-admission.
+         *
+         * @param ex failure
+         */
+        public void failed(final Throwable ex) {
+            this.outstanding.decrementAndGet();
+            final boolean isEjected;
+            synchronized (this) {
+                this.failures++;
+                isEjected = isConnectFailure(ex) || this.failures >= maxFailures
+                        || this.ejections > 0;
+            }
+            if (isEjected) {
+                eject();
+            }
+        }
+
+        /**
+         * Ejects the proxy, for a longer time when it was ejected just before.
+         */
+        private void eject() {
+            final long until;
+            synchronized (this) {
+                if (!isAvailable(System.currentTimeMillis())) {
+                    return;
+                }
+                this.ejections = Math.min(this.ejections + 1, Integer.SIZE - 1);
+                final long factor = Math.min(1L << (this.ejections - 1), MAX_EJECTION_FACTOR);
+                until = System.currentTimeMillis() + ejectionMs * factor;
+                this.ejectedUntil = until;
+                this.failures = 0;
+                this.ejectionCount++;
+            }
+            LOG.warn("Proxy {} is ejected for {} ms", this.proxy,
+                    until - System.currentTimeMillis());
+        }
+
+        /**
+         * Re-admits the proxy after a successful health check.
+         */
+        private void readmit() {
+            synchronized (this) {
+                if (this.ejectedUntil == 0) {
+                    return;
+                }
+                this.ejectedUntil = 0;
+                this.failures = 0;
+            }
+            LOG.info("Proxy {} is re-admitted", this.proxy);
+        }
+
+        /**
+         * Returns the proxy.
+         *
+         * @return the proxy
+         */
+        public HttpHost getProxy() {
+            return this.proxy;
+        }
+
+        /**
+         * Returns the number of requests in progress through the proxy.
+         *
+         * @return the number of outstanding requests
+         */
+        public int getOutstanding() {
+            return this.outstanding.get();
+        }
+
+        /**
+         * Returns the average latency of the responses.
+         *
+         * @return the average latency in ms
+         */
+        public double getLatencyMs() {
+            return this.latencyNs / 1_000_000;
+        }
+
+        /**
+         * Returns true when the proxy is not ejected.
+         *
+         * @return true when the proxy can be selected
+         */
+        public boolean isAvailable() {
+            return isAvailable(System.currentTimeMillis());
+        }
+
+        /**
+         * Returns the number of times the proxy was ejected.
+         *
+         * @return the number of ejections
+         */
+        public synchronized long getEjectionCount() {
+            return this.ejectionCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return this.proxy.toHostString();
+        }
+    }
+
+}
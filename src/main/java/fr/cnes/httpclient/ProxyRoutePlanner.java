@@ -0,0 +1,732 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.protocol.HttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Route planner sending the requests through a proxy, except for the excluded hosts.
+ *
+ * The planner is shared by the blocking and the asynchronous HTTP clients. The routes are
+ * immutable, so that the route of a target is determined once and then taken from a bounded
+ * cache, keyed by the target, the proxy of the request config and the local address. The cache
+ * never holds more than its size: when it is full, a route is evicted with the clock algorithm,
+ * which keeps the recently used routes without locking the lookups.
+ * <p>
+ * When several proxies are configured, the proxy of each request is selected in the
+ * {@link ProxyPool} and stored in the context, so that the redirects of the request go through
+ * the same proxy. The cache is then keyed by the selected proxy, and whether the target is
+ * excluded from the proxy is cached as well, so that <b>no_proxy</b> is not scanned for each
+ * request.
+ * </p>
+ * <p>
+ * When a {@link ProxySelector}, such as the {@link PacProxySelector}, is given, it selects the
+ * proxy of each request instead of the pool. The first HTTP proxy of its list which has not yet
+ * failed for the request is used, or a direct connection when DIRECT comes first. The SOCKS
+ * proxies are not supported by HTTP client and are skipped.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class ProxyRoutePlanner extends DefaultProxyRoutePlanner {
+
+    /**
+     * Default maximum number of cached routes {@value #DEFAULT_CACHE_SIZE}.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /**
+     * Attribute of the context holding the proxies which could not be connected for the request.
+     */
+    public static final String TRIED_PROXIES = "fr.cnes.httpclient.tried-proxies";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(ProxyRoutePlanner.class.getName());
+
+    /**
+     * Proxy, the first one of the pool.
+     */
+    private final HttpHost proxy;
+
+    /**
+     * Proxies.
+     */
+    private final ProxyPool pool;
+
+    /**
+     * Selector of the proxies or {@code null} when they are selected in the pool.
+     */
+    private final ProxySelector selector;
+
+    /**
+     * Proxies returned by the selector.
+     */
+    private final Set<HttpHost> selectedProxies = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Hosts for which the proxy is not needed.
+     */
+    private final NoProxyMatcher excludedHosts;
+
+    /**
+     * Maximum number of cached routes, 0 when the cache is disabled.
+     */
+    private final int cacheSize;
+
+    /**
+     * Cached routes.
+     */
+    private final ConcurrentMap<RouteKey, CachedRoute> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Keys of the cached routes in the order of the clock, from the next route to evict.
+     */
+    private final Queue<RouteKey> clock = new ArrayDeque<>();
+
+    /**
+     * Number of routes found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of routes which were not cached.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of routes removed to keep the cache bounded.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates the route planner.
+     *
+     * @param proxy proxy
+     * @param excludedHosts hosts, domains, IP ranges or patterns for which the proxy is not
+     * needed, as described in {@link NoProxyMatcher}
+     * @throws IllegalArgumentException When an IP range is not valid
+     */
+    public ProxyRoutePlanner(final HttpHost proxy, final List<String> excludedHosts) {
+        this(proxy, excludedHosts, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates the route planner with a cache of the routes.
+     *
+     * @param proxy proxy
+     * @param excludedHosts hosts, domains, IP ranges or patterns for which the proxy is not
+     * needed, as described in {@link NoProxyMatcher}
+     * @param cacheSize maximum number of cached routes, 0 to disable the cache
+     * @throws IllegalArgumentException When an IP range is not valid or when cacheSize is
+     * negative
+     */
+    public ProxyRoutePlanner(final HttpHost proxy, final List<String> excludedHosts,
+            final int cacheSize) {
+        this(new ProxyPool(proxy), excludedHosts, cacheSize);
+    }
+
+    /**
+     * Creates the route planner selecting the proxies in a pool.
+     *
+     * @param pool proxies
+     * @param excludedHosts hosts, domains, IP ranges or patterns for which the proxy is not
+     * needed, as described in {@link NoProxyMatcher}
+     * @param cacheSize maximum number of cached routes, 0 to disable the cache
+     * @throws IllegalArgumentException When an IP range is not valid or when cacheSize is
+     * negative
+     */
+    public ProxyRoutePlanner(final ProxyPool pool, final List<String> excludedHosts,
+            final int cacheSize) {
+        this(pool, null, excludedHosts, cacheSize);
+    }
+
+    /**
+     * Creates the route planner selecting the proxies with a proxy selector.
+     *
+     * @param pool proxies, the first one is used when no selector is given
+     * @param selector selector of the proxies or {@code null} to select them in the pool
+     * @param excludedHosts hosts, domains, IP ranges or patterns for which the proxy is not
+     * needed, as described in {@link NoProxyMatcher}
+     * @param cacheSize maximum number of cached routes, 0 to disable the cache
+     * @throws IllegalArgumentException When an IP range is not valid or when cacheSize is
+     * negative
+     */
+    public ProxyRoutePlanner(final ProxyPool pool, final ProxySelector selector,
+            final List<String> excludedHosts, final int cacheSize) {
+        super(pool.getPrimary());
+        if (cacheSize < 0) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid route cache size: "
+                    + cacheSize));
+        }
+        this.proxy = pool.getPrimary();
+        this.pool = pool;
+        this.selector = selector;
+        this.excludedHosts = NoProxyMatcher.compile(excludedHosts);
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Returns true when the host is excluded from the proxy.
+     *
+     * @param host host
+     * @return true when the proxy is not needed for this host otherwise false
+     */
+    public boolean isExcluded(final HttpHost host) {
+        return this.excludedHosts.matches(host.getHostName());
+    }
+
+    /**
+     * Returns true when the proxy of each request is selected, in the pool or by the selector.
+     *
+     * @return true when the proxy is selected for each request otherwise false
+     */
+    public boolean isSelecting() {
+        return this.selector != null || this.pool.size() > 1;
+    }
+
+    /**
+     * Returns true when the host is a proxy of the pool or a proxy returned by the selector.
+     *
+     * @param host host
+     * @return true when the host is a known proxy otherwise false
+     */
+    public boolean isProxy(final HttpHost host) {
+        if (this.selectedProxies.contains(host)) {
+            return true;
+        }
+        for (final ProxyPool.Member member : this.pool.getMembers()) {
+            if (member.getProxy().equals(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cached route of the host or determines it.
+     *
+     * @param host the target host
+     * @param request the request to execute
+     * @param context the context to use for the execution
+     * @return the route that the request should take
+     * @throws HttpException in case of a problem
+     */
+    @Override
+    public HttpRoute determineRoute(final HttpHost host, final HttpRequest request,
+            final HttpContext context) throws HttpException {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("host: {}\nrequest: {}\ncontext: {}", host, request, context);
+        }
+        final RequestConfig config = HttpClientContext.adapt(context).getRequestConfig();
+        final InetAddress local = config.getLocalAddress();
+        // If context defined another valid proxy use it
+        HttpHost override = config.getProxy() != null
+                && config.getProxy().getHostName() != null ? config.getProxy() : null;
+        if (override == null && isSelecting()) {
+            // The exclusion is cached, so that no_proxy is not scanned before each selection
+            final RouteKey exclusionKey = new RouteKey(host, null, local, true);
+            final CachedRoute exclusion = this.cacheSize == 0 ? null : lookup(exclusionKey);
+            if (exclusion == null) {
+                final HttpRoute direct = isExcluded(host) ? createRoute(host, local, null) : null;
+                if (this.cacheSize > 0) {
+                    cache(exclusionKey, new CachedRoute(direct));
+                    if (direct != null) {
+                        this.missCount.incrementAndGet();
+                    }
+                }
+                if (direct != null) {
+                    return LOG.traceExit(direct);
+                }
+            } else if (exclusion.route != null) {
+                this.hitCount.incrementAndGet();
+                return LOG.traceExit(exclusion.route);
+            }
+            override = this.selector == null ? selectProxy(context) : selectProxy(host, context);
+        }
+        if (this.cacheSize == 0) {
+            return LOG.traceExit(createRoute(host, local, override));
+        }
+        final RouteKey key = new RouteKey(host, override, local, false);
+        final CachedRoute cached = lookup(key);
+        if (cached != null) {
+            this.hitCount.incrementAndGet();
+            return LOG.traceExit(cached.route);
+        }
+        this.missCount.incrementAndGet();
+        return LOG.traceExit(cache(key, new CachedRoute(createRoute(host, local, override))).route);
+    }
+
+    /**
+     * Returns the cached route and marks it as recently used.
+     *
+     * @param key key of the route
+     * @return the cached route or {@code null}
+     */
+    private CachedRoute lookup(final RouteKey key) {
+        final CachedRoute cached = this.routes.get(key);
+        if (cached != null) {
+            cached.isReferenced = true;
+        }
+        return cached;
+    }
+
+    /**
+     * Caches a route, after evicting the routes which have not been used recently when the cache
+     * is full. The lookups are not locked, only the additions are serialized so that the cache
+     * never exceeds its size.
+     *
+     * @param key key of the route
+     * @param route route to cache
+     * @return the cached route, which is the given route unless another thread cached it first
+     */
+    private CachedRoute cache(final RouteKey key, final CachedRoute route) {
+        synchronized (this.clock) {
+            final CachedRoute cached = this.routes.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            while (this.routes.size() >= this.cacheSize) {
+                evictOne();
+            }
+            this.routes.put(key, route);
+            this.clock.add(key);
+            return route;
+        }
+    }
+
+    /**
+     * Determines the route of a host.
+     *
+     * @param host the target host
+     * @param local local address or {@code null}
+     * @param override proxy of the request config, selected proxy or {@code null}
+     * @return the route
+     */
+    private HttpRoute createRoute(final HttpHost host, final InetAddress local,
+            final HttpHost override) {
+        // Use configured proxy is there is one, no proxy when the selector gives DIRECT
+        final HttpHost lproxy = override == null && !isSelecting() ? this.proxy : override;
+        final HttpHost target;
+        if (host.getPort() > 0
+                && (host.getSchemeName().equalsIgnoreCase("http")
+                && host.getPort() == 80
+                || host.getSchemeName().equalsIgnoreCase("https")
+                && host.getPort() == 443)) {
+            target = new HttpHost(host.getHostName(), -1, host.getSchemeName());
+        } else {
+            target = host;
+        }
+        final boolean secure = target.getSchemeName().equalsIgnoreCase("https");
+        if (lproxy == null || isExcluded(host)) {
+            LOG.debug("{} is excluded from proxy", host.getHostName());
+            return new HttpRoute(target, local, secure);
+        } else {
+            LOG.debug("{} uses the proxy", host.getHostName());
+            return new HttpRoute(target, local, lproxy, secure);
+        }
+    }
+
+    /**
+     * Returns the proxy selected in the pool for the request, or selects it.
+     *
+     * @param context the context to use for the execution
+     * @return the proxy
+     */
+    private HttpHost selectProxy(final HttpContext context) {
+        final Object selected = context.getAttribute(ProxyPool.SELECTED_PROXY);
+        if (selected instanceof ProxyPool.Member) {
+            return ((ProxyPool.Member) selected).getProxy();
+        }
+        final ProxyPool.Member member = this.pool.select();
+        context.setAttribute(ProxyPool.SELECTED_PROXY, member);
+        return member.getProxy();
+    }
+
+    /**
+     * Returns the proxy selected by the selector for the request, or selects it.
+     *
+     * @param host the target host
+     * @param context the context to use for the execution
+     * @return the proxy or {@code null} for a direct connection
+     * @throws HttpException When the target cannot be converted to an URI
+     */
+    private HttpHost selectProxy(final HttpHost host, final HttpContext context)
+            throws HttpException {
+        final Object selected = context.getAttribute(ProxyPool.SELECTED_PROXY);
+        if (selected instanceof Selection) {
+            return ((Selection) selected).proxy;
+        }
+        final URI uri;
+        try {
+            uri = new URI(host.getSchemeName(), null, host.getHostName(), host.getPort(), null,
+                    null, null);
+        } catch (URISyntaxException ex) {
+            throw LOG.throwing(new HttpException("Invalid target " + host, ex));
+        }
+        final List<?> tried = (List<?>) context.getAttribute(TRIED_PROXIES);
+        for (final Proxy candidate : this.selector.select(uri)) {
+            if (candidate.type() == Proxy.Type.DIRECT) {
+                return null;
+            }
+            if (candidate.type() == Proxy.Type.HTTP) {
+                final InetSocketAddress address = (InetSocketAddress) candidate.address();
+                final HttpHost proxy = new HttpHost(address.getHostString(), address.getPort());
+                if (tried == null || !tried.contains(proxy)) {
+                    this.selectedProxies.add(proxy);
+                    context.setAttribute(ProxyPool.SELECTED_PROXY, new Selection(uri, proxy));
+                    return proxy;
+                }
+            }
+        }
+        LOG.debug("No HTTP proxy selected for {}, uses a direct connection", uri);
+        return null;
+    }
+
+    /**
+     * Reports that the request succeeded through the selected proxy.
+     *
+     * @param context the context used for the execution
+     * @param latencyNs duration of the request in ns
+     */
+    public void succeeded(final HttpContext context, final long latencyNs) {
+        final Object selected = context.removeAttribute(ProxyPool.SELECTED_PROXY);
+        context.removeAttribute(TRIED_PROXIES);
+        if (selected instanceof ProxyPool.Member) {
+            ((ProxyPool.Member) selected).succeeded(latencyNs);
+        }
+    }
+
+    /**
+     * Reports that the request failed through the selected proxy. When the proxy cannot be
+     * connected, it is remembered in the context so that the request can be sent again through
+     * another proxy.
+     *
+     * @param context the context used for the execution
+     * @param ex exception of the request
+     * @return true when the request can be sent again through another proxy otherwise false
+     */
+    public boolean failed(final HttpContext context, final Throwable ex) {
+        final Object selected = context.removeAttribute(ProxyPool.SELECTED_PROXY);
+        boolean isRetryable = false;
+        if (selected instanceof ProxyPool.Member) {
+            final ProxyPool.Member member = (ProxyPool.Member) selected;
+            member.failed(ex);
+            isRetryable = ProxyPool.isConnectFailure(ex)
+                    && addTried(context, member.getProxy()).size() < this.pool.size();
+        } else if (selected instanceof Selection && ProxyPool.isConnectFailure(ex)) {
+            final Selection selection = (Selection) selected;
+            this.selector.connectFailed(selection.uri, InetSocketAddress.createUnresolved(
+                    selection.proxy.getHostName(), selection.proxy.getPort()),
+                    ex instanceof IOException ? (IOException) ex : new IOException(ex));
+            isRetryable = hasUntried(selection.uri, addTried(context, selection.proxy));
+        }
+        if (!isRetryable) {
+            context.removeAttribute(TRIED_PROXIES);
+        }
+        return isRetryable;
+    }
+
+    /**
+     * Adds the proxy to the proxies which could not be connected for the request.
+     *
+     * @param context the context used for the execution
+     * @param proxy proxy
+     * @return the proxies which could not be connected
+     */
+    private static List<HttpHost> addTried(final HttpContext context, final HttpHost proxy) {
+        @SuppressWarnings("unchecked")
+        List<HttpHost> tried = (List<HttpHost>) context.getAttribute(TRIED_PROXIES);
+        if (tried == null) {
+            tried = new ArrayList<>();
+            context.setAttribute(TRIED_PROXIES, tried);
+        }
+        tried.add(proxy);
+        return tried;
+    }
+
+    /**
+     * Returns true when the selector gives a proxy, or DIRECT, which has not been tried.
+     *
+     * @param uri target
+     * @param tried proxies which could not be connected
+     * @return true when another route can be tried otherwise false
+     */
+    private boolean hasUntried(final URI uri, final List<HttpHost> tried) {
+        for (final Proxy candidate : this.selector.select(uri)) {
+            if (candidate.type() == Proxy.Type.DIRECT) {
+                return true;
+            }
+            if (candidate.type() == Proxy.Type.HTTP) {
+                final InetSocketAddress address = (InetSocketAddress) candidate.address();
+                if (!tried.contains(new HttpHost(address.getHostString(), address.getPort()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the selector of the proxies.
+     *
+     * @return the selector or {@code null} when the proxies are selected in the pool
+     */
+    public ProxySelector getProxySelector() {
+        return this.selector;
+    }
+
+    /**
+     * Returns the proxies.
+     *
+     * @return the proxies
+     */
+    public ProxyPool getProxyPool() {
+        return this.pool;
+    }
+
+    /**
+     * Removes one cached route to keep the cache bounded. The routes used since the last turn of
+     * the clock get a second chance. To be called with the lock of the clock.
+     */
+    private void evictOne() {
+        RouteKey key;
+        while ((key = this.clock.poll()) != null) {
+            final CachedRoute cached = this.routes.get(key);
+            if (cached != null && cached.isReferenced) {
+                cached.isReferenced = false;
+                this.clock.add(key);
+            } else {
+                this.routes.remove(key);
+                this.evictionCount.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached routes. To be called when the proxy configuration changes.
+     */
+    public void invalidate() {
+        LOG.traceEntry();
+        synchronized (this.clock) {
+            this.routes.clear();
+            this.clock.clear();
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns the number of cached routes.
+     *
+     * @return the number of cached routes
+     */
+    public int size() {
+        return this.routes.size();
+    }
+
+    /**
+     * Returns the number of routes found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of routes which were not cached.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of routes removed to keep the cache bounded.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the ratio of the routes found in the cache.
+     *
+     * @return the hit rate between 0 and 1, 0 when no route has been determined
+     */
+    public double getHitRate() {
+        final long hits = this.hitCount.get();
+        final long total = hits + this.missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Proxy selected by the selector for a request.
+     */
+    private static final class Selection {
+
+        /**
+         * Target given to the selector.
+         */
+        private final URI uri;
+
+        /**
+         * Selected proxy.
+         */
+        private final HttpHost proxy;
+
+        /**
+         * Creates a selection.
+         *
+         * @param uri target given to the selector
+         * @param proxy selected proxy
+         */
+        private Selection(final URI uri, final HttpHost proxy) {
+            this.uri = uri;
+            this.proxy = proxy;
+        }
+    }
+
+    /**
+     * Cached route with its reference bit for the clock.
+     */
+    private static final class CachedRoute {
+
+        /**
+         * Route or, for a target which is not excluded from the proxy, {@code null}.
+         */
+        private final HttpRoute route;
+
+        /**
+         * True when the route has been used since the last turn of the clock.
+         */
+        private volatile boolean isReferenced;
+
+        /**
+         * Creates a cached route.
+         *
+         * @param route route or {@code null}
+         */
+        private CachedRoute(final HttpRoute route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * Key of a cached route.
+     */
+    private static final class RouteKey {
+
+        /**
+         * Target host, which includes the scheme and the port.
+         */
+        private final HttpHost host;
+
+        /**
+         * Proxy of the request config, proxy selected in the pool or {@code null}.
+         */
+        private final HttpHost override;
+
+        /**
+         * Local address or {@code null}.
+         */
+        private final InetAddress local;
+
+        /**
+         * True when the key gives whether the target is excluded from the proxy, before the
+         * proxy is selected.
+         */
+        private final boolean isExclusion;
+
+        /**
+         * Creates a key.
+         *
+         * @param host target host
+         * @param override proxy of the request config, proxy selected in the pool or
+         * {@code null}
+         * @param local local address or {@code null}
+         * @param isExclusion true when the key gives whether the target is excluded from the
+         * proxy
+         */
+        private RouteKey(final HttpHost host, final HttpHost override, final InetAddress local,
+                final boolean isExclusion) {
+            this.host = host;
+            this.override = override;
+            this.local = local;
+            this.isExclusion = isExclusion;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RouteKey)) {
+                return false;
+            }
+            final RouteKey other = (RouteKey) obj;
+            return this.host.equals(other.host) && Objects.equals(this.override, other.override)
+                    && Objects.equals(this.local, other.local)
+                    && this.isExclusion == other.isExclusion;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.host, this.override, this.local, this.isExclusion);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Maximum number of connections per route by host pattern, applied by the connection managers
+ * of the blocking and the asynchronous clients.
+ *
+ * The limit of a route is given by the most specific pattern matching its target host, that is
+ * the longest one. The patterns have the syntax of the no_proxy entries: host names, *.domain,
+ * IP ranges or wildcards. The limit of a route is applied once, when the route is first leased,
+ * and again when the patterns change.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+final class RouteLimits {
+
+    /**
+     * Maximum number of routes whose limit is remembered. Beyond, the routes are forgotten and
+     * their limit is applied again when they are leased.
+     */
+    private static final int MAX_LIMITED_ROUTES = 1024;
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(RouteLimits.class.getName());
+
+    /**
+     * Limits by host pattern, the most specific pattern first.
+     */
+    private volatile List<RouteLimit> limits = Collections.emptyList();
+
+    /**
+     * Routes whose limit is already applied, at most {@value #MAX_LIMITED_ROUTES}.
+     */
+    private final Set<HttpRoute> limitedRoutes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an empty set of limits.
+     */
+    RouteLimits() {
+    }
+
+    /**
+     * Sets the maximum number of connections of the routes whose target host matches a pattern
+     * and applies the limits again to the routes already in the pool. Setting a pattern again
+     * replaces its limit.
+     *
+     * @param hostPattern host pattern
+     * @param max maximum number of connections per route
+     * @param routes routes already in the pool
+     * @param setter sets the maximum number of connections of a route in the pool
+     * @throws IllegalArgumentException When max is not positive or when the pattern is not valid
+     */
+    synchronized void set(final String hostPattern, final int max,
+            final Collection<HttpRoute> routes, final ObjIntConsumer<HttpRoute> setter) {
+        LOG.traceEntry("hostPattern: {}\nmax: {}", hostPattern, max);
+        if (max <= 0) {
+            throw LOG.throwing(new IllegalArgumentException("The maximum number of connections "
+                    + "of " + hostPattern + " must be positive"));
+        }
+        final RouteLimit limit = new RouteLimit(hostPattern.trim(), max);
+        final List<RouteLimit> updated = new ArrayList<>();
+        for (final RouteLimit current : this.limits) {
+            if (!current.pattern.equals(limit.pattern)) {
+                updated.add(current);
+            }
+        }
+        updated.add(limit);
+        updated.sort(Comparator.comparingInt((RouteLimit current) -> current.pattern.length())
+                .reversed());
+        this.limits = Collections.unmodifiableList(updated);
+        this.limitedRoutes.clear();
+        for (final HttpRoute route : routes) {
+            this.limitedRoutes.add(route);
+            applyLimit(route, setter);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Applies the limit of a route which is leased, unless it is already applied.
+     *
+     * @param route route
+     * @param setter sets the maximum number of connections of a route in the pool
+     */
+    void apply(final HttpRoute route, final ObjIntConsumer<HttpRoute> setter) {
+        if (!this.limits.isEmpty() && !this.limitedRoutes.contains(route)) {
+            if (this.limitedRoutes.size() >= MAX_LIMITED_ROUTES) {
+                this.limitedRoutes.clear();
+            }
+            if (this.limitedRoutes.add(route)) {
+                applyLimit(route, setter);
+            }
+        }
+    }
+
+    /**
+     * Returns the limits by host pattern, the most specific pattern first.
+     *
+     * @return the maximum number of connections per route by host pattern
+     */
+    Map<String, Integer> toMap() {
+        final Map<String, Integer> result = new LinkedHashMap<>();
+        for (final RouteLimit limit : this.limits) {
+            result.put(limit.pattern, limit.max);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns the number of routes whose limit is remembered.
+     *
+     * @return the number of routes
+     */
+    int getLimitedRouteCount() {
+        return this.limitedRoutes.size();
+    }
+
+    /**
+     * Applies the limit of the most specific pattern matching the target host of a route.
+     *
+     * @param route route
+     * @param setter sets the maximum number of connections of a route in the pool
+     */
+    private void applyLimit(final HttpRoute route, final ObjIntConsumer<HttpRoute> setter) {
+        final String host = route.getTargetHost().getHostName();
+        for (final RouteLimit limit : this.limits) {
+            if (limit.matcher.matches(host)) {
+                LOG.debug("Maximum number of connections of {} : {}", route, limit.max);
+                setter.accept(route, limit.max);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Maximum number of connections of the routes matching a host pattern.
+     */
+    private static final class RouteLimit {
+
+        /**
+         * Host pattern.
+         */
+        private final String pattern;
+
+        /**
+         * Matcher of the pattern.
+         */
+        private final NoProxyMatcher matcher;
+
+        /**
+         * Maximum number of connections per route.
+         */
+        private final int max;
+
+        /**
+         * Creates a limit.
+         *
+         * @param pattern host pattern
+         * @param max maximum number of connections per route
+         */
+        private RouteLimit(final String pattern, final int max) {
+            this.pattern = pattern;
+            this.matcher = NoProxyMatcher.compile(pattern);
+            this.max = max;
+        }
+    }
+
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide cache of the SSL contexts built from a keystore and a truststore.
+ *
+ * Loading the stores and initializing the key and trust managers is expensive, so that the
+ * clients built with the same stores share one SSL context, and therefore one TLS session cache :
+ * a new connection to a server already known resumes the TLS session instead of doing a full
+ * handshake. The contexts are keyed by the type, the path and the password of the stores and by
+ * the size and the timeout of the session cache. The modification
+ * time and the length of the store files are checked each time a context is requested : the
+ * stores are loaded again when a file has changed.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class SSLContextCache {
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(SSLContextCache.class.getName());
+
+    /**
+     * Key manager algorithm.
+     */
+    private static final String KEY_MANAGER_ALGO = "SunX509";
+
+    /**
+     * Cache shared by the clients of the process.
+     */
+    private static final SSLContextCache INSTANCE = new SSLContextCache();
+
+    /**
+     * Cached contexts.
+     */
+    private final ConcurrentMap<Key, CachedContext> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * Number of contexts found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of contexts built from the stores.
+     */
+    private final AtomicLong loadCount = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     */
+    SSLContextCache() {
+    }
+
+    /**
+     * Returns the cache shared by the clients of the process.
+     *
+     * @return the cache
+     */
+    public static SSLContextCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the SSL context of the stores of the configuration, or of the javax.net.ssl system
+     * properties when they are not in the configuration.
+     *
+     * @param config options that might contain TLS parameters (keystore and trustore)
+     * @return SSL context or {@code null} when TLS is not available
+     */
+    public SSLContext get(final Map<String, String> config) {
+        return get(false, config);
+    }
+
+    /**
+     * Returns the SSL context of the configuration.
+     *
+     * @param isDisabledSSL True when SSL certificates are not checked, the stores are then
+     * ignored, otherwise False
+     * @param config options that might contain TLS parameters (keystore, trustore and session
+     * cache)
+     * @return SSL context or {@code null} when TLS is not available
+     * @throws NumberFormatException When the size or the timeout of the session cache is not a
+     * number
+     */
+    public SSLContext get(final boolean isDisabledSSL, final Map<String, String> config) {
+        final int sessionCacheSize = Integer.parseInt(config.getOrDefault(
+                HttpClient.TLS_SESSION_CACHE_SIZE, "-1"));
+        final int sessionTimeout = Integer.parseInt(config.getOrDefault(
+                HttpClient.TLS_SESSION_TIMEOUT, "-1"));
+        final Key key = isDisabledSSL
+                ? new Key(Store.NONE, Store.NONE, true, sessionCacheSize, sessionTimeout)
+                : new Key(new Store(config.getOrDefault(HttpClient.KEYSTORE_TYPE,
+                        System.getProperty("javax.net.ssl.keyStoreType")),
+                        config.getOrDefault(HttpClient.KEYSTORE_PATH,
+                                System.getProperty("javax.net.ssl.keyStore")),
+                        config.getOrDefault(HttpClient.KEYSTORE_PWD,
+                                System.getProperty("javax.net.ssl.keyStorePassword"))),
+                new Store(config.getOrDefault(HttpClient.TRUSTSTORE_TYPE,
+                        System.getProperty("javax.net.ssl.trustStoreType")),
+                        config.getOrDefault(HttpClient.TRUSTSTORE_PATH,
+                                System.getProperty("javax.net.ssl.trustStore")),
+                        config.getOrDefault(HttpClient.TRUSTSTORE_PWD,
+                                System.getProperty("javax.net.ssl.trustStorePassword"))),
+                        false, sessionCacheSize, sessionTimeout);
+        final long[] version = key.version();
+        final CachedContext cached = this.contexts.get(key);
+        if (cached != null && Arrays.equals(cached.version, version)) {
+            this.hitCount.incrementAndGet();
+            return cached.sslContext;
+        }
+        final CachedContext loaded = this.contexts.compute(key, (k, previous) ->
+                previous != null && Arrays.equals(previous.version, version)
+                ? previous : load(k, version));
+        return loaded == null ? null : loaded.sslContext;
+    }
+
+    /**
+     * Builds the SSL context of the stores.
+     *
+     * @param key stores
+     * @param version modification times and lengths of the store files
+     * @return the SSL context or {@code null} when TLS is not available
+     */
+    private CachedContext load(final Key key, final long[] version) {
+        LOG.traceEntry();
+        this.loadCount.incrementAndGet();
+        final KeyManagerFactory kmf = configureKeyStore(key.keyStore);
+        final TrustManagerFactory tmf = configureTrustStore(key.trustStore);
+        final KeyManager[] keys = kmf == null ? null : kmf.getKeyManagers();
+        final TrustManager[] trusts;
+        if (key.isTrustingAll) {
+            trusts = new TrustManager[]{HttpClient.TRUST_MANAGER};
+        } else {
+            trusts = tmf == null ? null : tmf.getTrustManagers();
+        }
+        try {
+            final SSLContext sslCtx = SSLContext.getInstance("TLS");
+            sslCtx.init(keys, trusts, new SecureRandom());
+            final SSLSessionContext sessions = sslCtx.getClientSessionContext();
+            if (key.sessionCacheSize >= 0) {
+                sessions.setSessionCacheSize(key.sessionCacheSize);
+            }
+            if (key.sessionTimeout >= 0) {
+                sessions.setSessionTimeout(key.sessionTimeout);
+            }
+            LOG.info(key.isTrustingAll ? "Creating a SSL configuration without certificate checking"
+                    : "Creating a SSL configuration with JKS");
+            return LOG.traceExit(new CachedContext(sslCtx, version));
+        } catch (NoSuchAlgorithmException | KeyManagementException ex) {
+            LOG.catching(ex);
+            return LOG.traceExit((CachedContext) null);
+        }
+    }
+
+    /**
+     * Configures key store.
+     *
+     * @param store keystore parameters
+     * @return Key manager or {@code null}
+     */
+    private static KeyManagerFactory configureKeyStore(final Store store) {
+        if (!store.isConfigured()) {
+            return null;
+        }
+        LOG.debug("keyStoreType: {}", store.type);
+        LOG.debug("keyStorePath: {}", store.path);
+        LOG.debug("keyStorePwd: ******");
+        try {
+            final char[] keyPassphrase = store.password.toCharArray();
+            final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KEY_MANAGER_ALGO);
+            kmf.init(store.load(), keyPassphrase);
+            return kmf;
+        } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException
+                | IOException | CertificateException ex) {
+            LOG.catching(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Configures trust store.
+     *
+     * @param store truststore parameters
+     * @return Trust manager or {@code null}
+     */
+    private static TrustManagerFactory configureTrustStore(final Store store) {
+        if (!store.isConfigured()) {
+            return null;
+        }
+        LOG.debug("trustStoreType: {}", store.type);
+        LOG.debug("trustStorePath: {}", store.path);
+        LOG.debug("trustStorePwd: ******");
+        try {
+            final TrustManagerFactory tmf = TrustManagerFactory.getInstance(KEY_MANAGER_ALGO);
+            tmf.init(store.load());
+            return tmf;
+        } catch (KeyStoreException | IOException | NoSuchAlgorithmException
+                | CertificateException ex) {
+            LOG.catching(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Removes all the cached contexts. The clients already built keep their context.
+     */
+    public void invalidate() {
+        LOG.traceEntry();
+        this.contexts.clear();
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns the number of cached contexts.
+     *
+     * @return the number of cached contexts
+     */
+    public int size() {
+        return this.contexts.size();
+    }
+
+    /**
+     * Returns the number of contexts found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of contexts built from the stores, including the reloads after a
+     * change of a store file.
+     *
+     * @return the number of loads
+     */
+    public long getLoadCount() {
+        return this.loadCount.get();
+    }
+
+    /**
+     * Keystore or truststore parameters.
+     */
+    private static final class Store {
+
+        /**
+         * Store which is not configured.
+         */
+        private static final Store NONE = new Store(null, null, null);
+
+        /**
+         * Type of the store or {@code null}.
+         */
+        private final String type;
+
+        /**
+         * Path of the store or {@code null}.
+         */
+        private final String path;
+
+        /**
+         * Password of the store or {@code null}.
+         */
+        private final String password;
+
+        /**
+         * Creates the store parameters.
+         *
+         * @param type type of the store or {@code null}
+         * @param path path of the store or {@code null}
+         * @param password password of the store or {@code null}
+         */
+        private Store(final String type, final String path, final String password) {
+            this.type = type;
+            this.path = path;
+            this.password = password;
+        }
+
+        /**
+         * Returns true when the type, the path and the password are set.
+         *
+         * @return true when the store is configured otherwise false
+         */
+        private boolean isConfigured() {
+            return this.type != null && this.path != null && this.password != null;
+        }
+
+        /**
+         * Loads the store.
+         *
+         * @return the store
+         * @throws KeyStoreException When the type is not supported
+         * @throws IOException When the file cannot be read or the password is not valid
+         * @throws NoSuchAlgorithmException When the integrity algorithm is not supported
+         * @throws CertificateException When a certificate cannot be loaded
+         */
+        private KeyStore load() throws KeyStoreException, IOException, NoSuchAlgorithmException,
+                CertificateException {
+            final KeyStore ks = KeyStore.getInstance(this.type);
+            try (InputStream input = new FileInputStream(this.path)) {
+                ks.load(input, this.password.toCharArray());
+            }
+            return ks;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Store)) {
+                return false;
+            }
+            final Store other = (Store) obj;
+            return Objects.equals(this.type, other.type) && Objects.equals(this.path, other.path)
+                    && Objects.equals(this.password, other.password);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.type, this.path, this.password);
+        }
+    }
+
+    /**
+     * Key of a cached context.
+     */
+    private static final class Key {
+
+        /**
+         * Keystore.
+         */
+        private final Store keyStore;
+
+        /**
+         * Truststore.
+         */
+        private final Store trustStore;
+
+        /**
+         * True when the certificates are not checked.
+         */
+        private final boolean isTrustingAll;
+
+        /**
+         * Maximum number of cached TLS sessions, -1 for the default of the JVM.
+         */
+        private final int sessionCacheSize;
+
+        /**
+         * Timeout in s of the cached TLS sessions, -1 for the default of the JVM.
+         */
+        private final int sessionTimeout;
+
+        /**
+         * Creates a key.
+         *
+         * @param keyStore keystore
+         * @param trustStore truststore
+         * @param isTrustingAll true when the certificates are not checked
+         * @param sessionCacheSize maximum number of cached TLS sessions, -1 for the default of
+         * the JVM
+         * @param sessionTimeout timeout in s of the cached TLS sessions, -1 for the default of
+         * the JVM
+         */
+        private Key(final Store keyStore, final Store trustStore, final boolean isTrustingAll,
+                final int sessionCacheSize, final int sessionTimeout) {
+            this.keyStore = keyStore;
+            this.trustStore = trustStore;
+            this.isTrustingAll = isTrustingAll;
+            this.sessionCacheSize = sessionCacheSize;
+            this.sessionTimeout = sessionTimeout;
+        }
+
+        /**
+         * Returns the modification times and the lengths of the store files, 0 when a file
+         * does not exist.
+         *
+         * @return the version of the stores
+         */
+        private long[] version() {
+            final File keyFile = this.keyStore.isConfigured() ? new File(this.keyStore.path)
+                    : null;
+            final File trustFile = this.trustStore.isConfigured()
+                    ? new File(this.trustStore.path) : null;
+            return new long[]{
+                keyFile == null ? 0 : keyFile.lastModified(),
+                keyFile == null ? 0 : keyFile.length(),
+                trustFile == null ? 0 : trustFile.lastModified(),
+                trustFile == null ? 0 : trustFile.length()
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.keyStore.equals(other.keyStore) && this.trustStore.equals(other.trustStore)
+                    && this.isTrustingAll == other.isTrustingAll
+                    && this.sessionCacheSize == other.sessionCacheSize
+                    && this.sessionTimeout == other.sessionTimeout;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.keyStore, this.trustStore, this.isTrustingAll,
+                    this.sessionCacheSize, this.sessionTimeout);
+        }
+    }
+
+    /**
+     * SSL context with the version of the stores it was built from.
+     */
+    private static final class CachedContext {
+
+        /**
+         * SSL context.
+         */
+        private final SSLContext sslContext;
+
+        /**
+         * Modification times and lengths of the store files.
+         */
+        private final long[] version;
+
+        /**
+         * Creates a cached context.
+         *
+         * @param sslContext SSL context
+         * @param version modification times and lengths of the store files
+         */
+        private CachedContext(final SSLContext sslContext, final long[] version) {
+            this.sslContext = sslContext;
+            this.version = version;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Counts the TLS handshakes of a client, the full handshakes and the ones which resumed a cached
+ * session.
+ *
+ * A session is resumed when it was created before the handshake started.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class TlsSessionMetrics {
+
+    /**
+     * Number of full handshakes.
+     */
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+
+    /**
+     * Number of handshakes resuming a session.
+     */
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    /**
+     * Creates the metrics.
+     */
+    public TlsSessionMetrics() {
+    }
+
+    /**
+     * Counts a completed handshake and records its duration.
+     *
+     * @param session session of the handshake
+     * @param startMs time in ms when the handshake started
+     */
+    void handshakeCompleted(final SSLSession session, final long startMs) {
+        if (Metrics.isEnabled()) {
+            Metrics.recordDuration(MetricsRecorder.Timer.TLS_HANDSHAKE,
+                    "https://" + session.getPeerHost() + ":" + session.getPeerPort(),
+                    TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - startMs));
+        }
+        if (session.getCreationTime() < startMs) {
+            this.resumedHandshakeCount.incrementAndGet();
+        } else {
+            this.fullHandshakeCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of full handshakes.
+     *
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakeCount() {
+        return this.fullHandshakeCount.get();
+    }
+
+    /**
+     * Returns the number of handshakes resuming a cached session.
+     *
+     * @return the number of resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return this.resumedHandshakeCount.get();
+    }
+
+    /**
+     * Returns the ratio of the handshakes resuming a cached session.
+     *
+     * @return the resumption rate between 0 and 1, 0 when no handshake has been done
+     */
+    public double getResumptionRate() {
+        final long resumed = this.resumedHandshakeCount.get();
+        final long total = resumed + this.fullHandshakeCount.get();
+        return total == 0 ? 0 : (double) resumed / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "TlsSessionMetrics{full=" + getFullHandshakeCount() + ", resumed="
+                + getResumedHandshakeCount() + "}";
+    }
+
+}
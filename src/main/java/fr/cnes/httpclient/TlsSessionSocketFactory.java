@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.net.Socket;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Socket factory of the blocking client counting the full and the resumed TLS handshakes.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+class TlsSessionSocketFactory extends SSLConnectionSocketFactory {
+
+    /**
+     * Handshake counters.
+     */
+    private final TlsSessionMetrics metrics;
+
+    /**
+     * Creates the socket factory.
+     *
+     * @param sslContext SSL context, shared by the clients using the same stores
+     * @param hostnameVerifier hostname verifier
+     * @param metrics handshake counters
+     */
+    TlsSessionSocketFactory(final SSLContext sslContext, final HostnameVerifier hostnameVerifier,
+            final TlsSessionMetrics metrics) {
+        super(sslContext, hostnameVerifier);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates the TLS socket and counts its handshake. The session is read once the handshake
+     * done by the parent class has completed, so that the counters are up to date when the
+     * connection is returned.
+     *
+     * @param socket the plain socket
+     * @param target the target host
+     * @param port the port of the target
+     * @param context the context of the execution
+     * @return the TLS socket
+     * @throws IOException in case of an I/O error or when the handshake fails
+     */
+    @Override
+    public Socket createLayeredSocket(final Socket socket, final String target, final int port,
+            final HttpContext context) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Socket layered = super.createLayeredSocket(socket, target, port, context);
+        this.metrics.handshakeCompleted(((SSLSocket) layered).getSession(), start);
+        return layered;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import org.apache.http.HttpHost;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.ssl.SSLIOSession;
+
+/**
+ * TLS strategy of the asynchronous client counting the full and the resumed TLS handshakes.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+class TlsSessionStrategy extends SSLIOSessionStrategy {
+
+    /**
+     * Attribute of the I/O session holding the time in ms when the handshake started.
+     */
+    private static final String HANDSHAKE_START = "fr.cnes.httpclient.handshake-start";
+
+    /**
+     * Handshake counters.
+     */
+    private final TlsSessionMetrics metrics;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param sslContext SSL context, shared by the clients using the same stores
+     * @param hostnameVerifier hostname verifier
+     * @param metrics handshake counters
+     */
+    TlsSessionStrategy(final SSLContext sslContext, final HostnameVerifier hostnameVerifier,
+            final TlsSessionMetrics metrics) {
+        super(sslContext, hostnameVerifier);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records the time when the handshake starts and upgrades the session.
+     *
+     * @param host target host
+     * @param iosession I/O session
+     * @return the TLS session
+     * @throws IOException When the session cannot be upgraded
+     */
+    @Override
+    public SSLIOSession upgrade(final HttpHost host, final IOSession iosession)
+            throws IOException {
+        iosession.setAttribute(HANDSHAKE_START, System.currentTimeMillis());
+        return super.upgrade(host, iosession);
+    }
+
+    /**
+     * Verifies the session and counts the handshake.
+     *
+     * @param host target host
+     * @param iosession I/O session
+     * @param sslsession TLS session
+     * @throws SSLException When the hostname of the certificate does not match
+     */
+    @Override
+    protected void verifySession(final HttpHost host, final IOSession iosession,
+            final SSLSession sslsession) throws SSLException {
+        super.verifySession(host, iosession, sslsession);
+        final Object start = iosession.removeAttribute(HANDSHAKE_START);
+        if (start instanceof Long) {
+            this.metrics.handshakeCompleted(sslsession, (Long) start);
+        }
+    }
+
+}
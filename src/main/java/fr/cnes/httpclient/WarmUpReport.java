@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durations of the phases of a client warm-up.
+ *
+ * The phases are reported in the order in which they ran. A phase which did not run, for
+ * instance the Kerberos login of a client without SPNego, is not reported.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class WarmUpReport {
+
+    /**
+     * Phase of the Kerberos login.
+     */
+    public static final String LOGIN = "login";
+
+    /**
+     * Phase of the acquisition of the proxy service ticket.
+     */
+    public static final String SERVICE_TICKET = "serviceTicket";
+
+    /**
+     * Phase of the opening and the authentication of the pooled connections.
+     */
+    public static final String CONNECTIONS = "connections";
+
+    /**
+     * Duration in ms by phase.
+     */
+    private final Map<String, Long> phases = Collections.synchronizedMap(
+            new LinkedHashMap<>());
+
+    /**
+     * Errors of the phases and of the requests.
+     */
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Number of requests which succeeded.
+     */
+    private int connectionCount;
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase phase name
+     * @param startNanos start time of the phase given by {@link System#nanoTime()}
+     */
+    void addPhase(final String phase, final long startNanos) {
+        this.phases.put(phase, (System.nanoTime() - startNanos) / 1_000_000L);
+    }
+
+    /**
+     * Records an error.
+     *
+     * @param failure error message
+     */
+    void addFailure(final String failure) {
+        this.failures.add(failure);
+    }
+
+    /**
+     * Sets the number of requests which succeeded.
+     *
+     * @param connectionCount number of requests which succeeded
+     */
+    void setConnectionCount(final int connectionCount) {
+        this.connectionCount = connectionCount;
+    }
+
+    /**
+     * Returns the duration of the phases in the order in which they ran.
+     *
+     * @return the duration in ms by phase
+     */
+    public Map<String, Long> getPhases() {
+        synchronized (this.phases) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(this.phases));
+        }
+    }
+
+    /**
+     * Returns the duration of a phase.
+     *
+     * @param phase phase name
+     * @return the duration in ms or -1 when the phase did not run
+     */
+    public long getDuration(final String phase) {
+        final Long duration = this.phases.get(phase);
+        return duration == null ? -1 : duration;
+    }
+
+    /**
+     * Returns the number of warm-up requests which succeeded.
+     *
+     * @return the number of requests which succeeded
+     */
+    public int getConnectionCount() {
+        return this.connectionCount;
+    }
+
+    /**
+     * Returns the errors of the phases and of the requests.
+     *
+     * @return the error messages
+     */
+    public List<String> getFailures() {
+        synchronized (this.failures) {
+            return Collections.unmodifiableList(new ArrayList<>(this.failures));
+        }
+    }
+
+    /**
+     * Checks whether the warm-up ran without error.
+     *
+     * @return true when no error happened otherwise false
+     */
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+
+    /**
+     * Returns the durations and the number of requests which succeeded.
+     *
+     * @return a description of the warm-up
+     */
+    @Override
+    public String toString() {
+        return "WarmUpReport{phases=" + getPhases() + ", connections=" + this.connectionCount
+                + ", failures=" + this.failures.size() + "}";
+    }
+
+}
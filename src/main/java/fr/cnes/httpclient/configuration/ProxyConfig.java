@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable proxy configuration with basic authentication or without authentication.
+ *
+ * Unlike {@link ProxyConfiguration}, which holds one configuration for the whole JVM, an instance
+ * of this class belongs to the HTTP clients created with it, so that several proxies can be used
+ * at the same time. The values which are not set in the builder are taken from
+ * {@link ProxyConfiguration} when the builder is created.
+ * <pre>
+ * <code>
+ * final ProxyConfig proxyConfig = ProxyConfig.builder()
+ *         .setHttpProxy("127.0.0.1:1080")
+ *         .setUsername("foo")
+ *         .setPassword("bar")
+ *         .build();
+ * final HttpClient client = HttpClientFactory.create(proxyConfig, false, new HashMap&lt;&gt;());
+ * </code>
+ * </pre>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class ProxyConfig {
+
+    /**
+     * Values by key.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Creates the configuration from the builder values.
+     *
+     * @param values values by key
+     */
+    private ProxyConfig(final Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * Creates a builder initialized with the values of {@link ProxyConfiguration}.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a configuration from a map. The keys of {@link ProxyConfiguration} found in the map
+     * override the values of {@link ProxyConfiguration}, the other keys are ignored.
+     *
+     * @param config configuration as a map
+     * @return the configuration
+     */
+    public static ProxyConfig from(final Map<String, String> config) {
+        final Builder builder = builder();
+        for (final ProxyConfiguration key : ProxyConfiguration.values()) {
+            if (config.containsKey(key.getKey())) {
+                builder.set(key, config.get(key.getKey()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the value of a key or an empty string if null.
+     *
+     * @param key key
+     * @return the value
+     */
+    public String getValue(final ProxyConfiguration key) {
+        final String value = this.values.get(key.getKey());
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Returns the configuration as an unmodifiable map.
+     *
+     * @return the configuration
+     */
+    public Map<String, String> getConfig() {
+        return this.values;
+    }
+
+    /**
+     * Validates the configuration.
+     *
+     * @param error error
+     * @return True when the configuration is valid otherwise False
+     */
+    public boolean isValid(final StringBuilder error) {
+        return ProxyConfiguration.isValid(this.values, error);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ProxyConfig{" + "httpProxy=" + getValue(ProxyConfiguration.HTTP_PROXY)
+                + ", noProxy=" + getValue(ProxyConfiguration.NO_PROXY)
+                + ", username=" + getValue(ProxyConfiguration.USERNAME) + '}';
+    }
+
+    /**
+     * Builder of {@link ProxyConfig}.
+     */
+    public static final class Builder {
+
+        /**
+         * Values by key.
+         */
+        private final Map<String, String> values = new HashMap<>(ProxyConfiguration.getConfig());
+
+        /**
+         * Creates a builder initialized with the values of {@link ProxyConfiguration}.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Sets the value of a key.
+         *
+         * @param key key
+         * @param value value, null is considered as an empty string
+         * @return this builder
+         */
+        public Builder set(final ProxyConfiguration key, final String value) {
+            this.values.put(key.getKey(), value == null ? "" : value);
+            return this;
+        }
+
+        /**
+         * Sets the proxy as hostname:port.
+         *
+         * @param httpProxy the proxy
+         * @return this builder
+         */
+        public Builder setHttpProxy(final String httpProxy) {
+            return set(ProxyConfiguration.HTTP_PROXY, httpProxy);
+        }
+
+        /**
+         * Sets the hosts excluded from the proxy, separated by a comma.
+         *
+         * @param noProxy the excluded hosts
+         * @return this builder
+         */
+        public Builder setNoProxy(final String noProxy) {
+            return set(ProxyConfiguration.NO_PROXY, noProxy);
+        }
+
+        /**
+         * Sets the username for the basic authentication.
+         *
+         * @param username the username
+         * @return this builder
+         */
+        public Builder setUsername(final String username) {
+            return set(ProxyConfiguration.USERNAME, username);
+        }
+
+        /**
+         * Sets the password for the basic authentication.
+         *
+         * @param password the password
+         * @return this builder
+         */
+        public Builder setPassword(final String password) {
+            return set(ProxyConfiguration.PASSWORD, password);
+        }
+
+        /**
+         * Creates the configuration.
+         *
+         * @return the configuration
+         */
+        public ProxyConfig build() {
+            return new ProxyConfig(this.values);
+        }
+    }
+
+}
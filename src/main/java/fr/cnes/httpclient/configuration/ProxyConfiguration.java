@@ -30,13 +30,16 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public enum ProxyConfiguration {
     /**
-     * HTTP proxy variable (as hostname:port). 
+     * HTTP proxy variable (as hostname:port). Several proxies separated by commas are used as a
+     * {@link fr.cnes.httpclient.ProxyPool pool}.
      * By default it loads the <b>http_proxy</b> variable.
      */
     HTTP_PROXY("http_proxy", System.getenv("http_proxy")),
     /**
      * No proxy variable. 
      * A set of separated hostname/IP by comma. By default it loads the <b>no_proxy</b> variable.
+     * The domains (.example.org), IP ranges (10.0.0.0/8) and patterns are described in
+     * {@link fr.cnes.httpclient.NoProxyMatcher}.
      */
     NO_PROXY("no_proxy", System.getenv("no_proxy")),
     /**
@@ -116,9 +119,21 @@ public enum ProxyConfiguration {
      * @return True when the configuration is valid otherwise False
      */
     public static boolean isValid(final StringBuilder error) {
+        return isValid(getConfig(), error);
+    }
+
+    /**
+     * Validates a configuration.
+     *
+     * @param config configuration to validate, a missing key is considered as empty
+     * @param error error
+     * @return True when the configuration is valid otherwise False
+     */
+    public static boolean isValid(final Map<String, String> config,
+            final StringBuilder error) {
         boolean isValid = true;
         final StringBuilder validation = new StringBuilder();
-        if (ProxyConfiguration.HTTP_PROXY.getValue().isEmpty()) {
+        if (value(config, ProxyConfiguration.HTTP_PROXY).isEmpty()) {
             validation.append(ProxyConfiguration.HTTP_PROXY.getKey()).append(
                     " cannot be null or empty\n");
             isValid = false;
@@ -126,4 +141,17 @@ public enum ProxyConfiguration {
         error.append(validation);
         return isValid;
     }
+
+    /**
+     * Returns the value of a key in a configuration or an empty string if the key is missing.
+     *
+     * @param config configuration
+     * @param key key
+     * @return the value
+     */
+    private static String value(final Map<String, String> config,
+            final ProxyConfiguration key) {
+        final String value = config.get(key.getKey());
+        return value == null ? "" : value;
+    }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable configuration for SPNego using the programmatic API.
+ *
+ * Unlike {@link ProxySPNegoAPIConfiguration}, which holds one configuration for the whole JVM, an
+ * instance of this class belongs to the HTTP clients created with it and is given to their GSS
+ * clients, so that several principals or proxies can be used at the same time. The values which
+ * are not set in the builder are taken from {@link ProxySPNegoAPIConfiguration} when the builder
+ * is created.
+ * <pre>
+ * <code>
+ * final ProxySPNegoAPIConfig proxyConfig = ProxySPNegoAPIConfig.builder()
+ *         .setHttpProxy("127.0.0.1:1080")
+ *         .setServiceProviderName("HTTP@127.0.0.1")
+ *         .setPrincipal("doi_kerberos@SIS.CNES.FR")
+ *         .setKeyTab("/home/ad/doi_kerberos/doi_kerberos.keytab")
+ *         .build();
+ * final HttpClient client = HttpClientFactory.create(proxyConfig, false, new HashMap&lt;&gt;());
+ * </code>
+ * </pre>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class ProxySPNegoAPIConfig {
+
+    /**
+     * Values by key.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Creates the configuration from the builder values.
+     *
+     * @param values values by key
+     */
+    private ProxySPNegoAPIConfig(final Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * Creates a builder initialized with the values of {@link ProxySPNegoAPIConfiguration}.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a configuration from a map. The keys of {@link ProxySPNegoAPIConfiguration} found in
+     * the map override the values of {@link ProxySPNegoAPIConfiguration}, the other keys are
+     * ignored.
+     *
+     * @param config configuration as a map
+     * @return the configuration
+     */
+    public static ProxySPNegoAPIConfig from(final Map<String, String> config) {
+        final Builder builder = builder();
+        for (final ProxySPNegoAPIConfiguration key : ProxySPNegoAPIConfiguration.values()) {
+            if (config.containsKey(key.getKey())) {
+                builder.set(key, config.get(key.getKey()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the value of a key or an empty string if null.
+     *
+     * @param key key
+     * @return the value
+     */
+    public String getValue(final ProxySPNegoAPIConfiguration key) {
+        final String value = this.values.get(key.getKey());
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Returns the configuration as an unmodifiable map.
+     *
+     * @return the configuration
+     */
+    public Map<String, String> getConfig() {
+        return this.values;
+    }
+
+    /**
+     * Returns true when the configuration seems to be valid.
+     *
+     * @param error errors
+     * @return true when the configuration is valid otherwise false
+     */
+    public boolean isValid(final StringBuilder error) {
+        return ProxySPNegoAPIConfiguration.isValid(this.values, error);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ProxySPNegoAPIConfig{" + "httpProxy="
+                + getValue(ProxySPNegoAPIConfiguration.HTTP_PROXY)
+                + ", principal=" + getValue(ProxySPNegoAPIConfiguration.PRINCIPAL)
+                + ", spn=" + getValue(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME) + '}';
+    }
+
+    /**
+     * Builder of {@link ProxySPNegoAPIConfig}.
+     */
+    public static final class Builder {
+
+        /**
+         * Values by key.
+         */
+        private final Map<String, String> values = new HashMap<>(ProxySPNegoAPIConfiguration.
+                getConfig());
+
+        /**
+         * Creates a builder initialized with the values of {@link ProxySPNegoAPIConfiguration}.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Sets the value of a key.
+         *
+         * @param key key
+         * @param value value, null is considered as an empty string
+         * @return this builder
+         */
+        public Builder set(final ProxySPNegoAPIConfiguration key, final String value) {
+            this.values.put(key.getKey(), value == null ? "" : value);
+            return this;
+        }
+
+        /**
+         * Sets the proxy as hostname:port.
+         *
+         * @param httpProxy the proxy
+         * @return this builder
+         */
+        public Builder setHttpProxy(final String httpProxy) {
+            return set(ProxySPNegoAPIConfiguration.HTTP_PROXY, httpProxy);
+        }
+
+        /**
+         * Sets the hosts excluded from the proxy, separated by a comma.
+         *
+         * @param noProxy the excluded hosts
+         * @return this builder
+         */
+        public Builder setNoProxy(final String noProxy) {
+            return set(ProxySPNegoAPIConfiguration.NO_PROXY, noProxy);
+        }
+
+        /**
+         * Sets the name of the principal.
+         *
+         * @param principal the principal
+         * @return this builder
+         */
+        public Builder setPrincipal(final String principal) {
+            return set(ProxySPNegoAPIConfiguration.PRINCIPAL, principal);
+        }
+
+        /**
+         * Sets the service principal name of the proxy.
+         *
+         * @param spn the SPN
+         * @return this builder
+         */
+        public Builder setServiceProviderName(final String spn) {
+            return set(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME, spn);
+        }
+
+        /**
+         * Sets the keytab and enables its use.
+         *
+         * @param keyTab file name of the keytab
+         * @return this builder
+         */
+        public Builder setKeyTab(final String keyTab) {
+            set(ProxySPNegoAPIConfiguration.USE_KEYTAB, "true");
+            return set(ProxySPNegoAPIConfiguration.KEY_TAB, keyTab);
+        }
+
+        /**
+         * Sets the ticket cache and enables its use.
+         *
+         * @param ticketCache file name of the ticket cache
+         * @return this builder
+         */
+        public Builder setTicketCache(final String ticketCache) {
+            set(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE, "true");
+            return set(ProxySPNegoAPIConfiguration.TICKET_CACHE, ticketCache);
+        }
+
+        /**
+         * Sets the Kerberos configuration file.
+         *
+         * @param krb5File the Kerberos configuration file
+         * @return this builder
+         */
+        public Builder setKrb5File(final String krb5File) {
+            return set(ProxySPNegoAPIConfiguration.KRB5, krb5File);
+        }
+
+        /**
+         * Sets the JAAS context.
+         *
+         * @param jaasContext the JAAS context
+         * @return this builder
+         */
+        public Builder setJaasContext(final String jaasContext) {
+            return set(ProxySPNegoAPIConfiguration.JAAS_CONTEXT, jaasContext);
+        }
+
+        /**
+         * Creates the configuration.
+         *
+         * @return the configuration
+         */
+        public ProxySPNegoAPIConfig build() {
+            return new ProxySPNegoAPIConfig(this.values);
+        }
+    }
+
+}
@@ -34,13 +34,16 @@ import org.apache.logging.log4j.Logger;
  */
 public enum ProxySPNegoAPIConfiguration {
     /**
-     * HTTP proxy variable (as hostname:port). 
+     * HTTP proxy variable (as hostname:port). Several proxies separated by commas are used as a
+     * {@link fr.cnes.httpclient.ProxyPool pool}.
      * By default it loads the <b>http_proxy</b> variable.
      */
     HTTP_PROXY("http_proxy", System.getenv("http_proxy")),
     /**
      * No proxy variable. 
      * A set of separated hostname/IP by comma. By default it loads <b>no_proxy</b> variable.
+     * The domains (.example.org), IP ranges (10.0.0.0/8) and patterns are described in
+     * {@link fr.cnes.httpclient.NoProxyMatcher}.
      */
     NO_PROXY("no_proxy", System.getenv("no_proxy")),
     /**
@@ -100,7 +103,8 @@ public enum ProxySPNegoAPIConfiguration {
      */
     IS_INITIATOR("isInitiator", "true"),
     /**
-     * the SPN.
+     * the SPN. {@value fr.cnes.jspnego.GSSClientFactory#PROXY_HOST} is
+     * replaced by the hostname of the proxy, when each proxy of a pool has its own SPN.
      */
     SERVICE_PROVIDER_NAME("spn", ""),
     /**
@@ -173,7 +177,7 @@ public enum ProxySPNegoAPIConfiguration {
         final Map<String, String> map = new ConcurrentHashMap<>();
         final ProxySPNegoAPIConfiguration[] confs = ProxySPNegoAPIConfiguration.values();
         for (final ProxySPNegoAPIConfiguration conf : confs) {
-            LOG.debug("config - "+conf.getKey()+"="+conf.getValue());
+            LOG.debug("config - {}={}", conf.getKey(), conf.getValue());
             map.put(conf.getKey(), conf.getValue());
         }
         return map;
@@ -188,61 +192,75 @@ public enum ProxySPNegoAPIConfiguration {
      * <a href="https://docs.oracle.com/javase/8/docs/jre/api/security/jaas/spec/com/sun/security/auth/module/Krb5LoginModule.html">Krb5LoginModule</a>
      */
     public static boolean isValid(final StringBuilder error) {
+        return isValid(getConfig(), error);
+    }
+
+    /**
+     * Returns true when a configuration seems to be valid.
+     *
+     * @param config configuration to validate, a missing key is considered as empty
+     * @param error errors
+     * @return true when the configuration is valid otherwise false
+     * @see
+     * <a href="https://docs.oracle.com/javase/8/docs/jre/api/security/jaas/spec/com/sun/security/auth/module/Krb5LoginModule.html">Krb5LoginModule</a>
+     */
+    public static boolean isValid(final Map<String, String> config,
+            final StringBuilder error) {
         boolean isValid = true;
         final StringBuilder validation = new StringBuilder();
-        if (ProxySPNegoAPIConfiguration.HTTP_PROXY.getValue() == null || ProxySPNegoAPIConfiguration.HTTP_PROXY.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoAPIConfiguration.HTTP_PROXY) == null || value(config, ProxySPNegoAPIConfiguration.HTTP_PROXY).isEmpty()) {
             validation.append(ProxySPNegoAPIConfiguration.HTTP_PROXY.getKey()).append(
                     " cannot be null or empty\n");
-            LOG.error(ProxySPNegoAPIConfiguration.HTTP_PROXY.getKey()+": "+ProxySPNegoAPIConfiguration.HTTP_PROXY.getValue()+" cannot be null or empty\n");            
+            LOG.error(ProxySPNegoAPIConfiguration.HTTP_PROXY.getKey()+": "+value(config, ProxySPNegoAPIConfiguration.HTTP_PROXY)+" cannot be null or empty\n");            
             isValid = false;
         }
-        if (!Files.isReadable(Paths.get(ProxySPNegoAPIConfiguration.KRB5.getValue()))) {
+        if (!Files.isReadable(Paths.get(value(config, ProxySPNegoAPIConfiguration.KRB5)))) {
             validation.append("Kerberos configuration file must be readable");
-            LOG.error(ProxySPNegoAPIConfiguration.KRB5.getKey()+": "+ProxySPNegoAPIConfiguration.KRB5.getValue()+" - Kerberos configuration file must be readable");            
+            LOG.error(ProxySPNegoAPIConfiguration.KRB5.getKey()+": "+value(config, ProxySPNegoAPIConfiguration.KRB5)+" - Kerberos configuration file must be readable");            
             isValid = false;
         }
-        if (ProxySPNegoAPIConfiguration.PRINCIPAL.getValue() == null || ProxySPNegoAPIConfiguration.PRINCIPAL.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoAPIConfiguration.PRINCIPAL) == null || value(config, ProxySPNegoAPIConfiguration.PRINCIPAL).isEmpty()) {
             validation.append(ProxySPNegoAPIConfiguration.PRINCIPAL.getKey()).append(" must be set");
             LOG.error(ProxySPNegoAPIConfiguration.PRINCIPAL.getKey()+" must be set");                        
             isValid = false;
         }
-        if (ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME).isEmpty()) {
             validation.append(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey()).append(
                     " must be set");
             LOG.error(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey()+": value is not set");            
             isValid = false;
         }
-        if (Boolean.parseBoolean(ProxySPNegoAPIConfiguration.DO_NOT_PROMPT.getValue())
-                && !Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())
-                && !Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_KEYTAB.getValue())) {
+        if (Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.DO_NOT_PROMPT))
+                && !Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))
+                && !Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_KEYTAB))) {
             validation.append("Illegal combination : DO_NOT_PROMPT=true && USE_TICKET_CACHE = false"
                     + "&& USE_KEYTAB = false");
             isValid = false;
         }
-        if (Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())
-                && ProxySPNegoAPIConfiguration.TICKET_CACHE.getValue() == null) {
+        if (Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))
+                && value(config, ProxySPNegoAPIConfiguration.TICKET_CACHE) == null) {
             validation.append(ProxySPNegoAPIConfiguration.TICKET_CACHE.getKey()).append(
                     " value cannot be null");
             isValid = false;
-        } else if (Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())
-                && !Files.isReadable(Paths.get(ProxySPNegoAPIConfiguration.TICKET_CACHE.getValue()))) {
-            validation.append(ProxySPNegoAPIConfiguration.TICKET_CACHE.getValue()).append(
+        } else if (Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))
+                && !Files.isReadable(Paths.get(value(config, ProxySPNegoAPIConfiguration.TICKET_CACHE)))) {
+            validation.append(value(config, ProxySPNegoAPIConfiguration.TICKET_CACHE)).append(
                     " is not a readable file");
             isValid = false;
-        } else if (!Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())
-                && ProxySPNegoAPIConfiguration.TICKET_CACHE.getValue() != null && 
-                !ProxySPNegoAPIConfiguration.TICKET_CACHE.getValue().isEmpty()) {
+        } else if (!Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))
+                && value(config, ProxySPNegoAPIConfiguration.TICKET_CACHE) != null && 
+                !value(config, ProxySPNegoAPIConfiguration.TICKET_CACHE).isEmpty()) {
             validation.append("Illegal combination : USE_TICKET_CACHE=false && TICKET_CACHE is set");
             isValid = false;
         } 
-        if (Boolean.parseBoolean(ProxySPNegoAPIConfiguration.RENEW_TGT.getValue())
-                && !Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())) {
+        if (Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.RENEW_TGT))
+                && !Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))) {
             validation.append("Illegal combination : RENEW_TGT=true &&  USE_TICKET_CACHE=false");
             isValid = false;
         }
-        if (Boolean.parseBoolean(ProxySPNegoAPIConfiguration.STORE_KEY.getValue())
-                && Boolean.parseBoolean(ProxySPNegoAPIConfiguration.USE_TICKET_CACHE.getValue())
-                && Boolean.parseBoolean(ProxySPNegoAPIConfiguration.DO_NOT_PROMPT.getValue())) {
+        if (Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.STORE_KEY))
+                && Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.USE_TICKET_CACHE))
+                && Boolean.parseBoolean(value(config, ProxySPNegoAPIConfiguration.DO_NOT_PROMPT))) {
             validation.append(
                     "Illegal combination : STORE_KEY=true && USE_TICKET_CACHE=true && DO_NOT_PROMPT=true");
             isValid = false;
@@ -251,4 +269,17 @@ public enum ProxySPNegoAPIConfiguration {
         return isValid;
     }
 
+    /**
+     * Returns the value of a key in a configuration or an empty string if the key is missing.
+     *
+     * @param config configuration
+     * @param key key
+     * @return the value
+     */
+    private static String value(final Map<String, String> config,
+            final ProxySPNegoAPIConfiguration key) {
+        final String value = config.get(key.getKey());
+        return value == null ? "" : value;
+    }
+
 }
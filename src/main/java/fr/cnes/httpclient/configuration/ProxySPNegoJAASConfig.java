@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable configuration for SPNego using a JAAS configuration file.
+ *
+ * Unlike {@link ProxySPNegoJAASConfiguration}, which holds one configuration for the whole JVM,
+ * an instance of this class belongs to the HTTP clients created with it and is given to their GSS
+ * clients, so that several JAAS files or proxies can be used at the same time. The values which
+ * are not set in the builder are taken from {@link ProxySPNegoJAASConfiguration} when the builder
+ * is created.
+ * <pre>
+ * <code>
+ * final ProxySPNegoJAASConfig proxyConfig = ProxySPNegoJAASConfig.builder()
+ *         .setHttpProxy("127.0.0.1:1080")
+ *         .setJaasFile("/tmp/jaas.conf")
+ *         .setJaasContext("KRB5")
+ *         .setServiceProviderName("HTTP@127.0.0.1")
+ *         .build();
+ * final HttpClient client = HttpClientFactory.create(proxyConfig, false, new HashMap&lt;&gt;());
+ * </code>
+ * </pre>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class ProxySPNegoJAASConfig {
+
+    /**
+     * Values by key.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Creates the configuration from the builder values.
+     *
+     * @param values values by key
+     */
+    private ProxySPNegoJAASConfig(final Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * Creates a builder initialized with the values of {@link ProxySPNegoJAASConfiguration}.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a configuration from a map. The keys of {@link ProxySPNegoJAASConfiguration} found
+     * in the map override the values of {@link ProxySPNegoJAASConfiguration}, the other keys are
+     * ignored.
+     *
+     * @param config configuration as a map
+     * @return the configuration
+     */
+    public static ProxySPNegoJAASConfig from(final Map<String, String> config) {
+        final Builder builder = builder();
+        for (final ProxySPNegoJAASConfiguration key : ProxySPNegoJAASConfiguration.values()) {
+            if (config.containsKey(key.getKey())) {
+                builder.set(key, config.get(key.getKey()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the value of a key or an empty string if null.
+     *
+     * @param key key
+     * @return the value
+     */
+    public String getValue(final ProxySPNegoJAASConfiguration key) {
+        final String value = this.values.get(key.getKey());
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Returns the configuration as an unmodifiable map.
+     *
+     * @return the configuration
+     */
+    public Map<String, String> getConfig() {
+        return this.values;
+    }
+
+    /**
+     * Returns true when the configuration seems to be valid.
+     *
+     * @param error errors
+     * @return true when the configuration is valid otherwise false
+     */
+    public boolean isValid(final StringBuilder error) {
+        return ProxySPNegoJAASConfiguration.isValid(this.values, error);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ProxySPNegoJAASConfig{" + "httpProxy="
+                + getValue(ProxySPNegoJAASConfiguration.HTTP_PROXY)
+                + ", jaasFile=" + getValue(ProxySPNegoJAASConfiguration.JAAS)
+                + ", jaasContext=" + getValue(ProxySPNegoJAASConfiguration.JAAS_CONTEXT)
+                + ", spn=" + getValue(ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME) + '}';
+    }
+
+    /**
+     * Builder of {@link ProxySPNegoJAASConfig}.
+     */
+    public static final class Builder {
+
+        /**
+         * Values by key.
+         */
+        private final Map<String, String> values = new HashMap<>(ProxySPNegoJAASConfiguration.
+                getConfig());
+
+        /**
+         * Creates a builder initialized with the values of {@link ProxySPNegoJAASConfiguration}.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Sets the value of a key.
+         *
+         * @param key key
+         * @param value value, null is considered as an empty string
+         * @return this builder
+         */
+        public Builder set(final ProxySPNegoJAASConfiguration key, final String value) {
+            this.values.put(key.getKey(), value == null ? "" : value);
+            return this;
+        }
+
+        /**
+         * Sets the proxy as hostname:port.
+         *
+         * @param httpProxy the proxy
+         * @return this builder
+         */
+        public Builder setHttpProxy(final String httpProxy) {
+            return set(ProxySPNegoJAASConfiguration.HTTP_PROXY, httpProxy);
+        }
+
+        /**
+         * Sets the hosts excluded from the proxy, separated by a comma.
+         *
+         * @param noProxy the excluded hosts
+         * @return this builder
+         */
+        public Builder setNoProxy(final String noProxy) {
+            return set(ProxySPNegoJAASConfiguration.NO_PROXY, noProxy);
+        }
+
+        /**
+         * Sets the JAAS configuration file.
+         *
+         * @param jaasFile the JAAS configuration file
+         * @return this builder
+         */
+        public Builder setJaasFile(final String jaasFile) {
+            return set(ProxySPNegoJAASConfiguration.JAAS, jaasFile);
+        }
+
+        /**
+         * Sets the context of the JAAS configuration file.
+         *
+         * @param jaasContext the JAAS context
+         * @return this builder
+         */
+        public Builder setJaasContext(final String jaasContext) {
+            return set(ProxySPNegoJAASConfiguration.JAAS_CONTEXT, jaasContext);
+        }
+
+        /**
+         * Sets the service principal name of the proxy.
+         *
+         * @param spn the SPN
+         * @return this builder
+         */
+        public Builder setServiceProviderName(final String spn) {
+            return set(ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME, spn);
+        }
+
+        /**
+         * Sets the Kerberos configuration file.
+         *
+         * @param krb5File the Kerberos configuration file
+         * @return this builder
+         */
+        public Builder setKrb5File(final String krb5File) {
+            return set(ProxySPNegoJAASConfiguration.KRB5, krb5File);
+        }
+
+        /**
+         * Creates the configuration.
+         *
+         * @return the configuration
+         */
+        public ProxySPNegoJAASConfig build() {
+            return new ProxySPNegoJAASConfig(this.values);
+        }
+    }
+
+}
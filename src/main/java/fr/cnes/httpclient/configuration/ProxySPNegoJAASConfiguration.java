@@ -34,13 +34,16 @@ import org.apache.logging.log4j.Logger;
  */
 public enum ProxySPNegoJAASConfiguration {
     /**
-     * HTTP proxy variable (as hostname:port). 
+     * HTTP proxy variable (as hostname:port). Several proxies separated by commas are used as a
+     * {@link fr.cnes.httpclient.ProxyPool pool}.
      * By default it loads the <b>http_proxy</b> variable.
      */
     HTTP_PROXY("http_proxy", System.getenv("http_proxy")),
     /**
      * No proxy variable. 
      * A set of separated hostname/IP by comma. By default it loads <b>no_proxy</b> variable.
+     * The domains (.example.org), IP ranges (10.0.0.0/8) and patterns are described in
+     * {@link fr.cnes.httpclient.NoProxyMatcher}.
      */
     NO_PROXY("no_proxy", System.getenv("no_proxy")),
     /**
@@ -52,7 +55,8 @@ public enum ProxySPNegoJAASConfiguration {
      */
     JAAS_CONTEXT("jassContext", "client"),
     /**
-     * Service principal name
+     * Service principal name. {@value fr.cnes.jspnego.GSSClientFactory#PROXY_HOST} is
+     * replaced by the hostname of the proxy, when each proxy of a pool has its own SPN.
      */
     SERVICE_PROVIDER_NAME("spn", ""),
     /**
@@ -121,7 +125,7 @@ public enum ProxySPNegoJAASConfiguration {
         final Map<String, String> map = new ConcurrentHashMap<>();
         final ProxySPNegoJAASConfiguration[] confs = ProxySPNegoJAASConfiguration.values();
         for (ProxySPNegoJAASConfiguration conf : confs) {
-            LOG.debug("config - "+conf.getKey()+"="+conf.getValue());
+            LOG.debug("config - {}={}", conf.getKey(), conf.getValue());
             map.put(conf.getKey(), conf.getValue());
         }
         return LOG.traceExit(map);
@@ -134,44 +138,56 @@ public enum ProxySPNegoJAASConfiguration {
      * @return true when the configuration is valid otherwise false
      */
     public static boolean isValid(final StringBuilder error) {
+        return isValid(getConfig(), error);
+    }
+
+    /**
+     * Returns true when a configuration seems to be valid.
+     *
+     * @param config configuration to validate, a missing key is considered as empty
+     * @param error errors
+     * @return true when the configuration is valid otherwise false
+     */
+    public static boolean isValid(final Map<String, String> config,
+            final StringBuilder error) {
         LOG.traceEntry();
         boolean isValid = true;
         final StringBuilder validation = new StringBuilder();
-        if (ProxySPNegoJAASConfiguration.HTTP_PROXY.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoJAASConfiguration.HTTP_PROXY).isEmpty()) {
             validation.append(ProxySPNegoJAASConfiguration.HTTP_PROXY.getKey()).append(
                     " cannot be null or empty\n");
-            LOG.error(ProxySPNegoJAASConfiguration.HTTP_PROXY.getKey()+": "+ProxySPNegoJAASConfiguration.HTTP_PROXY.getValue()+" cannot be null or empty\n");
+            LOG.error(ProxySPNegoJAASConfiguration.HTTP_PROXY.getKey()+": "+value(config, ProxySPNegoJAASConfiguration.HTTP_PROXY)+" cannot be null or empty\n");
             isValid = false;
         }
-        if (!Files.isReadable(Paths.get(ProxySPNegoJAASConfiguration.KRB5.getValue()))) {
+        if (!Files.isReadable(Paths.get(value(config, ProxySPNegoJAASConfiguration.KRB5)))) {
             validation.append("Kerberos configuration file must be readable");
-            LOG.error(ProxySPNegoJAASConfiguration.KRB5.getKey()+": "+ProxySPNegoJAASConfiguration.KRB5.getValue()+" - Kerberos configuration file must be readable");
+            LOG.error(ProxySPNegoJAASConfiguration.KRB5.getKey()+": "+value(config, ProxySPNegoJAASConfiguration.KRB5)+" - Kerberos configuration file must be readable");
             isValid = false;
         }
-        if (ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME).isEmpty()) {
             validation.append(ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME.getKey()).append(
                     " must be set");
             LOG.error(ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME.getKey()+": value is not set");
             isValid = false;
         }
-        if (ProxySPNegoJAASConfiguration.JAAS.getValue().isEmpty() || !Files.isReadable(Paths.get(
-                ProxySPNegoJAASConfiguration.JAAS.getValue()))) {
+        if (value(config, ProxySPNegoJAASConfiguration.JAAS).isEmpty() || !Files.isReadable(Paths.get(
+                value(config, ProxySPNegoJAASConfiguration.JAAS)))) {
             validation.append(ProxySPNegoJAASConfiguration.JAAS.getKey()).append(
                     " must be a readable file\n");
-            LOG.error(ProxySPNegoJAASConfiguration.JAAS.getKey()+": "+ProxySPNegoJAASConfiguration.JAAS.getValue()+" must be a readable file");
+            LOG.error(ProxySPNegoJAASConfiguration.JAAS.getKey()+": "+value(config, ProxySPNegoJAASConfiguration.JAAS)+" must be a readable file");
             isValid = false;
         }
-        if (ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getValue().isEmpty()) {
+        if (value(config, ProxySPNegoJAASConfiguration.JAAS_CONTEXT).isEmpty()) {
             validation.append(ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getKey()).append(
                     " cannot be null or empty\n");
-            LOG.error(ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getKey()+": "+ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getValue()+" cannot be null or empty");
+            LOG.error(ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getKey()+": "+value(config, ProxySPNegoJAASConfiguration.JAAS_CONTEXT)+" cannot be null or empty");
             isValid = false;            
         }
-        if (ProxySPNegoJAASConfiguration.KRB5.getValue().isEmpty() || !Files.isReadable(Paths.get(
-                ProxySPNegoJAASConfiguration.KRB5.getValue()))) {
+        if (value(config, ProxySPNegoJAASConfiguration.KRB5).isEmpty() || !Files.isReadable(Paths.get(
+                value(config, ProxySPNegoJAASConfiguration.KRB5)))) {
             validation.append(ProxySPNegoJAASConfiguration.KRB5.getKey()).append(
                     " must be a readable file\n");
-            LOG.error(ProxySPNegoJAASConfiguration.KRB5.getKey()+": "+ProxySPNegoJAASConfiguration.KRB5.getValue()+" must be a readable file");
+            LOG.error(ProxySPNegoJAASConfiguration.KRB5.getKey()+": "+value(config, ProxySPNegoJAASConfiguration.KRB5)+" must be a readable file");
             isValid = false;
         }
         error.append(validation);
@@ -179,4 +195,17 @@ public enum ProxySPNegoJAASConfiguration {
         return LOG.traceExit(isValid);
     }
 
+    /**
+     * Returns the value of a key in a configuration or an empty string if the key is missing.
+     *
+     * @param config configuration
+     * @param key key
+     * @return the value
+     */
+    private static String value(final Map<String, String> config,
+            final ProxySPNegoJAASConfiguration key) {
+        final String value = config.get(key.getKey());
+        return value == null ? "" : value;
+    }
+
 }
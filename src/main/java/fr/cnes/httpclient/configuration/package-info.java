@@ -30,6 +30,10 @@
  * <li>ProxySPNegoJAASConfiguration to configure a proxy with an authentication by SSI and
  * configured by a JAAS configuration file</li>
  * </ul>
+ * The enums hold one configuration for the whole JVM. ProxyConfig, ProxySPNegoAPIConfig and
+ * ProxySPNegoJAASConfig are immutable configurations, created by a builder and given to
+ * HttpClientFactory, so that several clients with different configurations can be used at the
+ * same time.
  * <p>
  * <img src="{@docRoot}/doc-files/configuration.png" alt="configuration for HTTP client">
  * </p> 
@@ -73,5 +77,18 @@
  * 
  * <h2>Proxy configuration with JSPNego using API</h2>
  * TODO
+ * 
+ * <h2>Immutable proxy configuration</h2>
+ * <pre>
+ * <code>
+ * final ProxySPNegoJAASConfig proxyConfig = ProxySPNegoJAASConfig.builder()
+ *         .setHttpProxy("127.0.0.1:1080")
+ *         .setJaasContext("KRB5")
+ *         .setJaasFile("/tmp/jaas.conf")
+ *         .setServiceProviderName("HTTP@127.0.0.1")
+ *         .build();
+ * final HttpClient client = HttpClientFactory.create(proxyConfig, false, new HashMap&lt;&gt;());
+ * </code>
+ * </pre>
  */
 package fr.cnes.httpclient.configuration;
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+/*
+ * Functions available to the PAC scripts, as defined by the Netscape specification.
+ * They are evaluated before the PAC script by fr.cnes.httpclient.PacProxySelector.
+ */
+
+var __pacInetAddress = Java.type("java.net.InetAddress");
+var __pacInet4Address = Java.type("java.net.Inet4Address");
+var __pacLogger = Java.type("org.apache.logging.log4j.LogManager")
+        .getLogger("fr.cnes.httpclient.PacProxySelector");
+var __pacDays = ["SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"];
+var __pacMonths = ["JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV",
+    "DEC"];
+
+function isPlainHostName(host) {
+    return host.indexOf(".") < 0;
+}
+
+function dnsDomainIs(host, domain) {
+    return host.length >= domain.length
+            && host.substring(host.length - domain.length) === domain;
+}
+
+function localHostOrDomainIs(host, hostdom) {
+    return host === hostdom || hostdom.lastIndexOf(host + ".", 0) === 0;
+}
+
+function dnsResolve(host) {
+    try {
+        var addresses = __pacInetAddress.getAllByName(host);
+        for (var i = 0; i < addresses.length; i++) {
+            if (addresses[i] instanceof __pacInet4Address) {
+                return String(addresses[i].getHostAddress());
+            }
+        }
+    } catch (e) {
+        // unknown host
+    }
+    return null;
+}
+
+function isResolvable(host) {
+    return dnsResolve(host) !== null;
+}
+
+function myIpAddress() {
+    try {
+        return String(__pacInetAddress.getLocalHost().getHostAddress());
+    } catch (e) {
+        return "127.0.0.1";
+    }
+}
+
+function dnsDomainLevels(host) {
+    return host.split(".").length - 1;
+}
+
+function __pacToInt(ip) {
+    var bytes = /^(\d{1,3})\.(\d{1,3})\.(\d{1,3})\.(\d{1,3})$/.exec(ip);
+    if (bytes === null) {
+        return null;
+    }
+    var value = 0;
+    for (var i = 1; i <= 4; i++) {
+        if (bytes[i] > 255) {
+            return null;
+        }
+        value = value * 256 + Number(bytes[i]);
+    }
+    return value;
+}
+
+function isInNet(host, pattern, mask) {
+    var address = __pacToInt(host);
+    if (address === null) {
+        var resolved = dnsResolve(host);
+        address = resolved === null ? null : __pacToInt(resolved);
+    }
+    var net = __pacToInt(pattern);
+    var bits = __pacToInt(mask);
+    if (address === null || net === null || bits === null) {
+        return false;
+    }
+    // the bitwise operators work on signed 32 bits integers
+    return ((address & bits) | 0) === ((net & bits) | 0);
+}
+
+function shExpMatch(str, shexp) {
+    var pattern = String(shexp).replace(/[.+^${}()|[\]\\]/g, "\\$&")
+            .replace(/\*/g, ".*").replace(/\?/g, ".");
+    return new RegExp("^" + pattern + "$").test(str);
+}
+
+function __pacArgs(args) {
+    var list = Array.prototype.slice.call(args);
+    var gmt = list.length > 0 && list[list.length - 1] === "GMT";
+    if (gmt) {
+        list.pop();
+    }
+    return {values: list, gmt: gmt, now: new Date()};
+}
+
+function __pacInRange(value, from, to) {
+    return from <= to ? from <= value && value <= to : value >= from || value <= to;
+}
+
+function weekdayRange() {
+    var args = __pacArgs(arguments);
+    var today = args.gmt ? args.now.getUTCDay() : args.now.getDay();
+    var from = __pacDays.indexOf(args.values[0]);
+    var to = args.values.length > 1 ? __pacDays.indexOf(args.values[1]) : from;
+    return from >= 0 && to >= 0 && __pacInRange(today, from, to);
+}
+
+function timeRange() {
+    var args = __pacArgs(arguments);
+    var v = args.values;
+    var now = args.gmt
+            ? args.now.getUTCHours() * 3600 + args.now.getUTCMinutes() * 60
+            + args.now.getUTCSeconds()
+            : args.now.getHours() * 3600 + args.now.getMinutes() * 60 + args.now.getSeconds();
+    switch (v.length) {
+        case 1:
+            return __pacInRange(now, v[0] * 3600, v[0] * 3600 + 3599);
+        case 2:
+            return __pacInRange(now, v[0] * 3600, v[1] * 3600 - 1);
+        case 4:
+            return __pacInRange(now, v[0] * 3600 + v[1] * 60, v[2] * 3600 + v[3] * 60 - 1);
+        case 6:
+            return __pacInRange(now, v[0] * 3600 + v[1] * 60 + v[2],
+                    v[3] * 3600 + v[4] * 60 + v[5]);
+        default:
+            return false;
+    }
+}
+
+function __pacDate(values) {
+    // returns [year, month, day] where the fields which are not given are null
+    var date = [null, null, null];
+    for (var i = 0; i < values.length; i++) {
+        var month = __pacMonths.indexOf(values[i]);
+        if (month >= 0) {
+            date[1] = month;
+        } else if (values[i] > 31) {
+            date[0] = Number(values[i]);
+        } else {
+            date[2] = Number(values[i]);
+        }
+    }
+    return date;
+}
+
+function dateRange() {
+    var args = __pacArgs(arguments);
+    var v = args.values;
+    var today = args.gmt
+            ? [args.now.getUTCFullYear(), args.now.getUTCMonth(), args.now.getUTCDate()]
+            : [args.now.getFullYear(), args.now.getMonth(), args.now.getDate()];
+    if (v.length === 0 || v.length % 2 !== 0 && v.length !== 1) {
+        return false;
+    }
+    var half = v.length === 1 ? 1 : v.length / 2;
+    var from = __pacDate(v.slice(0, half));
+    var to = v.length === 1 ? from : __pacDate(v.slice(half));
+    var value = 0;
+    var start = 0;
+    var end = 0;
+    for (var i = 0; i < 3; i++) {
+        if (from[i] !== null) {
+            value = value * 100 + today[i];
+            start = start * 100 + from[i];
+            end = end * 100 + (to[i] === null ? from[i] : to[i]);
+        }
+    }
+    return from[0] !== null ? start <= value && value <= end : __pacInRange(value, start, end);
+}
+
+function alert(message) {
+    __pacLogger.info(String(message));
+}
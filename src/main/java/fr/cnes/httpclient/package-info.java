@@ -36,6 +36,14 @@
  * In addition to that, a {@link fr.cnes.httpclient.HttpClientFactory factory} is available to create one of the clients. However, before
  * creating a proxy, the proxy must be configured using the configuration
  * {@link fr.cnes.httpclient.configuration package}.
+ * <p>
+ * The connections to a proxy authenticated by SPNego are not multiplexed: HttpClient 4.x and
+ * HttpAsyncClient 4.x have no HTTP/2 transport, and the SPNego authentication is bound to the
+ * connection ({@link fr.cnes.jspnego.SPNegoScheme#isConnectionBased()}). The number of
+ * handshakes is rather bounded by the connection pool: an authenticated connection is kept
+ * alive and reused by the next requests of its route, whose size is given by
+ * {@link fr.cnes.httpclient.HttpClient#CONNECTION_MAX_PER_ROUTE}.
+ * </p>
  * 
  * <p>
  * <img src="{@docRoot}/doc-files/httpclient.png" alt="HTTP client">
@@ -20,9 +20,13 @@
  */
 package fr.cnes.jspnego;
 
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Set;
@@ -33,9 +37,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSException;
-import org.ietf.jgss.GSSManager;
-import org.ietf.jgss.GSSName;
-import org.ietf.jgss.Oid;
 
 /**
  * GSS (Generic Security Service) client interface.
@@ -56,12 +57,6 @@ public abstract class AbstractGSSClient {
      */
     private static final Logger LOG = LogManager.getLogger(AbstractGSSClient.class.getName());
 
-    /**
-     * Mechanism OID assigned to the pseudo-mechanism SPNEGO to negotiate the best common GSS-API
-     * mechanism between two communication peers.
-     */
-    private static final String SPNEGO_OID = "1.3.6.1.5.5.2";
-
     /**
      * A service principal name (SPN) is a unique identifier of a service instance. SPNs are used by
      * Kerberos authentication to associate a service instance with a service login account. This
@@ -77,13 +72,77 @@ public abstract class AbstractGSSClient {
     private Subject subject;
 
     /**
-     * Checks whether the principal is already logged.
+     * Kerberos configuration file used by the JVM, {@code null} until it is known.
+     */
+    private static String jvmKrb5File;
+
+    /**
+     * Points the JVM to a Kerberos configuration file before a login.
      *
-     * @return true when the principal is already logged otherwise false
+     * The JDK reads one Kerberos configuration file per JVM, given by the system property
+     * {@value #JAVA_SECURITY_KRB5_ENV}. The file set on the command line, otherwise the file of
+     * the first login, becomes the file of the JVM. The property is never switched afterwards,
+     * because the other clients would silently use the new file.
+     *
+     * @param krb5File Kerberos configuration file
+     * @throws IllegalArgumentException When the JVM already uses another Kerberos configuration
+     * file
      */
-    private boolean isNotLogged() {
-        LOG.traceEntry();
-        return LOG.traceExit(this.subject == null);
+    protected static void useKrb5File(final String krb5File) {
+        LOG.traceEntry("krb5File: {}", krb5File);
+        synchronized (AbstractGSSClient.class) {
+            checkKrb5File(krb5File);
+            if (jvmKrb5File == null) {
+                LOG.debug("Sets {} = {}", JAVA_SECURITY_KRB5_ENV, krb5File);
+                System.setProperty(JAVA_SECURITY_KRB5_ENV, krb5File);
+                jvmKrb5File = krb5File;
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Checks that a client can use a Kerberos configuration file, in other words that the JVM
+     * does not already use another file. It is called when the HTTP client is built, so that a
+     * second, different file is rejected before any request.
+     *
+     * @param krb5File Kerberos configuration file
+     * @throws IllegalArgumentException When the JVM already uses another Kerberos configuration
+     * file
+     */
+    public static void checkKrb5File(final String krb5File) {
+        LOG.traceEntry("krb5File: {}", krb5File);
+        synchronized (AbstractGSSClient.class) {
+            if (jvmKrb5File == null) {
+                final String property = System.getProperty(JAVA_SECURITY_KRB5_ENV);
+                if (property != null && !property.isEmpty()) {
+                    jvmKrb5File = property;
+                }
+            }
+            if (jvmKrb5File != null && !isSameFile(jvmKrb5File, krb5File)) {
+                throw LOG.throwing(new IllegalArgumentException("The Kerberos configuration file "
+                        + krb5File + " cannot be used because the JVM already uses " + jvmKrb5File
+                        + ": the JDK reads one Kerberos configuration file per JVM"));
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns true when both paths locate the same file.
+     *
+     * @param file1 first path
+     * @param file2 second path
+     * @return true when both paths locate the same file otherwise false
+     */
+    private static boolean isSameFile(final String file1, final String file2) {
+        try {
+            return Paths.get(file1).toAbsolutePath().normalize().equals(
+                    Paths.get(file2).toAbsolutePath().normalize());
+        } catch (InvalidPathException ex) {
+            LOG.debug(ex);
+            return file1.equals(file2);
+        }
     }
 
     /**
@@ -94,6 +153,14 @@ public abstract class AbstractGSSClient {
      */
     protected abstract Subject login() throws GSSException;
 
+    /**
+     * Returns the identifier of the credentials used to login. Clients having the same key share
+     * the same subject in the {@link KerberosSubjectCache}.
+     *
+     * @return the identifier of the credentials
+     */
+    protected abstract KerberosSubjectCache.Key getSubjectKey();
+
     /**
      * Sets the SPN.
      *
@@ -115,6 +182,18 @@ public abstract class AbstractGSSClient {
         return LOG.traceExit(this.servicePrincipalName);
     }
 
+    /**
+     * Returns the target of the security contexts. The target is shared by all the clients of the
+     * process with the same SPN so that the SPN is canonicalized only once.
+     *
+     * @return the target related to the SPN
+     * @throws GSSException When the SPN cannot be converted to a GSS name
+     */
+    protected GSSTarget getTarget() throws GSSException {
+        LOG.traceEntry();
+        return LOG.traceExit(GSSTarget.forSPN(this.getServicePrincipalName()));
+    }
+
     /**
      * Generates the Kerberos token.
      *
@@ -123,57 +202,193 @@ public abstract class AbstractGSSClient {
      */
     public byte[] generateGSSToken() throws GSSException {
         LOG.traceEntry();
-        final Oid oid = new Oid(SPNEGO_OID);
-
-        LOG.debug("Init token");
-        final byte[] tokenInit = new byte[0];
-
-        LOG.debug("Get the GSS-API");
-        final GSSManager manager = GSSManager.getInstance();
-
-        LOG.debug("convert a SPN from the specified namespace to a GSSName object");
-        final GSSName serverName = manager.createName(this.getServicePrincipalName(),
-                GSSName.NT_HOSTBASED_SERVICE);
+        final Negotiation negotiation = newNegotiation();
+        try {
+            return LOG.traceExit(negotiation.step(new byte[0]));
+        } finally {
+            negotiation.dispose();
+        }
+    }
 
+    /**
+     * Starts a negotiation with the service. The negotiation keeps the security context so that
+     * the tokens sent back by the service can be processed on the next legs.
+     *
+     * @return the negotiation
+     * @throws GSSException When the context cannot be created or when an error happens with KDC
+     */
+    public Negotiation newNegotiation() throws GSSException {
+        LOG.traceEntry();
         LOG.debug("Instantiate and initialize a security context that will be established with the "
                 + "server");
-        final GSSContext gssContext = manager.createContext(serverName.canonicalize(oid), oid, null,
-                GSSContext.DEFAULT_LIFETIME);
-
-        LOG.debug("Am I already loggued ?");
-        if (this.isNotLogged()) {
-            LOG.debug("No, so login");
-            this.subject = login(); // throw GSSException if fail to login
-            LOG.debug("subject: " + this.subject);
-        }
-        LOG.debug("I am loggued in");
-
-        LOG.debug("If we do not have the service ticket it will be retrieved from the TGS");
-        final AbstractGSSClient.NegotiateContextAction negotiationAction = new AbstractGSSClient.NegotiateContextAction(
-                gssContext,
-                tokenInit);
+        final GSSContext gssContext = getTarget().createContext();
 
-        if (negotiationAction.getGSSException() != null) {
-            LOG.error(negotiationAction.getGSSException());
-            throw LOG.throwing(negotiationAction.getGSSException());
-        }
-
-        // The service ticket will then be cached in the Subject's private credentials 
-        // as the subject.
-        final byte[] token = (byte[]) Subject.doAs(this.subject, negotiationAction);
-        LOG.debug("Token : {}", token);
+        LOG.debug("Get the subject from the cache, login only if it is not yet loaded");
+        // throw GSSException if fail to login
+        this.subject = KerberosSubjectCache.getInstance().getSubject(getSubjectKey(), this::login);
+        LOG.debug("I am loggued in");
+        return LOG.traceExit(new Negotiation(gssContext, this.subject));
+    }
 
-        return LOG.traceExit(token);
+    /**
+     * Logs in when the subject is not yet in the cache.
+     *
+     * @throws GSSException When the login fails
+     */
+    public void loadSubject() throws GSSException {
+        LOG.traceEntry();
+        this.subject = KerberosSubjectCache.getInstance().getSubject(getSubjectKey(), this::login);
+        LOG.traceExit();
     }
 
     /**
      * Returns the user ID.
      *
-     * @return the user ID
+     * @return the user ID or the principal of the credentials when the user is not yet logged
      */
     public String getName() {
         LOG.traceEntry();
-        return LOG.traceExit(this.subject.getPrincipals().iterator().next().getName());
+        final String name;
+        if (this.subject == null || this.subject.getPrincipals().isEmpty()) {
+            name = String.valueOf(getSubjectKey());
+        } else {
+            name = this.subject.getPrincipals().iterator().next().getName();
+        }
+        return LOG.traceExit(name);
+    }
+
+    /**
+     * Negotiation of a security context with the service.
+     *
+     * The first leg is done with an empty input token. The next legs process the tokens sent back
+     * by the service (continuation tokens or the final token of the mutual authentication) until
+     * the context is established. A negotiation is used by one authentication exchange at a time.
+     */
+    public final class Negotiation {
+
+        /**
+         * Security context kept across the legs.
+         */
+        private final GSSContext context;
+
+        /**
+         * Subject used for the whole negotiation.
+         */
+        private final Subject initiator;
+
+        /**
+         * Number of legs done.
+         */
+        private int legs;
+
+        /**
+         * Creates a negotiation.
+         *
+         * @param context security context
+         * @param initiator subject holding the credentials
+         */
+        private Negotiation(final GSSContext context, final Subject initiator) {
+            this.context = context;
+            this.initiator = initiator;
+        }
+
+        /**
+         * Processes the token sent by the service and returns the token to send to it.
+         *
+         * @param inputToken token sent by the service, empty for the first leg
+         * @return the token to send to the service, may be empty when nothing has to be sent
+         * @throws GSSException When the token cannot be processed
+         */
+        public byte[] step(final byte[] inputToken) throws GSSException {
+            if (LOG.isTraceEnabled()) {
+                LOG.traceEntry("leg: {}", this.legs);
+            }
+            final boolean isFirstLeg = this.legs == 0;
+            this.legs++;
+            final ServiceTicketCache ticketCache = ServiceTicketCache.getInstance();
+            boolean isCached = true;
+            Set<KerberosTicket> serviceTickets = null;
+            if (isFirstLeg) {
+                LOG.debug("Put the cached service ticket in the subject, if any");
+                isCached = ticketCache.prepare(this.initiator, getServicePrincipalName());
+                if (!isCached) {
+                    serviceTickets = ServiceTicketCache.getServiceTickets(this.initiator);
+                }
+            }
+
+            LOG.debug("If we do not have the service ticket it will be retrieved from the TGS");
+            final AbstractGSSClient.NegotiateContextAction negotiationAction
+                    = new AbstractGSSClient.NegotiateContextAction(this.context, inputToken);
+
+            // The service ticket will then be cached in the Subject's private credentials
+            // as the subject.
+            final long start = System.nanoTime();
+            final byte[] token = (byte[]) Subject.doAs(this.initiator, negotiationAction);
+
+            if (negotiationAction.getGSSException() != null) {
+                final GSSException exception = negotiationAction.getGSSException();
+                Metrics.authenticationFailed(getServicePrincipalName(), exception.getMajor());
+                if (exception.getMajor() == GSSException.CREDENTIALS_EXPIRED) {
+                    LOG.debug("Credentials expired, the next token will be generated after a "
+                            + "login");
+                    KerberosSubjectCache.getInstance().invalidate(getSubjectKey());
+                }
+                LOG.error(exception);
+                throw LOG.throwing(exception);
+            }
+            // The ticket is requested inside initSecContext, it cannot be timed on its own
+            Metrics.record(isCached ? MetricsRecorder.Timer.INIT_SEC_CONTEXT
+                    : MetricsRecorder.Timer.INIT_SEC_CONTEXT_WITH_TGS, getServicePrincipalName(),
+                    start);
+            if (!isCached) {
+                ticketCache.record(this.initiator, getServicePrincipalName(), serviceTickets);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Token of {} bytes", token == null ? 0 : token.length);
+            }
+            return LOG.traceExit(token == null ? new byte[0] : token);
+        }
+
+        /**
+         * Returns true when the context is established.
+         *
+         * @return true when the context is established otherwise false
+         */
+        public boolean isEstablished() {
+            return this.context.isEstablished();
+        }
+
+        /**
+         * Returns the number of legs done.
+         *
+         * @return the number of legs
+         */
+        public int getLegs() {
+            return this.legs;
+        }
+
+        /**
+         * Returns the remaining lifetime of the security context, which is the lifetime of the
+         * service ticket with Kerberos.
+         *
+         * @return the lifetime in s, {@link GSSContext#INDEFINITE_LIFETIME} when it is not limited
+         */
+        public int getLifetime() {
+            return this.context.getLifetime();
+        }
+
+        /**
+         * Releases the security context.
+         */
+        public void dispose() {
+            LOG.traceEntry();
+            try {
+                this.context.dispose();
+            } catch (GSSException ex) {
+                LOG.catching(ex);
+            }
+            LOG.traceExit();
+        }
     }
 
     /**
@@ -206,9 +421,11 @@ public abstract class AbstractGSSClient {
          * @param negotiationToken a previous token
          */
         public NegotiateContextAction(final GSSContext context, final byte[] negotiationToken) {
-            LOG.traceEntry("context: {}\n"
-                    + "negotiationToken: {}",
-                    context, negotiationToken);
+            if (LOG.isTraceEnabled()) {
+                LOG.traceEntry("context: {}\n"
+                        + "negotiationToken: {}",
+                        context, negotiationToken);
+            }
             this.context = context;
             this.negotiationToken = negotiationToken.clone();
         }
@@ -305,7 +522,9 @@ public abstract class AbstractGSSClient {
          * @param beforeNumSubjectCreds Number of credentials held by the subject
          */
         private void traceAfterNegotiate(final int beforeNumSubjectCreds) {
-            LOG.traceEntry("beforeNumSubjectCreds : {}", beforeNumSubjectCreds);
+            if (LOG.isTraceEnabled()) {
+                LOG.traceEntry("beforeNumSubjectCreds : {}", beforeNumSubjectCreds);
+            }
             if (subject != null) {
                 final int afterNumSubjectCreds = subject.getPrivateCredentials().size();
                 if (afterNumSubjectCreds > beforeNumSubjectCreds) {
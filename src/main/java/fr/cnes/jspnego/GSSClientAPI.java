@@ -20,6 +20,7 @@
  */
 package fr.cnes.jspnego;
 
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
 import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
 import javax.security.auth.Subject;
 import javax.security.auth.login.LoginContext;
@@ -30,7 +31,7 @@ import org.ietf.jgss.GSSException;
 
 /**
  * GSS (Generic Security Service) client with the programmatic API as configuration. The class
- * {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration} is used to configure this
+ * {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig} is used to configure this
  * client.
  *
  * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
@@ -44,25 +45,46 @@ public final class GSSClientAPI extends AbstractGSSClient {
     private static final Logger LOG = LogManager.getLogger(GSSClientAPI.class.getName());
 
     /**
-     * Creates the GSS client. This constructor sets the following variables using
-     * {@link fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration}.
-     * <ul>
-     * <li>the JAVA environment variable
-     * {@value fr.cnes.jspnego.AbstractGSSClient#JAVA_SECURITY_KRB5_ENV}</li>
-     * <li>the Service Principal Name {@link #setServiceSpincipalName(java.lang.String)}
-     * </ul>
+     * Configuration of this client.
+     */
+    private final ProxySPNegoAPIConfig config;
+
+    /**
+     * Creates the GSS client with the current values of
+     * {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration}.
      */
     public GSSClientAPI() {
+        this(ProxySPNegoAPIConfig.builder().build());
+    }
+
+    /**
+     * Creates the GSS client. This constructor sets the Service Principal Name
+     * {@link #setServiceSpincipalName(java.lang.String)} from the configuration. The JAVA
+     * environment variable {@value fr.cnes.jspnego.AbstractGSSClient#JAVA_SECURITY_KRB5_ENV} is
+     * set at login, only when it changes.
+     *
+     * @param config configuration of this client
+     */
+    public GSSClientAPI(final ProxySPNegoAPIConfig config) {
         super();
-        LOG.traceEntry();
-        LOG.debug("{} = {}", JAVA_SECURITY_KRB5_ENV, ProxySPNegoAPIConfiguration.KRB5.
-                getValue());
-        System.setProperty(JAVA_SECURITY_KRB5_ENV, ProxySPNegoAPIConfiguration.KRB5.
-                getValue());
-        this.setServiceSpincipalName(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getValue());
+        LOG.traceEntry("config: {}", config);
+        this.config = config;
+        this.setServiceSpincipalName(config.getValue(
+                ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME));
         LOG.traceExit();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected KerberosSubjectCache.Key getSubjectKey() {
+        return new KerberosSubjectCache.Key(
+                this.config.getValue(ProxySPNegoAPIConfiguration.PRINCIPAL),
+                this.config.getValue(ProxySPNegoAPIConfiguration.JAAS_CONTEXT),
+                this.config.getValue(ProxySPNegoAPIConfiguration.KRB5));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -71,11 +93,13 @@ public final class GSSClientAPI extends AbstractGSSClient {
         LOG.traceEntry();
         final LoginContext loginContext;
         try {
-            final KerberosConfiguration config = new KerberosConfiguration();
-            config.initialize();
-            loginContext = new LoginContext(ProxySPNegoAPIConfiguration.JAAS_CONTEXT.getValue());
+            useKrb5File(this.config.getValue(ProxySPNegoAPIConfiguration.KRB5));
+            final KerberosConfiguration kerberosConfig = new KerberosConfiguration();
+            kerberosConfig.initialize(this.config.getConfig());
+            loginContext = new LoginContext(this.config.getValue(
+                    ProxySPNegoAPIConfiguration.JAAS_CONTEXT), null, null, kerberosConfig);
             loginContext.login();
-        } catch (LoginException ex) {
+        } catch (LoginException | IllegalArgumentException ex) {
             LOG.error(ex);
             throw LOG.throwing(new GSSException(GSSException.DEFECTIVE_CREDENTIAL,
                     GSSException.BAD_STATUS,
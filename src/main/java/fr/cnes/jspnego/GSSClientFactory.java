@@ -21,6 +21,17 @@
 package fr.cnes.jspnego;
 
 import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.protocol.HttpContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -32,6 +43,12 @@ import org.apache.logging.log4j.Logger;
  */
 public class GSSClientFactory {
 
+    /**
+     * Placeholder of the SPN replaced by the hostname of the proxy {@value #PROXY_HOST}, for
+     * example HTTP@_HOST when each proxy of a pool has its own SPN.
+     */
+    public static final String PROXY_HOST = "_HOST";
+
     /**
      * Get actual class name to be printed on.
      */
@@ -46,16 +63,30 @@ public class GSSClientFactory {
      * PROXY_SPNEGO_API, PROXY_SPNEGO_JAAS
      */
     public static AbstractGSSClient create(final Type type) {
+        return create(type, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates a GSS client according to a given type and its configuration.
+     *
+     * @param type type to select
+     * @param config configuration of the client, the missing keys are taken from the
+     * configuration enum related to the type
+     * @return the GSS client
+     * @throws IllegalArgumentException When type is not one of the following types
+     * PROXY_SPNEGO_API, PROXY_SPNEGO_JAAS
+     */
+    public static AbstractGSSClient create(final Type type, final Map<String, String> config) {
         LOG.traceEntry("Type: {}", type);
         final AbstractGSSClient gssClient;
         switch (type) {
             case PROXY_SPNEGO_API:
                 LOG.debug("Uses PROXY_SPNEGO_API");
-                gssClient = new GSSClientAPI();
+                gssClient = new GSSClientAPI(ProxySPNegoAPIConfig.from(config));
                 break;
             case PROXY_SPNEGO_JAAS:
                 LOG.debug("Uses PROXY_SPNEGO_JAAS");
-                gssClient = new GSSClientJASS();
+                gssClient = new GSSClientJASS(ProxySPNegoJAASConfig.from(config));
                 break;
             default:
                 throw LOG.throwing(new IllegalArgumentException("Cannot support " + type.name()));
@@ -63,4 +94,77 @@ public class GSSClientFactory {
         return LOG.traceExit(gssClient);
     }
 
+    /**
+     * Checks that the Kerberos configuration file of the client can be used in this JVM.
+     *
+     * @param type type of SPNego
+     * @param config configuration of the client, the missing keys are taken from the
+     * configuration enum related to the type
+     * @throws IllegalArgumentException When the JVM already uses another Kerberos configuration
+     * file
+     * @see AbstractGSSClient#checkKrb5File(java.lang.String)
+     */
+    public static void checkKrb5File(final Type type, final Map<String, String> config) {
+        AbstractGSSClient.checkKrb5File(type == Type.PROXY_SPNEGO_JAAS
+                ? ProxySPNegoJAASConfig.from(config).getValue(ProxySPNegoJAASConfiguration.KRB5)
+                : ProxySPNegoAPIConfig.from(config).getValue(ProxySPNegoAPIConfiguration.KRB5));
+    }
+
+    /**
+     * Returns true when the SPN contains {@value #PROXY_HOST}, so that it depends on the proxy.
+     *
+     * @param type type of SPNego
+     * @param config configuration of the client, the missing keys are taken from the
+     * configuration enum related to the type
+     * @return true when the SPN depends on the proxy otherwise false
+     */
+    public static boolean isProxySPN(final Type type, final Map<String, String> config) {
+        return getSPN(type, config).contains(PROXY_HOST);
+    }
+
+    /**
+     * Returns the configuration of the client for the proxy of the route. When the SPN contains
+     * {@value #PROXY_HOST}, the placeholder is replaced by the hostname of the proxy, otherwise
+     * the configuration is returned as it is.
+     *
+     * @param type type of SPNego
+     * @param config configuration of the client, the missing keys are taken from the
+     * configuration enum related to the type
+     * @param context context holding the route of the request
+     * @return the configuration of the client
+     */
+    public static Map<String, String> forProxy(final Type type, final Map<String, String> config,
+            final HttpContext context) {
+        final String spn = getSPN(type, config);
+        if (!spn.contains(PROXY_HOST) || context == null) {
+            return config;
+        }
+        final RouteInfo route = HttpClientContext.adapt(context).getHttpRoute();
+        final HttpHost proxy = route == null ? null : route.getProxyHost();
+        if (proxy == null) {
+            return config;
+        }
+        final Map<String, String> proxyConfig = new HashMap<>(config);
+        proxyConfig.put(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey(),
+                spn.replace(PROXY_HOST, proxy.getHostName()));
+        return proxyConfig;
+    }
+
+    /**
+     * Returns the SPN of the configuration.
+     *
+     * @param type type of SPNego
+     * @param config configuration of the client
+     * @return the SPN
+     */
+    private static String getSPN(final Type type, final Map<String, String> config) {
+        final String spn = config.get(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey());
+        if (spn != null) {
+            return spn;
+        }
+        return type == Type.PROXY_SPNEGO_JAAS
+                ? ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME.getValue()
+                : ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getValue();
+    }
+
 }
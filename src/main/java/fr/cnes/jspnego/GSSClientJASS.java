@@ -20,8 +20,13 @@
  */
 package fr.cnes.jspnego;
 
+import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig;
 import fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.URIParameter;
 import javax.security.auth.Subject;
+import javax.security.auth.login.Configuration;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 import org.apache.logging.log4j.LogManager;
@@ -30,7 +35,7 @@ import org.ietf.jgss.GSSException;
 
 /**
  * GSS (Generic Security Service) client with the JAAS configuration file. The class
- * {@link fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration} is used to configure this
+ * {@link fr.cnes.httpclient.configuration.ProxySPNegoJAASConfig} is used to configure this
  * client.
  *
  * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
@@ -43,37 +48,62 @@ public final class GSSClientJASS extends AbstractGSSClient {
      */
     public static final String JAVA_SECURITY_AUTH_ENV = "java.security.auth.login.config";
 
+    /**
+     * Type of the JAAS configuration reading a JAAS configuration file.
+     */
+    private static final String JAVA_LOGIN_CONFIG = "JavaLoginConfig";
+
     /**
      * Get actual class name to be printed on.
      */
     private static final Logger LOG = LogManager.getLogger(KerberosConfiguration.class.getName());
 
     /**
-     * Creates the GSS client. This constructor sets the following variables using
+     * Configuration of this client.
+     */
+    private final ProxySPNegoJAASConfig config;
+
+    /**
+     * Creates the GSS client with the current values of
      * {@link fr.cnes.httpclient.configuration.ProxySPNegoJAASConfiguration}.
-     * <ul>
-     * <li>the JAVA environment variable
-     * {@value fr.cnes.jspnego.GSSClientJASS#JAVA_SECURITY_AUTH_ENV}</li>
-     * <li>the JAVA environment variable
-     * {@value fr.cnes.jspnego.AbstractGSSClient#JAVA_SECURITY_KRB5_ENV}</li>
-     * <li>the Service Principal Name {@link #setServiceSpincipalName(java.lang.String)}
-     * </ul>
      */
     public GSSClientJASS() {
+        this(ProxySPNegoJAASConfig.builder().build());
+    }
+
+    /**
+     * Creates the GSS client. This constructor sets the Service Principal Name
+     * {@link #setServiceSpincipalName(java.lang.String)} from the configuration. The JAAS
+     * configuration file is loaded at login for this client only, so the JAVA environment
+     * variable {@value fr.cnes.jspnego.GSSClientJASS#JAVA_SECURITY_AUTH_ENV} is not used. The JAVA
+     * environment variable {@value fr.cnes.jspnego.AbstractGSSClient#JAVA_SECURITY_KRB5_ENV} is
+     * set at login, only when it changes.
+     *
+     * @param config configuration of this client
+     */
+    public GSSClientJASS(final ProxySPNegoJAASConfig config) {
         super();
-        LOG.traceEntry();
-        LOG.debug("Sets {} = {}", JAVA_SECURITY_KRB5_ENV, ProxySPNegoJAASConfiguration.KRB5.
-                getValue());
-        System.setProperty(JAVA_SECURITY_KRB5_ENV, ProxySPNegoJAASConfiguration.KRB5.
-                getValue());
-        LOG.debug("Sets {} = {}", JAVA_SECURITY_AUTH_ENV, ProxySPNegoJAASConfiguration.JAAS.
-                getValue());
-        System.setProperty(JAVA_SECURITY_AUTH_ENV, ProxySPNegoJAASConfiguration.JAAS.
-                getValue());
-        this.setServiceSpincipalName(ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME.getValue());
+        LOG.traceEntry("config: {}", config);
+        this.config = config;
+        this.setServiceSpincipalName(config.getValue(
+                ProxySPNegoJAASConfiguration.SERVICE_PROVIDER_NAME));
         LOG.traceExit();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The principal is defined in the JAAS configuration file, so the file is used to identify the
+     * credentials.
+     */
+    @Override
+    protected KerberosSubjectCache.Key getSubjectKey() {
+        return new KerberosSubjectCache.Key(
+                this.config.getValue(ProxySPNegoJAASConfiguration.JAAS),
+                this.config.getValue(ProxySPNegoJAASConfiguration.JAAS_CONTEXT),
+                this.config.getValue(ProxySPNegoJAASConfiguration.KRB5));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -82,9 +112,14 @@ public final class GSSClientJASS extends AbstractGSSClient {
         LOG.traceEntry();
         final LoginContext loginContext;
         try {
-            loginContext = new LoginContext(ProxySPNegoJAASConfiguration.JAAS_CONTEXT.getValue());
+            useKrb5File(this.config.getValue(ProxySPNegoJAASConfiguration.KRB5));
+            final Configuration jaasConfig = Configuration.getInstance(JAVA_LOGIN_CONFIG,
+                    new URIParameter(Paths.get(this.config.getValue(
+                            ProxySPNegoJAASConfiguration.JAAS)).toUri()));
+            loginContext = new LoginContext(this.config.getValue(
+                    ProxySPNegoJAASConfiguration.JAAS_CONTEXT), null, null, jaasConfig);
             loginContext.login();
-        } catch (LoginException ex) {
+        } catch (LoginException | NoSuchAlgorithmException | IllegalArgumentException ex) {
             LOG.error(ex);
             throw LOG.throwing(new GSSException(GSSException.DEFECTIVE_CREDENTIAL,
                     GSSException.BAD_STATUS,
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+
+/**
+ * Target of the GSS security contexts.
+ *
+ * Holds the GSS manager, the SPNEGO mechanism and the canonical name of the service. The
+ * canonicalization of the name can resolve the host name in the Kerberos provider, so the target
+ * is built once per SPN by {@link #forSPN(java.lang.String)} and then shared by all the GSS
+ * clients and all the threads of the process. The object is immutable.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class GSSTarget {
+
+    /**
+     * Mechanism OID assigned to the pseudo-mechanism SPNEGO to negotiate the best common GSS-API
+     * mechanism between two communication peers {@value #SPNEGO_OID}.
+     */
+    public static final String SPNEGO_OID = "1.3.6.1.5.5.2";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(GSSTarget.class.getName());
+
+    /**
+     * Targets of the process by SPN, the mechanism is always SPNEGO.
+     */
+    private static final ConcurrentMap<String, GSSTarget> TARGETS = new ConcurrentHashMap<>();
+
+    /**
+     * Service principal name.
+     */
+    private final String servicePrincipalName;
+
+    /**
+     * GSS-API manager.
+     */
+    private final GSSManager manager;
+
+    /**
+     * SPNEGO mechanism.
+     */
+    private final Oid mechanism;
+
+    /**
+     * Canonical name of the service for the SPNEGO mechanism.
+     */
+    private final GSSName serverName;
+
+    /**
+     * Creates the target of the service.
+     *
+     * @param servicePrincipalName service principal name (service@host)
+     * @throws GSSException When the SPN cannot be converted to a GSS name
+     */
+    public GSSTarget(final String servicePrincipalName) throws GSSException {
+        LOG.traceEntry("servicePrincipalName: {}", servicePrincipalName);
+        this.servicePrincipalName = servicePrincipalName;
+        this.manager = GSSManager.getInstance();
+        this.mechanism = new Oid(SPNEGO_OID);
+        LOG.debug("convert a SPN from the specified namespace to a GSSName object");
+        this.serverName = this.manager.createName(servicePrincipalName,
+                GSSName.NT_HOSTBASED_SERVICE).canonicalize(this.mechanism);
+        LOG.traceExit();
+    }
+
+    /**
+     * Returns the target of the SPN shared by the process, the target is built on the first call
+     * for this SPN.
+     *
+     * @param servicePrincipalName service principal name (service@host)
+     * @return the target of the SPN
+     * @throws GSSException When the SPN cannot be converted to a GSS name
+     */
+    public static GSSTarget forSPN(final String servicePrincipalName) throws GSSException {
+        GSSTarget target = TARGETS.get(servicePrincipalName);
+        if (target == null) {
+            LOG.debug("Builds the target of {}", servicePrincipalName);
+            final GSSTarget created = new GSSTarget(servicePrincipalName);
+            target = TARGETS.putIfAbsent(servicePrincipalName, created);
+            if (target == null) {
+                target = created;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Removes the shared targets, for instance when the Kerberos configuration has changed and
+     * the names must be canonicalized again.
+     */
+    public static void clearCache() {
+        TARGETS.clear();
+    }
+
+    /**
+     * Instantiates a security context that will be established with the service. The mutual
+     * authentication is requested so that the service can prove its identity in its last token.
+     *
+     * @return the security context
+     * @throws GSSException When the context cannot be created
+     */
+    public GSSContext createContext() throws GSSException {
+        LOG.traceEntry();
+        final GSSContext context = this.manager.createContext(this.serverName, this.mechanism,
+                null, GSSContext.DEFAULT_LIFETIME);
+        context.requestMutualAuth(true);
+        return LOG.traceExit(context);
+    }
+
+    /**
+     * Returns the service principal name.
+     *
+     * @return the service principal name
+     */
+    public String getServicePrincipalName() {
+        return this.servicePrincipalName;
+    }
+
+    /**
+     * Returns the SPNEGO mechanism.
+     *
+     * @return the SPNEGO mechanism
+     */
+    public Oid getMechanism() {
+        return this.mechanism;
+    }
+
+    /**
+     * Returns the canonical name of the service.
+     *
+     * @return the canonical name of the service
+     */
+    public GSSName getServerName() {
+        return this.serverName;
+    }
+
+}
@@ -21,7 +21,6 @@ package fr.cnes.jspnego;
  * MA 02110-1301  USA
  */
 import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
-import java.security.Security;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -36,6 +35,11 @@ import org.apache.logging.log4j.Logger;
  * This class removes the need for a jaas.conf file to configure the
  * com.sun.security.auth.module.Krb5LoginModule to be used for JAAS login for Kerberos client
  * (initiators).
+ * <p>
+ * An instance is not installed as the JVM-wide configuration, it must be given to the
+ * LoginContext with
+ * {@link javax.security.auth.login.LoginContext#LoginContext(java.lang.String, javax.security.auth.Subject, javax.security.auth.callback.CallbackHandler, javax.security.auth.login.Configuration)}.
+ * </p>
  *
  * @author S. ETCHEVERRY
  */
@@ -68,14 +72,23 @@ public class KerberosConfiguration extends Configuration {
     private AppConfigurationEntry[] appConfigEntries;
 
     /**
-     * Initialize the kerberos configuration.
+     * Initialize the kerberos configuration with
+     * {@link fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration}.
      */
     public void initialize() {
-        LOG.traceEntry();
+        initialize(ProxySPNegoAPIConfiguration.getConfig());
+    }
+
+    /**
+     * Initialize the kerberos configuration.
+     *
+     * @param config the keys of {@link ProxySPNegoAPIConfiguration} and their values
+     */
+    public void initialize(final Map<String, String> config) {
+        LOG.traceEntry("config: {}", config);
         if (LOG.isDebugEnabled()) {
             options.put(DEBUG, "true");
         }
-        final Map<String, String> config = ProxySPNegoAPIConfiguration.getConfig();
         final Set<Entry<String, String>> entries = config.entrySet();
         for (final Entry<String, String> entry : entries) {
             if (entry.getKey().equals(ProxySPNegoAPIConfiguration.HTTP_PROXY.getKey())
@@ -95,12 +108,8 @@ public class KerberosConfiguration extends Configuration {
         appConfigEntries[0] = new AppConfigurationEntry(LOGIN_MODULE,
                 AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, this.options);
 
-        Security.setProperty("login.configuration.provider", getClass().getName());
-
-        // For each Kerberos client that the loads we
-        // need a separate instance of this class, it gets set here, so next call
-        // on the LoginContext will use this instance.
-        setConfiguration(this);
+        // The JVM-wide configuration is not replaced: each Kerberos client gives its own
+        // instance to the LoginContext, so that logins of different principals do not interfere.
         LOG.traceExit();
     }
 
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.security.auth.RefreshFailedException;
+import javax.security.auth.Subject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSException;
+
+/**
+ * Process-wide cache of the Kerberos subjects logged in to the KDC.
+ *
+ * Each GSS client asks this cache for its subject instead of performing its own JAAS login. The
+ * subjects are indexed by a {@link Key} made of the principal, the JAAS context and the Kerberos
+ * configuration file so that all the clients sharing the same credentials share the same TGT.
+ * The login is single-flight : when several threads ask for a subject that is not yet loaded,
+ * only one of them contacts the KDC while the others wait for its result.
+ * <p>
+ * Once logged, the TGT of the subject is refreshed in background by the
+ * {@link TGTRefreshScheduler} before its end time. The refreshed subject replaces the previous one
+ * atomically so that the request threads always get a valid subject without waiting for the KDC.
+ * A request thread only logs in again when the TGT is expired, for instance when the KDC was not
+ * reachable during the background refresh.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class KerberosSubjectCache {
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(KerberosSubjectCache.class.getName());
+
+    /**
+     * Unique instance.
+     */
+    private static final KerberosSubjectCache INSTANCE = new KerberosSubjectCache();
+
+    /**
+     * Cached subjects.
+     */
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Number of logins done against the KDC.
+     */
+    private final AtomicLong loginCount = new AtomicLong();
+
+    /**
+     * Number of TGT refreshes done in background.
+     */
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    /**
+     * Scheduler of the TGT refreshes.
+     */
+    private final TGTRefreshScheduler refreshScheduler = new TGTRefreshScheduler();
+
+    /**
+     * Creates the cache.
+     */
+    private KerberosSubjectCache() {
+    }
+
+    /**
+     * Returns the process-wide cache.
+     *
+     * @return the cache
+     */
+    public static KerberosSubjectCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the scheduler of the TGT refreshes.
+     *
+     * @return the scheduler
+     */
+    public TGTRefreshScheduler getRefreshScheduler() {
+        return this.refreshScheduler;
+    }
+
+    /**
+     * Returns the subject related to the key. The loader is called when no subject is cached for
+     * this key or when the TGT of the cached subject is expired. Only one thread calls the loader
+     * for a given key at a time.
+     *
+     * @param key credentials identifier
+     * @param loader login to the KDC
+     * @return the logged subject
+     * @throws GSSException When an error happens with KDC
+     */
+    public Subject getSubject(final Key key, final SubjectLoader loader) throws GSSException {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("key: {}", key);
+        }
+        final Entry entry = this.entries.computeIfAbsent(key, k -> new Entry());
+        Subject subject = entry.subject;
+        if (isNotUsable(subject)) {
+            synchronized (entry) {
+                subject = entry.subject;
+                if (isNotUsable(subject)) {
+                    LOG.debug("No valid subject cached for {}, login to KDC", key);
+                    subject = login(key, loader);
+                    this.loginCount.incrementAndGet();
+                    entry.loader = loader;
+                    entry.subject = subject;
+                    scheduleRefresh(key, entry);
+                }
+            }
+        }
+        return LOG.traceExit(subject);
+    }
+
+    /**
+     * Logs in to the KDC and records the duration of the login or its failure.
+     *
+     * @param key credentials identifier
+     * @param loader login to the KDC
+     * @return the logged subject
+     * @throws GSSException When an error happens with KDC
+     */
+    private static Subject login(final Key key, final SubjectLoader loader) throws GSSException {
+        final long start = System.nanoTime();
+        try {
+            final Subject subject = loader.login();
+            Metrics.record(MetricsRecorder.Timer.KDC_LOGIN, key.principal, start);
+            return subject;
+        } catch (GSSException ex) {
+            Metrics.authenticationFailed(key.principal, ex.getMajor());
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks whether the subject must be loaded again.
+     *
+     * @param subject cached subject or {@code null}
+     * @return true when the subject is not loaded or when its TGT is expired otherwise false
+     */
+    private static boolean isNotUsable(final Subject subject) {
+        return subject == null
+                || TGTRefreshScheduler.isExpired(subject, System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules the refresh of the TGT held by the subject of the entry. Must be called while
+     * holding the monitor of the entry.
+     *
+     * @param key credentials identifier
+     * @param entry cache entry
+     */
+    private void scheduleRefresh(final Key key, final Entry entry) {
+        LOG.traceEntry("key: {}", key);
+        if (entry.refreshTask != null) {
+            entry.refreshTask.cancel(false);
+            entry.refreshTask = null;
+        }
+        final long delay = this.refreshScheduler.computeRefreshDelay(entry.subject,
+                System.currentTimeMillis());
+        if (delay >= 0) {
+            entry.refreshTask = this.refreshScheduler.schedule(() -> refresh(key, entry), delay);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Refreshes now the TGT of the subject related to the key, as done in background.
+     *
+     * @param key credentials identifier
+     */
+    void refresh(final Key key) {
+        final Entry entry = this.entries.get(key);
+        if (entry != null) {
+            refresh(key, entry);
+        }
+    }
+
+    /**
+     * Refreshes the TGT of the subject in background. The TGT is renewed when possible otherwise
+     * the subject logs in again, also when the KDC refuses the renewal. The new subject replaces
+     * the cached one once it is ready.
+     *
+     * @param key credentials identifier
+     * @param entry cache entry
+     */
+    private void refresh(final Key key, final Entry entry) {
+        LOG.traceEntry("key: {}", key);
+        if (this.entries.get(key) != entry) {
+            LOG.debug("{} has been invalidated, the TGT is not refreshed", key);
+            LOG.traceExit();
+            return;
+        }
+        try {
+            Subject fresh = renew(key, entry.subject);
+            if (fresh == null) {
+                LOG.debug("Login again to refresh the TGT of {}", key);
+                fresh = login(key, entry.loader);
+                this.loginCount.incrementAndGet();
+            }
+            this.refreshCount.incrementAndGet();
+            synchronized (entry) {
+                entry.subject = fresh;
+                scheduleRefresh(key, entry);
+            }
+            LOG.debug("TGT of {} refreshed", key);
+        } catch (GSSException ex) {
+            LOG.warn("Cannot refresh the TGT of {}, retry in {} ms", key,
+                    TGTRefreshScheduler.RETRY_DELAY_MS, ex);
+            synchronized (entry) {
+                entry.refreshTask = this.refreshScheduler.schedule(() -> refresh(key, entry),
+                        TGTRefreshScheduler.RETRY_DELAY_MS);
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Renews the TGT of the subject.
+     *
+     * @param key credentials identifier
+     * @param subject subject
+     * @return the subject with the renewed TGT or {@code null} when the TGT cannot be renewed
+     */
+    private static Subject renew(final Key key, final Subject subject) {
+        try {
+            return TGTRefreshScheduler.renew(subject);
+        } catch (RefreshFailedException ex) {
+            LOG.debug("Cannot renew the TGT of {} : {}", key, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the subject related to the key. The next call to
+     * {@link #getSubject(fr.cnes.jspnego.KerberosSubjectCache.Key, fr.cnes.jspnego.KerberosSubjectCache.SubjectLoader)}
+     * will login again.
+     *
+     * @param key credentials identifier
+     */
+    public void invalidate(final Key key) {
+        LOG.traceEntry("key: {}", key);
+        final Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            cancelRefresh(entry);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Removes all the cached subjects.
+     */
+    public void clear() {
+        LOG.traceEntry();
+        for (final Key key : this.entries.keySet()) {
+            invalidate(key);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Cancels the scheduled refresh of the entry.
+     *
+     * @param entry cache entry
+     */
+    private static void cancelRefresh(final Entry entry) {
+        synchronized (entry) {
+            if (entry.refreshTask != null) {
+                entry.refreshTask.cancel(false);
+                entry.refreshTask = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of logins done against the KDC since the start of the process.
+     *
+     * @return the number of logins
+     */
+    public long getLoginCount() {
+        return this.loginCount.get();
+    }
+
+    /**
+     * Returns the number of TGT refreshes done in background since the start of the process.
+     *
+     * @return the number of refreshes
+     */
+    public long getRefreshCount() {
+        return this.refreshCount.get();
+    }
+
+    /**
+     * Login to the KDC.
+     */
+    @FunctionalInterface
+    public interface SubjectLoader {
+
+        /**
+         * Login to KDC
+         *
+         * @return the subject
+         * @throws GSSException When an error happens with KDC
+         */
+        Subject login() throws GSSException;
+    }
+
+    /**
+     * Cache entry. The monitor of the entry is used to serialize the logins of a same key.
+     */
+    private static final class Entry {
+
+        /**
+         * Logged subject or {@code null} when not yet logged.
+         */
+        private volatile Subject subject;
+
+        /**
+         * Loader used for the last login, reused to login again in background.
+         */
+        private volatile SubjectLoader loader;
+
+        /**
+         * Next refresh of the TGT.
+         */
+        private ScheduledFuture<?> refreshTask;
+    }
+
+    /**
+     * Identifier of the credentials of a subject.
+     */
+    public static final class Key {
+
+        /**
+         * Principal name.
+         */
+        private final String principal;
+
+        /**
+         * JAAS context.
+         */
+        private final String jaasContext;
+
+        /**
+         * Kerberos configuration file.
+         */
+        private final String krb5File;
+
+        /**
+         * Creates a key.
+         *
+         * @param principal principal name
+         * @param jaasContext JAAS context
+         * @param krb5File Kerberos configuration file
+         */
+        public Key(final String principal, final String jaasContext, final String krb5File) {
+            this.principal = principal;
+            this.jaasContext = jaasContext;
+            this.krb5File = krb5File;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(this.principal, other.principal)
+                    && Objects.equals(this.jaasContext, other.jaasContext)
+                    && Objects.equals(this.krb5File, other.krb5File);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.principal, this.jaasContext, this.krb5File);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Key{" + "principal=" + principal + ", jaasContext=" + jaasContext
+                    + ", krb5File=" + krb5File + '}';
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthProtocolState;
+import org.apache.http.auth.AuthState;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.KerberosCredentials;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Request executor completing the SPNEGO mutual authentication with the proxy.
+ *
+ * HTTP client only gives the proxy challenges to the authentication scheme when the response is
+ * a 407. The final token of the mutual authentication comes with the successful response, so it
+ * is read here, for the CONNECT requests as well as for the requests sent through the proxy.
+ * <p>
+ * In preemptive mode, the Proxy-Authorization header is added to the first request of each
+ * connection to the proxy, which saves the 407 round-trip. The scheme producing the header is
+ * registered in the proxy authentication state so that HTTP client goes on with the usual
+ * negotiation when the proxy answers with a challenge.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class SPNegoRequestExecutor extends HttpRequestExecutor {
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(SPNegoRequestExecutor.class.getName());
+
+    /**
+     * Verifies the final token of the responses.
+     */
+    private static final SPNegoResponseInterceptor FINAL_TOKEN_VERIFIER =
+            new SPNegoResponseInterceptor();
+
+    /**
+     * Method used to open a tunnel through the proxy.
+     */
+    private static final String CONNECT = "CONNECT";
+
+    /**
+     * Type of SPNego used to create the preemptive schemes or {@code null} when the preemptive
+     * mode is disabled.
+     */
+    private final Type preemptiveType;
+
+    /**
+     * Pool of initial tokens used by the preemptive schemes or {@code null}.
+     */
+    private final SPNegoTokenPool tokenPool;
+
+    /**
+     * Configuration of the GSS clients of the preemptive schemes.
+     */
+    private final Map<String, String> config;
+
+    /**
+     * Creates the request executor, the preemptive mode is disabled.
+     */
+    public SPNegoRequestExecutor() {
+        this(null, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates the request executor in preemptive mode.
+     *
+     * @param preemptiveType type of SPNego used to create the preemptive schemes or {@code null}
+     * to disable the preemptive mode
+     * @param tokenPool pool of initial tokens or {@code null} to generate them on demand
+     * @param config configuration of the GSS clients of the preemptive schemes
+     */
+    public SPNegoRequestExecutor(final Type preemptiveType, final SPNegoTokenPool tokenPool,
+            final Map<String, String> config) {
+        super();
+        this.preemptiveType = preemptiveType;
+        this.tokenPool = tokenPool;
+        this.config = config;
+    }
+
+    /**
+     * Sends the request and verifies the final SPNEGO token of the response.
+     *
+     * @param request the request to execute
+     * @param conn the connection over which to execute the request
+     * @param context the context
+     * @return the response to the request
+     * @throws IOException in case of an I/O error
+     * @throws HttpException in case of HTTP protocol violation or a processing problem, in
+     * particular when the mutual authentication fails
+     */
+    @Override
+    public HttpResponse execute(final HttpRequest request, final HttpClientConnection conn,
+            final HttpContext context) throws IOException, HttpException {
+        if (this.preemptiveType != null && isFirstProxyRequest(request, conn, context)) {
+            authenticatePreemptively(request, context);
+        }
+        final long start = System.nanoTime();
+        final HttpResponse response = super.execute(request, conn, context);
+        if (response.getStatusLine().getStatusCode()
+                == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+            Metrics.record(MetricsRecorder.Timer.PROXY_CHALLENGE, Metrics.routeOf(
+                    HttpClientContext.adapt(context).getTargetHost()), start);
+        }
+        FINAL_TOKEN_VERIFIER.process(response, context);
+        return response;
+    }
+
+    /**
+     * Checks whether the request is the first request sent to the proxy on the connection and
+     * has not yet been authenticated. For a tunnelled route, only the CONNECT request is sent to
+     * the proxy.
+     *
+     * @param request request
+     * @param conn connection
+     * @param context context
+     * @return true when the Proxy-Authorization header must be added otherwise false
+     */
+    private static boolean isFirstProxyRequest(final HttpRequest request,
+            final HttpClientConnection conn, final HttpContext context) {
+        final HttpClientContext clientContext = HttpClientContext.adapt(context);
+        final RouteInfo route = clientContext.getHttpRoute();
+        final AuthState authState = clientContext.getProxyAuthState();
+        if (route == null || route.getProxyHost() == null || authState == null
+                || authState.getState() != AuthProtocolState.UNCHALLENGED
+                || request.containsHeader(AUTH.PROXY_AUTH_RESP)
+                || conn.getMetrics().getRequestCount() > 0) {
+            return false;
+        }
+        final boolean isConnect = CONNECT.equalsIgnoreCase(request.getRequestLine().getMethod());
+        return route.isTunnelled() == isConnect;
+    }
+
+    /**
+     * Adds the Proxy-Authorization header to the request. When the token cannot be generated,
+     * the request is sent without the header and the proxy challenge is processed as usual.
+     *
+     * @param request request
+     * @param context context
+     */
+    private void authenticatePreemptively(final HttpRequest request, final HttpContext context) {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("request: {}", request);
+        }
+        final SPNegoScheme scheme = new SPNegoScheme(this.preemptiveType, this.tokenPool,
+                GSSClientFactory.forProxy(this.preemptiveType, this.config, context));
+        try {
+            request.addHeader(scheme.authenticatePreemptively(request, context));
+            final AuthState authState = HttpClientContext.adapt(context).getProxyAuthState();
+            authState.update(scheme, new KerberosCredentials(null));
+            authState.setState(AuthProtocolState.CHALLENGED);
+            LOG.debug("Preemptive Proxy-Authorization header added");
+        } catch (AuthenticationException ex) {
+            LOG.warn("Cannot authenticate preemptively, waits for the proxy challenge : {}",
+                    ex.getMessage());
+        }
+        LOG.traceExit();
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.metrics.Metrics;
+import fr.cnes.metrics.MetricsRecorder;
+import java.io.IOException;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthState;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Response interceptor completing the SPNEGO mutual authentication with the proxy.
+ *
+ * HTTP client only gives the proxy challenges to the authentication scheme when the response is
+ * a 407. The final token of the mutual authentication comes with the successful response, so it
+ * is given here to the scheme used to authenticate with the proxy.
+ *
+ * The round-trip of a request challenged by the proxy is recorded when the start time of the
+ * request is set in the context with {@link #REQUEST_START}.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public class SPNegoResponseInterceptor implements HttpResponseInterceptor {
+
+    /**
+     * Attribute of the context holding the time, given by {@link System#nanoTime()}, at which
+     * the request is sent.
+     */
+    public static final String REQUEST_START = "fr.cnes.jspnego.request-start";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(SPNegoResponseInterceptor.class.
+            getName());
+
+    /**
+     * Name of the SPNEGO scheme in the challenges.
+     */
+    private static final String NEGOTIATE = "Negotiate";
+
+    /**
+     * Gives the SPNEGO token of the Proxy-Authenticate headers to the scheme used to authenticate
+     * with the proxy, unless the response is a new challenge, whose round-trip is recorded.
+     *
+     * @param response response
+     * @param context context
+     * @throws HttpException When the mutual authentication fails
+     * @throws IOException in case of an I/O error
+     */
+    @Override
+    public void process(final HttpResponse response, final HttpContext context)
+            throws HttpException, IOException {
+        if (response.getStatusLine().getStatusCode()
+                == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+            final Object start = context.getAttribute(REQUEST_START);
+            if (start instanceof Long) {
+                Metrics.record(MetricsRecorder.Timer.PROXY_CHALLENGE, Metrics.routeOf(
+                        HttpClientContext.adapt(context).getTargetHost()), (Long) start);
+            }
+            return;
+        }
+        final AuthState authState = HttpClientContext.adapt(context).getProxyAuthState();
+        final AuthScheme scheme = authState == null ? null : authState.getAuthScheme();
+        if (!(scheme instanceof SPNegoScheme)) {
+            return;
+        }
+        for (final Header header : response.getHeaders(AUTH.PROXY_AUTH)) {
+            final String value = header.getValue().trim();
+            if (value.regionMatches(true, 0, NEGOTIATE, 0, NEGOTIATE.length())) {
+                LOG.debug("Final token received from the proxy");
+                ((SPNegoScheme) scheme).verifyFinalToken(
+                        value.substring(NEGOTIATE.length()).trim());
+            }
+        }
+    }
+
+}
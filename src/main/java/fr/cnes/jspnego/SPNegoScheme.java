@@ -21,10 +21,13 @@ package fr.cnes.jspnego;
  * MA 02110-1301  USA
  */
 import fr.cnes.httpclient.HttpClientFactory.Type;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
 import org.apache.http.HttpRequest;
+import org.apache.http.ParseException;
 import org.apache.http.auth.AUTH;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.ContextAwareAuthScheme;
@@ -32,17 +35,24 @@ import org.apache.http.auth.Credentials;
 import org.apache.http.auth.InvalidCredentialsException;
 import org.apache.http.auth.MalformedChallengeException;
 import org.apache.http.impl.auth.AuthSchemeBase;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BufferedHeader;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Args;
 import org.apache.http.util.CharArrayBuffer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSException;
 
 /**
  * SPNEGO (Simple and Protected GSSAPI Negotiation Mechanism) authentication scheme adapted for
  * Proxy Authentication.
+ * <p>
+ * The security context is kept across the legs of the authentication exchange : a challenge
+ * carrying a continuation token ({@code Negotiate <base64>}) is processed by the same context and
+ * answered on the same connection. The final token sent by the proxy on the successful response
+ * is verified by {@link SPNegoRequestExecutor} to complete the mutual authentication.
+ * </p>
  *
  * @author S. ETCHEVERRY
  */
@@ -75,6 +85,17 @@ public class SPNegoScheme extends AuthSchemeBase {
      */
     private static final Logger LOG = LogManager.getLogger(SPNegoScheme.class.getName());
 
+    /**
+     * Beginning of the Proxy-Authorization header.
+     */
+    private static final String HEADER_PREFIX = AUTH.PROXY_AUTH_RESP + ": Negotiate ";
+
+    /**
+     * Base64 alphabet as defined by RFC 2045.
+     */
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
     /**
      * Kerberos client.
      */
@@ -90,10 +111,46 @@ public class SPNegoScheme extends AuthSchemeBase {
      */
     private State state;
     /**
-     * base64 decoded challenge.
+     * Token to send to the proxy.
      */
     private byte[] token;
 
+    /**
+     * base64 decoded token of the last challenge.
+     */
+    private byte[] challengeToken = new byte[0];
+
+    /**
+     * Negotiation in progress, {@code null} before the first token.
+     */
+    private AbstractGSSClient.Negotiation negotiation;
+
+    /**
+     * Pool of initial tokens or {@code null}.
+     */
+    private final SPNegoTokenPool tokenPool;
+
+    /**
+     * True when the first token has been sent without challenge.
+     */
+    private boolean isPreemptive;
+
+    /**
+     * True when the negotiation has been started again after the rejection of the preemptive
+     * token.
+     */
+    private boolean isRetried;
+
+    /**
+     * True when the initial token has been generated by {@link #prepare()} and not yet sent.
+     */
+    private boolean isPrepared;
+
+    /**
+     * Time in ms when the security context expires, {@link Long#MAX_VALUE} when it is not known.
+     */
+    private long expiresAt = Long.MAX_VALUE;
+
     /**
      * Scheme for SPNego protocol.
      *
@@ -101,8 +158,35 @@ public class SPNegoScheme extends AuthSchemeBase {
      * @throws IllegalArgumentException Cannot support type: PROXY_SPNEGO_API, PROXY_SPNEGO_JAAS
      */
     public SPNegoScheme(final Type type) {
+        this(type, null);
+    }
+
+    /**
+     * Scheme for SPNego protocol taking its initial tokens from a pool.
+     *
+     * @param type type of SPNego
+     * @param tokenPool pool of initial tokens or {@code null} to generate them on demand
+     * @throws IllegalArgumentException Cannot support type: PROXY_SPNEGO_API, PROXY_SPNEGO_JAAS
+     */
+    public SPNegoScheme(final Type type, final SPNegoTokenPool tokenPool) {
+        this(type, tokenPool, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Scheme for SPNego protocol configured by the client which uses it.
+     *
+     * @param type type of SPNego
+     * @param tokenPool pool of initial tokens or {@code null} to generate them on demand
+     * @param config configuration of the GSS client, the missing keys are taken from the
+     * configuration enum related to the type
+     * @throws IllegalArgumentException Cannot support type: PROXY_SPNEGO_API, PROXY_SPNEGO_JAAS
+     */
+    public SPNegoScheme(final Type type, final SPNegoTokenPool tokenPool,
+            final Map<String, String> config) {
         super();
-        LOG.traceEntry("Type: {}", type);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("Type: {}", type);
+        }
         switch (type) {
             case PROXY_SPNEGO_API:
             case PROXY_SPNEGO_JAAS:
@@ -112,7 +196,8 @@ public class SPNegoScheme extends AuthSchemeBase {
         }
         this.state = State.UNINITIATED;
         LOG.debug("state: {}", this.state);
-        this.gssClient = GSSClientFactory.create(type);
+        this.gssClient = GSSClientFactory.create(type, config);
+        this.tokenPool = tokenPool;
         LOG.traceExit();
     }
 
@@ -140,9 +225,11 @@ public class SPNegoScheme extends AuthSchemeBase {
     @Override
     public Header authenticate(final Credentials credentials, final HttpRequest request)
             throws AuthenticationException {
-        LOG.traceEntry("credentials: {}\n"
-                + "request: {}",
-                credentials, request);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("credentials: {}\n"
+                    + "request: {}",
+                    credentials, request);
+        }
         return LOG.traceExit(authenticate(credentials, request, null));
     }
 
@@ -161,10 +248,12 @@ public class SPNegoScheme extends AuthSchemeBase {
     @Override
     public Header authenticate(final Credentials credentials, final HttpRequest request,
             final HttpContext context) throws AuthenticationException {
-        LOG.traceEntry("credentials: {}\n"
-                + "request: {}\n"
-                + "context: {}",
-                credentials, request, context);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("credentials: {}\n"
+                    + "request: {}\n"
+                    + "context: {}",
+                    credentials, request, context);
+        }
         if (request == null) {
             throw LOG.throwing(new IllegalArgumentException("HTTP request may not be null"));
         }
@@ -178,10 +267,29 @@ public class SPNegoScheme extends AuthSchemeBase {
                         getSchemeName() + " authentication has failed"));
             case CHALLENGE_RECEIVED:
                 try {
-                    token = gssClient.generateGSSToken();
+                    final SPNegoTokenPool.PooledToken pooled = negotiation == null
+                            && tokenPool != null ? tokenPool.take() : null;
+                    if (isPrepared) {
+                        LOG.debug("Uses the prepared token");
+                        isPrepared = false;
+                    } else if (pooled != null) {
+                        LOG.debug("Uses a pooled token");
+                        negotiation = pooled.getNegotiation();
+                        token = pooled.getToken();
+                    } else if (negotiation == null) {
+                        negotiation = gssClient.newNegotiation();
+                        token = negotiation.step(new byte[0]);
+                    } else {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Leg {} of the negotiation", negotiation.getLegs() + 1);
+                        }
+                        token = negotiation.step(challengeToken);
+                    }
+                    recordLifetime();
                     state = State.TOKEN_GENERATED;
                 } catch (GSSException gsse) {
                     state = State.FAILED;
+                    dispose();
                     if (gsse.getMajor() == GSSException.DEFECTIVE_CREDENTIAL
                             || gsse.getMajor() == GSSException.CREDENTIALS_EXPIRED
                             || gsse.getMajor() == GSSException.NO_CRED) {
@@ -212,11 +320,52 @@ public class SPNegoScheme extends AuthSchemeBase {
      *
      * @return the basicHeader
      */
-    private BasicHeader getBasicHeader() {
+    private Header getBasicHeader() {
         LOG.traceEntry();
-        final String tokenStr = new String(base64codec.encode(token), Charset.defaultCharset());
-        LOG.debug("Sending response '{}' back to the auth server", tokenStr);
-        return LOG.traceExit(new BasicHeader(AUTH.PROXY_AUTH_RESP, "Negotiate " + tokenStr));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending a token of {} bytes back to the auth server", token.length);
+        }
+        return LOG.traceExit(createHeader(token));
+    }
+
+    /**
+     * Creates the Proxy-Authorization header of a token. The token is encoded in Base64 directly
+     * into the buffer of the header, which is allocated once at its exact size.
+     *
+     * @param token token
+     * @return the header
+     */
+    static Header createHeader(final byte[] token) {
+        final int length = HEADER_PREFIX.length() + (token.length + 2) / 3 * 4;
+        final CharArrayBuffer buffer = new CharArrayBuffer(length);
+        buffer.append(HEADER_PREFIX);
+        final char[] chars = buffer.buffer();
+        int pos = HEADER_PREFIX.length();
+        int index = 0;
+        final int fullGroups = token.length / 3 * 3;
+        while (index < fullGroups) {
+            final int bits = (token[index++] & 0xff) << 16 | (token[index++] & 0xff) << 8
+                    | (token[index++] & 0xff);
+            chars[pos++] = BASE64_ALPHABET[bits >>> 18];
+            chars[pos++] = BASE64_ALPHABET[bits >>> 12 & 0x3f];
+            chars[pos++] = BASE64_ALPHABET[bits >>> 6 & 0x3f];
+            chars[pos++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+        final int remaining = token.length - fullGroups;
+        if (remaining > 0) {
+            final int bits = (token[index] & 0xff) << 16
+                    | (remaining == 2 ? (token[index + 1] & 0xff) << 8 : 0);
+            chars[pos++] = BASE64_ALPHABET[bits >>> 18];
+            chars[pos++] = BASE64_ALPHABET[bits >>> 12 & 0x3f];
+            chars[pos++] = remaining == 2 ? BASE64_ALPHABET[bits >>> 6 & 0x3f] : '=';
+            chars[pos++] = '=';
+        }
+        buffer.setLength(pos);
+        try {
+            return new BufferedHeader(buffer);
+        } catch (ParseException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
 
     /**
@@ -232,18 +381,172 @@ public class SPNegoScheme extends AuthSchemeBase {
     @Override
     protected void parseChallenge(final CharArrayBuffer buffer, final int beginIndex,
             final int endIndex) throws MalformedChallengeException {
-        LOG.traceEntry("buffer: {}\n"
-                + "beginIndex: {}\n"
-                + "endIndex: {}",
-                buffer, beginIndex, endIndex);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("buffer: {}\n"
+                    + "beginIndex: {}\n"
+                    + "endIndex: {}",
+                    buffer, beginIndex, endIndex);
+        }
         final String challenge = buffer.substringTrimmed(beginIndex, endIndex);
         LOG.debug("Received challenge {} from the auth server", challenge);
         if (state == State.UNINITIATED) {
             LOG.debug("Authentication received");
             state = State.CHALLENGE_RECEIVED;
+        } else if (state == State.TOKEN_GENERATED && !challenge.isEmpty()
+                && negotiation != null && !negotiation.isEstablished()) {
+            LOG.debug("Continuation token received");
+            challengeToken = decode(challenge);
+            state = State.CHALLENGE_RECEIVED;
+        } else if (state == State.TOKEN_GENERATED && challenge.isEmpty() && isPreemptive
+                && !isRetried) {
+            LOG.debug("Preemptive token rejected, the negotiation starts again");
+            isRetried = true;
+            dispose();
+            state = State.CHALLENGE_RECEIVED;
         } else {
             LOG.debug("Authentication already attempted");
             state = State.FAILED;
+            dispose();
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Produces the SPNEGO authorization Proxy Header without waiting for the challenge of the
+     * proxy. When the proxy rejects this token, the negotiation is started again once.
+     *
+     * @param request The request being authenticated
+     * @param context The context used for authentication
+     * @return SPNEGO authentication Header
+     * @throws AuthenticationException if authentication string cannot be generated due to an
+     * authentication failure
+     */
+    Header authenticatePreemptively(final HttpRequest request, final HttpContext context)
+            throws AuthenticationException {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("request: {}", request);
+        }
+        isPreemptive = true;
+        state = State.CHALLENGE_RECEIVED;
+        return LOG.traceExit(authenticate(null, request, context));
+    }
+
+    /**
+     * Generates the initial token before the challenge of the proxy. This method may contact the
+     * KDC, it is called from a thread which can block so that the thread processing the challenge
+     * only sends the prepared token. The token is used by the first call to authenticate.
+     *
+     * @throws AuthenticationException if the token cannot be generated
+     */
+    public void prepare() throws AuthenticationException {
+        LOG.traceEntry();
+        if (negotiation != null) {
+            LOG.traceExit();
+            return;
+        }
+        try {
+            final SPNegoTokenPool.PooledToken pooled = tokenPool == null ? null : tokenPool.take();
+            if (pooled == null) {
+                negotiation = gssClient.newNegotiation();
+                token = negotiation.step(new byte[0]);
+            } else {
+                negotiation = pooled.getNegotiation();
+                token = pooled.getToken();
+            }
+            isPrepared = true;
+        } catch (GSSException gsse) {
+            dispose();
+            throw LOG.throwing(new AuthenticationException(gsse.getMessage(), gsse));
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Releases the security context of the negotiation, for instance when a prepared token has
+     * not been used.
+     */
+    public void release() {
+        LOG.traceEntry();
+        dispose();
+        LOG.traceExit();
+    }
+
+    /**
+     * Verifies the final token sent by the proxy with the successful response. This token
+     * completes the mutual authentication : the proxy proves that it is the service which the
+     * service ticket has been issued for.
+     *
+     * @param challenge the value of the Proxy-Authenticate header without the scheme name
+     * @throws AuthenticationException When the token is not valid
+     */
+    void verifyFinalToken(final String challenge) throws AuthenticationException {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("challenge: {}", challenge);
+        }
+        if (negotiation == null || negotiation.isEstablished() || challenge.isEmpty()) {
+            LOG.debug("Nothing to verify");
+            dispose();
+            LOG.traceExit();
+            return;
+        }
+        try {
+            negotiation.step(decode(challenge));
+            recordLifetime();
+        } catch (GSSException | MalformedChallengeException ex) {
+            state = State.FAILED;
+            throw LOG.throwing(new AuthenticationException("Mutual authentication with the "
+                    + "proxy has failed : " + ex.getMessage(), ex));
+        } finally {
+            dispose();
+        }
+        LOG.debug("Mutual authentication done");
+        LOG.traceExit();
+    }
+
+    /**
+     * Decodes the token of a challenge.
+     *
+     * @param challenge base64 token
+     * @return the decoded token
+     * @throws MalformedChallengeException When the token is not base64 encoded
+     */
+    private byte[] decode(final String challenge) throws MalformedChallengeException {
+        if (!Base64.isBase64(challenge)) {
+            throw LOG.throwing(new MalformedChallengeException("Invalid token in challenge: "
+                    + challenge));
+        }
+        return base64codec.decode(challenge.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Records the expiration time of the security context of the negotiation.
+     */
+    private void recordLifetime() {
+        final int lifetime = negotiation.getLifetime();
+        if (lifetime > 0 && lifetime != GSSContext.INDEFINITE_LIFETIME) {
+            expiresAt = System.currentTimeMillis() + lifetime * 1000L;
+        }
+    }
+
+    /**
+     * Returns the time when the security context expires, which is the end time of the service
+     * ticket with Kerberos. The authentication of the connection with the proxy should not be
+     * reused after this time.
+     *
+     * @return the time in ms, {@link Long#MAX_VALUE} when it is not known
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Releases the security context of the negotiation.
+     */
+    private void dispose() {
+        isPrepared = false;
+        if (negotiation != null) {
+            negotiation.dispose();
+            negotiation = null;
         }
     }
 
@@ -255,7 +558,9 @@ public class SPNegoScheme extends AuthSchemeBase {
      */
     @Override
     public String getParameter(final String name) {
-        LOG.traceEntry("name: {}", name);
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("name: {}", name);
+        }
         Args.notNull(name, "Parameter name");
         LOG.traceExit("null");
         return null;
@@ -292,7 +597,7 @@ public class SPNegoScheme extends AuthSchemeBase {
     @Override
     public String getRealm() {
         LOG.traceEntry();
-        LOG.traceEntry("null");
+        LOG.traceExit("null");
         return null;
     }
 }
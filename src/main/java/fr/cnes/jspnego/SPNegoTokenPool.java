@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSException;
+
+/**
+ * Bounded pool of initial SPNEGO tokens ready to be sent to the proxy.
+ *
+ * Each pooled token comes with the negotiation that produced it, so that the next legs of the
+ * exchange are processed by the same security context. A background thread refills the pool when
+ * its depth goes below the low watermark and periodically replaces the tokens which are too old.
+ * <p>
+ * A token is removed from the pool when it is taken and is never given twice, so that the proxy
+ * does not see a replayed authenticator. A token older than the maximum age is discarded instead
+ * of being used. When the pool is empty, the caller generates its token itself and a starvation
+ * is counted.
+ * </p>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class SPNegoTokenPool implements Closeable {
+
+    /**
+     * Default maximum age in ms of a pooled token {@value #DEFAULT_MAX_AGE_MS}.
+     */
+    public static final long DEFAULT_MAX_AGE_MS = 60_000L;
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(SPNegoTokenPool.class.getName());
+
+    /**
+     * Client generating the tokens.
+     */
+    private final AbstractGSSClient gssClient;
+
+    /**
+     * Maximum number of pooled tokens.
+     */
+    private final int size;
+
+    /**
+     * The pool is refilled when its depth goes below this value.
+     */
+    private final int lowWatermark;
+
+    /**
+     * Maximum age in ms of a pooled token.
+     */
+    private final long maxAgeMs;
+
+    /**
+     * Pooled tokens, the oldest first.
+     */
+    private final ConcurrentLinkedDeque<PooledToken> tokens = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Number of pooled tokens.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * True while a refill is scheduled or running.
+     */
+    private final AtomicBoolean isRefilling = new AtomicBoolean();
+
+    /**
+     * Number of tokens taken from the pool.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of times the pool was empty.
+     */
+    private final AtomicLong starvationCount = new AtomicLong();
+
+    /**
+     * Number of tokens discarded because of their age.
+     */
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Number of tokens generated by the background thread.
+     */
+    private final AtomicLong generatedCount = new AtomicLong();
+
+    /**
+     * Background thread refilling the pool.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a pool and starts filling it.
+     *
+     * @param gssClient client generating the tokens
+     * @param size maximum number of pooled tokens
+     * @param lowWatermark the pool is refilled when its depth goes below this value
+     * @param maxAgeMs maximum age in ms of a pooled token
+     * @throws IllegalArgumentException When size is not positive, when lowWatermark is not
+     * between 0 and size or when maxAgeMs is not positive
+     */
+    public SPNegoTokenPool(final AbstractGSSClient gssClient, final int size,
+            final int lowWatermark, final long maxAgeMs) {
+        LOG.traceEntry("size: {}\nlowWatermark: {}\nmaxAgeMs: {}", size, lowWatermark, maxAgeMs);
+        if (size <= 0 || lowWatermark < 0 || lowWatermark > size || maxAgeMs <= 0) {
+            throw LOG.throwing(new IllegalArgumentException("Invalid token pool configuration: "
+                    + "size=" + size + ", lowWatermark=" + lowWatermark + ", maxAgeMs="
+                    + maxAgeMs));
+        }
+        this.gssClient = gssClient;
+        this.size = size;
+        this.lowWatermark = lowWatermark;
+        this.maxAgeMs = maxAgeMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jspnego-token-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(1, maxAgeMs / 2);
+        this.executor.scheduleWithFixedDelay(this::refill, 0, period, TimeUnit.MILLISECONDS);
+        LOG.traceExit();
+    }
+
+    /**
+     * Takes the oldest valid token from the pool. The token is removed from the pool.
+     *
+     * @return a token or {@code null} when no valid token is pooled
+     */
+    PooledToken take() {
+        LOG.traceEntry();
+        final long now = System.currentTimeMillis();
+        PooledToken pooled;
+        while ((pooled = this.tokens.pollFirst()) != null) {
+            this.depth.decrementAndGet();
+            if (now - pooled.createdAt <= this.maxAgeMs) {
+                break;
+            }
+            discard(pooled);
+        }
+        if (pooled == null) {
+            this.starvationCount.incrementAndGet();
+            LOG.debug("Token pool is empty");
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+        if (this.depth.get() < this.lowWatermark) {
+            scheduleRefill();
+        }
+        return LOG.traceExit(pooled);
+    }
+
+    /**
+     * Schedules a refill when none is pending.
+     */
+    private void scheduleRefill() {
+        if (this.isRefilling.compareAndSet(false, true) && !this.executor.isShutdown()) {
+            this.executor.execute(this::refill);
+        }
+    }
+
+    /**
+     * Discards the tokens which are too old and fills the pool up to its size.
+     */
+    private void refill() {
+        LOG.traceEntry();
+        this.isRefilling.set(true);
+        try {
+            final long oldest = System.currentTimeMillis() - this.maxAgeMs;
+            PooledToken first;
+            while ((first = this.tokens.peekFirst()) != null && first.createdAt < oldest) {
+                if (this.tokens.remove(first)) {
+                    this.depth.decrementAndGet();
+                    discard(first);
+                }
+            }
+            while (this.depth.get() < this.size && !this.executor.isShutdown()) {
+                final AbstractGSSClient.Negotiation negotiation = this.gssClient.newNegotiation();
+                final byte[] token = negotiation.step(new byte[0]);
+                this.tokens.addLast(new PooledToken(negotiation, token,
+                        System.currentTimeMillis()));
+                this.depth.incrementAndGet();
+                this.generatedCount.incrementAndGet();
+            }
+        } catch (GSSException | RuntimeException ex) {
+            LOG.warn("Cannot refill the SPNego token pool : {}", ex.getMessage());
+        } finally {
+            this.isRefilling.set(false);
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Discards a token which is too old.
+     *
+     * @param pooled token to discard
+     */
+    private void discard(final PooledToken pooled) {
+        this.expiredCount.incrementAndGet();
+        pooled.negotiation.dispose();
+    }
+
+    /**
+     * Returns the number of pooled tokens.
+     *
+     * @return the number of pooled tokens
+     */
+    public int getDepth() {
+        return this.depth.get();
+    }
+
+    /**
+     * Returns the number of tokens taken from the pool.
+     *
+     * @return the number of tokens taken from the pool
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of times the pool was empty when a token was needed.
+     *
+     * @return the number of starvations
+     */
+    public long getStarvationCount() {
+        return this.starvationCount.get();
+    }
+
+    /**
+     * Returns the number of tokens discarded because of their age.
+     *
+     * @return the number of expired tokens
+     */
+    public long getExpiredCount() {
+        return this.expiredCount.get();
+    }
+
+    /**
+     * Returns the number of tokens generated by the background thread.
+     *
+     * @return the number of generated tokens
+     */
+    public long getGeneratedCount() {
+        return this.generatedCount.get();
+    }
+
+    /**
+     * Stops the background thread and releases the pooled tokens.
+     */
+    @Override
+    public void close() {
+        LOG.traceEntry();
+        this.executor.shutdownNow();
+        PooledToken pooled;
+        while ((pooled = this.tokens.pollFirst()) != null) {
+            this.depth.decrementAndGet();
+            pooled.negotiation.dispose();
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Token generated in advance with its negotiation.
+     */
+    static final class PooledToken {
+
+        /**
+         * Negotiation that produced the token.
+         */
+        private final AbstractGSSClient.Negotiation negotiation;
+
+        /**
+         * Initial token.
+         */
+        private final byte[] token;
+
+        /**
+         * Creation time in ms.
+         */
+        private final long createdAt;
+
+        /**
+         * Creates a pooled token.
+         *
+         * @param negotiation negotiation that produced the token
+         * @param token initial token
+         * @param createdAt creation time in ms
+         */
+        private PooledToken(final AbstractGSSClient.Negotiation negotiation, final byte[] token,
+                final long createdAt) {
+            this.negotiation = negotiation;
+            this.token = token;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * Returns the negotiation that produced the token.
+         *
+         * @return the negotiation
+         */
+        AbstractGSSClient.Negotiation getNegotiation() {
+            return this.negotiation;
+        }
+
+        /**
+         * Returns the initial token.
+         *
+         * @return the token
+         */
+        byte[] getToken() {
+            return this.token;
+        }
+    }
+
+}
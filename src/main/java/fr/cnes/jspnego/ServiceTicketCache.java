@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide cache of the service tickets (ST) indexed by client principal and SPN.
+ *
+ * The JDK Kerberos provider looks for the service ticket in the private credentials of the subject
+ * before asking one to the TGS. This cache makes this reuse explicit :
+ * <ul>
+ * <li>the service ticket obtained during a handshake is recorded for the SPN,</li>
+ * <li>before each handshake, the cached ticket is put back in the subject, which is needed when
+ * the subject has been replaced by a TGT refresh,</li>
+ * <li>a ticket is evicted, from the cache and from the subject, a little before its end time so
+ * that the TGS exchange happens once per ticket lifetime.</li>
+ * </ul>
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class ServiceTicketCache {
+
+    /**
+     * A ticket ending in less than {@value #EXPIRY_MARGIN_MS} ms is considered as expired.
+     */
+    public static final long EXPIRY_MARGIN_MS = 60_000L;
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(ServiceTicketCache.class.getName());
+
+    /**
+     * Name of the ticket granting service.
+     */
+    private static final String TGS_NAME = "krbtgt/";
+
+    /**
+     * Unique instance.
+     */
+    private static final ServiceTicketCache INSTANCE = new ServiceTicketCache();
+
+    /**
+     * Cached service tickets.
+     */
+    private final ConcurrentMap<Key, KerberosTicket> tickets = new ConcurrentHashMap<>();
+
+    /**
+     * Number of handshakes for which a valid service ticket was cached.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of handshakes for which no valid service ticket was cached.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of tickets evicted because of their end time.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates the cache.
+     */
+    private ServiceTicketCache() {
+    }
+
+    /**
+     * Returns the process-wide cache.
+     *
+     * @return the cache
+     */
+    public static ServiceTicketCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Prepares the subject before a handshake with the SPN. When a valid service ticket is cached,
+     * it is added to the private credentials of the subject if needed so that no TGS exchange is
+     * done. An expired ticket is removed from the cache and from the subject.
+     *
+     * @param subject subject used for the handshake
+     * @param spn service principal name
+     * @return true when a valid service ticket is cached otherwise false
+     */
+    public boolean prepare(final Subject subject, final String spn) {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("spn: {}", spn);
+        }
+        final KerberosPrincipal client = getClient(subject);
+        if (client == null) {
+            this.missCount.incrementAndGet();
+            return LOG.traceExit(false);
+        }
+        final Key key = new Key(client, spn);
+        KerberosTicket ticket = this.tickets.get(key);
+        if (ticket != null && !isValid(ticket, System.currentTimeMillis())) {
+            LOG.debug("Service ticket for {} ends at {}, evicts it", spn, ticket.getEndTime());
+            if (this.tickets.remove(key, ticket)) {
+                this.evictionCount.incrementAndGet();
+            }
+            removeFromSubject(subject, ticket);
+            ticket = null;
+        }
+        final boolean isHit;
+        if (ticket == null) {
+            this.missCount.incrementAndGet();
+            isHit = false;
+        } else {
+            this.hitCount.incrementAndGet();
+            final Set<Object> creds = subject.getPrivateCredentials();
+            if (!subject.isReadOnly() && !creds.contains(ticket)) {
+                LOG.debug("Puts back the service ticket for {} in the subject", spn);
+                creds.add(ticket);
+            }
+            isHit = true;
+        }
+        return LOG.traceExit(isHit);
+    }
+
+    /**
+     * Records the service ticket obtained for the SPN during a handshake. The ticket is the
+     * service ticket held by the subject which was not held before the handshake and whose
+     * server principal is the one of the SPN, so that a ticket obtained at the same time by a
+     * handshake with another SPN on the same subject is not recorded for this SPN.
+     *
+     * @param subject subject used for the handshake
+     * @param spn service principal name
+     * @param before service tickets held by the subject before the handshake
+     */
+    public void record(final Subject subject, final String spn, final Set<KerberosTicket> before) {
+        if (LOG.isTraceEnabled()) {
+            LOG.traceEntry("spn: {}", spn);
+        }
+        final KerberosPrincipal client = getClient(subject);
+        if (client != null) {
+            final ServerName server = new ServerName(spn);
+            for (final KerberosTicket ticket : getServiceTickets(subject)) {
+                if (!before.contains(ticket) && server.matches(ticket.getServer())) {
+                    LOG.debug("Caches the service ticket of {} for {}", ticket.getServer(), spn);
+                    this.tickets.put(new Key(client, spn), ticket);
+                    break;
+                }
+            }
+        }
+        evictExpired();
+        LOG.traceExit();
+    }
+
+    /**
+     * Removes all the expired tickets from the cache.
+     */
+    public void evictExpired() {
+        LOG.traceEntry();
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Key, KerberosTicket>> iterator = this.tickets.entrySet()
+                .iterator();
+        while (iterator.hasNext()) {
+            if (!isValid(iterator.next().getValue(), now)) {
+                iterator.remove();
+                this.evictionCount.incrementAndGet();
+            }
+        }
+        LOG.traceExit();
+    }
+
+    /**
+     * Removes all the cached tickets.
+     */
+    public void clear() {
+        this.tickets.clear();
+    }
+
+    /**
+     * Returns the number of cached tickets.
+     *
+     * @return the number of cached tickets
+     */
+    public int size() {
+        return this.tickets.size();
+    }
+
+    /**
+     * Returns the number of handshakes for which a valid service ticket was cached.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of handshakes for which no valid service ticket was cached.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of tickets evicted because of their end time.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the service tickets held by the subject.
+     *
+     * @param subject subject
+     * @return a copy of the service tickets held by the subject
+     */
+    public static Set<KerberosTicket> getServiceTickets(final Subject subject) {
+        final Set<KerberosTicket> serviceTickets = new HashSet<>();
+        for (final KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getServer() != null && !ticket.getServer().getName().startsWith(TGS_NAME)) {
+                serviceTickets.add(ticket);
+            }
+        }
+        return serviceTickets;
+    }
+
+    /**
+     * Checks whether the ticket can still be used.
+     *
+     * @param ticket ticket
+     * @param now current time in ms
+     * @return true when the ticket does not end in the next {@value #EXPIRY_MARGIN_MS} ms
+     */
+    private static boolean isValid(final KerberosTicket ticket, final long now) {
+        return !ticket.isDestroyed() && ticket.getEndTime() != null
+                && ticket.getEndTime().getTime() - EXPIRY_MARGIN_MS > now;
+    }
+
+    /**
+     * Removes the ticket from the private credentials of the subject.
+     *
+     * @param subject subject
+     * @param ticket ticket to remove
+     */
+    private static void removeFromSubject(final Subject subject, final KerberosTicket ticket) {
+        if (!subject.isReadOnly()) {
+            subject.getPrivateCredentials().remove(ticket);
+        }
+    }
+
+    /**
+     * Returns the Kerberos principal of the subject.
+     *
+     * @param subject subject
+     * @return the Kerberos principal or {@code null}
+     */
+    private static KerberosPrincipal getClient(final Subject subject) {
+        final Set<KerberosPrincipal> principals = subject.getPrincipals(KerberosPrincipal.class);
+        return principals.isEmpty() ? null : principals.iterator().next();
+    }
+
+    /**
+     * Kerberos principal of the service related to a SPN such as service@host,
+     * service/host or service/host@REALM.
+     */
+    private static final class ServerName {
+
+        /**
+         * Names (service/host) that the principal can have : the host of the SPN and its
+         * canonical name, as resolved by the Kerberos provider.
+         */
+        private final Set<String> names = new HashSet<>();
+
+        /**
+         * Realm of the SPN or {@code null} when the SPN has no realm.
+         */
+        private final String realm;
+
+        /**
+         * Parses the SPN.
+         *
+         * @param spn service principal name
+         */
+        private ServerName(final String spn) {
+            final int slash = spn.indexOf('/');
+            final int at = spn.indexOf('@');
+            final String name;
+            if (slash < 0) {
+                name = at < 0 ? spn : spn.substring(0, at) + "/" + spn.substring(at + 1);
+                this.realm = null;
+            } else {
+                name = at < 0 ? spn : spn.substring(0, at);
+                this.realm = at < 0 ? null : spn.substring(at + 1);
+            }
+            this.names.add(name.toLowerCase(Locale.ROOT));
+            try {
+                final String canonical = new KerberosPrincipal(name,
+                        KerberosPrincipal.KRB_NT_SRV_HST).getName();
+                final int index = canonical.lastIndexOf('@');
+                this.names.add((index < 0 ? canonical : canonical.substring(0, index))
+                        .toLowerCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                LOG.debug("Cannot canonicalize {} : {}", name, ex.getMessage());
+            }
+        }
+
+        /**
+         * Checks whether the principal is the one of the SPN.
+         *
+         * @param principal server principal of a ticket
+         * @return true when the principal is the one of the SPN otherwise false
+         */
+        private boolean matches(final KerberosPrincipal principal) {
+            final String name = principal.getName();
+            final int index = name.lastIndexOf('@');
+            final String serverName = index < 0 ? name : name.substring(0, index);
+            return (this.realm == null || this.realm.equals(principal.getRealm()))
+                    && this.names.contains(serverName.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Identifier of a service ticket.
+     */
+    private static final class Key {
+
+        /**
+         * Client principal.
+         */
+        private final KerberosPrincipal client;
+
+        /**
+         * Service principal name.
+         */
+        private final String spn;
+
+        /**
+         * Creates a key.
+         *
+         * @param client client principal
+         * @param spn service principal name
+         */
+        private Key(final KerberosPrincipal client, final String spn) {
+            this.client = client;
+            this.spn = spn;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.client.equals(other.client) && this.spn.equals(other.spn);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.client, this.spn);
+        }
+    }
+
+}
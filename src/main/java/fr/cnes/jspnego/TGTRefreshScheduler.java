@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.security.auth.RefreshFailedException;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules the refresh of the TGT (Ticket Granting Ticket) held by the cached subjects.
+ *
+ * The refresh happens in a background thread once a fraction of the TGT lifetime is elapsed so
+ * that the request threads never wait for the KDC. The TGT is renewed when it is renewable,
+ * otherwise the subject logs in again.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class TGTRefreshScheduler {
+
+    /**
+     * Default fraction of the TGT lifetime after which the TGT is refreshed
+     * {@value #DEFAULT_REFRESH_FRACTION}.
+     */
+    public static final double DEFAULT_REFRESH_FRACTION = 0.8;
+
+    /**
+     * Minimum delay in ms between two refreshes {@value #MIN_REFRESH_DELAY_MS}.
+     */
+    public static final long MIN_REFRESH_DELAY_MS = 10_000L;
+
+    /**
+     * Delay in ms before trying again a failed refresh {@value #RETRY_DELAY_MS}.
+     */
+    public static final long RETRY_DELAY_MS = 60_000L;
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(TGTRefreshScheduler.class.getName());
+
+    /**
+     * Name of the ticket granting service.
+     */
+    private static final String TGS_NAME = "krbtgt";
+
+    /**
+     * Background thread running the refreshes.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Fraction of the TGT lifetime after which the TGT is refreshed.
+     */
+    private volatile double refreshFraction = DEFAULT_REFRESH_FRACTION;
+
+    /**
+     * Creates the scheduler.
+     */
+    TGTRefreshScheduler() {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jspnego-tgt-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the fraction of the TGT lifetime after which the TGT is refreshed.
+     *
+     * @return the fraction of the TGT lifetime
+     */
+    public double getRefreshFraction() {
+        return this.refreshFraction;
+    }
+
+    /**
+     * Sets the fraction of the TGT lifetime after which the TGT is refreshed. The new value is
+     * used for the next scheduled refreshes.
+     *
+     * @param refreshFraction fraction of the TGT lifetime, strictly between 0 and 1
+     * @throws IllegalArgumentException When the fraction is not strictly between 0 and 1
+     */
+    public void setRefreshFraction(final double refreshFraction) {
+        LOG.traceEntry("refreshFraction: {}", refreshFraction);
+        if (refreshFraction <= 0 || refreshFraction >= 1) {
+            throw LOG.throwing(new IllegalArgumentException(
+                    "refreshFraction must be strictly between 0 and 1"));
+        }
+        this.refreshFraction = refreshFraction;
+        LOG.traceExit();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task task to run
+     * @param delayMs delay in ms before running the task
+     * @return the scheduled task
+     */
+    ScheduledFuture<?> schedule(final Runnable task, final long delayMs) {
+        LOG.traceEntry("delayMs: {}", delayMs);
+        return LOG.traceExit(this.executor.schedule(task, delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Computes the delay before refreshing the TGT of the subject.
+     *
+     * @param subject subject
+     * @param now current time in ms
+     * @return the delay in ms or -1 when the subject has no TGT
+     */
+    long computeRefreshDelay(final Subject subject, final long now) {
+        LOG.traceEntry("now: {}", now);
+        final KerberosTicket tgt = findTGT(subject);
+        final long delay;
+        if (tgt == null || tgt.getEndTime() == null) {
+            LOG.debug("No TGT in the subject, nothing to refresh");
+            delay = -1;
+        } else {
+            final long start = tgt.getStartTime() == null
+                    ? tgt.getAuthTime().getTime()
+                    : tgt.getStartTime().getTime();
+            final long end = tgt.getEndTime().getTime();
+            final long refreshTime = start + (long) ((end - start) * this.refreshFraction);
+            delay = Math.max(MIN_REFRESH_DELAY_MS, refreshTime - now);
+            LOG.debug("TGT ends at {}, refresh in {} ms", tgt.getEndTime(), delay);
+        }
+        return LOG.traceExit(delay);
+    }
+
+    /**
+     * Returns the TGT held by the subject.
+     *
+     * @param subject subject
+     * @return the TGT or {@code null} when the subject has no TGT
+     */
+    static KerberosTicket findTGT(final Subject subject) {
+        final Set<KerberosTicket> tickets = subject.getPrivateCredentials(KerberosTicket.class);
+        for (final KerberosTicket ticket : tickets) {
+            if (isTGS(ticket.getServer())) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true when the subject has a TGT which is expired.
+     *
+     * @param subject subject
+     * @param now current time in ms
+     * @return true when the TGT of the subject is expired otherwise false
+     */
+    static boolean isExpired(final Subject subject, final long now) {
+        final KerberosTicket tgt = findTGT(subject);
+        return tgt != null && tgt.getEndTime() != null && tgt.getEndTime().getTime() <= now;
+    }
+
+    /**
+     * Renews the TGT of the subject. The subject is not modified, a new subject holding the
+     * renewed TGT and the other credentials of the subject is returned.
+     *
+     * @param subject subject
+     * @return the subject with the renewed TGT or {@code null} when the TGT cannot be renewed
+     * @throws RefreshFailedException When the KDC refuses the renewal
+     */
+    static Subject renew(final Subject subject) throws RefreshFailedException {
+        LOG.traceEntry();
+        final KerberosTicket tgt = findTGT(subject);
+        final Date now = new Date();
+        if (tgt == null || !tgt.isRenewable() || tgt.getRenewTill() == null
+                || !tgt.getRenewTill().after(now)) {
+            LOG.debug("The TGT cannot be renewed");
+            return LOG.traceExit((Subject) null);
+        }
+        final KerberosTicket renewed = new KerberosTicket(tgt.getEncoded(), tgt.getClient(),
+                tgt.getServer(), tgt.getSessionKey().getEncoded(), tgt.getSessionKeyType(),
+                tgt.getFlags(), tgt.getAuthTime(), tgt.getStartTime(), tgt.getEndTime(),
+                tgt.getRenewTill(), tgt.getClientAddresses());
+        renewed.refresh();
+
+        final Set<Object> privateCredentials = new HashSet<>();
+        final Set<Object> creds = subject.getPrivateCredentials();
+        synchronized (creds) {
+            // The Subject's private credentials is a synchronizedSet
+            // We must manually synchronize when iterating through the set.
+            for (final Object cred : creds) {
+                privateCredentials.add(cred == tgt ? renewed : cred);
+            }
+        }
+        return LOG.traceExit(new Subject(false, subject.getPrincipals(),
+                subject.getPublicCredentials(), privateCredentials));
+    }
+
+    /**
+     * Returns true when the principal is the ticket granting service.
+     *
+     * @param server principal
+     * @return true when the principal is the ticket granting service otherwise false
+     */
+    private static boolean isTGS(final KerberosPrincipal server) {
+        return server != null && server.getName().startsWith(TGS_NAME + "/");
+    }
+
+}
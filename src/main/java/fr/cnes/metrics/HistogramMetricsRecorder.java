@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ietf.jgss.GSSException;
+
+/**
+ * Recorder keeping a {@link LatencyHistogram} per operation and route in memory, which can be
+ * read through the API or published as an MXBean.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class HistogramMetricsRecorder implements MetricsRecorder, MetricsMXBean {
+
+    /**
+     * Default name of the MXBean.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "fr.cnes.metrics:type=Metrics";
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(HistogramMetricsRecorder.class.
+            getName());
+
+    /**
+     * Histograms by operation and route.
+     */
+    private final ConcurrentMap<Timer, ConcurrentMap<String, LatencyHistogram>> histograms =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Number of failed authentications by major code.
+     */
+    private final ConcurrentMap<Integer, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void record(final Timer timer, final String route, final long durationNanos) {
+        getHistogram(timer, route).record(durationNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void authenticationFailed(final String route, final int majorCode) {
+        this.failures.computeIfAbsent(majorCode, code -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns the histogram of an operation and a route, created when needed.
+     *
+     * @param timer measured operation
+     * @param route server of the operation
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram(final Timer timer, final String route) {
+        return this.histograms.computeIfAbsent(timer, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(route, r -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the number of failed authentications with a major code.
+     *
+     * @param majorCode major code of the GSSException
+     * @return the number of failures
+     */
+    public long getAuthenticationFailureCount(final int majorCode) {
+        final AtomicLong failureCount = this.failures.get(majorCode);
+        return failureCount == null ? 0 : failureCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, HistogramSnapshot> getHistograms() {
+        final Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+        for (final Map.Entry<Timer, ConcurrentMap<String, LatencyHistogram>> timer
+                : this.histograms.entrySet()) {
+            for (final Map.Entry<String, LatencyHistogram> route : timer.getValue().entrySet()) {
+                snapshots.put(timer.getKey() + " " + route.getKey(),
+                        route.getValue().snapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getAuthenticationFailures() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (final Map.Entry<Integer, AtomicLong> failure : this.failures.entrySet()) {
+            counts.put(new GSSException(failure.getKey()).getMajorString(),
+                    failure.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        this.histograms.clear();
+        this.failures.clear();
+    }
+
+    /**
+     * Publishes the recorder in the platform MBean server.
+     *
+     * @param objectName name of the MXBean, {@value #DEFAULT_OBJECT_NAME} for instance
+     * @return the name of the MXBean
+     * @throws IllegalStateException When the MXBean cannot be registered
+     */
+    public ObjectName registerMBean(final String objectName) {
+        LOG.traceEntry("objectName: {}", objectName);
+        try {
+            final ObjectName name = new ObjectName(objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return LOG.traceExit(name);
+        } catch (JMException ex) {
+            throw LOG.throwing(new IllegalStateException("Cannot register " + objectName, ex));
+        }
+    }
+
+    /**
+     * Removes the recorder from the platform MBean server.
+     *
+     * @param name name of the MXBean
+     */
+    public void unregisterMBean(final ObjectName name) {
+        LOG.traceEntry("name: {}", name);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            LOG.warn("Cannot unregister {} : {}", name, ex.getMessage());
+        }
+        LOG.traceExit();
+    }
+
+}
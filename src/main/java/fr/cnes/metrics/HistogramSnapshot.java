@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+/**
+ * Statistics of a {@link LatencyHistogram} at a given time. The durations are in µs.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class HistogramSnapshot {
+
+    /**
+     * Number of durations.
+     */
+    private final long count;
+
+    /**
+     * Mean duration.
+     */
+    private final double mean;
+
+    /**
+     * Median duration.
+     */
+    private final long p50;
+
+    /**
+     * 90th percentile.
+     */
+    private final long p90;
+
+    /**
+     * 99th percentile.
+     */
+    private final long p99;
+
+    /**
+     * 99.9th percentile.
+     */
+    private final long p999;
+
+    /**
+     * Longest duration.
+     */
+    private final long max;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param count number of durations
+     * @param mean mean duration
+     * @param p50 median duration
+     * @param p90 90th percentile
+     * @param p99 99th percentile
+     * @param p999 99.9th percentile
+     * @param max longest duration
+     */
+    public HistogramSnapshot(final long count, final double mean, final long p50, final long p90,
+            final long p99, final long p999, final long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of durations.
+     *
+     * @return the number of durations
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the mean duration.
+     *
+     * @return the mean in µs
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * Returns the median duration.
+     *
+     * @return the median in µs
+     */
+    public long getP50() {
+        return this.p50;
+    }
+
+    /**
+     * Returns the 90th percentile.
+     *
+     * @return the 90th percentile in µs
+     */
+    public long getP90() {
+        return this.p90;
+    }
+
+    /**
+     * Returns the 99th percentile.
+     *
+     * @return the 99th percentile in µs
+     */
+    public long getP99() {
+        return this.p99;
+    }
+
+    /**
+     * Returns the 99.9th percentile.
+     *
+     * @return the 99.9th percentile in µs
+     */
+    public long getP999() {
+        return this.p999;
+    }
+
+    /**
+     * Returns the longest duration.
+     *
+     * @return the longest duration in µs
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{count=" + count + ", mean=" + mean + ", p50=" + p50
+                + ", p90=" + p90 + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + '}';
+    }
+
+}
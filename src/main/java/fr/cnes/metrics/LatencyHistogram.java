@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with a bounded relative error, in the manner of HdrHistogram.
+ *
+ * The durations are recorded in µs. The values below {@value #LINEAR_BUCKETS} µs have their own
+ * bucket, each power of two above is split in {@value #SUB_BUCKETS} buckets, so that a
+ * percentile is given within about 3%. The durations longer than 2^{@value #MAX_EXPONENT} µs are
+ * counted in the last bucket. Recording is lock-free.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of buckets per power of two.
+     */
+    static final int SUB_BUCKETS = 32;
+
+    /**
+     * Number of buckets holding one value.
+     */
+    static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    /**
+     * Power of two of the longest duration in µs, about 12 days.
+     */
+    static final int MAX_EXPONENT = 40;
+
+    /**
+     * Power of two of {@link #LINEAR_BUCKETS}.
+     */
+    private static final int LINEAR_EXPONENT = Integer.numberOfTrailingZeros(LINEAR_BUCKETS);
+
+    /**
+     * Power of two of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_EXPONENT = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /**
+     * Count of each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS
+            + (MAX_EXPONENT - LINEAR_EXPONENT) * SUB_BUCKETS);
+
+    /**
+     * Number of recorded durations.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the recorded durations in µs.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Longest recorded duration in µs.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param durationNanos duration in ns, the negative values are recorded as 0
+     */
+    public void record(final long durationNanos) {
+        final long micros = Math.max(0, durationNanos / 1_000L);
+        this.counts.incrementAndGet(indexOf(micros));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(micros);
+        this.max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Returns the bucket of a duration.
+     *
+     * @param micros duration in µs
+     * @return the index of the bucket
+     */
+    static int indexOf(final long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return LINEAR_BUCKETS + (MAX_EXPONENT - LINEAR_EXPONENT) * SUB_BUCKETS - 1;
+        }
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_EXPONENT)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - LINEAR_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the middle of the durations of a bucket.
+     *
+     * @param index index of the bucket
+     * @return the duration in µs
+     */
+    static long valueOf(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        final int offset = index - LINEAR_BUCKETS;
+        final int shift = offset / SUB_BUCKETS + LINEAR_EXPONENT - SUB_BUCKET_EXPONENT;
+        final long lowest = (long) (SUB_BUCKETS + offset % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) / 2;
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return the number of durations
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     *
+     * @return the mean in µs, 0 when no duration is recorded
+     */
+    public double getMeanMicros() {
+        final long total = this.count.get();
+        return total == 0 ? 0 : (double) this.sum.get() / total;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return the longest duration in µs
+     */
+    public long getMaxMicros() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the duration below which a percentage of the recorded durations are.
+     *
+     * @param percentile percentage between 0 and 100
+     * @return the duration in µs, 0 when no duration is recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long cumulated = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            cumulated += this.counts.get(i);
+            if (cumulated >= rank) {
+                return Math.min(valueOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Returns the statistics of the recorded durations.
+     *
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        return new HistogramSnapshot(getCount(), getMeanMicros(), getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9),
+                getMaxMicros());
+    }
+
+}
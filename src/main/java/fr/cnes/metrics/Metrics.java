@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import org.apache.http.HttpHost;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Gives the recorder of the metrics to the instrumented classes.
+ *
+ * The recorder is the first implementation of {@link MetricsRecorder} declared in
+ * META-INF/services, otherwise a recorder which does nothing, and can be replaced at runtime.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public final class Metrics {
+
+    /**
+     * Recorder which does nothing.
+     */
+    public static final MetricsRecorder NOOP = new MetricsRecorder() {
+        /**
+         * Does nothing.
+         *
+         * @param timer measured operation
+         * @param route server of the operation
+         * @param durationNanos duration in ns
+         */
+        @Override
+        public void record(final Timer timer, final String route, final long durationNanos) {
+            // no metrics
+        }
+
+        /**
+         * Does nothing.
+         *
+         * @param route server of the authentication
+         * @param majorCode major code of the GSSException
+         */
+        @Override
+        public void authenticationFailed(final String route, final int majorCode) {
+            // no metrics
+        }
+    };
+
+    /**
+     * Get actual class name to be printed on.
+     */
+    private static final Logger LOG = LogManager.getLogger(Metrics.class.getName());
+
+    /**
+     * Current recorder.
+     */
+    private static volatile MetricsRecorder recorder = load();
+
+    /**
+     * Utility class.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Loads the recorder declared in META-INF/services.
+     *
+     * @return the first declared recorder or {@link #NOOP}
+     */
+    private static MetricsRecorder load() {
+        try {
+            final Iterator<MetricsRecorder> it = ServiceLoader.load(MetricsRecorder.class)
+                    .iterator();
+            if (it.hasNext()) {
+                final MetricsRecorder loaded = it.next();
+                LOG.info("Metrics recorded by {}", loaded.getClass().getName());
+                return loaded;
+            }
+        } catch (ServiceConfigurationError ex) {
+            LOG.warn("Cannot load the metrics recorder : {}", ex.getMessage());
+        }
+        return NOOP;
+    }
+
+    /**
+     * Returns the current recorder.
+     *
+     * @return the recorder
+     */
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Replaces the recorder.
+     *
+     * @param newRecorder recorder or {@code null} to record nothing
+     */
+    public static void setRecorder(final MetricsRecorder newRecorder) {
+        recorder = newRecorder == null ? NOOP : newRecorder;
+    }
+
+    /**
+     * Checks whether the metrics are recorded, so that the measure can be skipped otherwise.
+     *
+     * @return true when the recorder is not {@link #NOOP}
+     */
+    public static boolean isEnabled() {
+        return recorder != NOOP;
+    }
+
+    /**
+     * Records the duration of an operation started at startNanos.
+     *
+     * @param timer measured operation
+     * @param route server of the operation
+     * @param startNanos start time given by {@link System#nanoTime()}
+     */
+    public static void record(final MetricsRecorder.Timer timer, final String route,
+            final long startNanos) {
+        if (recorder != NOOP) {
+            recordDuration(timer, route, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param timer measured operation
+     * @param route server of the operation
+     * @param durationNanos duration in ns
+     */
+    public static void recordDuration(final MetricsRecorder.Timer timer, final String route,
+            final long durationNanos) {
+        final MetricsRecorder current = recorder;
+        if (current != NOOP) {
+            try {
+                current.record(timer, route, durationNanos);
+            } catch (RuntimeException ex) {
+                LOG.warn("Cannot record {} : {}", timer, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Records a failed authentication.
+     *
+     * @param route server of the authentication
+     * @param majorCode major code of the GSSException
+     */
+    public static void authenticationFailed(final String route, final int majorCode) {
+        final MetricsRecorder current = recorder;
+        if (current != NOOP) {
+            try {
+                current.authenticationFailed(route, majorCode);
+            } catch (RuntimeException ex) {
+                LOG.warn("Cannot record the authentication failure : {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the route of the requests to a host.
+     *
+     * @param target target host
+     * @return the URI of the host, "unknown" when target is {@code null}
+     */
+    public static String routeOf(final HttpHost target) {
+        return target == null ? "unknown" : target.toURI();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics recorded by {@link HistogramMetricsRecorder}.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns the statistics of the durations by operation and route. The keys are the name of
+     * the operation followed by a space and the route.
+     *
+     * @return the statistics in µs
+     */
+    Map<String, HistogramSnapshot> getHistograms();
+
+    /**
+     * Returns the number of failed authentications by GSSException major code.
+     *
+     * @return the number of failures by major code name
+     */
+    Map<String, Long> getAuthenticationFailures();
+
+    /**
+     * Forgets the recorded metrics.
+     */
+    void reset();
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+/**
+ * Receives the timings and the authentication failures of the HTTP clients.
+ *
+ * The implementations are called on the request threads, so they must be thread-safe and must
+ * not block. The route identifies the server of the measure: the target of the request, the
+ * service principal name of the proxy for the security contexts or the principal for the logins.
+ *
+ * @author Jean-Christophe Malapert (jean-christophe.malapert@cnes.fr)
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Measured operations.
+     */
+    enum Timer {
+        /**
+         * Login to the KDC, which obtains the TGT.
+         */
+        KDC_LOGIN,
+        /**
+         * First leg of a security context which had to obtain the service ticket from the TGS.
+         * The JDK requests the ticket inside initSecContext, so that the duration includes the
+         * round-trip to the TGS and the generation of the token. It is recorded instead of
+         * INIT_SEC_CONTEXT.
+         */
+        INIT_SEC_CONTEXT_WITH_TGS,
+        /**
+         * Leg of a security context, that is a call to initSecContext, without request to the
+         * TGS.
+         */
+        INIT_SEC_CONTEXT,
+        /**
+         * Round-trip of a request answered by a 407 challenge of the proxy.
+         */
+        PROXY_CHALLENGE,
+        /**
+         * Wait for a connection of the pool.
+         */
+        CONNECTION_LEASE,
+        /**
+         * TLS handshake.
+         */
+        TLS_HANDSHAKE,
+        /**
+         * Request, including the authentication rounds.
+         */
+        REQUEST;
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param timer measured operation
+     * @param route server of the operation
+     * @param durationNanos duration in ns
+     */
+    void record(Timer timer, String route, long durationNanos);
+
+    /**
+     * Records a failed authentication.
+     *
+     * @param route server of the authentication
+     * @param majorCode major code of the GSSException
+     */
+    void authenticationFailed(String route, int majorCode);
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+/**
+ * This package provides the metrics of the HTTP clients and of the GSS clients. It depends on
+ * neither of them, so that both can be instrumented.
+ *
+ * The instrumented classes time the KDC logins, the legs of the security contexts with or
+ * without a request to the TGS, the 407 challenges of the proxy, the waits for a pooled
+ * connection, the TLS handshakes and the requests, and count the failed authentications by
+ * GSSException major code. The measures are given to the {@link fr.cnes.metrics.MetricsRecorder}
+ * returned by {@link fr.cnes.metrics.Metrics}, which records nothing by default.
+ * <p>
+ * {@link fr.cnes.metrics.HistogramMetricsRecorder} keeps a histogram per operation and
+ * route and publishes them as an MXBean. To bind the metrics to a monitoring system such as
+ * Micrometer, implement MetricsRecorder, for instance by recording each measure in a timer
+ * tagged with the operation and the route, and declare the implementation in
+ * META-INF/services/fr.cnes.metrics.MetricsRecorder or give it to
+ * {@link fr.cnes.metrics.Metrics#setRecorder(MetricsRecorder)}.
+ * </p>
+ */
+package fr.cnes.metrics;
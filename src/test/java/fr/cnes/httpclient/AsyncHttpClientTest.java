@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import fr.cnes.httpclient.configuration.ProxyConfig;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
+import fr.cnes.jspnego.AbstractGSSClient;
+import fr.cnes.jspnego.SPNegoTokenPool;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.mockserver.client.server.MockServerClient;
+import org.mockserver.integration.ClientAndProxy;
+import org.mockserver.integration.ClientAndServer;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import org.mockserver.model.Header;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import org.mockserver.verify.VerificationTimes;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class AsyncHttpClientTest {
+
+    private static ClientAndProxy mockServerProxy;
+    private static ClientAndServer mockServerTarget;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public AsyncHttpClientTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        mockServerProxy = ClientAndProxy.startClientAndDirectProxy(1090, "127.0.0.1", 1091);
+        mockServerTarget = startClientAndServer(1091);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        mockServerProxy.stop();
+        mockServerTarget.stop();
+    }
+
+    private void createExpectationForTarget() {
+        new MockServerClient("127.0.0.1", 1091)
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("OK target")
+                );
+    }
+
+    private void verifyProxyRequests(final int times) {
+        new MockServerClient("127.0.0.1", 1090).verify(
+                request()
+                        .withMethod("GET")
+                        .withPath("/")
+                        .withHeaders(
+                                new Header("Host", "127.0.0.1:1091")
+                        ),
+                VerificationTimes.exactly(times)
+        );
+    }
+
+    private void reset() {
+        new MockServerClient("127.0.0.1", 1090).reset();
+        new MockServerClient("127.0.0.1", 1091).reset();
+    }
+
+    /**
+     * Test of execute method through a proxy, of class AsyncHttpClient.
+     */
+    @Test
+    public void testExecuteWithProxy() throws Exception {
+        createExpectationForTarget();
+        final ProxyConfig proxyConfig = ProxyConfig.builder()
+                .setHttpProxy("127.0.0.1:1090")
+                .setNoProxy("")
+                .setUsername("")
+                .setPassword("")
+                .build();
+        try (AsyncHttpClient client = HttpClientFactory.createAsync(proxyConfig, false,
+                new HashMap<>())) {
+            final HttpResponse response = client.execute(new HttpGet("http://127.0.0.1:1091"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("OK target", EntityUtils.toString(response.getEntity()));
+            verifyProxyRequests(1);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Test of execute method with a host of no_proxy, of class AsyncHttpClient.
+     */
+    @Test
+    public void testExecuteWithNoProxy() throws Exception {
+        createExpectationForTarget();
+        final ProxyConfig proxyConfig = ProxyConfig.builder()
+                .setHttpProxy("127.0.0.1:1090")
+                .setNoProxy("127.0.0.1")
+                .setUsername("")
+                .setPassword("")
+                .build();
+        try (AsyncHttpClient client = HttpClientFactory.createAsync(proxyConfig, false,
+                new HashMap<>())) {
+            final HttpResponse response = client.execute(new HttpGet("http://127.0.0.1:1091"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("OK target", EntityUtils.toString(response.getEntity()));
+            verifyProxyRequests(0);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Test of execute method through a proxy authenticated by SPNego, of class AsyncHttpClient.
+     * A request which is not challenged by the proxy, as on a connection already authenticated,
+     * does not take any token. A challenged request prepares its token on a worker thread and is
+     * sent again once.
+     */
+    @Test
+    public void testExecuteWithSPNegoProxy() throws Exception {
+        final ClientAndServer spnegoProxy = startClientAndServer(1092);
+        final ProxySPNegoAPIConfig proxyConfig = ProxySPNegoAPIConfig.builder()
+                .setHttpProxy("127.0.0.1:1092")
+                .setPrincipal("user@EXAMPLE.ORG")
+                .setServiceProviderName("HTTP@localhost")
+                .setKrb5File(krb5File())
+                .setKeyTab(folder.newFile("user.keytab").getAbsolutePath())
+                .build();
+        final Map<String, String> config = new HashMap<>();
+        config.put(AbstractProxySPNegoHttpClient.SPNEGO_TOKEN_POOL_SIZE, "1");
+        try (AsyncHttpClient client = HttpClientFactory.createAsync(proxyConfig, false, config)) {
+            final SPNegoTokenPool tokenPool = client.getTokenPool();
+            spnegoProxy.when(request().withPath("/authenticated"))
+                    .respond(response().withStatusCode(200).withBody("OK target"));
+            HttpResponse response = client.execute(
+                    new HttpGet("http://127.0.0.1:1091/authenticated")).get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(0, tokenPool.getHitCount() + tokenPool.getStarvationCount());
+
+            spnegoProxy.when(request().withPath("/challenged"))
+                    .respond(response().withStatusCode(407)
+                            .withHeader(new Header("Proxy-Authenticate", "Negotiate")));
+            response = client.execute(new HttpGet("http://127.0.0.1:1091/challenged"))
+                    .get(10, TimeUnit.SECONDS);
+            // No KDC : the token cannot be generated and the challenge is returned
+            assertEquals(407, response.getStatusLine().getStatusCode());
+            assertTrue(tokenPool.getHitCount() + tokenPool.getStarvationCount() > 0);
+            spnegoProxy.verify(request().withPath("/challenged"), VerificationTimes.exactly(2));
+        } finally {
+            spnegoProxy.stop();
+        }
+    }
+
+    /**
+     * Test of the pool sizes given by the configuration, of class AsyncHttpClient. Each key is
+     * applied on its own and the limits by host pattern are applied to the routes.
+     */
+    @Test
+    public void testPoolSizes() throws Exception {
+        createExpectationForTarget();
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_MAX_TOTAL, "7");
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE + ".127.0.0.1", "3");
+        try (AsyncHttpClient client = new AsyncHttpClient(false, config)) {
+            final ConfigurableNConnectionManager pool = client.getConnectionPool();
+            assertEquals(7, pool.getMaxTotal());
+            assertEquals(Integer.valueOf(3), pool.getRouteLimits().get("127.0.0.1"));
+            final HttpResponse response = client.execute(new HttpGet("http://127.0.0.1:1091"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(3, pool.getMaxPerRoute(new HttpRoute(new HttpHost("127.0.0.1", 1091))));
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Test of the constructor with an invalid limit of a host pattern, of class AsyncHttpClient.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPoolSize() {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE + ".*.example.org", "0");
+        new AsyncHttpClient(false, config).close();
+    }
+
+    /**
+     * Test of the constructor with an invalid SPNego configuration, of class AsyncHttpClient.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSPNegoConfig() {
+        final ProxySPNegoAPIConfig proxyConfig = ProxySPNegoAPIConfig.builder()
+                .setHttpProxy("")
+                .setPrincipal("")
+                .setServiceProviderName("")
+                .build();
+        HttpClientFactory.createAsync(proxyConfig, false, new HashMap<>()).close();
+    }
+
+    /**
+     * Returns the Kerberos configuration file already used by the JVM, otherwise the one of the
+     * tests, because the JVM rejects a second file.
+     *
+     * @return the Kerberos configuration file
+     */
+    private String krb5File() {
+        final String krb5File = System.getProperty(AbstractGSSClient.JAVA_SECURITY_KRB5_ENV);
+        try {
+            return krb5File == null || krb5File.isEmpty()
+                    ? new File(getClass().getResource("/krb5.conf").toURI()).getAbsolutePath()
+                    : krb5File;
+        } catch (URISyntaxException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
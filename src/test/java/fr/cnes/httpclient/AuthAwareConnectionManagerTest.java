@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class AuthAwareConnectionManagerTest {
+
+    private ServerSocket proxy;
+    private HttpRoute route;
+    private AuthAwareConnectionManager manager;
+
+    public AuthAwareConnectionManagerTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.proxy = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.route = new HttpRoute(new HttpHost("example.org", 80), null,
+                new HttpHost("localhost", this.proxy.getLocalPort()), false);
+        this.manager = new AuthAwareConnectionManager(RegistryBuilder.<ConnectionSocketFactory>
+                create().register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .build(), 1);
+        this.manager.setDefaultMaxPerRoute(4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.manager.shutdown();
+        this.proxy.close();
+    }
+
+    /**
+     * Test of requestConnection method, of class AuthAwareConnectionManager.
+     */
+    @Test
+    public void testLeaseAuthenticatedFirst() throws Exception {
+        final HttpClientConnection cold = lease();
+        final HttpClientConnection warm = lease();
+        final String warmId = ((ManagedHttpClientConnection) warm).getId();
+        this.manager.markAuthenticated(warmId, Long.MAX_VALUE);
+        this.manager.releaseConnection(cold, null, -1, TimeUnit.MILLISECONDS);
+        this.manager.releaseConnection(warm, AuthAwareConnectionManager.AUTHENTICATED_STATE,
+                -1, TimeUnit.MILLISECONDS);
+        final HttpClientConnection leased = lease();
+        assertEquals(warmId, ((ManagedHttpClientConnection) leased).getId());
+        assertEquals(1, this.manager.getWarmLeaseCount());
+        assertEquals(2, this.manager.getColdLeaseCount());
+    }
+
+    /**
+     * Test of closeIdleConnections method, of class AuthAwareConnectionManager.
+     */
+    @Test
+    public void testKeepWarmConnections() throws Exception {
+        final HttpClientConnection cold = lease();
+        final HttpClientConnection warm1 = lease();
+        final HttpClientConnection warm2 = lease();
+        this.manager.markAuthenticated(((ManagedHttpClientConnection) warm1).getId(),
+                Long.MAX_VALUE);
+        this.manager.markAuthenticated(((ManagedHttpClientConnection) warm2).getId(),
+                Long.MAX_VALUE);
+        this.manager.releaseConnection(cold, null, -1, TimeUnit.MILLISECONDS);
+        this.manager.releaseConnection(warm1, AuthAwareConnectionManager.AUTHENTICATED_STATE,
+                -1, TimeUnit.MILLISECONDS);
+        this.manager.releaseConnection(warm2, AuthAwareConnectionManager.AUTHENTICATED_STATE,
+                -1, TimeUnit.MILLISECONDS);
+        this.manager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        assertEquals(1, this.manager.getStats(this.route).getAvailable());
+        assertEquals(1, this.manager.getAuthenticatedCount());
+    }
+
+    /**
+     * Test of closeExpiredConnections method with an expired ticket, of class
+     * AuthAwareConnectionManager.
+     */
+    @Test
+    public void testTicketExpiration() throws Exception {
+        final HttpClientConnection warm = lease();
+        this.manager.markAuthenticated(((ManagedHttpClientConnection) warm).getId(),
+                System.currentTimeMillis() + 50);
+        this.manager.releaseConnection(warm, AuthAwareConnectionManager.AUTHENTICATED_STATE,
+                -1, TimeUnit.MILLISECONDS);
+        assertEquals(1, this.manager.getStats(this.route).getAvailable());
+        Thread.sleep(100);
+        this.manager.closeExpiredConnections();
+        assertEquals(0, this.manager.getStats(this.route).getAvailable());
+        assertEquals(0, this.manager.getAuthenticatedCount());
+    }
+
+    private HttpClientConnection lease() throws Exception {
+        final HttpClientConnection conn = this.manager.requestConnection(this.route, null)
+                .get(1, TimeUnit.SECONDS);
+        if (!conn.isOpen()) {
+            this.manager.connect(conn, this.route, 1000, new BasicHttpContext());
+            this.manager.routeComplete(conn, this.route, new BasicHttpContext());
+        }
+        return conn;
+    }
+
+}
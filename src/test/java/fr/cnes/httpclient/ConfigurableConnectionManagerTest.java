@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class ConfigurableConnectionManagerTest {
+
+    private static final HttpRoute API = new HttpRoute(new HttpHost("api.example.org", 80));
+    private static final HttpRoute OTHER = new HttpRoute(new HttpHost("www.example.org", 80));
+    private static final HttpRoute DEFAULT = new HttpRoute(new HttpHost("example.com", 80));
+
+    private ConfigurableConnectionManager manager;
+
+    public ConfigurableConnectionManagerTest() {
+    }
+
+    @Before
+    public void setUp() {
+        this.manager = new ConfigurableConnectionManager(RegistryBuilder.
+                <ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .build(), -1);
+    }
+
+    @After
+    public void tearDown() {
+        this.manager.shutdown();
+    }
+
+    /**
+     * Test of setMaxPerRoute method with host patterns, of class ConfigurableConnectionManager.
+     */
+    @Test
+    public void testMaxPerRouteByPattern() throws Exception {
+        this.manager.setMaxPerRoute("*.example.org", 5);
+        this.manager.setMaxPerRoute("api.example.org", 50);
+        lease(API);
+        lease(OTHER);
+        lease(DEFAULT);
+        assertEquals(50, this.manager.getMaxPerRoute(API));
+        assertEquals(5, this.manager.getMaxPerRoute(OTHER));
+        assertEquals(this.manager.getDefaultMaxPerRoute(), this.manager.getMaxPerRoute(DEFAULT));
+        assertEquals("api.example.org", this.manager.getRouteLimits().keySet().iterator().next());
+    }
+
+    /**
+     * Test of requestConnection method with many routes, of class ConfigurableConnectionManager.
+     * The routes whose limit is applied are not all remembered.
+     */
+    @Test
+    public void testLimitedRoutesBounded() throws Exception {
+        this.manager.setMaxPerRoute("*.example.org", 5);
+        for (int i = 0; i < 3000; i++) {
+            this.manager.requestConnection(new HttpRoute(new HttpHost("host" + i
+                    + ".example.net")), null).cancel();
+        }
+        assertTrue(this.manager.getLimitedRouteCount() <= 1024);
+        lease(OTHER);
+        assertEquals(5, this.manager.getMaxPerRoute(OTHER));
+    }
+
+    /**
+     * Test of setMaxPerRoute method on the routes already in the pool, of class
+     * ConfigurableConnectionManager.
+     */
+    @Test
+    public void testResizeAtRuntime() throws Exception {
+        final HttpClientConnection conn = lease(API);
+        this.manager.setMaxPerRoute("api.example.org", 8);
+        this.manager.resize(30, 3);
+        assertEquals(8, this.manager.getMaxPerRoute(API));
+        assertEquals(3, this.manager.getDefaultMaxPerRoute());
+        assertEquals(30, this.manager.getMaxTotal());
+        final PoolStats stats = this.manager.getRouteStats().get(API);
+        assertEquals(1, stats.getLeased());
+        assertEquals(0, stats.getAvailable());
+        assertEquals(0, stats.getPending());
+        assertEquals(8, stats.getMax());
+        this.manager.releaseConnection(conn, null, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Test of resize method with an invalid size, of class ConfigurableConnectionManager.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testResizeInvalid() {
+        this.manager.resize(10, 0);
+    }
+
+    /**
+     * Test of the limits given by the configuration, of class HttpClient.
+     */
+    @Test
+    public void testConfig() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE, "4");
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE + ".api.example.org", "40");
+        try (HttpClient client = new HttpClient(false, config)) {
+            final ConfigurableConnectionManager pool = client.getConnectionPool();
+            assertEquals(4, pool.getDefaultMaxPerRoute());
+            assertEquals(Integer.valueOf(40), pool.getRouteLimits().get("api.example.org"));
+        }
+    }
+
+    /**
+     * Test of evictConnections method with idle and stale connections, of class
+     * ConfigurableConnectionManager.
+     */
+    @Test
+    public void testEvictConnections() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            final HttpRoute route = new HttpRoute(new HttpHost("localhost",
+                    server.getLocalPort()));
+            final HttpClientConnection idle = connect(route);
+            final Socket idlePeer = server.accept();
+            final HttpClientConnection stale = connect(route);
+            final Socket stalePeer = server.accept();
+            this.manager.releaseConnection(idle, null, -1, TimeUnit.MILLISECONDS);
+            Thread.sleep(300);
+            this.manager.releaseConnection(stale, null, -1, TimeUnit.MILLISECONDS);
+            stalePeer.close();
+            Thread.sleep(50);
+            this.manager.evictConnections(200, false);
+            assertEquals(1, this.manager.getEvictedCount());
+            assertEquals(1, this.manager.getStats(route).getAvailable());
+            this.manager.evictConnections(60_000, true);
+            assertEquals(1, this.manager.getStaleCount());
+            assertEquals(0, this.manager.getStats(route).getAvailable());
+            idlePeer.close();
+        }
+    }
+
+    /**
+     * Test of evictConnections method while the connections are leased, of class
+     * ConfigurableConnectionManager. The stale check must not read a connection used by a
+     * request.
+     */
+    @Test(timeout = 60_000)
+    public void testEvictConnectionsWhileLeasing() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+                CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(this.manager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(RequestConfig.custom().setSocketTimeout(5000).build())
+                .build()) {
+            executor.execute(() -> serve(server, executor));
+            executor.execute(() -> {
+                while (isRunning.get()) {
+                    this.manager.evictConnections(60_000, true);
+                }
+            });
+            final HttpGet request = new HttpGet("http://localhost:" + server.getLocalPort() + "/");
+            for (int i = 0; i < 500; i++) {
+                try (CloseableHttpResponse response = client.execute(request)) {
+                    assertEquals(200, response.getStatusLine().getStatusCode());
+                    assertEquals("ok", EntityUtils.toString(response.getEntity()));
+                }
+            }
+            assertEquals(0, this.manager.getStaleCount());
+        } finally {
+            isRunning.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test of startEvictor method, of class ConfigurableConnectionManager.
+     */
+    @Test
+    public void testStartEvictor() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_EVICTOR_INTERVAL_MS, "1000");
+        config.put(HttpClient.CONNECTION_STALE_CHECK, "true");
+        try (HttpClient client = new HttpClient(false, config)) {
+            assertTrue(client.getConnectionPool().isEvicting());
+            try {
+                client.getConnectionPool().startEvictor(1000, 1000, false);
+                fail("IllegalStateException expected");
+            } catch (IllegalStateException ex) {
+                assertNotNull(ex.getMessage());
+            }
+        }
+    }
+
+    private static void serve(final ServerSocket server, final ExecutorService executor) {
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                executor.execute(() -> respond(socket));
+            }
+        } catch (IOException ex) {
+            // server closed
+        }
+    }
+
+    private static void respond(final Socket socket) {
+        try (Socket peer = socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        peer.getInputStream(), StandardCharsets.US_ASCII))) {
+            final OutputStream out = peer.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(
+                            StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+            }
+        } catch (IOException ex) {
+            // connection closed
+        }
+    }
+
+    private HttpClientConnection connect(final HttpRoute route) throws Exception {
+        final HttpClientConnection conn = lease(route);
+        this.manager.connect(conn, route, 1000, new BasicHttpContext());
+        this.manager.routeComplete(conn, route, new BasicHttpContext());
+        conn.flush();
+        return conn;
+    }
+
+    private HttpClientConnection lease(final HttpRoute route) throws Exception {
+        return this.manager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+    }
+
+}
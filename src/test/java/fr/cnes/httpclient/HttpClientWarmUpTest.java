@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import com.sun.net.httpserver.HttpServer;
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class HttpClientWarmUpTest {
+
+    private static final Set<Integer> CLIENT_PORTS = ConcurrentHashMap.newKeySet();
+
+    private static HttpServer server;
+
+    private static String url;
+
+    public HttpClientWarmUpTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                0);
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.createContext("/", exchange -> {
+            CLIENT_PORTS.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+    }
+
+    @Before
+    public void setUp() {
+        CLIENT_PORTS.clear();
+    }
+
+    /**
+     * Test of warmUp method, of class HttpClient.
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE, "5");
+        config.put(HttpClient.CONNECTION_MAX_TOTAL, "5");
+        try (HttpClient client = new HttpClient(false, config)) {
+            final WarmUpReport report = client.warmUp(Collections.singletonList(url), 3);
+            assertTrue(report.getFailures().toString(), report.isSuccessful());
+            assertEquals(3, report.getConnectionCount());
+            assertTrue(report.getDuration(WarmUpReport.CONNECTIONS) >= 0);
+            assertEquals(-1, report.getDuration(WarmUpReport.LOGIN));
+            assertEquals(3, CLIENT_PORTS.size());
+        }
+    }
+
+    /**
+     * Test of warmUp method triggered by the configuration, of class HttpClientFactory.
+     */
+    @Test
+    public void testWarmUpFromConfig() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.WARM_UP_URLS, url + ", http://localhost:1/");
+        try (HttpClient client = HttpClientFactory.create(Type.NO_PROXY, false, config)) {
+            assertEquals(1, CLIENT_PORTS.size());
+            final WarmUpReport report = client.warmUp();
+            assertEquals(1, report.getConnectionCount());
+            assertEquals(1, report.getFailures().size());
+            assertEquals(Arrays.asList(WarmUpReport.CONNECTIONS),
+                    Arrays.asList(report.getPhases().keySet().toArray()));
+        }
+    }
+
+    /**
+     * Test of warmUp method with a maximum number of threads, of class HttpClient.
+     */
+    @Test
+    public void testWarmUpThreadsCapped() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.CONNECTION_MAX_PER_ROUTE, "5");
+        config.put(HttpClient.CONNECTION_MAX_TOTAL, "5");
+        config.put(HttpClient.WARM_UP_THREADS, "2");
+        try (HttpClient client = new HttpClient(false, config)) {
+            final WarmUpReport report = client.warmUp(Collections.singletonList(url), 4);
+            assertTrue(report.getFailures().toString(), report.isSuccessful());
+            assertEquals(2, report.getConnectionCount());
+            assertEquals(2, CLIENT_PORTS.size());
+        }
+    }
+
+    /**
+     * Test of warmUp method when the requests do not complete in time, of class HttpClient.
+     */
+    @Test
+    public void testWarmUpTimeout() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.WARM_UP_TIMEOUT_MS, "200");
+        try (HttpClient client = new HttpClient(false, config)) {
+            final long start = System.currentTimeMillis();
+            final WarmUpReport report = client.warmUp(Collections.singletonList(url + "slow"),
+                    2);
+            assertTrue(System.currentTimeMillis() - start < 1500);
+            assertEquals(0, report.getConnectionCount());
+            assertEquals(2, report.getFailures().size());
+            assertTrue(report.getFailures().get(0).endsWith("timed out"));
+        }
+    }
+
+}
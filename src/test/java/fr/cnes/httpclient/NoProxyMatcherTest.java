@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class NoProxyMatcherTest {
+
+    public NoProxyMatcherTest() {
+    }
+
+    /**
+     * Test of matches method with exact hosts, of class NoProxyMatcher.
+     */
+    @Test
+    public void testExactHost() {
+        final NoProxyMatcher matcher = NoProxyMatcher.compile("localhost, www.example.org,,");
+        assertTrue(matcher.matches("localhost"));
+        assertTrue(matcher.matches("WWW.Example.ORG"));
+        assertFalse(matcher.matches("example.org"));
+        assertFalse(matcher.matches("a.www.example.org"));
+    }
+
+    /**
+     * Test of matches method with domains, of class NoProxyMatcher.
+     */
+    @Test
+    public void testDomain() {
+        final NoProxyMatcher matcher = NoProxyMatcher.compile(Arrays.asList(".example.org",
+                "*.cnes.fr"));
+        assertTrue(matcher.matches("example.org"));
+        assertTrue(matcher.matches("www.example.org"));
+        assertTrue(matcher.matches("a.b.example.org"));
+        assertFalse(matcher.matches("badexample.org"));
+        assertFalse(matcher.matches("cnes.fr"));
+        assertTrue(matcher.matches("www.cnes.fr"));
+        assertFalse(matcher.matches("www.cnes.fr.example.com"));
+    }
+
+    /**
+     * Test of matches method with IP ranges, of class NoProxyMatcher.
+     */
+    @Test
+    public void testIpRange() {
+        final NoProxyMatcher matcher = NoProxyMatcher.compile(
+                "10.0.0.0/8, 192.168.1.*, 172.16.0.1, fd00::/8, ::1");
+        assertTrue(matcher.matches("10.1.2.3"));
+        assertFalse(matcher.matches("11.1.2.3"));
+        assertTrue(matcher.matches("192.168.1.42"));
+        assertFalse(matcher.matches("192.168.2.42"));
+        assertTrue(matcher.matches("172.16.0.1"));
+        assertFalse(matcher.matches("172.16.0.2"));
+        assertTrue(matcher.matches("fd12:3456::1"));
+        assertTrue(matcher.matches("[0:0:0:0:0:0:0:1]"));
+        assertFalse(matcher.matches("fe80::1"));
+    }
+
+    /**
+     * Test of matches method with patterns, of class NoProxyMatcher.
+     */
+    @Test
+    public void testPattern() {
+        assertTrue(NoProxyMatcher.compile("*").matches("www.example.org"));
+        final NoProxyMatcher matcher = NoProxyMatcher.compile("build-*.example.org");
+        assertTrue(matcher.matches("build-01.example.org"));
+        assertFalse(matcher.matches("test-01.example.org"));
+    }
+
+    /**
+     * Test of compile method with an invalid range, of class NoProxyMatcher.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        NoProxyMatcher.compile("10.0.0.0/33");
+    }
+
+}
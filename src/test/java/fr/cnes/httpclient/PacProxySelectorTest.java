@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class PacProxySelectorTest {
+
+    private static final String SCRIPT = "function FindProxyForURL(url, host) {\n"
+            + "    if (isPlainHostName(host) || dnsDomainIs(host, \".intranet.example.org\")) {\n"
+            + "        return \"DIRECT\";\n"
+            + "    }\n"
+            + "    if (shExpMatch(url, \"https://*\")) {\n"
+            + "        return \"PROXY secure.example.org:3129\";\n"
+            + "    }\n"
+            + "    return \"PROXY proxy1.example.org:3128; PROXY proxy2.example.org:3128\";\n"
+            + "}";
+
+    public PacProxySelectorTest() {
+    }
+
+    /**
+     * Test of parse method, of class PacProxySelector.
+     */
+    @Test
+    public void testParse() {
+        final List<Proxy> proxies = PacProxySelector.parse(
+                "PROXY proxy.example.org:3128; socks socks.example.org;HTTPS secure.example.org;"
+                + " DIRECT");
+        assertEquals(3, proxies.size());
+        assertEquals(new Proxy(Proxy.Type.HTTP,
+                InetSocketAddress.createUnresolved("proxy.example.org", 3128)), proxies.get(0));
+        assertEquals(new Proxy(Proxy.Type.SOCKS,
+                InetSocketAddress.createUnresolved("socks.example.org", 1080)), proxies.get(1));
+        assertEquals(Proxy.NO_PROXY, proxies.get(2));
+        assertEquals(Proxy.NO_PROXY, PacProxySelector.parse(" ").get(0));
+    }
+
+    /**
+     * Test of parse method with malformed ports, of class PacProxySelector.
+     */
+    @Test
+    public void testParseMalformedPort() {
+        final List<Proxy> proxies = PacProxySelector.parse(
+                "PROXY bad.example.org:80a; PROXY far.example.org:70000;"
+                + " PROXY proxy.example.org:3128");
+        assertEquals(1, proxies.size());
+        assertEquals(new Proxy(Proxy.Type.HTTP,
+                InetSocketAddress.createUnresolved("proxy.example.org", 3128)), proxies.get(0));
+        assertEquals(Proxy.NO_PROXY, PacProxySelector.parse("PROXY bad.example.org:80a").get(0));
+    }
+
+    /**
+     * Test of select method with the cache, of class PacProxySelector.
+     */
+    @Test
+    public void testSelectCached() {
+        final PacProxySelector selector = new PacProxySelector(SCRIPT,
+                PacProxySelector.DEFAULT_CACHE_SIZE, PacProxySelector.DEFAULT_CACHE_TTL_MS,
+                PacProxySelector.DEFAULT_RETRY_MS);
+        assertEquals(Proxy.NO_PROXY, selector.select(URI.create("http://intranet/")).get(0));
+        assertEquals(Proxy.NO_PROXY, selector.select(
+                URI.create("http://wiki.intranet.example.org/page")).get(0));
+        assertEquals("secure.example.org", ((InetSocketAddress) selector.select(
+                URI.create("https://www.example.org/")).get(0).address()).getHostString());
+        final List<Proxy> proxies = selector.select(URI.create("http://www.example.org/a"));
+        assertEquals(2, proxies.size());
+        assertSame(proxies, selector.select(URI.create("http://www.example.org/b")));
+        assertEquals(4, selector.getEvaluationCount());
+        assertEquals(1, selector.getHitCount());
+        assertEquals(4, selector.size());
+        selector.invalidate();
+        assertEquals(0, selector.size());
+    }
+
+    /**
+     * Test of connectFailed method, of class PacProxySelector.
+     */
+    @Test
+    public void testConnectFailed() {
+        final PacProxySelector selector = new PacProxySelector(SCRIPT, 0,
+                PacProxySelector.DEFAULT_CACHE_TTL_MS, PacProxySelector.DEFAULT_RETRY_MS);
+        final URI uri = URI.create("http://www.example.org/");
+        final Proxy first = selector.select(uri).get(0);
+        selector.connectFailed(uri, first.address(), new IOException("Connection refused"));
+        final List<Proxy> proxies = selector.select(uri);
+        assertEquals(first, proxies.get(1));
+        assertEquals("proxy2.example.org",
+                ((InetSocketAddress) proxies.get(0).address()).getHostString());
+        assertEquals(0, selector.size());
+    }
+
+    /**
+     * Test of the constructor with an invalid script, of class PacProxySelector.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidScript() {
+        new PacProxySelector("function FindProxyForURL(url, host) {", 0, 0, 0);
+    }
+
+    /**
+     * Test of the constructor without FindProxyForURL, of class PacProxySelector.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFunction() {
+        new PacProxySelector("var proxy = \"DIRECT\";", 0, 0, 0);
+    }
+
+}
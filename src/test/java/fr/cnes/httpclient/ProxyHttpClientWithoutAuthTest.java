@@ -20,8 +20,10 @@
  */
 package fr.cnes.httpclient;
 
+import fr.cnes.httpclient.configuration.ProxyConfig;
 import fr.cnes.httpclient.configuration.ProxyConfiguration;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -161,5 +163,64 @@ public class ProxyHttpClientWithoutAuthTest {
         verifyGetRequestReset();
         assertTrue(response.getStatusLine().getStatusCode() == 200 && content.equals("OK target"));
     }    
+
+    @Test
+    public void testSomeMethodWithProxyConfig() throws IOException {
+        createExpectationForTarget();
+        createExpectationForAuth();
+        final String globalProxy = ProxyConfiguration.HTTP_PROXY.getValue();
+        ProxyConfiguration.HTTP_PROXY.setValue("");
+        try {
+            ProxyConfig proxyConfig = ProxyConfig.builder()
+                    .setHttpProxy("127.0.0.1:1080")
+                    .setNoProxy("")
+                    .setUsername("")
+                    .setPassword("")
+                    .build();
+            HttpClient client = HttpClientFactory.create(proxyConfig, false, new HashMap<>());
+            HttpResponse response = client.execute(new HttpGet("http://127.0.0.1:1081"));
+            HttpEntity entity = response.getEntity();
+            String content = EntityUtils.toString(entity);
+            client.close();
+            verifyGetRequest();
+            verifyGetRequestReset();
+            assertTrue(response.getStatusLine().getStatusCode() == 200 && content.equals("OK target"));
+            assertEquals("", ProxyConfiguration.HTTP_PROXY.getValue());
+        } finally {
+            ProxyConfiguration.HTTP_PROXY.setValue(globalProxy);
+            new MockServerClient("127.0.0.1", 1081).reset();
+        }
+    }
+
+    @Test
+    public void testFailoverToAnotherProxy() throws IOException {
+        createExpectationForTarget();
+        createExpectationForAuth();
+        final String globalProxy = ProxyConfiguration.HTTP_PROXY.getValue();
+        ProxyConfiguration.HTTP_PROXY.setValue("");
+        try {
+            ProxyConfig proxyConfig = ProxyConfig.builder()
+                    .setHttpProxy("127.0.0.1:1, 127.0.0.1:1080")
+                    .setNoProxy("")
+                    .setUsername("")
+                    .setPassword("")
+                    .build();
+            AbstractProxyHttpClient client = (AbstractProxyHttpClient) HttpClientFactory.create(
+                    proxyConfig, false, new HashMap<>());
+            HttpResponse response = client.execute(new HttpGet("http://127.0.0.1:1081"));
+            String content = EntityUtils.toString(response.getEntity());
+            ProxyPool pool = client.getRoutePlanner().getProxyPool();
+            client.close();
+            verifyGetRequest();
+            verifyGetRequestReset();
+            assertTrue(response.getStatusLine().getStatusCode() == 200 && content.equals("OK target"));
+            assertFalse(pool.getMembers().get(0).isAvailable());
+            assertTrue(pool.getMembers().get(1).isAvailable());
+            assertEquals(0, pool.getMembers().get(1).getOutstanding());
+        } finally {
+            ProxyConfiguration.HTTP_PROXY.setValue(globalProxy);
+            new MockServerClient("127.0.0.1", 1081).reset();
+        }
+    }
     
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.HttpHostConnectException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class ProxyPoolTest {
+
+    private static final List<HttpHost> PROXIES = ProxyPool.parse(
+            "proxy1.example.org:3128, proxy2.example.org:3128");
+
+    public ProxyPoolTest() {
+    }
+
+    /**
+     * Test of parse method, of class ProxyPool.
+     */
+    @Test
+    public void testParse() {
+        assertEquals(2, PROXIES.size());
+        assertEquals(new HttpHost("proxy2.example.org", 3128), PROXIES.get(1));
+        assertEquals(new HttpHost("proxy.example.org"), ProxyPool.parse("proxy.example.org").
+                get(0));
+    }
+
+    /**
+     * Test of select method, of class ProxyPool.
+     */
+    @Test
+    public void testSelectLowestCost() {
+        try (ProxyPool pool = new ProxyPool(PROXIES, 3, 60_000L, 0)) {
+            final ProxyPool.Member first = pool.select();
+            final ProxyPool.Member second = pool.select();
+            assertNotSame(first, second);
+            first.succeeded(50_000_000L);
+            second.succeeded(1_000_000L);
+            for (int i = 0; i < 4; i++) {
+                final ProxyPool.Member member = pool.select();
+                assertSame(second, member);
+                member.succeeded(1_000_000L);
+            }
+            assertEquals(50, first.getLatencyMs(), 1e-9);
+        }
+    }
+
+    /**
+     * Test of failed method, of class ProxyPool.Member.
+     */
+    @Test
+    public void testEjection() throws InterruptedException {
+        try (ProxyPool pool = new ProxyPool(PROXIES, 2, 60_000L, 0)) {
+            final ProxyPool.Member member = pool.getMembers().get(0);
+            member.failed(new IOException("reset"));
+            assertTrue(member.isAvailable());
+            member.failed(new IOException("reset"));
+            assertFalse(member.isAvailable());
+            assertEquals(1, pool.getAvailableCount());
+            Thread.sleep(10);
+            final ProxyPool.Member selected = pool.select();
+            assertSame(pool.getMembers().get(1), selected);
+            selected.failed(new HttpHostConnectException(new ConnectException(),
+                    selected.getProxy()));
+            assertEquals(0, pool.getAvailableCount());
+            assertSame(member, pool.select());
+            assertEquals(1, member.getEjectionCount());
+        }
+    }
+
+    /**
+     * Test of the re-admission of an ejected proxy, of class ProxyPool.
+     */
+    @Test
+    public void testReadmission() throws InterruptedException {
+        try (ProxyPool pool = new ProxyPool(PROXIES, 1, 50L, 0)) {
+            final ProxyPool.Member member = pool.getMembers().get(0);
+            member.failed(new IOException("reset"));
+            assertFalse(member.isAvailable());
+            Thread.sleep(100);
+            assertTrue(member.isAvailable());
+            member.failed(new IOException("reset"));
+            assertFalse(member.isAvailable());
+            assertEquals(2, member.getEjectionCount());
+        }
+    }
+
+    /**
+     * Test of the constructor with an invalid configuration, of class ProxyPool.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new ProxyPool(PROXIES, 0, 60_000L, 0);
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.message.BasicHttpRequest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class ProxyRoutePlannerTest {
+
+    private static final HttpHost PROXY = new HttpHost("proxy.example.org", 3128);
+
+    private static final HttpRequest REQUEST = new BasicHttpRequest("GET", "/");
+
+    public ProxyRoutePlannerTest() {
+    }
+
+    /**
+     * Test of determineRoute method with the cache, of class ProxyRoutePlanner.
+     */
+    @Test
+    public void testDetermineRouteCached() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"));
+        final HttpRoute route = planner.determineRoute(new HttpHost("www.example.org", 80,
+                "http"), REQUEST, HttpClientContext.create());
+        assertEquals(PROXY, route.getProxyHost());
+        assertSame(route, planner.determineRoute(new HttpHost("www.example.org", 80, "http"),
+                REQUEST, HttpClientContext.create()));
+        final HttpRoute direct = planner.determineRoute(new HttpHost("localhost", 8080),
+                REQUEST, HttpClientContext.create());
+        assertNull(direct.getProxyHost());
+        assertEquals(1, planner.getHitCount());
+        assertEquals(2, planner.getMissCount());
+        assertEquals(1.0 / 3, planner.getHitRate(), 1e-9);
+        assertEquals(2, planner.size());
+    }
+
+    /**
+     * Test of determineRoute method with a proxy in the request config, of class
+     * ProxyRoutePlanner.
+     */
+    @Test
+    public void testDetermineRouteWithOverride() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"));
+        final HttpHost host = new HttpHost("www.example.org", 443, "https");
+        planner.determineRoute(host, REQUEST, HttpClientContext.create());
+        final HttpHost other = new HttpHost("other.example.org", 8080);
+        final HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom().setProxy(other).build());
+        assertEquals(other, planner.determineRoute(host, REQUEST, context).getProxyHost());
+        assertEquals(0, planner.getHitCount());
+        planner.invalidate();
+        assertEquals(0, planner.size());
+    }
+
+    /**
+     * Test of determineRoute method when the cache is full, of class ProxyRoutePlanner.
+     */
+    @Test
+    public void testEviction() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"), 2);
+        for (int i = 0; i < 5; i++) {
+            planner.determineRoute(new HttpHost("host" + i + ".example.org"), REQUEST,
+                    HttpClientContext.create());
+        }
+        assertEquals(2, planner.size());
+        assertEquals(3, planner.getEvictionCount());
+    }
+
+    /**
+     * Test of determineRoute method when the cache is full, of class ProxyRoutePlanner. The
+     * route used since the last eviction is kept.
+     */
+    @Test
+    public void testEvictionKeepsRecentRoute() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"), 2);
+        final HttpHost recent = new HttpHost("recent.example.org");
+        final HttpRoute route = planner.determineRoute(recent, REQUEST,
+                HttpClientContext.create());
+        for (int i = 0; i < 5; i++) {
+            assertSame(route, planner.determineRoute(recent, REQUEST, HttpClientContext.create()));
+            planner.determineRoute(new HttpHost("host" + i + ".example.org"), REQUEST,
+                    HttpClientContext.create());
+        }
+        assertEquals(2, planner.size());
+        assertEquals(5, planner.getHitCount());
+    }
+
+    /**
+     * Test of determineRoute method from several threads, of class ProxyRoutePlanner. The cache
+     * never exceeds its size.
+     */
+    @Test
+    public void testCacheBoundedConcurrently() throws Exception {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"), 8);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final AtomicInteger maxSize = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    planner.determineRoute(new HttpHost("host" + (i % 64) + ".example.org"),
+                            REQUEST, HttpClientContext.create());
+                    maxSize.accumulateAndGet(planner.size(), Math::max);
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(maxSize.get() <= 8);
+    }
+
+    /**
+     * Test of determineRoute method for a host of no_proxy when the proxies are selected in a
+     * pool, of class ProxyRoutePlanner. The exclusion is cached.
+     */
+    @Test
+    public void testExcludedHostCachedWhenSelecting() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(new ProxyPool(Arrays.asList(
+                PROXY, new HttpHost("proxy2.example.org", 3128)), 3, 60_000L, 0),
+                Arrays.asList("localhost"), ProxyRoutePlanner.DEFAULT_CACHE_SIZE);
+        assertTrue(planner.isSelecting());
+        final HttpClientContext context = HttpClientContext.create();
+        final HttpRoute direct = planner.determineRoute(new HttpHost("localhost", 8080), REQUEST,
+                context);
+        assertNull(direct.getProxyHost());
+        assertNull(context.getAttribute(ProxyPool.SELECTED_PROXY));
+        assertSame(direct, planner.determineRoute(new HttpHost("localhost", 8080), REQUEST,
+                HttpClientContext.create()));
+        assertEquals(1, planner.getHitCount());
+        assertNotNull(planner.determineRoute(new HttpHost("www.example.org"), REQUEST,
+                HttpClientContext.create()).getProxyHost());
+        planner.getProxyPool().close();
+    }
+
+    /**
+     * Test of determineRoute method without cache, of class ProxyRoutePlanner.
+     */
+    @Test
+    public void testCacheDisabled() throws HttpException {
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(PROXY,
+                Arrays.asList("localhost"), 0);
+        planner.determineRoute(new HttpHost("www.example.org"), REQUEST,
+                HttpClientContext.create());
+        assertEquals(0, planner.size());
+        assertEquals(0, planner.getMissCount());
+        assertEquals(0, planner.getHitRate(), 0);
+    }
+
+    /**
+     * Test of determineRoute method with a PAC selector, of class ProxyRoutePlanner.
+     */
+    @Test
+    public void testDetermineRouteWithSelector() throws HttpException {
+        final PacProxySelector selector = new PacProxySelector(
+                "function FindProxyForURL(url, host) {\n"
+                + "    if (host == \"direct.example.org\") return \"DIRECT\";\n"
+                + "    return \"PROXY p1.example.org:3128; PROXY p2.example.org:3128\";\n"
+                + "}", PacProxySelector.DEFAULT_CACHE_SIZE, PacProxySelector.DEFAULT_CACHE_TTL_MS,
+                PacProxySelector.DEFAULT_RETRY_MS);
+        final ProxyRoutePlanner planner = new ProxyRoutePlanner(new ProxyPool(PROXY), selector,
+                Arrays.asList("localhost"), ProxyRoutePlanner.DEFAULT_CACHE_SIZE);
+        assertTrue(planner.isSelecting());
+        assertNull(planner.determineRoute(new HttpHost("direct.example.org"), REQUEST,
+                HttpClientContext.create()).getProxyHost());
+        final HttpHost host = new HttpHost("www.example.org");
+        final HttpClientContext context = HttpClientContext.create();
+        final HttpHost first = planner.determineRoute(host, REQUEST, context).getProxyHost();
+        assertEquals(new HttpHost("p1.example.org", 3128), first);
+        assertTrue(planner.isProxy(first));
+        assertTrue(planner.failed(context, new ConnectTimeoutException()));
+        assertEquals(new HttpHost("p2.example.org", 3128),
+                planner.determineRoute(host, REQUEST, context).getProxyHost());
+        assertFalse(planner.failed(context, new ConnectTimeoutException()));
+        assertNull(context.getAttribute(ProxyRoutePlanner.TRIED_PROXIES));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class SSLContextCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public SSLContextCacheTest() {
+    }
+
+    /**
+     * Test of get method, of class SSLContextCache.
+     */
+    @Test
+    public void testGetShared() throws Exception {
+        final File trustStore = createTrustStore();
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.TRUSTSTORE_TYPE, "JKS");
+        config.put(HttpClient.TRUSTSTORE_PATH, trustStore.getAbsolutePath());
+        config.put(HttpClient.TRUSTSTORE_PWD, "changeit");
+        final SSLContextCache cache = new SSLContextCache();
+        final SSLContext sslContext = cache.get(config);
+        assertNotNull(sslContext);
+        assertSame(sslContext, cache.get(new HashMap<>(config)));
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(1, cache.getHitCount());
+        config.put(HttpClient.TRUSTSTORE_PWD, "other");
+        assertNotSame(sslContext, cache.get(config));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test of get method after a change of the store, of class SSLContextCache.
+     */
+    @Test
+    public void testGetReloaded() throws Exception {
+        final File trustStore = createTrustStore();
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.TRUSTSTORE_TYPE, "JKS");
+        config.put(HttpClient.TRUSTSTORE_PATH, trustStore.getAbsolutePath());
+        config.put(HttpClient.TRUSTSTORE_PWD, "changeit");
+        final SSLContextCache cache = new SSLContextCache();
+        final SSLContext sslContext = cache.get(config);
+        assertTrue(trustStore.setLastModified(trustStore.lastModified() - 60_000L));
+        assertNotSame(sslContext, cache.get(config));
+        assertEquals(2, cache.getLoadCount());
+        assertEquals(1, cache.size());
+        cache.invalidate();
+        assertEquals(0, cache.size());
+    }
+
+    private File createTrustStore() throws Exception {
+        final KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(null, null);
+        final File file = this.folder.newFile("truststore.jks");
+        try (OutputStream output = new FileOutputStream(file)) {
+            ks.store(output, "changeit".toCharArray());
+        }
+        return file;
+    }
+
+}
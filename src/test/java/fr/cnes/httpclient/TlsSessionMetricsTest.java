@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class TlsSessionMetricsTest {
+
+    private static HttpsServer server;
+
+    private static String truststore;
+
+    public TlsSessionMetricsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream input = TlsSessionMetricsTest.class.getResourceAsStream(
+                "/tls-server.p12")) {
+            ks.load(input, "changeit".toCharArray());
+        }
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, "changeit".toCharArray());
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        truststore = TlsSessionMetricsTest.class.getResource("/tls-server.p12").getPath();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+    }
+
+    private static Map<String, String> config(final String sessionCacheSize) {
+        final Map<String, String> config = new HashMap<>();
+        config.put(HttpClient.TRUSTSTORE_TYPE, "PKCS12");
+        config.put(HttpClient.TRUSTSTORE_PATH, truststore);
+        config.put(HttpClient.TRUSTSTORE_PWD, "changeit");
+        config.put(HttpClient.TLS_SESSION_CACHE_SIZE, sessionCacheSize);
+        return config;
+    }
+
+    private static HttpGet request() {
+        final HttpGet get = new HttpGet("https://localhost:" + server.getAddress().getPort()
+                + "/");
+        get.setHeader("Connection", "close");
+        return get;
+    }
+
+    /**
+     * Test of the TLS session resumption between two clients, of class TlsSessionMetrics.
+     */
+    @Test
+    public void testResumption() throws Exception {
+        final Map<String, String> config = config("100");
+        try (HttpClient first = new HttpClient(false, config);
+                HttpClient second = new HttpClient(false, config)) {
+            EntityUtils.consumeQuietly(first.execute(request()).getEntity());
+            EntityUtils.consumeQuietly(first.execute(request()).getEntity());
+            EntityUtils.consumeQuietly(second.execute(request()).getEntity());
+            assertEquals(1, first.getTlsSessionMetrics().getFullHandshakeCount());
+            assertEquals(1, first.getTlsSessionMetrics().getResumedHandshakeCount());
+            assertEquals(0, second.getTlsSessionMetrics().getFullHandshakeCount());
+            assertEquals(1.0, second.getTlsSessionMetrics().getResumptionRate(), 0);
+        }
+    }
+
+    /**
+     * Test of the TLS session resumption of the asynchronous client, of class
+     * TlsSessionMetrics.
+     */
+    @Test
+    public void testResumptionAsync() throws Exception {
+        try (AsyncHttpClient client = new AsyncHttpClient(Type.NO_PROXY, false, config("101"))) {
+            for (int i = 0; i < 2; i++) {
+                final HttpResponse response = client.execute(request()).get(10, TimeUnit.SECONDS);
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            assertEquals(1, client.getTlsSessionMetrics().getFullHandshakeCount());
+            assertEquals(1, client.getTlsSessionMetrics().getResumedHandshakeCount());
+        }
+    }
+
+}
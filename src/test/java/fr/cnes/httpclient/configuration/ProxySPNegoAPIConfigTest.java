@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.httpclient.configuration;
+
+import fr.cnes.httpclient.UnitTest;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class ProxySPNegoAPIConfigTest {
+
+    public ProxySPNegoAPIConfigTest() {
+    }
+
+    /**
+     * Test of builder method, of class ProxySPNegoAPIConfig.
+     */
+    @Test
+    public void testBuilderDefaults() {
+        ProxySPNegoAPIConfig result = ProxySPNegoAPIConfig.builder().build();
+        assertEquals(ProxySPNegoAPIConfiguration.getConfig(), result.getConfig());
+    }
+
+    /**
+     * Test of the builder setters, of class ProxySPNegoAPIConfig.
+     */
+    @Test
+    public void testBuilderDoesNotChangeEnum() {
+        String globalPrincipal = ProxySPNegoAPIConfiguration.PRINCIPAL.getValue();
+        ProxySPNegoAPIConfig tenant1 = ProxySPNegoAPIConfig.builder()
+                .setPrincipal("tenant1@EXAMPLE.ORG")
+                .setKeyTab("/tmp/tenant1.keytab")
+                .build();
+        ProxySPNegoAPIConfig tenant2 = ProxySPNegoAPIConfig.builder()
+                .setPrincipal("tenant2@EXAMPLE.ORG")
+                .build();
+        assertEquals("tenant1@EXAMPLE.ORG", tenant1.getValue(ProxySPNegoAPIConfiguration.PRINCIPAL));
+        assertEquals("true", tenant1.getValue(ProxySPNegoAPIConfiguration.USE_KEYTAB));
+        assertEquals("/tmp/tenant1.keytab", tenant1.getValue(ProxySPNegoAPIConfiguration.KEY_TAB));
+        assertEquals("tenant2@EXAMPLE.ORG", tenant2.getValue(ProxySPNegoAPIConfiguration.PRINCIPAL));
+        assertEquals("", tenant2.getValue(ProxySPNegoAPIConfiguration.KEY_TAB));
+        assertEquals(globalPrincipal, ProxySPNegoAPIConfiguration.PRINCIPAL.getValue());
+    }
+
+    /**
+     * Test of getConfig method, of class ProxySPNegoAPIConfig.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetConfigIsUnmodifiable() {
+        ProxySPNegoAPIConfig.builder().build().getConfig().put("spn", "HTTP@localhost");
+    }
+
+    /**
+     * Test of from method, of class ProxySPNegoAPIConfig.
+     */
+    @Test
+    public void testFrom() {
+        Map<String, String> config = new HashMap<>();
+        config.put("spn", "HTTP@localhost");
+        config.put("maxRetry", "3");
+        ProxySPNegoAPIConfig result = ProxySPNegoAPIConfig.from(config);
+        assertEquals("HTTP@localhost",
+                result.getValue(ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME));
+        assertFalse(result.getConfig().containsKey("maxRetry"));
+        assertEquals(ProxySPNegoAPIConfiguration.values().length, result.getConfig().size());
+    }
+
+    /**
+     * Test of isValid method, of class ProxySPNegoAPIConfig.
+     */
+    @Test
+    public void testIsValid() {
+        StringBuilder error = new StringBuilder();
+        ProxySPNegoAPIConfig result = ProxySPNegoAPIConfig.builder()
+                .setHttpProxy("")
+                .build();
+        assertFalse(result.isValid(error));
+        assertTrue(error.toString().contains("http_proxy"));
+    }
+
+}
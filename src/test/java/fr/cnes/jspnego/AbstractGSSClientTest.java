@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.UnitTest;
+import java.io.File;
+import java.net.URISyntaxException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class AbstractGSSClientTest {
+
+    public AbstractGSSClientTest() {
+    }
+
+    /**
+     * Test of useKrb5File and checkKrb5File methods, of class AbstractGSSClient.
+     */
+    @Test
+    public void testSecondKrb5FileRejected() throws URISyntaxException {
+        String krb5File = System.getProperty(AbstractGSSClient.JAVA_SECURITY_KRB5_ENV);
+        if (krb5File == null || krb5File.isEmpty()) {
+            krb5File = new File(getClass().getResource("/krb5.conf").toURI()).getAbsolutePath();
+        }
+        AbstractGSSClient.useKrb5File(krb5File);
+        assertEquals(krb5File, System.getProperty(AbstractGSSClient.JAVA_SECURITY_KRB5_ENV));
+        AbstractGSSClient.checkKrb5File(krb5File);
+        try {
+            AbstractGSSClient.checkKrb5File(krb5File + ".other");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains(krb5File + ".other"));
+        }
+        try {
+            AbstractGSSClient.useKrb5File(krb5File + ".other");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            assertEquals(krb5File, System.getProperty(AbstractGSSClient.JAVA_SECURITY_KRB5_ENV));
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.UnitTest;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import java.util.Collections;
+import java.util.Map;
+import org.ietf.jgss.GSSException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNoException;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class GSSTargetTest {
+
+    private static final String REALM = "java.security.krb5.realm";
+
+    private static final String KDC = "java.security.krb5.kdc";
+
+    public GSSTargetTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        // the SPN cannot be canonicalized without a default realm, the properties are ignored
+        // when the Kerberos configuration has already been loaded by another test
+        System.setProperty(REALM, "EXAMPLE.ORG");
+        System.setProperty(KDC, "localhost");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        System.clearProperty(REALM);
+        System.clearProperty(KDC);
+    }
+
+    @After
+    public void tearDown() {
+        GSSTarget.clearCache();
+    }
+
+    /**
+     * Test of forSPN method through the GSS clients created for each scheme, of class GSSTarget.
+     */
+    @Test
+    public void testTargetSharedByClients() throws GSSException {
+        try {
+            GSSTarget.forSPN("HTTP@localhost");
+        } catch (GSSException ex) {
+            assumeNoException("No default Kerberos realm", ex);
+        }
+        final Map<String, String> config = Collections.singletonMap(
+                ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey(), "HTTP@localhost");
+        final AbstractGSSClient first = GSSClientFactory.create(Type.PROXY_SPNEGO_API, config);
+        final AbstractGSSClient second = GSSClientFactory.create(Type.PROXY_SPNEGO_API, config);
+        assertNotSame(first, second);
+        assertSame(first.getTarget(), second.getTarget());
+        assertSame(first.getTarget(), GSSTarget.forSPN("HTTP@localhost"));
+
+        final Map<String, String> other = Collections.singletonMap(
+                ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.getKey(), "HTTP@127.0.0.1");
+        assertNotSame(first.getTarget(),
+                GSSClientFactory.create(Type.PROXY_SPNEGO_API, other).getTarget());
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.UnitTest;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfig;
+import java.security.Security;
+import java.util.Map;
+import javax.security.auth.login.AppConfigurationEntry;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class KerberosConfigurationTest {
+
+    public KerberosConfigurationTest() {
+    }
+
+    /**
+     * Test of initialize method with two principals, of class KerberosConfiguration.
+     */
+    @Test
+    public void testInitializePerInstance() {
+        final String provider = Security.getProperty("login.configuration.provider");
+        final KerberosConfiguration tenant1 = new KerberosConfiguration();
+        tenant1.initialize(ProxySPNegoAPIConfig.builder()
+                .setHttpProxy("127.0.0.1:1080")
+                .setPrincipal("tenant1@EXAMPLE.ORG")
+                .build().getConfig());
+        final KerberosConfiguration tenant2 = new KerberosConfiguration();
+        tenant2.initialize(ProxySPNegoAPIConfig.builder()
+                .setPrincipal("tenant2@EXAMPLE.ORG")
+                .build().getConfig());
+
+        final AppConfigurationEntry[] entries = tenant1.getAppConfigurationEntry("other");
+        assertEquals(1, entries.length);
+        final Map<String, ?> options = entries[0].getOptions();
+        assertEquals("tenant1@EXAMPLE.ORG", options.get("principal"));
+        assertFalse(options.containsKey("http_proxy"));
+        assertEquals("tenant2@EXAMPLE.ORG",
+                tenant2.getAppConfigurationEntry("other")[0].getOptions().get("principal"));
+        assertEquals(provider, Security.getProperty("login.configuration.provider"));
+    }
+
+    /**
+     * Test of getAppConfigurationEntry method before initialize, of class KerberosConfiguration.
+     */
+    @Test
+    public void testNotInitialized() {
+        assertNull(new KerberosConfiguration().getAppConfigurationEntry("other"));
+    }
+
+}
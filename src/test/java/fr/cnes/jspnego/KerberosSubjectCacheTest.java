@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.UnitTest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.RefreshFailedException;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.ietf.jgss.GSSException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class KerberosSubjectCacheTest {
+
+    private static final KerberosSubjectCache.Key KEY = new KerberosSubjectCache.Key(
+            "test@EXAMPLE.ORG", "other", "/etc/krb5.conf");
+
+    public KerberosSubjectCacheTest() {
+    }
+
+    @Before
+    public void setUp() {
+        KerberosSubjectCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        KerberosSubjectCache.getInstance().clear();
+    }
+
+    /**
+     * Test of getSubject method, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testGetSubjectIsCached() throws GSSException {
+        final AtomicInteger logins = new AtomicInteger();
+        final KerberosSubjectCache.SubjectLoader loader = () -> {
+            logins.incrementAndGet();
+            return new Subject();
+        };
+        final Subject first = KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+        final Subject second = KerberosSubjectCache.getInstance().getSubject(
+                new KerberosSubjectCache.Key("test@EXAMPLE.ORG", "other", "/etc/krb5.conf"),
+                loader);
+        assertSame(first, second);
+        assertEquals(1, logins.get());
+    }
+
+    /**
+     * Test of getSubject method with concurrent callers, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testGetSubjectSingleFlight() throws Exception {
+        final int nbThreads = 8;
+        final AtomicInteger logins = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final KerberosSubjectCache.SubjectLoader loader = () -> {
+            logins.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return new Subject();
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            final List<Future<Subject>> results = new ArrayList<>();
+            for (int i = 0; i < nbThreads; i++) {
+                results.add(executor.submit((Callable<Subject>) () -> {
+                    start.await();
+                    return KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+                }));
+            }
+            start.countDown();
+            final Subject expected = results.get(0).get();
+            for (final Future<Subject> result : results) {
+                assertSame(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, logins.get());
+    }
+
+    /**
+     * Test of invalidate method, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testInvalidate() throws GSSException {
+        final AtomicInteger logins = new AtomicInteger();
+        final KerberosSubjectCache.SubjectLoader loader = () -> {
+            logins.incrementAndGet();
+            return new Subject();
+        };
+        KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+        KerberosSubjectCache.getInstance().invalidate(KEY);
+        KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+        assertEquals(2, logins.get());
+    }
+
+    /**
+     * Test of getSubject method when the login fails, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testGetSubjectAfterFailure() throws GSSException {
+        try {
+            KerberosSubjectCache.getInstance().getSubject(KEY, () -> {
+                throw new GSSException(GSSException.DEFECTIVE_CREDENTIAL);
+            });
+            fail("GSSException expected");
+        } catch (GSSException ex) {
+            assertEquals(GSSException.DEFECTIVE_CREDENTIAL, ex.getMajor());
+        }
+        final Subject subject = KerberosSubjectCache.getInstance().getSubject(KEY, Subject::new);
+        assertNotNull(subject);
+    }
+
+    /**
+     * Test of getSubject method when the TGT is expired, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testGetSubjectWithExpiredTGT() throws GSSException {
+        final long now = System.currentTimeMillis();
+        final AtomicInteger logins = new AtomicInteger();
+        final KerberosSubjectCache.SubjectLoader loader = () -> {
+            final int nb = logins.incrementAndGet();
+            return nb == 1 ? createSubject(now - 7_200_000L, now - 1_000L) : new Subject();
+        };
+        KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+        KerberosSubjectCache.getInstance().getSubject(KEY, loader);
+        assertEquals(2, logins.get());
+    }
+
+    /**
+     * Test of computeRefreshDelay method, of class TGTRefreshScheduler.
+     */
+    @Test
+    public void testComputeRefreshDelay() {
+        final long now = System.currentTimeMillis();
+        final TGTRefreshScheduler scheduler = KerberosSubjectCache.getInstance()
+                .getRefreshScheduler();
+        final Subject subject = createSubject(now, now + 10_000_000L);
+        assertEquals(8_000_000L, scheduler.computeRefreshDelay(subject, now));
+        assertEquals(TGTRefreshScheduler.MIN_REFRESH_DELAY_MS,
+                scheduler.computeRefreshDelay(subject, now + 9_000_000L));
+        assertEquals(-1, scheduler.computeRefreshDelay(new Subject(), now));
+    }
+
+    /**
+     * Test of renew method when the TGT is not renewable, of class TGTRefreshScheduler.
+     */
+    @Test
+    public void testRenewNotRenewable() throws Exception {
+        final long now = System.currentTimeMillis();
+        assertNull(TGTRefreshScheduler.renew(createSubject(now, now + 10_000_000L)));
+    }
+
+    /**
+     * Test of refresh method when the KDC refuses the renewal, of class KerberosSubjectCache.
+     */
+    @Test
+    public void testRefreshWhenRenewFails() throws Exception {
+        final long now = System.currentTimeMillis();
+        final Subject renewable = createSubject(now, now + 10_000_000L, now + 20_000_000L);
+        final Subject fresh = new Subject();
+        final AtomicInteger logins = new AtomicInteger();
+        final KerberosSubjectCache.SubjectLoader loader = () ->
+                logins.incrementAndGet() == 1 ? renewable : fresh;
+        final KerberosSubjectCache cache = KerberosSubjectCache.getInstance();
+        cache.getSubject(KEY, loader);
+        try {
+            TGTRefreshScheduler.renew(renewable);
+            fail("RefreshFailedException expected");
+        } catch (RefreshFailedException ex) {
+            assertNotNull(ex.getMessage());
+        }
+        final long refreshCount = cache.getRefreshCount();
+        cache.refresh(KEY);
+        assertEquals(2, logins.get());
+        assertEquals(refreshCount + 1, cache.getRefreshCount());
+        assertSame(fresh, cache.getSubject(KEY, loader));
+    }
+
+    /**
+     * Creates a subject holding a TGT.
+     *
+     * @param start start time of the TGT
+     * @param end end time of the TGT
+     * @return the subject
+     */
+    private static Subject createSubject(final long start, final long end) {
+        return createSubject(start, end, -1);
+    }
+
+    /**
+     * Creates a subject holding a TGT, renewable when renewTill is positive.
+     *
+     * @param start start time of the TGT
+     * @param end end time of the TGT
+     * @param renewTill time until the TGT can be renewed or -1
+     * @return the subject
+     */
+    private static Subject createSubject(final long start, final long end,
+            final long renewTill) {
+        final KerberosPrincipal client = new KerberosPrincipal("test@EXAMPLE.ORG");
+        final boolean[] flags = new boolean[32];
+        flags[8] = renewTill > 0;
+        final KerberosTicket tgt = new KerberosTicket(new byte[]{0}, client,
+                new KerberosPrincipal("krbtgt/EXAMPLE.ORG@EXAMPLE.ORG"), new byte[16], 17,
+                flags, new Date(start), new Date(start), new Date(end),
+                renewTill > 0 ? new Date(renewTill) : null, null);
+        final Subject subject = new Subject();
+        subject.getPrincipals().add(client);
+        subject.getPrivateCredentials().add(tgt);
+        return subject;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.HttpClientFactory.Type;
+import fr.cnes.httpclient.UnitTest;
+import fr.cnes.httpclient.configuration.ProxySPNegoAPIConfiguration;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class SPNegoSchemeTest {
+
+    public SPNegoSchemeTest() {
+    }
+
+    /**
+     * Test of processChallenge method with a first challenge, of class SPNegoScheme.
+     */
+    @Test
+    public void testFirstChallenge() throws MalformedChallengeException {
+        final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API);
+        scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "Negotiate"));
+        assertFalse(scheme.isComplete());
+    }
+
+    /**
+     * Test of processChallenge method with a bare challenge after the token, of class
+     * SPNegoScheme.
+     */
+    @Test
+    public void testRejectedChallenge() throws MalformedChallengeException {
+        final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API);
+        scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "Negotiate"));
+        scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "Negotiate"));
+        assertTrue(scheme.isComplete());
+    }
+
+    /**
+     * Test of verifyFinalToken method without negotiation, of class SPNegoScheme.
+     */
+    @Test
+    public void testVerifyFinalTokenWithoutNegotiation() throws Exception {
+        final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API);
+        scheme.verifyFinalToken("YIIBhgYJKoZIhvcSAQICAQBu");
+        assertFalse(scheme.isComplete());
+    }
+
+    /**
+     * Test of authenticate method before any challenge, of class SPNegoScheme.
+     */
+    @Test(expected = AuthenticationException.class)
+    public void testAuthenticateNotInitiated() throws AuthenticationException {
+        final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API);
+        scheme.authenticate(null, new BasicHttpRequest("GET", "/"), null);
+    }
+
+    /**
+     * Test of authenticatePreemptively method without KDC, of class SPNegoScheme.
+     */
+    @Test
+    public void testAuthenticatePreemptivelyWithoutKDC() {
+        ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.setValue("HTTP@localhost");
+        try {
+            final SPNegoScheme scheme = new SPNegoScheme(Type.PROXY_SPNEGO_API);
+            scheme.authenticatePreemptively(new BasicHttpRequest("CONNECT", "example.org:443"),
+                    null);
+            fail("AuthenticationException expected");
+        } catch (AuthenticationException ex) {
+            assertNotNull(ex.getMessage());
+        } finally {
+            ProxySPNegoAPIConfiguration.SERVICE_PROVIDER_NAME.setValue("");
+        }
+    }
+
+    /**
+     * Test of createHeader method, of class SPNegoScheme.
+     */
+    @Test
+    public void testCreateHeader() {
+        final Random random = new Random(42);
+        for (final int length : new int[]{1, 2, 3, 4, 5, 1500, 6001}) {
+            final byte[] token = new byte[length];
+            random.nextBytes(token);
+            final Header header = SPNegoScheme.createHeader(token);
+            assertEquals(AUTH.PROXY_AUTH_RESP, header.getName());
+            assertEquals("Negotiate " + Base64.encodeBase64String(token), header.getValue());
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.UnitTest;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.Subject;
+import org.ietf.jgss.GSSException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class SPNegoTokenPoolTest {
+
+    private static final KerberosSubjectCache.Key KEY = new KerberosSubjectCache.Key(
+            "pool@EXAMPLE.ORG", "other", "/etc/krb5.conf");
+
+    public SPNegoTokenPoolTest() {
+    }
+
+    /**
+     * Test of the constructor with an invalid configuration, of class SPNegoTokenPool.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLowWatermark() {
+        new SPNegoTokenPool(new FailingClient(new AtomicInteger()), 2, 3, 1000);
+    }
+
+    /**
+     * Test of take method when no token can be generated, of class SPNegoTokenPool.
+     */
+    @Test
+    public void testTakeStarvation() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (SPNegoTokenPool pool = new SPNegoTokenPool(new FailingClient(attempts), 4, 2,
+                SPNegoTokenPool.DEFAULT_MAX_AGE_MS)) {
+            final long deadline = System.currentTimeMillis() + 5_000L;
+            while (attempts.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(attempts.get() > 0);
+            assertNull(pool.take());
+            assertEquals(1, pool.getStarvationCount());
+            assertEquals(0, pool.getHitCount());
+            assertEquals(0, pool.getDepth());
+            assertEquals(0, pool.getGeneratedCount());
+        }
+    }
+
+    /**
+     * GSS client which cannot create its security context.
+     */
+    private static final class FailingClient extends AbstractGSSClient {
+
+        private final AtomicInteger attempts;
+
+        FailingClient(final AtomicInteger attempts) {
+            this.attempts = attempts;
+            setServiceSpincipalName("HTTP@localhost");
+        }
+
+        @Override
+        protected GSSTarget getTarget() throws GSSException {
+            this.attempts.incrementAndGet();
+            throw new GSSException(GSSException.BAD_NAME);
+        }
+
+        @Override
+        protected Subject login() throws GSSException {
+            throw new GSSException(GSSException.NO_CRED);
+        }
+
+        @Override
+        protected KerberosSubjectCache.Key getSubjectKey() {
+            return KEY;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.jspnego;
+
+import fr.cnes.httpclient.UnitTest;
+import java.util.Date;
+import java.util.Set;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class ServiceTicketCacheTest {
+
+    private static final String SPN = "HTTP@proxy.example.org";
+
+    private static final KerberosPrincipal CLIENT = new KerberosPrincipal("test@EXAMPLE.ORG");
+
+    public ServiceTicketCacheTest() {
+    }
+
+    @Before
+    public void setUp() {
+        ServiceTicketCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        ServiceTicketCache.getInstance().clear();
+    }
+
+    /**
+     * Test of record and prepare methods, of class ServiceTicketCache.
+     */
+    @Test
+    public void testRecordThenPrepare() {
+        final ServiceTicketCache cache = ServiceTicketCache.getInstance();
+        final long now = System.currentTimeMillis();
+        final long hits = cache.getHitCount();
+        final long misses = cache.getMissCount();
+
+        final Subject subject = createSubject();
+        assertFalse(cache.prepare(subject, SPN));
+        final Set<KerberosTicket> before = ServiceTicketCache.getServiceTickets(subject);
+        final KerberosTicket ticket = createTicket("HTTP/proxy.example.org@EXAMPLE.ORG", now,
+                now + 3_600_000L);
+        subject.getPrivateCredentials().add(ticket);
+        cache.record(subject, SPN, before);
+        assertEquals(1, cache.size());
+
+        // the TGT has been refreshed : the new subject does not hold the service ticket
+        final Subject fresh = createSubject();
+        assertTrue(cache.prepare(fresh, SPN));
+        assertTrue(fresh.getPrivateCredentials().contains(ticket));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    /**
+     * Test of record method with a ticket of another service, of class ServiceTicketCache.
+     */
+    @Test
+    public void testRecordOtherService() {
+        final ServiceTicketCache cache = ServiceTicketCache.getInstance();
+        final long now = System.currentTimeMillis();
+        final Subject subject = createSubject();
+        final Set<KerberosTicket> before = ServiceTicketCache.getServiceTickets(subject);
+        subject.getPrivateCredentials().add(createTicket("ldap/ldap.example.org@EXAMPLE.ORG",
+                now, now + 3_600_000L));
+        cache.record(subject, SPN, before);
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test of record method when a handshake with another SPN of the same service runs on the
+     * same subject, of class ServiceTicketCache.
+     */
+    @Test
+    public void testRecordConcurrentSPN() {
+        final ServiceTicketCache cache = ServiceTicketCache.getInstance();
+        final long now = System.currentTimeMillis();
+        final Subject subject = createSubject();
+        final Set<KerberosTicket> before = ServiceTicketCache.getServiceTickets(subject);
+        final KerberosTicket other = createTicket("HTTP/proxy2.example.org@EXAMPLE.ORG", now,
+                now + 3_600_000L);
+        subject.getPrivateCredentials().add(other);
+        cache.record(subject, SPN, before);
+        assertEquals(0, cache.size());
+
+        final KerberosTicket ticket = createTicket("HTTP/proxy.example.org@EXAMPLE.ORG", now,
+                now + 3_600_000L);
+        subject.getPrivateCredentials().add(ticket);
+        cache.record(subject, "HTTP/proxy.example.org@OTHER.ORG", before);
+        assertEquals(0, cache.size());
+        cache.record(subject, SPN, before);
+        assertEquals(1, cache.size());
+
+        final Subject fresh = createSubject();
+        assertTrue(cache.prepare(fresh, SPN));
+        assertTrue(fresh.getPrivateCredentials().contains(ticket));
+        assertFalse(fresh.getPrivateCredentials().contains(other));
+    }
+
+    /**
+     * Test of prepare method when the ticket is about to expire, of class ServiceTicketCache.
+     */
+    @Test
+    public void testPrepareExpired() {
+        final ServiceTicketCache cache = ServiceTicketCache.getInstance();
+        final long now = System.currentTimeMillis();
+        final Subject subject = createSubject();
+        final Set<KerberosTicket> before = ServiceTicketCache.getServiceTickets(subject);
+        final KerberosTicket ticket = createTicket("HTTP/proxy.example.org@EXAMPLE.ORG",
+                now - 3_600_000L, now + ServiceTicketCache.EXPIRY_MARGIN_MS / 2);
+        subject.getPrivateCredentials().add(ticket);
+        cache.record(subject, SPN, before);
+        assertEquals(0, cache.size());
+        assertFalse(cache.prepare(subject, SPN));
+
+        final long evictions = cache.getEvictionCount();
+        final Subject other = createSubject();
+        final Set<KerberosTicket> none = ServiceTicketCache.getServiceTickets(other);
+        other.getPrivateCredentials().add(createTicket("HTTP/proxy.example.org@EXAMPLE.ORG",
+                now - 3_600_000L, now + 3_600_000L));
+        cache.record(other, SPN, none);
+        assertEquals(1, cache.size());
+        cache.evictExpired();
+        assertEquals(1, cache.size());
+        assertEquals(evictions, cache.getEvictionCount());
+    }
+
+    /**
+     * Creates a subject holding a TGT.
+     *
+     * @return the subject
+     */
+    private static Subject createSubject() {
+        final long now = System.currentTimeMillis();
+        final Subject subject = new Subject();
+        subject.getPrincipals().add(CLIENT);
+        subject.getPrivateCredentials().add(createTicket("krbtgt/EXAMPLE.ORG@EXAMPLE.ORG", now,
+                now + 36_000_000L));
+        return subject;
+    }
+
+    /**
+     * Creates a ticket for the client.
+     *
+     * @param server server principal
+     * @param start start time of the ticket
+     * @param end end time of the ticket
+     * @return the ticket
+     */
+    private static KerberosTicket createTicket(final String server, final long start,
+            final long end) {
+        return new KerberosTicket(new byte[]{0}, CLIENT, new KerberosPrincipal(server),
+                new byte[16], 17, new boolean[32], new Date(start), new Date(start), new Date(end),
+                null, null);
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import fr.cnes.httpclient.AsyncHttpClient;
+import fr.cnes.httpclient.HttpClient;
+import fr.cnes.httpclient.UnitTest;
+import fr.cnes.jspnego.SPNegoResponseInterceptor;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+import org.ietf.jgss.GSSException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class HistogramMetricsRecorderTest {
+
+    private HistogramMetricsRecorder recorder;
+
+    public HistogramMetricsRecorderTest() {
+    }
+
+    @Before
+    public void setUp() {
+        this.recorder = new HistogramMetricsRecorder();
+        Metrics.setRecorder(this.recorder);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setRecorder(null);
+    }
+
+    /**
+     * Test of the timings of a request, of class HistogramMetricsRecorder.
+     */
+    @Test
+    public void testRequestTimings() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try (HttpClient client = new HttpClient()) {
+            final String route = "http://localhost:" + server.getAddress().getPort();
+            final HttpResponse response = client.execute(new HttpGet(route + "/"));
+            EntityUtils.consumeQuietly(response.getEntity());
+            assertEquals(1, this.recorder.getHistogram(MetricsRecorder.Timer.REQUEST, route)
+                    .getCount());
+            assertEquals(1, this.recorder.getHistogram(MetricsRecorder.Timer.CONNECTION_LEASE,
+                    route).getCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test of the timing of an asynchronous request, of class HistogramMetricsRecorder.
+     */
+    @Test
+    public void testAsyncRequestTimings() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try (AsyncHttpClient client = new AsyncHttpClient()) {
+            final String route = "http://localhost:" + server.getAddress().getPort();
+            final HttpResponse response = client.execute(new HttpGet(route + "/"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(204, response.getStatusLine().getStatusCode());
+            assertEquals(1, this.recorder.getHistogram(MetricsRecorder.Timer.REQUEST, route)
+                    .getCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test of the timing of a proxy challenge seen by the response interceptor, of class
+     * HistogramMetricsRecorder.
+     */
+    @Test
+    public void testProxyChallengeTimings() throws Exception {
+        final HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, new HttpHost("localhost", 8080));
+        context.setAttribute(SPNegoResponseInterceptor.REQUEST_START, System.nanoTime());
+        new SPNegoResponseInterceptor().process(new BasicHttpResponse(HttpVersion.HTTP_1_1,
+                HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED, "Proxy Authentication Required"),
+                context);
+        assertEquals(1, this.recorder.getHistogram(MetricsRecorder.Timer.PROXY_CHALLENGE,
+                "http://localhost:8080").getCount());
+    }
+
+    /**
+     * Test of authenticationFailed method, of class HistogramMetricsRecorder.
+     */
+    @Test
+    public void testAuthenticationFailures() {
+        Metrics.authenticationFailed("HTTP@proxy", GSSException.NO_CRED);
+        Metrics.authenticationFailed("HTTP@proxy", GSSException.NO_CRED);
+        Metrics.authenticationFailed("HTTP@proxy", GSSException.CREDENTIALS_EXPIRED);
+        assertEquals(2, this.recorder.getAuthenticationFailureCount(GSSException.NO_CRED));
+        final Map<String, Long> failures = this.recorder.getAuthenticationFailures();
+        assertEquals(Long.valueOf(2),
+                failures.get(new GSSException(GSSException.NO_CRED).getMajorString()));
+        assertEquals(2, failures.size());
+    }
+
+    /**
+     * Test of registerMBean method, of class HistogramMetricsRecorder.
+     */
+    @Test
+    public void testMBean() throws Exception {
+        Metrics.recordDuration(MetricsRecorder.Timer.KDC_LOGIN, "user@EXAMPLE.ORG", 5_000_000L);
+        final ObjectName name = this.recorder.registerMBean(
+                HistogramMetricsRecorder.DEFAULT_OBJECT_NAME);
+        try {
+            final TabularData histograms = (TabularData) ManagementFactory
+                    .getPlatformMBeanServer().getAttribute(name, "Histograms");
+            assertEquals(1, histograms.size());
+        } finally {
+            this.recorder.unregisterMBean(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017-2019 Centre National d'Etudes Spatiales (CNES).
+ *
+ * This file is part of DOI-server.
+ *
+ * This JSPNego is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * JSPNego is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package fr.cnes.metrics;
+
+import fr.cnes.httpclient.UnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.experimental.categories.Category;
+
+/**
+ *
+ * @author Jean-Christophe Malapert
+ */
+@Category(UnitTest.class)
+public class LatencyHistogramTest {
+
+    public LatencyHistogramTest() {
+    }
+
+    /**
+     * Test of indexOf and valueOf methods, of class LatencyHistogram.
+     */
+    @Test
+    public void testRelativeError() {
+        int previous = -1;
+        for (long micros = 0; micros < 1L << 30; micros = micros * 5 / 4 + 1) {
+            final int index = LatencyHistogram.indexOf(micros);
+            assertTrue(index >= previous);
+            previous = index;
+            final long value = LatencyHistogram.valueOf(index);
+            assertTrue(micros + " -> " + value,
+                    Math.abs(value - micros) <= Math.max(1, micros * 4 / 100));
+        }
+        assertEquals(LatencyHistogram.indexOf(1L << LatencyHistogram.MAX_EXPONENT),
+                LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    /**
+     * Test of getValueAtPercentile method, of class LatencyHistogram.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        final HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500_500, snapshot.getMean(), 0.001);
+        assertEquals(500_000, snapshot.getP50(), 500_000 * 0.04);
+        assertEquals(990_000, snapshot.getP99(), 990_000 * 0.04);
+        assertEquals(1_000_000, snapshot.getMax());
+        assertTrue(snapshot.getP999() <= snapshot.getMax());
+    }
+
+}